@@ -9,6 +9,7 @@ import fi.dy.masa.litematica.Reference;
 import fi.dy.masa.litematica.data.DataManager;
 import fi.dy.masa.litematica.selection.CornerSelectionMode;
 import fi.dy.masa.litematica.util.BlockInfoAlignment;
+import fi.dy.masa.litematica.util.CompressionType;
 import fi.dy.masa.litematica.util.InventoryUtils;
 import fi.dy.masa.litematica.util.ReplaceBehavior;
 import fi.dy.masa.malilib.config.IConfigHandler;
@@ -29,6 +30,7 @@ public class Configs implements IConfigHandler
     public static class Generic
     {
         public static final ConfigBoolean       AREAS_PER_WORLD         = new ConfigBoolean(    "areaSelectionsPerWorld", true, "Use per-world or server root directories for the area selections\n§6NOTE: Don't switch this OFF while you are live streaming,\n§6as then the Area Selection browser will show the server IP\n§6in the navigation widget and also in the current selection name/path\n§6until you change the current directory and selection again");
+        public static final ConfigInteger       BATCH_CONVERSION_THREADS = new ConfigInteger(   "batchConversionThreads", 2, 1, 16, "The number of worker threads used for the batch\nschematic conversion in the Schematic Manager.\nEach thread holds one schematic in memory at a time,\nso this also limits the memory use of the conversion.");
         public static final ConfigBoolean       BETTER_RENDER_ORDER     = new ConfigBoolean(    "betterRenderOrder", true, "If enabled, then the schematic rendering is done\nby injecting the different render call into the vanilla\nrendering code. This should result in better translucent block\nrendering/ordering and schematic blocks not getting rendered\nthrough the client world blocks/terrain.\nIf the rendering doesn't work (for example with Optifine),\ntry disabling this option.");
         public static final ConfigBoolean       CHANGE_SELECTED_CORNER  = new ConfigBoolean(    "changeSelectedCornerOnMove", true, "If true, then the selected corner of an area selection\nis always set to the last moved corner,\nwhen using the set corner hotkeys");
         public static final ConfigBoolean       CLONE_AT_ORIGINAL_POS   = new ConfigBoolean(    "cloneAtOriginalPosition", false, "If enabled, then using the Clone Area hotkey will create\nthe placement at the original area selection position,\ninstead of at the player's current position");
@@ -41,7 +43,10 @@ public class Configs implements IConfigHandler
         public static final ConfigBoolean       EXECUTE_REQUIRE_TOOL    = new ConfigBoolean(    "executeRequireHoldingTool", true, "Require holding an enabled tool item\nfor the executeOperation hotkey to work");
         public static final ConfigBoolean       FIX_RAIL_ROTATION       = new ConfigBoolean(    "fixRailRotation", true, "If true, then a fix is applied for the vanilla bug in rails,\nwhere the 180 degree rotations of straight north-south and\neast-west rails rotate 90 degrees counterclockwise instead >_>");
         public static final ConfigBoolean       GENERATE_LOWERCASE_NAMES = new ConfigBoolean(   "generateLowercaseNames", true, "If enabled, then by default the suggested schematic names\nwill be lowercase and using underscores instead of spaces");
+        public static final ConfigBoolean       LITEMATIC_COLUMN_LAYOUT = new ConfigBoolean(    "litematicColumnLayout", false, "If enabled, then .litematic files are saved in the newer\ncolumn layout (version 5), where the blocks are stored in\nseparately compressed 16x16 columns, which can be read\nwithout reading the rest of the file.\nNote: Older Litematica versions and other programs\ncan't read schematics saved in this layout!");
+        public static final ConfigInteger       LOADED_SCHEMATICS_MEMORY = new ConfigInteger(   "loadedSchematicsMemoryBudget", 1024, 0, 1000000, "The memory budget, in megabytes, for the loaded schematics.\nIf the estimated memory use of the loaded schematics goes over this,\nthen the least recently used schematics that have no placements\nand no unsaved changes are unloaded. They get loaded again\nfrom their file the next time they are needed.\nNothing is unloaded while a GUI is open. Set to 0 to disable.");
         public static final ConfigBoolean       LOAD_ENTIRE_SCHEMATICS  = new ConfigBoolean(    "loadEntireSchematics", false, "If true, then the entire schematic is always loaded at once.\nIf false, then only the part that is within the client's view distance is loaded.");
+        public static final ConfigInteger       MAPPED_CONTAINER_VOLUME = new ConfigInteger(    "mappedBlockContainerMinVolume", 512, 0, 1000000, "The minimum volume, in millions of blocks, of a schematic sub-region\nthat will have its block data stored in a memory mapped temporary file\ninstead of in the Java heap. This allows loading very large schematics\nwithout having to increase the maximum heap size of the game.\nSet to 0 to disable.");
         public static final ConfigBoolean       MATERIALS_FROM_CONTAINER = new ConfigBoolean(   "materialListFromContainer", true, "WHen enabled, the schematic-based Material List is\nfetched directly from the block state container. Normally you want this.\nOnly disable this if there is an issue where it gets it wrong for some reason\n(and then also report the issue and send the affected schematic).");
         public static final ConfigInteger       PASTE_COMMAND_INTERVAL  = new ConfigInteger(    "pasteCommandInterval", 1, 1, 1000, "The interval in game ticks the Paste schematic task runs at,\nin the command-based mode");
         public static final ConfigInteger       PASTE_COMMAND_LIMIT     = new ConfigInteger(    "pasteCommandLimit", 64, 1, 1000000, "Max number of commands sent per game tick,\nwhen using the Paste schematic feature in the\ncommand mode on a server");
@@ -52,12 +57,17 @@ public class Configs implements IConfigHandler
         public static final ConfigString        PICK_BLOCKABLE_SLOTS    = new ConfigString(     "pickBlockableSlots", "1-9", "The hotbar slots that are allowed to be\nused for the schematic pick block.\nCan use comma separated individual slots and dash\nseparated slot ranges (no spaces anywhere).\nExample: 2,4-6,9");
         public static final ConfigBoolean       PLACEMENT_RESTRICTION   = new ConfigBoolean(    "placementRestriction", false, "When enabled, the use key can only be used\nwhen holding the correct item for the targeted position,\nand the targeted position must have a missing block in the schematic", "Placement Restriction");
         public static final ConfigBoolean       PLACEMENTS_INFRONT      = new ConfigBoolean(    "placementInfrontOfPlayer", false, "When enabled, created placements or moved placements are\npositioned so that they are fully infront of the player,\ninstead of the placement's origin point being at the player's location");
+        public static final ConfigInteger       PROJECT_COMPRESSION_LEVEL = new ConfigInteger(  "projectVersionCompressionLevel", 1, 1, 9, "The deflate compression level (1 - 9) for the schematic files\nof the Schematic Projects' versions, when using GZIP compression.\nProjects save new versions often, so by default\nthe fastest level is used for them.");
         public static final ConfigBoolean       RENDER_MATERIALS_IN_GUI = new ConfigBoolean(    "renderMaterialListInGuis", true, "Whether or not the material list should\nbe rendered inside GUIs");
         public static final ConfigBoolean       RENDER_THREAD_NO_TIMEOUT = new ConfigBoolean(   "renderThreadNoTimeout", true, "Removes the timeout from the rendering worker threads.\nIf you get very stuttery rendering when moving around\nor dealing with large schematics, try disabling this. It will however make\nthe schematic rendering a lot slower in some cases.");
+        public static final ConfigInteger       SCHEMATIC_COMPRESSION_LEVEL = new ConfigInteger("schematicCompressionLevel", 6, 1, 9, "The deflate compression level (1 - 9) for the saved schematic files,\nwhen using GZIP compression. Higher levels result in\nsmaller files, but are slower to save.");
+        public static final ConfigBoolean       SECTIONED_CONTAINERS    = new ConfigBoolean(    "sectionedBlockContainers", false, "If enabled, then the sub-regions of Litematica schematics\nare stored in memory in 16x16x16 sections, each with their own palette.\nSections with only one block use almost no memory,\nso this uses a lot less memory for large and mostly empty\nor mostly uniform schematics, at a small cost in access speed.");
         public static final ConfigBoolean       SIGN_TEXT_PASTE         = new ConfigBoolean(    "signTextPaste", true, "Automatically set the text in the sign GUIs from the schematic");
         public static final ConfigString        TOOL_ITEM               = new ConfigString(     "toolItem", "minecraft:stick", "The item to use as the \"tool\" for selections etc.");
         public static final ConfigBoolean       TOOL_ITEM_ENABLED       = new ConfigBoolean(    "toolItemEnabled", true, "If true, then the \"tool\" item can be used to control selections etc.", "Tool Item Enabled");
 
+        public static final ConfigOptionList<CompressionType>           PROJECT_COMPRESSION     = new ConfigOptionList<CompressionType>( "projectVersionCompression", CompressionType.GZIP, "The compression type for the schematic files\nof the Schematic Projects' versions.\nNone (store only) is the fastest to save, but results in larger files.\nThe compression is detected automatically when reading the files.");
+        public static final ConfigOptionList<CompressionType>           SCHEMATIC_COMPRESSION   = new ConfigOptionList<CompressionType>( "schematicCompression", CompressionType.GZIP, "The compression type for the saved schematic files.\nNone (store only) is the fastest to save, but results in larger files,\nwhich other programs may not be able to read.\nThe compression is detected automatically when reading the files.");
         public static final ConfigOptionList<ReplaceBehavior>           PASTE_REPLACE_BEHAVIOR  = new ConfigOptionList<ReplaceBehavior>( "pasteReplaceBehavior", ReplaceBehavior.NONE, "The behavior of replacing existing blocks\nin the Paste schematic tool mode");
         public static final ConfigOptionList<CornerSelectionMode>       SELECTION_CORNERS_MODE  = new ConfigOptionList<CornerSelectionMode>( "selectionCornersMode", CornerSelectionMode.CORNERS, "The Area Selection corners mode to use (Corners, or Expand)");
 
@@ -74,6 +84,7 @@ public class Configs implements IConfigHandler
                 EXECUTE_REQUIRE_TOOL,
                 FIX_RAIL_ROTATION,
                 GENERATE_LOWERCASE_NAMES,
+                LITEMATIC_COLUMN_LAYOUT,
                 LOAD_ENTIRE_SCHEMATICS,
                 MATERIALS_FROM_CONTAINER,
                 PICK_BLOCK_AUTO,
@@ -83,17 +94,25 @@ public class Configs implements IConfigHandler
                 PLACEMENTS_INFRONT,
                 RENDER_MATERIALS_IN_GUI,
                 RENDER_THREAD_NO_TIMEOUT,
+                SECTIONED_CONTAINERS,
                 SIGN_TEXT_PASTE,
                 TOOL_ITEM_ENABLED,
 
                 PASTE_REPLACE_BEHAVIOR,
+                PROJECT_COMPRESSION,
+                SCHEMATIC_COMPRESSION,
                 SELECTION_CORNERS_MODE,
 
+                BATCH_CONVERSION_THREADS,
                 CUSTOM_SCHEMATIC_DIRECTORY,
+                LOADED_SCHEMATICS_MEMORY,
+                MAPPED_CONTAINER_VOLUME,
                 PASTE_COMMAND_INTERVAL,
                 PASTE_COMMAND_LIMIT,
                 PASTE_COMMAND_SETBLOCK,
                 PICK_BLOCKABLE_SLOTS,
+                PROJECT_COMPRESSION_LEVEL,
+                SCHEMATIC_COMPRESSION_LEVEL,
                 TOOL_ITEM
         );
     }
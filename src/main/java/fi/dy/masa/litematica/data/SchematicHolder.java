@@ -3,15 +3,53 @@ package fi.dy.masa.litematica.data;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.GuiScreen;
+import fi.dy.masa.litematica.Litematica;
+import fi.dy.masa.litematica.config.Configs;
+import fi.dy.masa.litematica.interfaces.ISchematicUser;
+import fi.dy.masa.litematica.materials.MaterialListBase;
+import fi.dy.masa.litematica.render.infohud.IInfoHudRenderer;
+import fi.dy.masa.litematica.render.infohud.InfoHud;
+import fi.dy.masa.litematica.render.infohud.RenderPhase;
 import fi.dy.masa.litematica.schematic.ISchematic;
+import fi.dy.masa.litematica.schematic.LitematicaSchematic;
 import fi.dy.masa.litematica.schematic.SchematicType;
+import fi.dy.masa.litematica.schematic.placement.SchematicPlacement;
+import fi.dy.masa.litematica.schematic.verifier.SchematicVerifier;
+import fi.dy.masa.litematica.util.MessageUtils;
+import fi.dy.masa.litematica.util.MessageUtils.DeferredMessage;
+import fi.dy.masa.malilib.gui.GuiBase;
+import fi.dy.masa.malilib.util.StringUtils;
 
 public class SchematicHolder
 {
     private static final SchematicHolder INSTANCE = new SchematicHolder();
+    private static final ThreadFactory THREAD_FACTORY = (new ThreadFactoryBuilder()).setNameFormat("Litematica Schematic Loader %d").setDaemon(true).build();
+
     private final List<ISchematic> schematics = new ArrayList<>();
+    private final Map<File, PendingLoad> pendingLoads = new HashMap<>();
+    // The access order of the loaded schematics, for unloading the least recently used ones first
+    private final Map<ISchematic, Long> lastAccess = new IdentityHashMap<>();
+    private long accessCounter;
+    private long lastMemoryCheckTime;
+    private long lastBudgetCheckTime;
+    private final ExecutorService loaderPool = Executors.newFixedThreadPool(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)), THREAD_FACTORY);
 
     public static SchematicHolder getInstance()
     {
@@ -21,6 +59,8 @@ public class SchematicHolder
     public void clearLoadedSchematics()
     {
         this.schematics.clear();
+        this.lastAccess.clear();
+        this.cancelPendingLoads();
     }
 
     public List<ISchematic> getAllOf(File file)
@@ -50,6 +90,7 @@ public class SchematicHolder
         {
             if (file.equals(schematic.getFile()))
             {
+                this.markAccessed(schematic);
                 return schematic;
             }
         }
@@ -59,11 +100,124 @@ public class SchematicHolder
         if (schematic != null)
         {
             this.schematics.add(schematic);
+            this.markAccessed(schematic);
         }
 
         return schematic;
     }
 
+    /**
+     * Returns the already loaded schematic for the given file, if there is one.
+     * Otherwise the schematic is loaded on a background thread, with the progress shown on the info HUD.
+     * The returned future is completed on the client thread, after the schematic has been
+     * added to the loaded schematics. The result is null if the schematic could not be loaded.
+     * Any pending loads get cancelled by {@link #clearLoadedSchematics()}, and then the future does not complete normally.
+     * @param file
+     * @return
+     */
+    public CompletableFuture<ISchematic> getOrLoadAsync(File file)
+    {
+        for (ISchematic schematic : this.schematics)
+        {
+            if (file.equals(schematic.getFile()))
+            {
+                this.markAccessed(schematic);
+                return CompletableFuture.completedFuture(schematic);
+            }
+        }
+
+        PendingLoad pendingLoad = this.pendingLoads.get(file);
+
+        if (pendingLoad != null)
+        {
+            return pendingLoad.future;
+        }
+
+        return this.loadAsync(file);
+    }
+
+    /**
+     * Loads a new copy of the schematic from the given file on a background thread,
+     * even if the same file has already been loaded. See {@link #getOrLoadAsync(File)}.
+     * @param file
+     * @return
+     */
+    public CompletableFuture<ISchematic> loadAsync(File file)
+    {
+        if (file.exists() == false || file.isFile() == false || file.canRead() == false)
+        {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        PendingLoad pendingLoad = new PendingLoad(file);
+        this.pendingLoads.put(file, pendingLoad);
+        InfoHud.getInstance().addInfoHudRenderer(pendingLoad, true);
+
+        this.loaderPool.execute(() -> {
+            ISchematic schematic = null;
+
+            // Any error messages from the reading code get shown on the client thread once the load has finished
+            MessageUtils.startCollecting();
+
+            try
+            {
+                schematic = SchematicType.tryReadSchematicFrom(file, pendingLoad.bytesRead);
+            }
+            catch (Exception e)
+            {
+                Litematica.logger.warn("Failed to load the schematic from file '{}'", file.getAbsolutePath(), e);
+            }
+
+            final ISchematic result = schematic;
+            final List<DeferredMessage> messages = MessageUtils.stopCollecting();
+            Minecraft.getMinecraft().addScheduledTask(() -> this.onLoadFinished(pendingLoad, result, messages));
+        });
+
+        return pendingLoad.future;
+    }
+
+    private void onLoadFinished(PendingLoad pendingLoad, @Nullable ISchematic schematic, List<DeferredMessage> messages)
+    {
+        InfoHud.getInstance().removeInfoHudRenderer(pendingLoad, false);
+
+        // Cancelled in the meantime
+        if (pendingLoad.future.isCancelled())
+        {
+            return;
+        }
+
+        MessageUtils.showMessages(messages);
+
+        if (this.pendingLoads.get(pendingLoad.file) == pendingLoad)
+        {
+            this.pendingLoads.remove(pendingLoad.file);
+        }
+
+        if (schematic != null)
+        {
+            this.schematics.add(schematic);
+            this.markAccessed(schematic);
+        }
+
+        pendingLoad.future.complete(schematic);
+    }
+
+    private void cancelPendingLoads()
+    {
+        for (PendingLoad pendingLoad : ImmutableList.copyOf(this.pendingLoads.values()))
+        {
+            InfoHud.getInstance().removeInfoHudRenderer(pendingLoad, false);
+            pendingLoad.future.cancel(false);
+        }
+
+        this.pendingLoads.clear();
+    }
+
+    public boolean isLoading(File file)
+    {
+        return this.pendingLoads.containsKey(file);
+    }
+
     public void addSchematic(ISchematic schematic, boolean allowDuplicates)
     {
         if (allowDuplicates || this.schematics.contains(schematic) == false)
@@ -80,6 +234,7 @@ public class SchematicHolder
             }
 
             this.schematics.add(schematic);
+            this.markAccessed(schematic);
         }
     }
 
@@ -87,6 +242,7 @@ public class SchematicHolder
     {
         if (this.schematics.remove(schematic))
         {
+            this.lastAccess.remove(schematic);
             DataManager.getSchematicPlacementManager().removeAllPlacementsOfSchematic(schematic);
             return true;
         }
@@ -98,4 +254,214 @@ public class SchematicHolder
     {
         return this.schematics;
     }
+
+    private void markAccessed(ISchematic schematic)
+    {
+        this.lastAccess.put(schematic, ++this.accessCounter);
+    }
+
+    /**
+     * Unloads the least recently used schematics, if the estimated memory use of all the loaded schematics
+     * is over the budget set in the config. Only the schematics that can be loaded again from their file as-is
+     * get unloaded, so the ones with placements or unsaved changes are kept, as well as the ones still used
+     * by the open GUIs, the material list or the verifiers, see {@link ISchematicUser}. The unloaded schematics get loaded
+     * again from the file the next time they are requested via {@link #getOrLoad(File)} or {@link #getOrLoadAsync(File)}.
+     */
+    public void unloadSchematicsOverMemoryBudget()
+    {
+        long budget = Configs.Generic.LOADED_SCHEMATICS_MEMORY.getIntegerValue() * 1048576L;
+        long time = System.currentTimeMillis();
+
+        if (budget <= 0 || time - this.lastBudgetCheckTime < 2000L)
+        {
+            return;
+        }
+
+        this.lastBudgetCheckTime = time;
+
+        Map<ISchematic, Long> sizes = new IdentityHashMap<>();
+        long totalSize = 0;
+
+        for (ISchematic schematic : this.schematics)
+        {
+            long size = schematic.getEstimatedMemoryUsage();
+            sizes.put(schematic, size);
+            totalSize += size;
+        }
+
+        if (totalSize <= budget)
+        {
+            return;
+        }
+
+        List<ISchematic> candidates = new ArrayList<>();
+        List<ISchematicUser> users = this.getSchematicUsers();
+
+        for (ISchematic schematic : this.schematics)
+        {
+            if (this.canUnload(schematic, users))
+            {
+                candidates.add(schematic);
+            }
+        }
+
+        candidates.sort(Comparator.comparingLong((schematic) -> this.lastAccess.getOrDefault(schematic, 0L)));
+        int count = 0;
+
+        for (ISchematic schematic : candidates)
+        {
+            if (totalSize <= budget)
+            {
+                break;
+            }
+
+            this.schematics.remove(schematic);
+            this.lastAccess.remove(schematic);
+            totalSize -= sizes.get(schematic);
+            ++count;
+        }
+
+        if (count > 0)
+        {
+            Litematica.logger.info("Unloaded {} least recently used schematics to stay within the memory budget, estimated use is now {} MB",
+                                   count, totalSize / 1048576L);
+        }
+    }
+
+    /**
+     * Returns the things other than the placements that may currently be using some of the loaded schematics
+     */
+    private List<ISchematicUser> getSchematicUsers()
+    {
+        List<ISchematicUser> users = new ArrayList<>(SchematicVerifier.getActiveVerifiers());
+        MaterialListBase materialList = DataManager.getMaterialList();
+        GuiScreen screen = Minecraft.getMinecraft().currentScreen;
+
+        if (materialList != null)
+        {
+            users.add(materialList);
+        }
+
+        // The parent screens get re-opened when the current one is closed, so they count as well
+        for (int depth = 0; screen != null && depth < 16; ++depth)
+        {
+            if (screen instanceof ISchematicUser)
+            {
+                users.add((ISchematicUser) screen);
+            }
+
+            screen = screen instanceof GuiBase ? ((GuiBase) screen).getParent() : null;
+        }
+
+        return users;
+    }
+
+    private boolean canUnload(ISchematic schematic, List<ISchematicUser> users)
+    {
+        File file = schematic.getFile();
+
+        if (file == null || file.isFile() == false || schematic.getMetadata().wasModifiedSinceSaved())
+        {
+            return false;
+        }
+
+        for (ISchematicUser user : users)
+        {
+            if (user.usesSchematic(schematic))
+            {
+                return false;
+            }
+        }
+
+        return DataManager.getSchematicPlacementManager().hasPlacementsOfSchematic(schematic) == false;
+    }
+
+    /**
+     * Releases the decoded data of the sub-regions of the loaded schematics that
+     * are not used by any enabled placement, if the heap is running low on free memory.
+     * The data gets decoded again from the data retained from the file when it's next accessed.
+     * See {@link LitematicaSchematic#releaseDecodedRegions(java.util.function.Predicate)}.
+     */
+    public void releaseUnusedRegionsIfLowOnMemory()
+    {
+        long time = System.currentTimeMillis();
+
+        if (time - this.lastMemoryCheckTime < 5000L)
+        {
+            return;
+        }
+
+        this.lastMemoryCheckTime = time;
+
+        Runtime runtime = Runtime.getRuntime();
+        long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+
+        if (usedMemory < runtime.maxMemory() / 100L * 85L)
+        {
+            return;
+        }
+
+        int count = 0;
+
+        for (ISchematic schematic : this.schematics)
+        {
+            if (schematic instanceof LitematicaSchematic)
+            {
+                Set<String> usedRegions = new HashSet<>();
+
+                for (SchematicPlacement placement : DataManager.getSchematicPlacementManager().getAllPlacementsOfSchematic(schematic))
+                {
+                    if (placement.isEnabled())
+                    {
+                        usedRegions.addAll(placement.getEnabledRelativeSubRegionPlacements().keySet());
+                    }
+                }
+
+                count += ((LitematicaSchematic) schematic).releaseDecodedRegions(usedRegions::contains);
+            }
+        }
+
+        if (count > 0)
+        {
+            Litematica.logger.info("Released the decoded data of {} unused schematic sub-regions due to low free memory", count);
+        }
+    }
+
+    private static class PendingLoad implements IInfoHudRenderer
+    {
+        private final File file;
+        private final long fileSize;
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final CompletableFuture<ISchematic> future = new CompletableFuture<>();
+
+        private PendingLoad(File file)
+        {
+            this.file = file;
+            this.fileSize = Math.max(1L, file.length());
+        }
+
+        @Override
+        public boolean getShouldRenderText(RenderPhase phase)
+        {
+            return phase == RenderPhase.POST;
+        }
+
+        @Override
+        public boolean shouldRenderInGuis()
+        {
+            return true;
+        }
+
+        @Override
+        public List<String> getText(RenderPhase phase)
+        {
+            long bytesRead = Math.min(this.bytesRead.get(), this.fileSize);
+            int percent = (int) (bytesRead * 100L / this.fileSize);
+            String read = String.format("%.1f", bytesRead / 1048576.0);
+            String total = String.format("%.1f", this.fileSize / 1048576.0);
+            String line = StringUtils.translate("litematica.gui.label.schematic_load.progress", this.file.getName(), percent, read, total);
+
+            return ImmutableList.of(GuiBase.TXT_WHITE + line + GuiBase.TXT_RST);
+        }
+    }
 }
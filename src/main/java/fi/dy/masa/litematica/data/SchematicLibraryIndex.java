@@ -0,0 +1,406 @@
+package fi.dy.masa.litematica.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.annotation.Nullable;
+import org.apache.commons.lang3.tuple.Pair;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import fi.dy.masa.litematica.Litematica;
+import fi.dy.masa.litematica.schematic.SchematicMetadata;
+import fi.dy.masa.litematica.schematic.SchematicType;
+import fi.dy.masa.malilib.util.Constants;
+
+/**
+ * A persistent index of the schematic files that have been viewed in the schematic browsers.
+ * Each file is mapped, along with its modification time and size, to its schematic type and metadata.
+ * The entries are validated when they are accessed, and any missing or outdated entries
+ * are (re-)read in the background. The index is saved to disk whenever the background queue runs empty.
+ * The preview images are stored in separate files, so that they don't need to be kept in memory.
+ */
+public class SchematicLibraryIndex
+{
+    private static final SchematicLibraryIndex INSTANCE = new SchematicLibraryIndex();
+    private static final ThreadFactory THREAD_FACTORY = (new ThreadFactoryBuilder()).setNameFormat("Litematica Schematic Indexer %d").setDaemon(true).build();
+    private static final int INDEX_VERSION = 1;
+
+    private final Map<File, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<File> pendingFiles = ConcurrentHashMap.newKeySet();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(THREAD_FACTORY);
+    @Nullable private File indexDir;
+    private boolean hasReadFromFile;
+    private volatile boolean dirty;
+
+    public static SchematicLibraryIndex getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the index entry for the given file, if the index has an up to date entry for it.
+     * If the file has not been indexed yet, or it has changed since it was indexed,
+     * then the file gets queued for indexing in the background, and this returns null.
+     * @param file
+     * @return the up to date index entry, or null if the file is currently being indexed
+     */
+    @Nullable
+    public Entry getEntry(File file)
+    {
+        this.readFromFileIfNeeded();
+
+        if (this.pendingFiles.contains(file))
+        {
+            return null;
+        }
+
+        Entry entry = this.entries.get(file);
+
+        if (entry != null && entry.lastModified == file.lastModified() && entry.fileSize == file.length())
+        {
+            return entry;
+        }
+
+        this.pendingFiles.add(file);
+        this.executor.execute(() -> this.indexFile(file));
+
+        return null;
+    }
+
+    /**
+     * Reads the stored preview image of the given indexed file
+     * @param file
+     * @return the preview image pixel data, or null if there is no stored preview image for the file
+     */
+    @Nullable
+    public int[] readThumbnail(File file)
+    {
+        File thumbnailFile = this.getThumbnailFile(file);
+
+        if (thumbnailFile == null || thumbnailFile.exists() == false)
+        {
+            return null;
+        }
+
+        try (FileInputStream is = new FileInputStream(thumbnailFile))
+        {
+            NBTTagCompound tag = CompressedStreamTools.readCompressed(is);
+
+            // Check the path in case of a hash collision in the file names
+            if (tag.getString("Path").equals(file.getAbsolutePath()) &&
+                tag.hasKey("PreviewImageData", Constants.NBT.TAG_INT_ARRAY))
+            {
+                return tag.getIntArray("PreviewImageData");
+            }
+        }
+        catch (Exception e)
+        {
+            Litematica.logger.warn("Failed to read the schematic preview image from file '{}'", thumbnailFile.getAbsolutePath(), e);
+        }
+
+        return null;
+    }
+
+    private void indexFile(File file)
+    {
+        try
+        {
+            // Get these before reading, so that a change during the read will get noticed on the next access
+            final long lastModified = file.lastModified();
+            final long fileSize = file.length();
+            Pair<SchematicType<?>, SchematicMetadata> pair = file.isFile() ? SchematicType.tryReadMetadataFrom(file) : null;
+            Entry entry;
+
+            if (pair != null)
+            {
+                SchematicMetadata metadata = pair.getRight();
+                int[] thumbnail = metadata.getPreviewImagePixelData();
+                boolean hasThumbnail = thumbnail != null && thumbnail.length > 0 && this.writeThumbnail(file, thumbnail);
+
+                // The preview images are only kept on disk
+                metadata.setPreviewImagePixelData(null);
+                entry = new Entry(lastModified, fileSize, pair.getLeft(), metadata, hasThumbnail);
+            }
+            else
+            {
+                entry = new Entry(lastModified, fileSize, null, null, false);
+            }
+
+            this.entries.put(file, entry);
+            this.dirty = true;
+        }
+        catch (Exception e)
+        {
+            Litematica.logger.warn("Failed to index the schematic file '{}'", file.getAbsolutePath(), e);
+        }
+        finally
+        {
+            this.pendingFiles.remove(file);
+        }
+
+        if (this.pendingFiles.isEmpty())
+        {
+            this.writeToFile();
+        }
+    }
+
+    private boolean writeThumbnail(File file, int[] pixelData)
+    {
+        File thumbnailFile = this.getThumbnailFile(file);
+
+        if (thumbnailFile == null)
+        {
+            return false;
+        }
+
+        File dir = thumbnailFile.getParentFile();
+
+        if (dir.exists() == false && dir.mkdirs() == false)
+        {
+            Litematica.logger.warn("Failed to create the schematic preview image directory '{}'", dir.getAbsolutePath());
+            return false;
+        }
+
+        NBTTagCompound tag = new NBTTagCompound();
+        tag.setString("Path", file.getAbsolutePath());
+        tag.setIntArray("PreviewImageData", pixelData);
+
+        try (FileOutputStream os = new FileOutputStream(thumbnailFile))
+        {
+            CompressedStreamTools.writeCompressed(tag, os);
+            return true;
+        }
+        catch (Exception e)
+        {
+            Litematica.logger.warn("Failed to write the schematic preview image to file '{}'", thumbnailFile.getAbsolutePath(), e);
+        }
+
+        return false;
+    }
+
+    @Nullable
+    private File getThumbnailFile(File file)
+    {
+        if (this.indexDir == null)
+        {
+            return null;
+        }
+
+        // 64-bit FNV-1a hash of the path
+        String path = file.getAbsolutePath();
+        long hash = 0xCBF29CE484222325L;
+
+        for (int i = 0; i < path.length(); ++i)
+        {
+            hash ^= path.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+
+        return new File(new File(this.indexDir, "thumbnails"), String.format("%016x.nbt", hash));
+    }
+
+    private File getIndexFile()
+    {
+        return new File(this.indexDir, "index.nbt");
+    }
+
+    private void readFromFileIfNeeded()
+    {
+        if (this.hasReadFromFile == false)
+        {
+            this.hasReadFromFile = true;
+            this.indexDir = DataManager.getDataBaseDirectory("schematic_library");
+            this.readFromFile();
+        }
+    }
+
+    private void readFromFile()
+    {
+        File file = this.getIndexFile();
+
+        if (file.exists() == false || file.canRead() == false)
+        {
+            return;
+        }
+
+        try (FileInputStream is = new FileInputStream(file))
+        {
+            NBTTagCompound nbt = CompressedStreamTools.readCompressed(is);
+
+            if (nbt != null && nbt.getInteger("Version") == INDEX_VERSION)
+            {
+                this.readFromNBT(nbt);
+            }
+        }
+        catch (Exception e)
+        {
+            Litematica.logger.warn("Failed to read the schematic library index from file '{}'", file.getAbsolutePath(), e);
+        }
+    }
+
+    private synchronized void writeToFile()
+    {
+        if (this.dirty == false || this.indexDir == null)
+        {
+            return;
+        }
+
+        File file = this.getIndexFile();
+        // Write to a temporary file first, so that an interrupted write doesn't leave behind a truncated index
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        this.dirty = false;
+
+        try
+        {
+            try (FileOutputStream os = new FileOutputStream(tmpFile))
+            {
+                CompressedStreamTools.writeCompressed(this.writeToNBT(), os);
+            }
+
+            try
+            {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (Exception e)
+        {
+            Litematica.logger.warn("Failed to write the schematic library index to file '{}'", file.getAbsolutePath(), e);
+            tmpFile.delete();
+        }
+    }
+
+    private void readFromNBT(NBTTagCompound nbt)
+    {
+        NBTTagList list = nbt.getTagList("Entries", Constants.NBT.TAG_COMPOUND);
+        final int count = list.tagCount();
+
+        for (int i = 0; i < count; ++i)
+        {
+            NBTTagCompound tag = list.getCompoundTagAt(i);
+            File file = new File(tag.getString("Path"));
+            SchematicType<?> type = null;
+            SchematicMetadata metadata = null;
+
+            if (tag.hasKey("Type", Constants.NBT.TAG_STRING))
+            {
+                type = getTypeByName(tag.getString("Type"));
+
+                // Unknown type, let the file get re-indexed
+                if (type == null)
+                {
+                    continue;
+                }
+
+                metadata = new SchematicMetadata();
+                metadata.fromTag(tag.getCompoundTag("Metadata"));
+            }
+
+            this.entries.put(file, new Entry(tag.getLong("LastModified"), tag.getLong("Size"), type, metadata, tag.getBoolean("Thumbnail")));
+        }
+    }
+
+    private NBTTagCompound writeToNBT()
+    {
+        NBTTagCompound nbt = new NBTTagCompound();
+        NBTTagList list = new NBTTagList();
+
+        for (Map.Entry<File, Entry> mapEntry : this.entries.entrySet())
+        {
+            File file = mapEntry.getKey();
+            Entry entry = mapEntry.getValue();
+
+            // Prune the entries of files that have been removed
+            if (file.exists() == false)
+            {
+                this.entries.remove(file);
+
+                if (entry.hasThumbnail)
+                {
+                    File thumbnailFile = this.getThumbnailFile(file);
+
+                    if (thumbnailFile != null)
+                    {
+                        thumbnailFile.delete();
+                    }
+                }
+
+                continue;
+            }
+
+            NBTTagCompound tag = new NBTTagCompound();
+            tag.setString("Path", file.getAbsolutePath());
+            tag.setLong("LastModified", entry.lastModified);
+            tag.setLong("Size", entry.fileSize);
+
+            if (entry.type != null && entry.metadata != null)
+            {
+                tag.setString("Type", entry.type.getDisplayName());
+                tag.setTag("Metadata", entry.metadata.toTag());
+                tag.setBoolean("Thumbnail", entry.hasThumbnail);
+            }
+
+            list.appendTag(tag);
+        }
+
+        nbt.setInteger("Version", INDEX_VERSION);
+        nbt.setTag("Entries", list);
+
+        return nbt;
+    }
+
+    @Nullable
+    private static SchematicType<?> getTypeByName(String name)
+    {
+        for (SchematicType<?> type : SchematicType.KNOWN_TYPES)
+        {
+            if (type.getDisplayName().equals(name))
+            {
+                return type;
+            }
+        }
+
+        return null;
+    }
+
+    public static class Entry
+    {
+        public final long lastModified;
+        public final long fileSize;
+        @Nullable public final SchematicType<?> type;
+        @Nullable public final SchematicMetadata metadata;
+        public final boolean hasThumbnail;
+
+        protected Entry(long lastModified, long fileSize, @Nullable SchematicType<?> type,
+                        @Nullable SchematicMetadata metadata, boolean hasThumbnail)
+        {
+            this.lastModified = lastModified;
+            this.fileSize = fileSize;
+            this.type = type;
+            this.metadata = metadata;
+            this.hasThumbnail = hasThumbnail;
+        }
+
+        /**
+         * @return true if the file was a valid schematic when it was indexed
+         */
+        public boolean isValidSchematic()
+        {
+            return this.type != null && this.metadata != null;
+        }
+    }
+}
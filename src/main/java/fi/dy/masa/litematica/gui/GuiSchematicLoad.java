@@ -7,9 +7,9 @@ import fi.dy.masa.litematica.config.Configs;
 import fi.dy.masa.litematica.data.DataManager;
 import fi.dy.masa.litematica.data.SchematicHolder;
 import fi.dy.masa.litematica.gui.GuiMainMenu.ButtonListenerChangeMenu;
-import fi.dy.masa.litematica.gui.widgets.WidgetSchematicBrowser.CachedSchematicData;
 import fi.dy.masa.litematica.materials.MaterialListSchematic;
 import fi.dy.masa.litematica.schematic.ISchematic;
+import fi.dy.masa.litematica.schematic.SchematicType;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacement;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacementManager;
 import fi.dy.masa.malilib.gui.GuiBase;
@@ -22,6 +22,7 @@ import fi.dy.masa.malilib.gui.util.GuiUtils;
 import fi.dy.masa.malilib.gui.util.Message.MessageType;
 import fi.dy.masa.malilib.gui.widgets.WidgetCheckBox;
 import fi.dy.masa.malilib.gui.widgets.WidgetFileBrowserBase.DirectoryEntry;
+import fi.dy.masa.malilib.util.InfoUtils;
 import fi.dy.masa.malilib.util.StringUtils;
 
 public class GuiSchematicLoad extends GuiSchematicBrowserBase
@@ -132,35 +133,47 @@ public class GuiSchematicLoad extends GuiSchematicBrowserBase
             }
 
             File file = entry.getFullPath();
-            CachedSchematicData data = this.gui.getListWidget().getCachedSchematicData(file);
 
-            if (data == null)
+            if (this.type == Type.LOAD_SCHEMATIC)
             {
-                this.gui.addMessage(MessageType.ERROR, "litematica.error.schematic_load.cant_read_file", file.getName());
+                final boolean createPlacement = Configs.Internal.CREATE_PLACEMENT_ON_LOAD.getBooleanValue();
+                final boolean enabled = GuiBase.isShiftDown() == false;
+
+                // The schematic is read on a background thread, and the placement gets created once it's ready
+                SchematicHolder.getInstance().loadAsync(file).thenAccept((schematic) -> {
+                    if (schematic == null)
+                    {
+                        InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_load.cant_read_file", file.getName());
+                        return;
+                    }
+
+                    InfoUtils.showGuiOrInGameMessage(MessageType.SUCCESS, "litematica.info.schematic_load.schematic_loaded", file.getName());
+
+                    if (createPlacement && this.gui.mc.player != null)
+                    {
+                        BlockPos pos = new BlockPos(this.gui.mc.player.getPositionVector());
+                        String name = schematic.getMetadata().getName();
+
+                        SchematicPlacementManager manager = DataManager.getSchematicPlacementManager();
+                        SchematicPlacement placement = SchematicPlacement.createFor(schematic, pos, name, enabled);
+                        manager.addSchematicPlacement(placement, true);
+                        manager.setSelectedSchematicPlacement(placement);
+                    }
+                });
+
                 return;
             }
 
             this.gui.setNextMessageType(MessageType.ERROR);
-            ISchematic schematic = data.schematic;
+            ISchematic schematic = SchematicType.tryCreateSchematicFrom(file);
 
-            if (this.type == Type.LOAD_SCHEMATIC)
+            if (schematic == null)
             {
-                SchematicHolder.getInstance().addSchematic(schematic, true);
-                this.gui.addMessage(MessageType.SUCCESS, "litematica.info.schematic_load.schematic_loaded", file.getName());
-
-                if (Configs.Internal.CREATE_PLACEMENT_ON_LOAD.getBooleanValue())
-                {
-                    BlockPos pos = new BlockPos(this.gui.mc.player.getPositionVector());
-                    String name = schematic.getMetadata().getName();
-                    boolean enabled = GuiBase.isShiftDown() == false;
-
-                    SchematicPlacementManager manager = DataManager.getSchematicPlacementManager();
-                    SchematicPlacement placement = SchematicPlacement.createFor(schematic, pos, name, enabled);
-                    manager.addSchematicPlacement(placement, true);
-                    manager.setSelectedSchematicPlacement(placement);
-                }
+                this.gui.addMessage(MessageType.ERROR, "litematica.error.schematic_load.cant_read_file", file.getName());
+                return;
             }
-            else if (this.type == Type.MATERIAL_LIST)
+
+            if (this.type == Type.MATERIAL_LIST)
             {
                 if (GuiBase.isShiftDown())
                 {
@@ -4,12 +4,13 @@ import fi.dy.masa.litematica.config.Configs;
 import fi.dy.masa.litematica.gui.GuiMainMenu.ButtonListenerChangeMenu;
 import fi.dy.masa.litematica.gui.widgets.WidgetListLoadedSchematics;
 import fi.dy.masa.litematica.gui.widgets.WidgetSchematicEntry;
+import fi.dy.masa.litematica.interfaces.ISchematicUser;
 import fi.dy.masa.litematica.schematic.ISchematic;
 import fi.dy.masa.malilib.gui.GuiListBase;
 import fi.dy.masa.malilib.gui.button.ButtonGeneric;
 import fi.dy.masa.malilib.util.StringUtils;
 
-public class GuiSchematicLoadedList extends GuiListBase<ISchematic, WidgetSchematicEntry, WidgetListLoadedSchematics>
+public class GuiSchematicLoadedList extends GuiListBase<ISchematic, WidgetSchematicEntry, WidgetListLoadedSchematics> implements ISchematicUser
 {
     public GuiSchematicLoadedList()
     {
@@ -18,6 +19,13 @@ public class GuiSchematicLoadedList extends GuiListBase<ISchematic, WidgetSchema
         this.title = StringUtils.translate("litematica.gui.title.manage_loaded_schematics");
     }
 
+    @Override
+    public boolean usesSchematic(ISchematic schematic)
+    {
+        // The list shows all the loaded schematics
+        return true;
+    }
+
     @Override
     protected int getBrowserWidth()
     {
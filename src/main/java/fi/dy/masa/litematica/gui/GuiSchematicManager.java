@@ -15,6 +15,8 @@ import fi.dy.masa.litematica.data.DataManager;
 import fi.dy.masa.litematica.data.SchematicHolder;
 import fi.dy.masa.litematica.gui.GuiMainMenu.ButtonListenerChangeMenu;
 import fi.dy.masa.litematica.gui.widgets.WidgetSchematicBrowser.CachedSchematicData;
+import fi.dy.masa.litematica.scheduler.TaskScheduler;
+import fi.dy.masa.litematica.scheduler.tasks.TaskConvertSchematics;
 import fi.dy.masa.litematica.schematic.ISchematic;
 import fi.dy.masa.litematica.schematic.LitematicaSchematic;
 import fi.dy.masa.litematica.schematic.SchematicType;
@@ -38,6 +40,7 @@ import fi.dy.masa.malilib.util.StringUtils;
 public class GuiSchematicManager extends GuiSchematicBrowserBase implements ISelectionListener<DirectoryEntry>
 {
     private static PreviewGenerator previewGenerator;
+    private static SchematicType<?> batchConvertType = SchematicType.LITEMATICA;
 
     private int nextX;
     private int nextY;
@@ -95,7 +98,7 @@ public class GuiSchematicManager extends GuiSchematicBrowserBase implements ISel
 
         if (data != null)
         {
-            SchematicType<?> type = data.schematic.getType();
+            SchematicType<?> type = data.type;
 
             if (type.getHasName())
             {
@@ -113,6 +116,8 @@ public class GuiSchematicManager extends GuiSchematicBrowserBase implements ISel
             this.createButton(ButtonListener.Type.DELETE_FILE);
         }
 
+        this.createButton(ButtonListener.Type.BATCH_CONVERT);
+
         ButtonListenerChangeMenu.ButtonType type = ButtonListenerChangeMenu.ButtonType.MAIN_MENU;
         String label = StringUtils.translate(type.getLabelKey());
         int buttonWidth = this.getStringWidth(label) + 20;
@@ -134,7 +139,7 @@ public class GuiSchematicManager extends GuiSchematicBrowserBase implements ISel
             this.nextY += 22;
         }
 
-        ButtonGeneric button = new ButtonGeneric(this.nextX, this.nextY, -1, 20, type.getLabel());
+        ButtonGeneric button = new ButtonGeneric(this.nextX, this.nextY, -1, 20, type.getLabel(batchConvertType.getDisplayName()));
         button.addHoverString(type.getHoverText());
         this.nextX += button.getWidth() + 2;
 
@@ -191,6 +196,12 @@ public class GuiSchematicManager extends GuiSchematicBrowserBase implements ISel
                 return;
             }
 
+            if (this.type == Type.BATCH_CONVERT)
+            {
+                this.batchConvert(mouseButton);
+                return;
+            }
+
             DirectoryEntry entry = this.gui.getListWidget().getLastSelectedEntry();
 
             if (entry == null)
@@ -215,14 +226,14 @@ public class GuiSchematicManager extends GuiSchematicBrowserBase implements ISel
                 return;
             }
 
-            SchematicType<?> type = data.schematic.getType();
+            SchematicType<?> type = data.type;
 
             if (this.type == Type.RENAME_SCHEMATIC)
             {
                 if (type.getHasName())
                 {
-                    String oldName = data.schematic.getMetadata().getName();
-                    GuiBase.openPopupGui(new GuiTextInputFeedback("litematica.gui.title.rename_schematic", oldName, this.gui, new SchematicRenamer(entry.getDirectory(), entry.getName(), data.schematic, this.gui)));
+                    String oldName = data.metadata.getName();
+                    GuiBase.openPopupGui(new GuiTextInputFeedback("litematica.gui.title.rename_schematic", oldName, this.gui, new SchematicRenamer(entry.getDirectory(), entry.getName(), this.gui)));
                 }
                 else
                 {
@@ -241,7 +252,15 @@ public class GuiSchematicManager extends GuiSchematicBrowserBase implements ISel
             }
             else if (this.type == Type.CONVERT_FORMAT)
             {
-                GuiSchematicSaveConvert gui = new GuiSchematicSaveConvert(data.schematic, entry.getName());
+                ISchematic schematic = SchematicType.tryCreateSchematicFrom(file);
+
+                if (schematic == null)
+                {
+                    this.gui.addMessage(MessageType.ERROR, "litematica.error.schematic_load.cant_read_file", file.getName());
+                    return;
+                }
+
+                GuiSchematicSaveConvert gui = new GuiSchematicSaveConvert(schematic, entry.getName());
                 gui.setParent(this.gui);
                 GuiBase.openGui(gui);
             }
@@ -262,13 +281,42 @@ public class GuiSchematicManager extends GuiSchematicBrowserBase implements ISel
             }
         }
 
+        private void batchConvert(int mouseButton)
+        {
+            // Right click cycles the output type, left click starts the conversion
+            if (mouseButton == 1)
+            {
+                int index = SchematicType.KNOWN_TYPES.indexOf(batchConvertType);
+                batchConvertType = SchematicType.KNOWN_TYPES.get((index + 1) % SchematicType.KNOWN_TYPES.size());
+                this.gui.onSelectionChange(this.gui.getListWidget().getLastSelectedEntry());
+                return;
+            }
+
+            File dir = this.gui.getListWidget().getCurrentDirectory();
+            String extension = batchConvertType.getFileNameExtension().replace(".", "");
+            File outputDir = new File(dir, "converted_" + extension);
+            boolean override = GuiBase.isShiftDown();
+            TaskConvertSchematics task = new TaskConvertSchematics(dir, outputDir, batchConvertType, override);
+
+            if (task.getFileCount() == 0)
+            {
+                this.gui.addMessage(MessageType.ERROR, "litematica.error.schematic_manager.batch_convert.no_schematics", dir.getAbsolutePath());
+                return;
+            }
+
+            TaskScheduler.getInstanceClient().scheduleTask(task, 10);
+            this.gui.addMessage(MessageType.SUCCESS, "litematica.message.schematic_manager.batch_convert.started",
+                    task.getFileCount(), batchConvertType.getDisplayName(), outputDir.getName());
+        }
+
         public enum Type
         {
             RENAME_SCHEMATIC    ("litematica.gui.button.rename_schematic"),
             RENAME_FILE         ("litematica.gui.button.rename_file"),
             DELETE_FILE         ("litematica.gui.button.delete"),
             CONVERT_FORMAT      ("litematica.gui.button.convert_format", "litematica.gui.button.hover.schematic_manager.convert_format"),
-            SET_PREVIEW         ("litematica.gui.button.set_preview", "litematica.info.schematic_manager.preview.right_click_to_cancel");
+            SET_PREVIEW         ("litematica.gui.button.set_preview", "litematica.info.schematic_manager.preview.right_click_to_cancel"),
+            BATCH_CONVERT       ("litematica.gui.button.batch_convert", "litematica.gui.button.hover.schematic_manager.batch_convert");
 
             private final String label;
             @Nullable private final String hoverText;
@@ -284,9 +332,9 @@ public class GuiSchematicManager extends GuiSchematicBrowserBase implements ISel
                 this.hoverText = hoverText;
             }
 
-            public String getLabel()
+            public String getLabel(Object... args)
             {
-                return StringUtils.translate(this.label);
+                return StringUtils.translate(this.label, args);
             }
 
             @Nullable
@@ -301,38 +349,39 @@ public class GuiSchematicManager extends GuiSchematicBrowserBase implements ISel
     {
         private final File dir;
         private final String fileName;
-        private final ISchematic schematic;
         private final GuiSchematicManager gui;
 
-        public SchematicRenamer(File dir, String fileName, ISchematic schematic, GuiSchematicManager gui)
+        public SchematicRenamer(File dir, String fileName, GuiSchematicManager gui)
         {
             this.dir = dir;
             this.fileName = fileName;
-            this.schematic = schematic;
             this.gui = gui;
         }
 
         @Override
         public boolean setString(String string)
         {
-            if (this.schematic != null)
+            // The browser only caches the metadata, so the entire schematic needs to be read here for re-saving it
+            ISchematic schematic = SchematicType.tryCreateSchematicFrom(new File(this.dir, this.fileName));
+
+            if (schematic != null)
             {
-                String oldName = this.schematic.getMetadata().getName();
+                String oldName = schematic.getMetadata().getName();
                 long currentTime = System.currentTimeMillis();
-                this.schematic.getMetadata().setName(string);
-                this.schematic.getMetadata().setTimeModified(currentTime);
+                schematic.getMetadata().setName(string);
+                schematic.getMetadata().setTimeModified(currentTime);
 
-                if (this.schematic.writeToFile(this.dir, this.fileName, true))
+                if (schematic.writeToFile(this.dir, this.fileName, true))
                 {
                     List<ISchematic> list = SchematicHolder.getInstance().getAllOf(new File(this.dir, this.fileName));
 
-                    for (ISchematic schematic : list)
+                    for (ISchematic loadedSchematic : list)
                     {
-                        schematic.getMetadata().setName(string);
-                        schematic.getMetadata().setTimeModified(currentTime);
+                        loadedSchematic.getMetadata().setName(string);
+                        loadedSchematic.getMetadata().setTimeModified(currentTime);
 
                         // Rename all placements that used the old schematic name (ie. were not manually renamed)
-                        for (SchematicPlacement placement : DataManager.getSchematicPlacementManager().getAllPlacementsOfSchematic(schematic))
+                        for (SchematicPlacement placement : DataManager.getSchematicPlacementManager().getAllPlacementsOfSchematic(loadedSchematic))
                         {
                             if (placement.getName().equals(oldName))
                             {
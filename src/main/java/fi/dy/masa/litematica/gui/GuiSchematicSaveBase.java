@@ -4,6 +4,7 @@ import java.io.File;
 import javax.annotation.Nullable;
 import org.lwjgl.input.Keyboard;
 import fi.dy.masa.litematica.data.DataManager;
+import fi.dy.masa.litematica.interfaces.ISchematicUser;
 import fi.dy.masa.litematica.schematic.ISchematic;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacement;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacementManager;
@@ -17,7 +18,7 @@ import fi.dy.masa.malilib.gui.widgets.WidgetTextFieldBase;
 import fi.dy.masa.malilib.util.FileUtils;
 import fi.dy.masa.malilib.util.StringUtils;
 
-public abstract class GuiSchematicSaveBase extends GuiSchematicBrowserBase implements ISelectionListener<DirectoryEntry>
+public abstract class GuiSchematicSaveBase extends GuiSchematicBrowserBase implements ISelectionListener<DirectoryEntry>, ISchematicUser
 {
     @Nullable protected final ISchematic schematic;
     protected WidgetTextFieldBase textField;
@@ -40,6 +41,12 @@ public abstract class GuiSchematicSaveBase extends GuiSchematicBrowserBase imple
         this.textField.setFocused(true);
     }
 
+    @Override
+    public boolean usesSchematic(ISchematic schematic)
+    {
+        return this.schematic == schematic;
+    }
+
     public void setUpdatePlacementsOption(boolean updatePlacements)
     {
         this.updatePlacementsOption = updatePlacements;
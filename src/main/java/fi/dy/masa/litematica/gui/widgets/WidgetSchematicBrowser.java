@@ -9,13 +9,12 @@ import java.util.Map;
 import javax.annotation.Nullable;
 import net.minecraft.client.gui.Gui;
 import net.minecraft.client.renderer.texture.DynamicTexture;
-import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.util.math.Vec3i;
 import fi.dy.masa.litematica.Reference;
 import fi.dy.masa.litematica.data.DataManager;
+import fi.dy.masa.litematica.data.SchematicLibraryIndex;
 import fi.dy.masa.litematica.gui.GuiSchematicBrowserBase;
-import fi.dy.masa.litematica.schematic.ISchematic;
 import fi.dy.masa.litematica.schematic.SchematicMetadata;
 import fi.dy.masa.litematica.schematic.SchematicType;
 import fi.dy.masa.malilib.gui.GuiBase;
@@ -25,7 +24,6 @@ import fi.dy.masa.malilib.gui.interfaces.ISelectionListener;
 import fi.dy.masa.malilib.gui.widgets.WidgetFileBrowserBase;
 import fi.dy.masa.malilib.gui.widgets.WidgetFileBrowserBase.DirectoryEntry;
 import fi.dy.masa.malilib.render.RenderUtils;
-import fi.dy.masa.malilib.util.NBTUtils;
 import fi.dy.masa.malilib.util.StringUtils;
 
 public class WidgetSchematicBrowser extends WidgetFileBrowserBase implements ISelectionListener<DirectoryEntry>, IFileBrowserIconProvider
@@ -86,7 +84,7 @@ public class WidgetSchematicBrowser extends WidgetFileBrowserBase implements ISe
 
         if (data != null)
         {
-            return data.schematic.getType().getIcon();
+            return data.type.getIcon();
         }
 
         IGuiIcon icon = this.possibleTypeIcons.get(file);
@@ -148,9 +146,16 @@ public class WidgetSchematicBrowser extends WidgetFileBrowserBase implements ISe
 
         CachedSchematicData data = this.cachedData.get(entry.getFullPath());
 
+        // Still being indexed in the background when it was selected
+        if (data == null && entry.getType() == DirectoryEntryType.FILE && this.cachedData.containsKey(entry.getFullPath()) == false)
+        {
+            this.cacheSchematicData(entry);
+            data = this.cachedData.get(entry.getFullPath());
+        }
+
         if (data != null)
         {
-            SchematicMetadata meta = data.schematic.getMetadata();
+            SchematicMetadata meta = data.metadata;
 
             x += 5;
             y += 3;
@@ -274,20 +279,23 @@ public class WidgetSchematicBrowser extends WidgetFileBrowserBase implements ISe
 
         if (this.cachedData.containsKey(file) == false)
         {
-            NBTTagCompound tag = NBTUtils.readNbtFromFile(file);
-            CachedSchematicData data = null;
+            // Only the metadata is read here, from the library index, the actual schematic is read when it's needed
+            SchematicLibraryIndex index = SchematicLibraryIndex.getInstance();
+            SchematicLibraryIndex.Entry indexEntry = index.getEntry(file);
 
-            if (tag != null)
+            // The file is being indexed in the background, try again later
+            if (indexEntry == null)
             {
-                ISchematic schematic = SchematicType.tryCreateSchematicFrom(file, tag);
+                return;
+            }
 
-                if (schematic != null)
-                {
-                    SchematicMetadata metadata = schematic.getMetadata();
-                    ResourceLocation iconName = new ResourceLocation(Reference.MOD_ID, file.getAbsolutePath());
-                    DynamicTexture texture = this.createPreviewImage(iconName, metadata);
-                    data = new CachedSchematicData(tag, schematic, iconName, texture);
-                }
+            CachedSchematicData data = null;
+
+            if (indexEntry.isValidSchematic())
+            {
+                ResourceLocation iconName = new ResourceLocation(Reference.MOD_ID, file.getAbsolutePath());
+                DynamicTexture texture = indexEntry.hasThumbnail ? this.createPreviewImage(iconName, index.readThumbnail(file)) : null;
+                data = new CachedSchematicData(indexEntry.type, indexEntry.metadata, iconName, texture);
             }
 
             this.cachedData.put(file, data);
@@ -295,10 +303,8 @@ public class WidgetSchematicBrowser extends WidgetFileBrowserBase implements ISe
     }
 
     @Nullable
-    private DynamicTexture createPreviewImage(ResourceLocation iconName, SchematicMetadata meta)
+    private DynamicTexture createPreviewImage(ResourceLocation iconName, @Nullable int[] previewImageData)
     {
-        int[] previewImageData = meta.getPreviewImagePixelData();
-
         if (previewImageData != null && previewImageData.length > 0)
         {
             try
@@ -329,15 +335,15 @@ public class WidgetSchematicBrowser extends WidgetFileBrowserBase implements ISe
 
     public static class CachedSchematicData
     {
-        public final NBTTagCompound tag;
-        public final ISchematic schematic;
+        public final SchematicType<?> type;
+        public final SchematicMetadata metadata;
         public final ResourceLocation iconName;
         @Nullable public final DynamicTexture texture;
 
-        protected CachedSchematicData(NBTTagCompound tag, ISchematic schematic, ResourceLocation iconName, @Nullable DynamicTexture texture)
+        protected CachedSchematicData(SchematicType<?> type, SchematicMetadata metadata, ResourceLocation iconName, @Nullable DynamicTexture texture)
         {
-            this.tag = tag;
-            this.schematic = schematic;
+            this.type = type;
+            this.metadata = metadata;
             this.iconName = iconName;
             this.texture = texture;
         }
@@ -1,6 +1,9 @@
 package fi.dy.masa.litematica.gui.widgets;
 
+import java.util.List;
 import net.minecraft.client.renderer.GlStateManager;
+import fi.dy.masa.litematica.render.infohud.IInfoHudRenderer;
+import fi.dy.masa.litematica.render.infohud.RenderPhase;
 import fi.dy.masa.litematica.scheduler.ITask;
 import fi.dy.masa.litematica.scheduler.TaskScheduler;
 import fi.dy.masa.malilib.gui.button.ButtonBase;
@@ -63,6 +66,23 @@ public class WidgetTaskEntry extends WidgetListEntryBase<ITask>
         GlStateManager.disableLighting();
     }
 
+    @Override
+    public void postRenderHovered(int mouseX, int mouseY, boolean isActiveGui, int hoveredWidgetId)
+    {
+        super.postRenderHovered(mouseX, mouseY, isActiveGui, hoveredWidgetId);
+
+        // Show the task's info HUD lines, for example the per-file progress of a conversion task
+        if (this.getEntry() instanceof IInfoHudRenderer)
+        {
+            List<String> lines = ((IInfoHudRenderer) this.getEntry()).getText(RenderPhase.POST);
+
+            if (lines.isEmpty() == false)
+            {
+                RenderUtils.drawHoverText(mouseX, mouseY, this.getZLevel() + 1, lines);
+            }
+        }
+    }
+
     private static class ButtonListener implements IButtonActionListener
     {
         private final Type type;
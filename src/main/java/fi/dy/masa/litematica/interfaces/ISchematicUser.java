@@ -0,0 +1,15 @@
+package fi.dy.masa.litematica.interfaces;
+
+import fi.dy.masa.litematica.schematic.ISchematic;
+
+/**
+ * Implemented by the things that hold on to loaded schematics outside of the placements,
+ * such as some of the GUIs, so that those schematics don't get unloaded while they are in use.
+ */
+public interface ISchematicUser
+{
+    /**
+     * @return true if this is currently using the given schematic
+     */
+    boolean usesSchematic(ISchematic schematic);
+}
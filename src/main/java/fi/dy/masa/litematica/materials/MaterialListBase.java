@@ -9,11 +9,13 @@ import com.google.common.collect.ImmutableList;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import net.minecraft.util.math.MathHelper;
+import fi.dy.masa.litematica.interfaces.ISchematicUser;
+import fi.dy.masa.litematica.schematic.ISchematic;
 import fi.dy.masa.litematica.util.BlockInfoListType;
 import fi.dy.masa.malilib.interfaces.ICompletionListener;
 import fi.dy.masa.malilib.util.JsonUtils;
 
-public abstract class MaterialListBase implements IMaterialList
+public abstract class MaterialListBase implements IMaterialList, ISchematicUser
 {
     protected final MaterialListHudRenderer hudRenderer = new MaterialListHudRenderer(this);
     protected final Set<MaterialListEntry> ignored = new HashSet<>();
@@ -34,6 +36,12 @@ public abstract class MaterialListBase implements IMaterialList
 
     public abstract String getTitle();
 
+    @Override
+    public boolean usesSchematic(ISchematic schematic)
+    {
+        return false;
+    }
+
     public boolean supportsRenderLayers()
     {
         return false;
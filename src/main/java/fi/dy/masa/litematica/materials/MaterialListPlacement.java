@@ -3,6 +3,7 @@ package fi.dy.masa.litematica.materials;
 import com.google.gson.JsonObject;
 import fi.dy.masa.litematica.scheduler.TaskScheduler;
 import fi.dy.masa.litematica.scheduler.tasks.TaskCountBlocksPlacement;
+import fi.dy.masa.litematica.schematic.ISchematic;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacement;
 import fi.dy.masa.malilib.gui.util.Message.MessageType;
 import fi.dy.masa.malilib.util.InfoUtils;
@@ -48,6 +49,12 @@ public class MaterialListPlacement extends MaterialListBase
         return StringUtils.translate("litematica.gui.title.material_list.placement", this.getName());
     }
 
+    @Override
+    public boolean usesSchematic(ISchematic schematic)
+    {
+        return this.placement.getSchematic() == schematic;
+    }
+
     @Override
     public void reCreateMaterialList()
     {
@@ -28,6 +28,12 @@ public class MaterialListSchematic extends MaterialListBase
         }
     }
 
+    @Override
+    public boolean usesSchematic(ISchematic schematic)
+    {
+        return this.schematic == schematic;
+    }
+
     @Override
     public void reCreateMaterialList()
     {
@@ -8,10 +8,10 @@ import net.minecraft.block.state.IBlockState;
 import net.minecraft.client.Minecraft;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.item.ItemStack;
-import net.minecraft.util.math.Vec3i;
 import fi.dy.masa.litematica.config.Configs;
 import fi.dy.masa.litematica.schematic.ISchematic;
 import fi.dy.masa.litematica.schematic.ISchematicRegion;
+import fi.dy.masa.litematica.schematic.container.BlockStateRunSkip;
 import fi.dy.masa.litematica.schematic.container.ILitematicaBlockStateContainer;
 import fi.dy.masa.malilib.util.InventoryUtils;
 import fi.dy.masa.malilib.util.ItemType;
@@ -51,22 +51,7 @@ public class MaterialListUtils
                 }
                 else
                 {
-                    Vec3i size = container.getSize();
-                    final int sizeX = size.getX();
-                    final int sizeY = size.getY();
-                    final int sizeZ = size.getZ();
-
-                    for (int y = 0; y < sizeY; ++y)
-                    {
-                        for (int z = 0; z < sizeZ; ++z)
-                        {
-                            for (int x = 0; x < sizeX; ++x)
-                            {
-                                IBlockState state = container.getBlockState(x, y, z);
-                                countsTotal.addTo(state, 1);
-                            }
-                        }
-                    }
+                    container.forEachRun(BlockStateRunSkip.NONE, (x, y, z, length, state) -> countsTotal.addTo(state, length));
                 }
             }
         }
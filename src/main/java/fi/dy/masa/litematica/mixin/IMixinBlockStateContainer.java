@@ -0,0 +1,17 @@
+package fi.dy.masa.litematica.mixin;
+
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+import net.minecraft.util.BitArray;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.IBlockStatePalette;
+
+@Mixin(BlockStateContainer.class)
+public interface IMixinBlockStateContainer
+{
+    @Accessor("storage")
+    BitArray getStorage();
+
+    @Accessor("palette")
+    IBlockStatePalette getPalette();
+}
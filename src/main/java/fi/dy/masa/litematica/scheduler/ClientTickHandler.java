@@ -2,6 +2,7 @@ package fi.dy.masa.litematica.scheduler;
 
 import net.minecraft.client.Minecraft;
 import fi.dy.masa.litematica.data.DataManager;
+import fi.dy.masa.litematica.data.SchematicHolder;
 import fi.dy.masa.litematica.event.InputHandler;
 import fi.dy.masa.litematica.render.DebugScreenMessages;
 import fi.dy.masa.malilib.interfaces.IClientTickHandler;
@@ -17,6 +18,8 @@ public class ClientTickHandler implements IClientTickHandler
             DebugScreenMessages.update(mc);
             DataManager.getRenderLayerRange().followPlayerIfEnabled(mc.player);
             DataManager.getSchematicPlacementManager().processQueuedChunks();
+            SchematicHolder.getInstance().releaseUnusedRegionsIfLowOnMemory();
+            SchematicHolder.getInstance().unloadSchematicsOverMemoryBudget();
             TaskScheduler.getInstanceClient().runTasks();
         }
     }
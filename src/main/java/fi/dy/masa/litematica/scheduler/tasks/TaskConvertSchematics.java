@@ -0,0 +1,333 @@
+package fi.dy.masa.litematica.scheduler.tasks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import fi.dy.masa.litematica.Litematica;
+import fi.dy.masa.litematica.config.Configs;
+import fi.dy.masa.litematica.render.infohud.InfoHud;
+import fi.dy.masa.litematica.schematic.ISchematic;
+import fi.dy.masa.litematica.schematic.SchematicType;
+import fi.dy.masa.litematica.util.MessageUtils;
+import fi.dy.masa.litematica.util.MessageUtils.DeferredMessage;
+import fi.dy.masa.malilib.gui.GuiBase;
+import fi.dy.masa.malilib.gui.util.Message.MessageType;
+import fi.dy.masa.malilib.util.FileUtils;
+import fi.dy.masa.malilib.util.InfoUtils;
+import fi.dy.masa.malilib.util.StringUtils;
+
+/**
+ * Converts all the schematic files in a directory tree to the given schematic type.
+ * The files are read, converted and written on a fixed size worker pool. Each worker
+ * only handles one file at a time, so the number of worker threads also caps
+ * the number of schematics that are in memory at once.
+ * The converted files are written to the output directory, using the same
+ * relative sub directories that the input files were in.
+ */
+public class TaskConvertSchematics extends TaskBase
+{
+    private static final ThreadFactory THREAD_FACTORY = (new ThreadFactoryBuilder()).setNameFormat("Litematica Schematic Converter %d").setDaemon(true).build();
+
+    private final File inputDir;
+    private final File outputDir;
+    private final SchematicType<?> outputType;
+    private final boolean override;
+    private final List<File> files = new ArrayList<>();
+    private final Set<ConversionJob> runningJobs = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger convertedCount = new AtomicInteger();
+    private final AtomicInteger skippedCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private final String baseName;
+    @Nullable private ExecutorService executor;
+    private volatile boolean cancelled;
+
+    public TaskConvertSchematics(File inputDir, File outputDir, SchematicType<?> outputType, boolean override)
+    {
+        this.inputDir = inputDir;
+        this.outputDir = outputDir;
+        this.outputType = outputType;
+        this.override = override;
+        this.baseName = StringUtils.translate("litematica.gui.label.task_name.convert_schematics", outputType.getDisplayName());
+        this.name = this.baseName;
+
+        this.collectFiles(inputDir, FileUtils.getCanonicalFileIfPossible(outputDir));
+    }
+
+    /**
+     * Returns the number of schematic files found in the input directory tree
+     */
+    public int getFileCount()
+    {
+        return this.files.size();
+    }
+
+    private void collectFiles(File dir, File excludedDir)
+    {
+        File[] entries = dir.listFiles();
+
+        if (entries == null)
+        {
+            return;
+        }
+
+        for (File file : entries)
+        {
+            if (file.isDirectory())
+            {
+                // Don't convert the results of this or a previous run again
+                if (FileUtils.getCanonicalFileIfPossible(file).equals(excludedDir) == false)
+                {
+                    this.collectFiles(file, excludedDir);
+                }
+            }
+            else if (file.isFile() && SchematicType.getPossibleTypesFromFileName(file).isEmpty() == false)
+            {
+                this.files.add(file);
+            }
+        }
+    }
+
+    @Override
+    public void init()
+    {
+        int threads = Math.max(1, Math.min(Configs.Generic.BATCH_CONVERSION_THREADS.getIntegerValue(), this.files.size()));
+        this.executor = Executors.newFixedThreadPool(threads, THREAD_FACTORY);
+
+        // Only the File objects are queued up, the schematics are read by the worker when it gets to the file
+        Set<File> outputFiles = new HashSet<>();
+
+        for (File file : this.files)
+        {
+            File dir = this.getOutputDirectory(file);
+            String fileName = FileUtils.getNameWithoutExtension(file.getName()) + this.outputType.getFileNameExtension();
+
+            // Several input files with the same name but a different extension would end up in the same output file
+            if (outputFiles.add(new File(dir, fileName)) == false)
+            {
+                Litematica.logger.warn("Batch conversion: Skipping '{}', another file already converts to '{}'", file.getAbsolutePath(), fileName);
+                this.skippedCount.incrementAndGet();
+                continue;
+            }
+
+            this.executor.execute(() -> this.runJob(new ConversionJob(file, dir, fileName)));
+        }
+
+        InfoHud.getInstance().addInfoHudRenderer(this, true);
+        this.updateInfoHudLines();
+    }
+
+    @Override
+    public boolean execute()
+    {
+        this.updateInfoHudLines();
+        this.finished = this.getProcessedCount() >= this.files.size();
+
+        return this.finished;
+    }
+
+    @Override
+    public void stop()
+    {
+        this.cancelled = true;
+
+        if (this.executor != null)
+        {
+            // Any files that are currently being processed still get finished,
+            // but the workers will not start on any new files
+            this.executor.shutdownNow();
+        }
+
+        if (this.printCompletionMessage)
+        {
+            if (this.finished)
+            {
+                InfoUtils.showGuiOrInGameMessage(MessageType.SUCCESS, "litematica.message.convert_schematics.done",
+                        this.convertedCount.get(), this.skippedCount.get(), this.failedCount.get(), this.outputDir.getAbsolutePath());
+            }
+            else
+            {
+                InfoUtils.showGuiOrInGameMessage(MessageType.WARNING, "litematica.message.convert_schematics.cancelled",
+                        this.getProcessedCount(), this.files.size());
+            }
+        }
+
+        InfoHud.getInstance().removeInfoHudRenderer(this, false);
+
+        this.notifyListener();
+    }
+
+    private int getProcessedCount()
+    {
+        return this.convertedCount.get() + this.skippedCount.get() + this.failedCount.get();
+    }
+
+    private File getOutputDirectory(File inputFile)
+    {
+        File parent = inputFile.getParentFile();
+        String relativePath = this.inputDir.toPath().relativize(parent.toPath()).toString();
+
+        return relativePath.isEmpty() ? this.outputDir : new File(this.outputDir, relativePath);
+    }
+
+    private void runJob(ConversionJob job)
+    {
+        if (this.cancelled)
+        {
+            return;
+        }
+
+        this.runningJobs.add(job);
+
+        // The reading and writing code must not show any messages from the worker threads,
+        // so any messages are only logged here, and the job is counted as failed.
+        // The user gets the summary message on the client thread in stop().
+        MessageUtils.startCollecting();
+
+        try
+        {
+            File outputFile = new File(job.outputDir, job.outputFileName);
+
+            if (this.override == false && outputFile.exists())
+            {
+                this.skippedCount.incrementAndGet();
+            }
+            else if (this.convert(job))
+            {
+                this.convertedCount.incrementAndGet();
+            }
+            else
+            {
+                this.failedCount.incrementAndGet();
+            }
+        }
+        catch (Exception e)
+        {
+            Litematica.logger.warn("Batch conversion: Failed to convert the schematic '{}'", job.file.getAbsolutePath(), e);
+            this.failedCount.incrementAndGet();
+        }
+        finally
+        {
+            this.runningJobs.remove(job);
+
+            for (DeferredMessage message : MessageUtils.stopCollecting())
+            {
+                Litematica.logger.warn("Batch conversion: '{}': {}", job.file.getAbsolutePath(), message.getText());
+            }
+        }
+    }
+
+    private boolean convert(ConversionJob job)
+    {
+        job.phase = Phase.READING;
+        ISchematic schematic = SchematicType.tryReadSchematicFrom(job.file, job.bytesRead);
+
+        if (schematic == null)
+        {
+            Litematica.logger.warn("Batch conversion: Failed to read the schematic '{}'", job.file.getAbsolutePath());
+            return false;
+        }
+
+        if (this.cancelled)
+        {
+            return false;
+        }
+
+        if (schematic.getType() != this.outputType)
+        {
+            job.phase = Phase.CONVERTING;
+            ISchematic convertedSchematic = this.outputType.createSchematic(null);
+            convertedSchematic.readFrom(schematic);
+            schematic = convertedSchematic;
+        }
+
+        if (this.cancelled)
+        {
+            return false;
+        }
+
+        job.phase = Phase.WRITING;
+
+        // The existing file check was already done before reading the schematic
+        return schematic.writeToFile(job.outputDir, job.outputFileName, true);
+    }
+
+    protected void updateInfoHudLines()
+    {
+        List<String> hudLines = new ArrayList<>();
+
+        this.name = StringUtils.translate("litematica.gui.label.convert_schematics.progress", this.baseName,
+                this.getProcessedCount(), this.files.size(), this.failedCount.get());
+
+        String pre = GuiBase.TXT_WHITE + GuiBase.TXT_BOLD;
+        hudLines.add(String.format("%s%s%s", pre, this.name, GuiBase.TXT_RST));
+
+        int maxLines = Configs.InfoOverlays.INFO_HUD_MAX_LINES.getIntegerValue();
+
+        for (ConversionJob job : this.runningJobs)
+        {
+            if (hudLines.size() > maxLines)
+            {
+                break;
+            }
+
+            hudLines.add(job.getProgressString());
+        }
+
+        this.infoHudLines = hudLines;
+    }
+
+    private static class ConversionJob
+    {
+        private final File file;
+        private final File outputDir;
+        private final String outputFileName;
+        private final long fileSize;
+        private final AtomicLong bytesRead = new AtomicLong();
+        private volatile Phase phase = Phase.READING;
+
+        private ConversionJob(File file, File outputDir, String outputFileName)
+        {
+            this.file = file;
+            this.outputDir = outputDir;
+            this.outputFileName = outputFileName;
+            this.fileSize = file.length();
+        }
+
+        private String getProgressString()
+        {
+            String phaseName = StringUtils.translate(this.phase.translationKey);
+
+            if (this.phase == Phase.READING && this.fileSize > 0)
+            {
+                int percent = (int) Math.min(100, this.bytesRead.get() * 100 / this.fileSize);
+                return String.format("%s: %s %d%%", this.file.getName(), phaseName, percent);
+            }
+
+            return String.format("%s: %s", this.file.getName(), phaseName);
+        }
+    }
+
+    private enum Phase
+    {
+        READING     ("litematica.gui.label.convert_schematics.phase.reading"),
+        CONVERTING  ("litematica.gui.label.convert_schematics.phase.converting"),
+        WRITING     ("litematica.gui.label.convert_schematics.phase.writing");
+
+        private final String translationKey;
+
+        private Phase(String translationKey)
+        {
+            this.translationKey = translationKey;
+        }
+    }
+}
@@ -39,6 +39,13 @@ public abstract class TaskCountBlocksBase extends TaskProcessChunkBase
 
             for (int y = startY; y <= endY; ++y)
             {
+                // Skip entire chunk sections that are known to not contain anything to count
+                if ((y == startY || (y & 0xF) == 0) && this.canSkipChunkSection(pos, y >> 4))
+                {
+                    y |= 0xF;
+                    continue;
+                }
+
                 for (int z = startZ; z <= endZ; ++z)
                 {
                     for (int x = startX; x <= endX; ++x)
@@ -67,6 +74,13 @@ public abstract class TaskCountBlocksBase extends TaskProcessChunkBase
 
             for (int y = startY; y <= endY; ++y)
             {
+                // Skip entire chunk sections that are known to not contain anything to count
+                if ((y == startY || (y & 0xF) == 0) && this.canSkipChunkSection(pos, y >> 4))
+                {
+                    y |= 0xF;
+                    continue;
+                }
+
                 for (int z = startZ; z <= endZ; ++z)
                 {
                     for (int x = startX; x <= endX; ++x)
@@ -79,5 +93,14 @@ public abstract class TaskCountBlocksBase extends TaskProcessChunkBase
         }
     }
 
+    /**
+     * Returns true if the given chunk section doesn't contain any blocks that would be counted,
+     * so that it doesn't need to be iterated at all
+     */
+    protected boolean canSkipChunkSection(ChunkPos pos, int sectionY)
+    {
+        return false;
+    }
+
     protected abstract void countAtPosition(BlockPos pos);
 }
@@ -4,6 +4,9 @@ import java.util.Collection;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import fi.dy.masa.litematica.materials.IMaterialList;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacement;
 import fi.dy.masa.litematica.schematic.placement.SubRegionPlacement.RequiredEnabled;
@@ -34,6 +37,29 @@ public class TaskCountBlocksPlacement extends TaskCountBlocksMaterialList
         return super.canExecute() && this.worldSchematic != null;
     }
 
+    @Override
+    protected boolean canSkipChunkSection(ChunkPos pos, int sectionY)
+    {
+        // Only the non-air schematic blocks are counted, so empty schematic sections can be skipped
+        Chunk chunk = this.worldSchematic.getChunkProvider().getLoadedChunk(pos.x, pos.z);
+
+        if (chunk == null)
+        {
+            return true;
+        }
+
+        ExtendedBlockStorage[] storageArray = chunk.getBlockStorageArray();
+
+        if (sectionY < 0 || sectionY >= storageArray.length)
+        {
+            return true;
+        }
+
+        ExtendedBlockStorage storage = storageArray[sectionY];
+
+        return storage == Chunk.NULL_BLOCK_STORAGE || storage.isEmpty();
+    }
+
     @Override
     protected void countAtPosition(BlockPos pos)
     {
@@ -8,12 +8,15 @@ import javax.annotation.Nullable;
 import com.google.common.collect.ImmutableMap;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
+import fi.dy.masa.litematica.config.Configs;
 import fi.dy.masa.litematica.data.SchematicHolder;
 import fi.dy.masa.litematica.render.infohud.InfoHud;
 import fi.dy.masa.litematica.schematic.LitematicaSchematic;
+import fi.dy.masa.litematica.schematic.util.AsyncSchematicWriter;
 import fi.dy.masa.litematica.schematic.util.SchematicCreationUtils;
 import fi.dy.masa.litematica.selection.AreaSelection;
 import fi.dy.masa.litematica.selection.SelectionBox;
+import fi.dy.masa.litematica.util.CompressionType;
 import fi.dy.masa.litematica.util.PositionUtils;
 import fi.dy.masa.malilib.gui.util.Message.MessageType;
 import fi.dy.masa.malilib.util.InfoUtils;
@@ -29,6 +32,8 @@ public class TaskSaveSchematic extends TaskProcessChunkBase
     @Nullable private final String fileName;
     private final boolean takeEntities;
     private final boolean overrideFile;
+    private CompressionType compression = (CompressionType) Configs.Generic.SCHEMATIC_COMPRESSION.getOptionListValue();
+    private int compressionLevel = Configs.Generic.SCHEMATIC_COMPRESSION_LEVEL.getIntegerValue();
 
     public TaskSaveSchematic(LitematicaSchematic schematic, AreaSelection area, boolean takeEntities)
     {
@@ -51,6 +56,17 @@ public class TaskSaveSchematic extends TaskProcessChunkBase
         this.updateInfoHudLinesMissingChunks(this.requiredChunks);
     }
 
+    /**
+     * Sets the compression to use for the saved file, instead of the one set in the config
+     * @param compression
+     * @param level the deflate compression level 1 - 9, if applicable to the compression type
+     */
+    public void setCompression(CompressionType compression, int level)
+    {
+        this.compression = compression;
+        this.compressionLevel = level;
+    }
+
     @Override
     protected boolean canProcessChunk(ChunkPos pos)
     {
@@ -74,6 +90,8 @@ public class TaskSaveSchematic extends TaskProcessChunkBase
     @Override
     protected void onStop()
     {
+        InfoHud.getInstance().removeInfoHudRenderer(this, false);
+
         if (this.finished)
         {
             long time = System.currentTimeMillis();
@@ -83,17 +101,29 @@ public class TaskSaveSchematic extends TaskProcessChunkBase
 
             if (this.dir != null)
             {
-                if (this.schematic.writeToFile(this.dir, this.fileName, this.overrideFile))
-                {
-                    if (this.printCompletionMessage)
+                // The file is written on a background thread, and the listener gets notified once it's done
+                AsyncSchematicWriter.writeToFile(this.schematic, this.dir, this.fileName, this.overrideFile, this.compression, this.compressionLevel).thenAccept((result) -> {
+                    if (result.isSuccess())
                     {
-                        InfoUtils.showGuiOrInGameMessage(MessageType.SUCCESS, "litematica.message.schematic_saved_as", this.fileName);
+                        if (this.printCompletionMessage)
+                        {
+                            InfoUtils.showGuiOrInGameMessage(MessageType.SUCCESS, "litematica.message.schematic_saved_as", this.fileName);
+                        }
                     }
-                }
-                else
-                {
-                    InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.message.error.schematic_save_failed", this.fileName);
-                }
+                    // Show the more specific reason from the writer, if there is one
+                    else if (result.getError() != null)
+                    {
+                        result.getError().show();
+                    }
+                    else
+                    {
+                        InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.message.error.schematic_save_failed", this.fileName);
+                    }
+
+                    this.notifyListener();
+                });
+
+                return;
             }
             // In-memory only
             else
@@ -112,8 +142,6 @@ public class TaskSaveSchematic extends TaskProcessChunkBase
             InfoUtils.showGuiOrInGameMessage(MessageType.WARNING, "litematica.message.error.schematic_save_interrupted");
         }
 
-        InfoHud.getInstance().removeInfoHudRenderer(this, false);
-
         this.notifyListener();
     }
 }
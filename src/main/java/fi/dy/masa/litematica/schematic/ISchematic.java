@@ -1,18 +1,27 @@
 package fi.dy.masa.litematica.schematic;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.math.Vec3i;
 import fi.dy.masa.litematica.Litematica;
+import fi.dy.masa.litematica.config.Configs;
+import fi.dy.masa.litematica.schematic.container.ILitematicaBlockStateContainer;
+import fi.dy.masa.litematica.util.CompressionType;
+import fi.dy.masa.litematica.util.MessageUtils;
+import fi.dy.masa.litematica.util.NbtUtils;
 import fi.dy.masa.malilib.gui.util.Message.MessageType;
-import fi.dy.masa.malilib.util.InfoUtils;
-import fi.dy.masa.malilib.util.NBTUtils;
 
 public interface ISchematic
 {
@@ -73,6 +82,13 @@ public interface ISchematic
      */
     @Nullable ISchematicRegion getSchematicRegion(String regionName);
 
+    /**
+     * Returns a rough estimate of the heap memory used by this schematic, in bytes.
+     * This is used for the memory budget of the loaded schematics.
+     * @return
+     */
+    long getEstimatedMemoryUsage();
+
     /**
      * Reads the data from the provided other schematic
      * @param other
@@ -93,13 +109,31 @@ public interface ISchematic
     NBTTagCompound toTag();
 
     /**
-     * Writes this schematic with the provided filename, in the provided directory
+     * Writes this schematic with the provided filename, in the provided directory,
+     * using the compression set in the config
      * @param dir
      * @param fileNameIn
      * @param override
      * @return
      */
     default boolean writeToFile(File dir, String fileNameIn, boolean override)
+    {
+        CompressionType compression = (CompressionType) Configs.Generic.SCHEMATIC_COMPRESSION.getOptionListValue();
+        int level = Configs.Generic.SCHEMATIC_COMPRESSION_LEVEL.getIntegerValue();
+
+        return this.writeToFile(dir, fileNameIn, override, compression, level);
+    }
+
+    /**
+     * Writes this schematic with the provided filename, in the provided directory
+     * @param dir
+     * @param fileNameIn
+     * @param override
+     * @param compression
+     * @param level the deflate compression level 1 - 9, if applicable to the compression type
+     * @return
+     */
+    default boolean writeToFile(File dir, String fileNameIn, boolean override, CompressionType compression, int level)
     {
         String fileName = fileNameIn;
         String extension = this.getType().getFileNameExtension();
@@ -110,39 +144,89 @@ public interface ISchematic
         }
 
         File file = new File(dir, fileName);
+        // Write to a temporary file first, so that an interrupted write doesn't destroy an existing file
+        File tmpFile = new File(dir, fileName + ".tmp");
 
         try
         {
             if (dir.exists() == false && dir.mkdirs() == false)
             {
-                InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_write_to_file_failed.directory_creation_failed", dir.getAbsolutePath());
+                MessageUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_write_to_file_failed.directory_creation_failed", dir.getAbsolutePath());
                 return false;
             }
 
             if (override == false && file.exists())
             {
-                InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_write_to_file_failed.exists", file.getAbsolutePath());
+                MessageUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_write_to_file_failed.exists", file.getAbsolutePath());
                 return false;
             }
 
-            FileOutputStream os = new FileOutputStream(file);
-            this.writeToStream(this.toTag(), os);
-            os.close();
+            this.updateRegionContentHashes();
+
+            try (FileOutputStream os = new FileOutputStream(tmpFile))
+            {
+                this.writeToStream(os, compression, level);
+            }
+
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
 
             return true;
         }
         catch (Exception e)
         {
-            InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_write_to_file_failed.exception", file.getAbsolutePath());
+            MessageUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_write_to_file_failed.exception", file.getAbsolutePath());
             Litematica.logger.warn("Failed to write schematic to file '{}'", file.getAbsolutePath(), e);
+            tmpFile.delete();
         }
 
         return false;
     }
 
-    default void writeToStream(NBTTagCompound tag, FileOutputStream outputStream) throws IOException
+    /**
+     * Stores the current content hashes of the block data of all the sub-regions into the metadata
+     */
+    default void updateRegionContentHashes()
+    {
+        Map<String, Long> hashes = new HashMap<>();
+
+        for (Map.Entry<String, ISchematicRegion> entry : this.getRegions().entrySet())
+        {
+            ILitematicaBlockStateContainer container = entry.getValue().getBlockStateContainer();
+
+            if (container != null)
+            {
+                hashes.put(entry.getKey(), container.getContentHash());
+            }
+        }
+
+        this.getMetadata().setRegionContentHashes(hashes);
+    }
+
+    /**
+     * Writes this schematic to the given file stream, using the given compression.
+     * By default this writes the tag from {@link #toTag()} using {@link #writeToStream(NBTTagCompound, DataOutputStream)}.
+     * @param outputStream
+     * @param compression
+     * @param level the deflate compression level 1 - 9, if applicable to the compression type
+     * @throws IOException
+     */
+    default void writeToStream(FileOutputStream outputStream, CompressionType compression, int level) throws IOException
     {
-        CompressedStreamTools.writeCompressed(tag, outputStream);
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(compression.createOutputStream(outputStream, level), 65536)))
+        {
+            this.writeToStream(this.toTag(), os);
+        }
+    }
+
+    /**
+     * Writes the given tag to the given (already compressing, if applicable) stream
+     * @param tag
+     * @param outputStream
+     * @throws IOException
+     */
+    default void writeToStream(NBTTagCompound tag, DataOutputStream outputStream) throws IOException
+    {
+        NbtUtils.write(tag, "", outputStream);
     }
 
     /**
@@ -151,23 +235,42 @@ public interface ISchematic
      * @return
      */
     default boolean readFromFile()
+    {
+        return this.readFromFile(null);
+    }
+
+    /**
+     * Tries to read the contents of this schematic from the file that was set on creation of this schematic.
+     * @param bytesRead if not null, then the number of bytes read from the file is added to this counter,
+     * so that the progress can be followed while the schematic is loaded on another thread
+     * @return
+     */
+    default boolean readFromFile(@Nullable AtomicLong bytesRead)
     {
         File file = this.getFile();
 
         if (file == null)
         {
-            InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_read_from_file_failed.no_file");
+            MessageUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_read_from_file_failed.no_file");
             return false;
         }
 
-        NBTTagCompound tag = NBTUtils.readNbtFromFile(file);
+        NBTTagCompound tag = NbtUtils.readCompressed(file, bytesRead);
 
         if (tag == null)
         {
-            InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_read_from_file_failed.cant_read", file.getAbsolutePath());
+            MessageUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_read_from_file_failed.cant_read", file.getAbsolutePath());
             return false;
         }
 
         return this.fromTag(tag);
     }
+
+    /**
+     * Tries to read only the metadata of this schematic from the file that was set on creation of this schematic,
+     * without reading the block data. This is meant for displaying the schematic information for example
+     * in the schematic browser, so this does not print any error messages.
+     * @return true if the file was a valid schematic of this type, and the metadata was read
+     */
+    boolean readMetadataFromFile();
 }
@@ -1,12 +1,12 @@
 package fi.dy.masa.litematica.schematic;
 
 import java.util.List;
-import java.util.Map;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Vec3i;
 import net.minecraft.world.NextTickListEntry;
 import fi.dy.masa.litematica.schematic.container.ILitematicaBlockStateContainer;
+import fi.dy.masa.litematica.util.BlockPosMap;
 
 public interface ISchematicRegion
 {
@@ -34,7 +34,7 @@ public interface ISchematicRegion
      * Returns the BlockEntity map used for this region
      * @return
      */
-    Map<BlockPos, NBTTagCompound> getBlockEntityMap();
+    BlockPosMap<NBTTagCompound> getBlockEntityMap();
 
     /**
      * Returns the entity list for this region
@@ -45,5 +45,5 @@ public interface ISchematicRegion
     /*
      * Returns the map for the scheduled Block ticks in this region
      */
-    Map<BlockPos, NextTickListEntry> getBlockTickMap();
+    BlockPosMap<NextTickListEntry> getBlockTickMap();
 }
@@ -0,0 +1,450 @@
+package fi.dy.masa.litematica.schematic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import javax.annotation.Nullable;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagLongArray;
+import net.minecraft.util.math.Vec3i;
+import fi.dy.masa.litematica.schematic.container.LitematicaBitArray;
+import fi.dy.masa.litematica.schematic.container.LitematicaBlockStateContainerFull;
+import fi.dy.masa.litematica.util.CompressionType;
+import fi.dy.masa.litematica.util.NbtUtils;
+import fi.dy.masa.malilib.mixin.IMixinNBTTagLongArray;
+
+/**
+ * The column layout (version 5) of the Litematica schematic files.
+ * The block data of each sub-region is split into 16 x 16 block columns that span the full height
+ * of the region, and each column is compressed independently, so that any of them can be read
+ * without inflating the rest of the file.
+ * <p>
+ * The file starts with a magic value and the compression type of the data blocks, followed by the data blocks.
+ * The last data block is the header, which is an NBT compound with the version, the metadata, and for each
+ * sub-region the position, size, palette and the offset table of the columns, plus the location of a separate
+ * block with the block entities, entities and block ticks. The file ends with the offset and length
+ * of the header block and the magic value again. This allows writing the file in one sequential pass,
+ * and still reading the header without going through the rest of the file.
+ */
+public class LitematicaColumnFormat
+{
+    public static final int COLUMN_SIZE = 16;
+    private static final byte[] MAGIC = new byte[] { 'L', 'I', 'T', 'E', 'M', 'A', 'T', 5 };
+    private static final int TRAILER_LENGTH = 8 + 4 + MAGIC.length;
+    private static final int COMPRESSION_NONE = 0;
+    private static final int COMPRESSION_ZLIB = 1;
+    // The number of columns that are compressed or decompressed in parallel at once
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * Checks whether or not the file starts with the magic value of the column layout
+     * @param file
+     * @return
+     */
+    public static boolean isColumnFormatFile(File file)
+    {
+        try (DataInputStream is = new DataInputStream(new FileInputStream(file)))
+        {
+            byte[] magic = new byte[MAGIC.length];
+            is.readFully(magic);
+            return Arrays.equals(magic, MAGIC);
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    public static int getColumnCount(int size)
+    {
+        return (size + COLUMN_SIZE - 1) / COLUMN_SIZE;
+    }
+
+    private static int getBitsForPaletteSize(int paletteSize)
+    {
+        return Math.max(2, Integer.SIZE - Integer.numberOfLeadingZeros(paletteSize - 1));
+    }
+
+    public static class Writer implements Closeable
+    {
+        private final DataOutputStream output;
+        private final boolean compress;
+        private final int level;
+        private long position;
+
+        public Writer(OutputStream outputStream, CompressionType compression, int level) throws IOException
+        {
+            this.output = new DataOutputStream(new BufferedOutputStream(outputStream, 65536));
+            this.compress = compression != CompressionType.NONE;
+            this.level = level;
+
+            this.output.write(MAGIC);
+            this.output.writeByte(this.compress ? COMPRESSION_ZLIB : COMPRESSION_NONE);
+            this.position = MAGIC.length + 1;
+        }
+
+        /**
+         * Writes all the block columns of the container, and adds their offset table to the given region tag
+         */
+        public void writeColumns(LitematicaBlockStateContainerFull container, NBTTagCompound regionTag) throws IOException
+        {
+            Vec3i size = container.getSize();
+            final int bits = getBitsForPaletteSize(container.getPalette().getPaletteSize());
+            final int columnsX = getColumnCount(size.getX());
+            final int columnCount = columnsX * getColumnCount(size.getZ());
+            long[] offsets = new long[columnCount];
+            int[] lengths = new int[columnCount];
+
+            for (int start = 0; start < columnCount; start += BATCH_SIZE)
+            {
+                final int end = Math.min(start + BATCH_SIZE, columnCount);
+                byte[][] blocks = IntStream.range(start, end).parallel()
+                        .mapToObj((index) -> this.encodeColumn(container, index % columnsX, index / columnsX, bits))
+                        .toArray(byte[][]::new);
+
+                for (int i = 0; i < blocks.length; ++i)
+                {
+                    offsets[start + i] = this.position;
+                    lengths[start + i] = blocks[i].length;
+                    this.writeBlock(blocks[i]);
+                }
+            }
+
+            regionTag.setTag("ColumnOffsets", new NBTTagLongArray(offsets));
+            regionTag.setIntArray("ColumnLengths", lengths);
+        }
+
+        /**
+         * Writes the given tag as a separate data block, and adds its location
+         * to the parent tag using the given name
+         */
+        public void writeTagBlock(NBTTagCompound tag, NBTTagCompound parentTag, String name) throws IOException
+        {
+            byte[] data = this.compress(NbtUtils.writeToByteArray(tag));
+
+            parentTag.setLong(name + "Offset", this.position);
+            parentTag.setInteger(name + "Length", data.length);
+
+            this.writeBlock(data);
+        }
+
+        /**
+         * Writes the header block and the trailer. This must be called last.
+         */
+        public void finish(NBTTagCompound header) throws IOException
+        {
+            byte[] data = this.compress(NbtUtils.writeToByteArray(header));
+            long headerOffset = this.position;
+
+            this.writeBlock(data);
+            this.output.writeLong(headerOffset);
+            this.output.writeInt(data.length);
+            this.output.write(MAGIC);
+        }
+
+        private void writeBlock(byte[] data) throws IOException
+        {
+            this.output.write(data);
+            this.position += data.length;
+        }
+
+        private byte[] encodeColumn(LitematicaBlockStateContainerFull container, int columnX, int columnZ, int bits)
+        {
+            Vec3i size = container.getSize();
+            final int minX = columnX * COLUMN_SIZE;
+            final int minZ = columnZ * COLUMN_SIZE;
+            final int sizeX = Math.min(COLUMN_SIZE, size.getX() - minX);
+            final int sizeZ = Math.min(COLUMN_SIZE, size.getZ() - minZ);
+            final int count = sizeX * sizeZ * size.getY();
+            int[] ids = new int[count];
+
+            container.getColumnIds(minX, minZ, sizeX, sizeZ, ids);
+
+            LitematicaBitArray bitArray = new LitematicaBitArray(bits, count);
+            bitArray.setRange(0, ids, 0, count);
+            long[] longArray = bitArray.getBackingLongArray();
+
+            ByteBuffer buf = ByteBuffer.allocate(longArray.length * 8);
+            buf.asLongBuffer().put(longArray);
+
+            return this.compress(buf.array());
+        }
+
+        private byte[] compress(byte[] data)
+        {
+            if (this.compress == false)
+            {
+                return data;
+            }
+
+            Deflater deflater = new Deflater(this.level);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+            byte[] buf = new byte[8192];
+
+            try
+            {
+                deflater.setInput(data);
+                deflater.finish();
+
+                while (deflater.finished() == false)
+                {
+                    int count = deflater.deflate(buf);
+                    out.write(buf, 0, count);
+                }
+            }
+            finally
+            {
+                deflater.end();
+            }
+
+            return out.toByteArray();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            this.output.close();
+        }
+    }
+
+    public static class Reader implements Closeable
+    {
+        private final FileChannel channel;
+        private final boolean compressed;
+        private final NBTTagCompound header;
+        @Nullable private final AtomicLong bytesRead;
+
+        /**
+         * Opens the file and reads the header
+         * @param file
+         * @param bytesRead if not null, then the number of bytes read from the file is added to this counter
+         * @throws IOException if the file can't be read, or it's not a valid column layout file
+         */
+        public Reader(File file, @Nullable AtomicLong bytesRead) throws IOException
+        {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            this.bytesRead = bytesRead;
+
+            try
+            {
+                byte[] start = this.readBlock(0, MAGIC.length + 1);
+                byte[] trailer = this.readBlock(this.channel.size() - TRAILER_LENGTH, TRAILER_LENGTH);
+                ByteBuffer buf = ByteBuffer.wrap(trailer);
+                long headerOffset = buf.getLong();
+                int headerLength = buf.getInt();
+
+                if (Arrays.equals(Arrays.copyOf(start, MAGIC.length), MAGIC) == false ||
+                    Arrays.equals(Arrays.copyOfRange(trailer, 12, TRAILER_LENGTH), MAGIC) == false)
+                {
+                    throw new IOException("Not a valid Litematica column layout file");
+                }
+
+                this.compressed = start[MAGIC.length] == COMPRESSION_ZLIB;
+                this.header = this.readTagBlock(headerOffset, headerLength);
+            }
+            catch (IOException e)
+            {
+                this.channel.close();
+                throw e;
+            }
+        }
+
+        public NBTTagCompound getHeader()
+        {
+            return this.header;
+        }
+
+        /**
+         * Reads the tag from the data block, whose location was stored in the parent tag using the given name
+         */
+        public NBTTagCompound readTagBlock(NBTTagCompound parentTag, String name) throws IOException
+        {
+            return this.readTagBlock(parentTag.getLong(name + "Offset"), parentTag.getInteger(name + "Length"));
+        }
+
+        /**
+         * Reads the block columns of the sub-region, whose offset table is in the given region tag, into the container.
+         * The container must be empty and have the same size as the sub-region, and its palette
+         * must use the same IDs as the palette that was written in the file.
+         */
+        public void readColumns(LitematicaBlockStateContainerFull container, int paletteSize, String regionName,
+                                NBTTagCompound regionTag) throws IOException
+        {
+            Vec3i size = container.getSize();
+            final int bits = getBitsForPaletteSize(paletteSize);
+            final int columnsX = getColumnCount(size.getX());
+            final int columnCount = columnsX * getColumnCount(size.getZ());
+            NBTBase offsetsTag = regionTag.getTag("ColumnOffsets");
+            long[] offsets = offsetsTag instanceof NBTTagLongArray ? ((IMixinNBTTagLongArray) offsetsTag).getArray() : new long[0];
+            int[] lengths = regionTag.getIntArray("ColumnLengths");
+
+            if (offsets.length != columnCount || lengths.length != columnCount)
+            {
+                throw new IOException("Invalid column offset table for the region '" + regionName + "'");
+            }
+
+            for (int start = 0; start < columnCount; start += BATCH_SIZE)
+            {
+                final int count = Math.min(BATCH_SIZE, columnCount - start);
+                final int[] batch = IntStream.range(start, start + count).toArray();
+                final byte[][] blocks = new byte[count][];
+
+                // The reads are done in the file order, and only the decoding is done in parallel
+                for (int i = 0; i < count; ++i)
+                {
+                    blocks[i] = this.readBlock(offsets[batch[i]], lengths[batch[i]]);
+                }
+
+                int[][] ids;
+
+                try
+                {
+                    ids = IntStream.range(0, count).parallel()
+                            .mapToObj((i) -> this.decodeColumn(blocks[i], getColumnVolume(size, batch[i] % columnsX, batch[i] / columnsX), bits))
+                            .toArray(int[][]::new);
+                }
+                catch (UncheckedIOException e)
+                {
+                    throw e.getCause();
+                }
+
+                for (int i = 0; i < count; ++i)
+                {
+                    final int minX = (batch[i] % columnsX) * COLUMN_SIZE;
+                    final int minZ = (batch[i] / columnsX) * COLUMN_SIZE;
+                    final int sizeX = Math.min(COLUMN_SIZE, size.getX() - minX);
+                    final int sizeZ = Math.min(COLUMN_SIZE, size.getZ() - minZ);
+
+                    container.setColumnIds(minX, minZ, sizeX, sizeZ, ids[i]);
+                }
+            }
+        }
+
+        private static int getColumnVolume(Vec3i size, int columnX, int columnZ)
+        {
+            final int sizeX = Math.min(COLUMN_SIZE, size.getX() - columnX * COLUMN_SIZE);
+            final int sizeZ = Math.min(COLUMN_SIZE, size.getZ() - columnZ * COLUMN_SIZE);
+            return sizeX * sizeZ * size.getY();
+        }
+
+        private int[] decodeColumn(byte[] data, int count, int bits)
+        {
+            final int longCount = (int) LitematicaBitArray.getLongArrayLength(bits, count);
+            byte[] bytes = this.compressed ? inflate(data, longCount * 8) : data;
+
+            if (bytes.length != longCount * 8)
+            {
+                throw new UncheckedIOException(new IOException("Invalid block column data length"));
+            }
+
+            long[] longArray = new long[longCount];
+            ByteBuffer.wrap(bytes).asLongBuffer().get(longArray);
+
+            int[] ids = new int[count];
+            LitematicaBitArray bitArray = new LitematicaBitArray(bits, count, longArray);
+            bitArray.getRange(0, ids, 0, count);
+
+            return ids;
+        }
+
+        private static byte[] inflate(byte[] data, int length)
+        {
+            Inflater inflater = new Inflater();
+            byte[] out = new byte[length];
+            int count = 0;
+
+            try
+            {
+                inflater.setInput(data);
+
+                while (count < length && inflater.finished() == false)
+                {
+                    int read = inflater.inflate(out, count, length - count);
+
+                    if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    {
+                        break;
+                    }
+
+                    count += read;
+                }
+            }
+            catch (DataFormatException e)
+            {
+                throw new UncheckedIOException(new IOException("Invalid compressed block column data", e));
+            }
+            finally
+            {
+                inflater.end();
+            }
+
+            return count == length ? out : Arrays.copyOf(out, count);
+        }
+
+        private NBTTagCompound readTagBlock(long offset, int length) throws IOException
+        {
+            InputStream is = new ByteArrayInputStream(this.readBlock(offset, length));
+
+            if (this.compressed)
+            {
+                is = new InflaterInputStream(is);
+            }
+
+            return CompressedStreamTools.read(new DataInputStream(new BufferedInputStream(is)));
+        }
+
+        private byte[] readBlock(long offset, int length) throws IOException
+        {
+            if (offset < 0 || length < 0 || offset + length > this.channel.size())
+            {
+                throw new IOException("Invalid data block location in the file");
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate(length);
+
+            while (buf.hasRemaining())
+            {
+                if (this.channel.read(buf, offset + buf.position()) < 0)
+                {
+                    throw new EOFException();
+                }
+            }
+
+            if (this.bytesRead != null)
+            {
+                this.bytesRead.addAndGet(length);
+            }
+
+            return buf.array();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            this.channel.close();
+        }
+    }
+}
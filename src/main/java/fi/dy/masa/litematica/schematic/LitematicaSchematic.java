@@ -1,10 +1,16 @@
 package fi.dy.masa.litematica.schematic;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import javax.annotation.Nullable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -20,27 +26,39 @@ import net.minecraft.util.math.Vec3d;
 import net.minecraft.util.math.Vec3i;
 import net.minecraft.world.NextTickListEntry;
 import fi.dy.masa.litematica.Litematica;
+import fi.dy.masa.litematica.config.Configs;
 import fi.dy.masa.litematica.schematic.container.ILitematicaBlockStateContainer;
 import fi.dy.masa.litematica.schematic.container.LitematicaBlockStateContainerFull;
+import fi.dy.masa.litematica.schematic.container.LitematicaBlockStateContainerMapped;
+import fi.dy.masa.litematica.schematic.container.LitematicaBlockStateContainerSectioned;
+import fi.dy.masa.litematica.schematic.container.MappedLongArray;
 import fi.dy.masa.litematica.selection.Box;
 import fi.dy.masa.litematica.selection.SelectionBox;
+import fi.dy.masa.litematica.util.BlockPosMap;
+import fi.dy.masa.litematica.util.CompressionType;
+import fi.dy.masa.litematica.util.MessageUtils;
+import fi.dy.masa.litematica.util.NbtStreamReader;
+import fi.dy.masa.litematica.util.NbtStreamWriter;
 import fi.dy.masa.litematica.util.PositionUtils;
 import fi.dy.masa.malilib.gui.util.Message.MessageType;
 import fi.dy.masa.malilib.mixin.IMixinNBTTagLongArray;
 import fi.dy.masa.malilib.util.Constants;
-import fi.dy.masa.malilib.util.InfoUtils;
 import fi.dy.masa.malilib.util.NBTUtils;
 
 public class LitematicaSchematic extends SchematicBase
 {
     public static final String FILE_NAME_EXTENSION = ".litematic";
     public static final int SCHEMATIC_VERSION = 4;
+    /** The version of the column layout, see {@link LitematicaColumnFormat} */
+    public static final int SCHEMATIC_VERSION_COLUMNS = 5;
 
-    private final Map<String, LitematicaBlockStateContainerFull> blockContainers = new HashMap<>();
-    private final Map<String, Map<BlockPos, NBTTagCompound>> blockEntities = new HashMap<>();
-    private final Map<String, Map<BlockPos, NextTickListEntry>> pendingBlockTicks = new HashMap<>();
+    private final Map<String, ILitematicaBlockStateContainer> blockContainers = new HashMap<>();
+    private final Map<String, BlockPosMap<NBTTagCompound>> blockEntities = new HashMap<>();
+    private final Map<String, BlockPosMap<NextTickListEntry>> pendingBlockTicks = new HashMap<>();
     private final Map<String, List<EntityInfo>> entities = new HashMap<>();
     private final Map<String, SubRegion> subRegions = new HashMap<>();
+    // The raw data of the sub-regions read from the file, which gets decoded on first access
+    private final Map<String, RegionData> encodedRegions = new HashMap<>();
 
     LitematicaSchematic(@Nullable File file)
     {
@@ -56,13 +74,14 @@ public class LitematicaSchematic extends SchematicBase
     @Override
     public int getSubRegionCount()
     {
-        return this.blockContainers.size();
+        return this.subRegions.size();
     }
 
     @Override
-    public void clear()
+    public synchronized void clear()
     {
         this.subRegions.clear();
+        this.encodedRegions.clear();
         this.blockContainers.clear();
         this.blockEntities.clear();
         this.entities.clear();
@@ -157,17 +176,17 @@ public class LitematicaSchematic extends SchematicBase
 
             try
             {
-                this.blockContainers.put(regionName, new LitematicaBlockStateContainerFull(new Vec3i(sizeX, sizeY, sizeZ)));
+                this.blockContainers.put(regionName, createEmptyContainer(new Vec3i(sizeX, sizeY, sizeZ)));
             }
             catch (Exception e)
             {
-                InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "TODO - Failed to create the block state container for sub-region: " + regionName);
+                MessageUtils.showGuiOrInGameMessage(MessageType.ERROR, "TODO - Failed to create the block state container for sub-region: " + regionName);
                 Litematica.logger.warn("Failed to create the block state container for sub-region '{}'", regionName, e.getMessage());
             }
 
-            this.blockEntities.put(regionName, new HashMap<>());
+            this.blockEntities.put(regionName, new BlockPosMap<>());
             this.entities.put(regionName, new ArrayList<>());
-            this.pendingBlockTicks.put(regionName, new HashMap<>());
+            this.pendingBlockTicks.put(regionName, new BlockPosMap<>());
         }
     }
 
@@ -188,20 +207,21 @@ public class LitematicaSchematic extends SchematicBase
 
                 this.subRegions.put(regionName, new SubRegion(region.getPosition(), region.getSize()));
 
-                if (containerOther instanceof LitematicaBlockStateContainerFull)
+                if (containerOther instanceof LitematicaBlockStateContainerFull ||
+                    containerOther instanceof LitematicaBlockStateContainerSectioned)
                 {
-                    this.blockContainers.put(regionName, (LitematicaBlockStateContainerFull) containerOther.copy());
+                    this.blockContainers.put(regionName, containerOther.copy());
                 }
                 else
                 {
                     Vec3i size = containerOther.getSize();
-                    LitematicaBlockStateContainerFull container = new LitematicaBlockStateContainerFull(size, false);
+                    LitematicaBlockStateContainerFull container = createFullContainer(size, false);
                     this.copyContainerContents(containerOther, container);
                     this.blockContainers.put(regionName, container);
                 }
 
-                Map<BlockPos, NBTTagCompound> blockEntityMap = new HashMap<>();
-                Map<BlockPos, NextTickListEntry> blockTickMap = new HashMap<>();
+                BlockPosMap<NBTTagCompound> blockEntityMap = new BlockPosMap<>(region.getBlockEntityMap().size());
+                BlockPosMap<NextTickListEntry> blockTickMap = new BlockPosMap<>(region.getBlockTickMap().size());
                 List<EntityInfo> entities = new ArrayList<>();
 
                 region.getBlockEntityMap().entrySet().forEach((entry) -> blockEntityMap.put(entry.getKey(), entry.getValue().copy()));
@@ -249,12 +269,12 @@ public class LitematicaSchematic extends SchematicBase
             }
             else
             {
-                InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_load.unsupported_schematic_version", version);
+                MessageUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_load.unsupported_schematic_version", version);
             }
         }
         else
         {
-            InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_load.no_schematic_version_information");
+            MessageUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_load.no_schematic_version_information");
         }
 
         return false;
@@ -264,45 +284,191 @@ public class LitematicaSchematic extends SchematicBase
     {
         NBTTagCompound wrapper = new NBTTagCompound();
 
-        if (this.blockContainers.isEmpty() == false)
+        if (this.subRegions.isEmpty() == false)
         {
-            for (String regionName : this.blockContainers.keySet())
+            for (String regionName : this.getRegionNamesForWriting())
             {
-                LitematicaBlockStateContainerFull blockContainer = (LitematicaBlockStateContainerFull) this.blockContainers.get(regionName);
-                Map<BlockPos, NBTTagCompound> tileMap = this.blockEntities.get(regionName);
-                List<EntityInfo> entityList = this.entities.get(regionName);
-                Map<BlockPos, NextTickListEntry> pendingTicks = this.pendingBlockTicks.get(regionName);
+                LitematicaBlockStateContainerFull blockContainer = this.getFullContainer(this.getBlockStateContainer(regionName));
+                NBTTagCompound tag = this.writeSubRegionToNBT(regionName, blockContainer);
 
-                NBTTagCompound tag = new NBTTagCompound();
-
-                tag.setTag("BlockStatePalette", this.writePaletteToLitematicaFormatTag(blockContainer.getPalette()));
+                // The tag needs the data in a heap array, also for the memory mapped containers.
+                // Saving to a file doesn't use this, see writeToStream().
                 tag.setTag("BlockStates", new NBTTagLongArray(blockContainer.getBackingLongArray()));
 
-                if (tileMap != null)
-                {
-                    tag.setTag("TileEntities", this.writeBlockEntitiesToListTag(tileMap));
-                }
+                wrapper.setTag(regionName, tag);
+            }
+        }
+
+        return wrapper;
+    }
+
+    /**
+     * Writes everything except the block state array of the given sub-region to a new compound tag
+     */
+    private NBTTagCompound writeSubRegionToNBT(String regionName, LitematicaBlockStateContainerFull blockContainer)
+    {
+        Map<BlockPos, NBTTagCompound> tileMap = this.getBlockEntityMap(regionName);
+        List<EntityInfo> entityList = this.getEntityList(regionName);
+        Map<BlockPos, NextTickListEntry> pendingTicks = this.getBlockTickMap(regionName);
+
+        NBTTagCompound tag = new NBTTagCompound();
+
+        tag.setTag("BlockStatePalette", this.writePaletteToLitematicaFormatTag(blockContainer.getPalette()));
+
+        tag.setTag("TileEntities", this.writeBlockEntitiesToListTag(tileMap));
+        tag.setTag("PendingBlockTicks", this.writeBlockTicksToNBT(pendingTicks));
+        tag.setTag("Entities", this.writeEntitiesToListTag(entityList));
 
-                if (pendingTicks != null)
+        SubRegion region = this.subRegions.get(regionName);
+        tag.setTag("Position", NBTUtils.createBlockPosTag(region.pos));
+        tag.setTag("Size", NBTUtils.createBlockPosTag(region.size));
+
+        return tag;
+    }
+
+    /**
+     * Writes the schematic directly to the stream, without building the entire tag tree first.
+     * The block state arrays are written straight from the containers, and the data
+     * is compressed on multiple threads, if applicable. The written data is identical to {@link #toTag()},
+     * except for the order of the entries.
+     */
+    @Override
+    public void writeToStream(FileOutputStream outputStream, CompressionType compression, int level) throws IOException
+    {
+        if (Configs.Generic.LITEMATIC_COLUMN_LAYOUT.getBooleanValue())
+        {
+            this.writeColumnLayoutToStream(outputStream, compression, level);
+            return;
+        }
+
+        try (NbtStreamWriter writer = new NbtStreamWriter(new BufferedOutputStream(compression.createOutputStream(outputStream, level), 65536)))
+        {
+            writer.beginCompound("");
+            writer.writeInt("Version", SCHEMATIC_VERSION);
+            writer.writeInt("MinecraftDataVersion", MINECRAFT_DATA_VERSION);
+            writer.writeTag("Metadata", this.getMetadata().toTag());
+            writer.beginCompound("Regions");
+
+            for (String regionName : this.getRegionNamesForWriting())
+            {
+                LitematicaBlockStateContainerFull blockContainer = this.getFullContainer(this.getBlockStateContainer(regionName));
+                NBTTagCompound tag = this.writeSubRegionToNBT(regionName, blockContainer);
+
+                writer.beginCompound(regionName);
+
+                for (String key : tag.getKeySet())
                 {
-                    tag.setTag("PendingBlockTicks", this.writeBlockTicksToNBT(pendingTicks));
+                    writer.writeTag(key, tag.getTag(key));
                 }
 
-                // The entity list will not exist, if takeEntities is false when creating the schematic
-                if (entityList != null)
+                // The block states are written last, so that the size is already known when they are read,
+                // and they are written directly from the storage, also for the memory mapped containers
+                writer.writeLongArray("BlockStates", blockContainer.getBackingBuffers());
+                writer.endCompound();
+            }
+
+            writer.endCompound();
+            writer.endCompound();
+        }
+    }
+
+    /**
+     * Writes the schematic in the column layout (v5), see {@link LitematicaColumnFormat}.
+     * The block entities, entities and block ticks of each sub-region are stored in a separate
+     * data block, so that the header stays small and can be read quickly.
+     */
+    private void writeColumnLayoutToStream(FileOutputStream outputStream, CompressionType compression, int level) throws IOException
+    {
+        try (LitematicaColumnFormat.Writer writer = new LitematicaColumnFormat.Writer(outputStream, compression, level))
+        {
+            NBTTagCompound regionsTag = new NBTTagCompound();
+
+            for (String regionName : this.getRegionNamesForWriting())
+            {
+                LitematicaBlockStateContainerFull blockContainer = this.getFullContainer(this.getBlockStateContainer(regionName));
+                NBTTagCompound tag = this.writeSubRegionToNBT(regionName, blockContainer);
+                NBTTagCompound dataTag = new NBTTagCompound();
+
+                for (String key : new String[] { "TileEntities", "Entities", "PendingBlockTicks" })
                 {
-                    tag.setTag("Entities", this.writeEntitiesToListTag(entityList));
+                    if (tag.hasKey(key))
+                    {
+                        dataTag.setTag(key, tag.getTag(key));
+                        tag.removeTag(key);
+                    }
                 }
 
-                SubRegion region = this.subRegions.get(regionName);
-                tag.setTag("Position", NBTUtils.createBlockPosTag(region.pos));
-                tag.setTag("Size", NBTUtils.createBlockPosTag(region.size));
+                writer.writeColumns(blockContainer, tag);
+                writer.writeTagBlock(dataTag, tag, "RegionData");
+                regionsTag.setTag(regionName, tag);
+            }
+
+            NBTTagCompound header = new NBTTagCompound();
+            header.setInteger("Version", SCHEMATIC_VERSION_COLUMNS);
+            header.setInteger("MinecraftDataVersion", MINECRAFT_DATA_VERSION);
+            header.setTag("Metadata", this.getMetadata().toTag());
+            header.setTag("Regions", regionsTag);
 
-                wrapper.setTag(regionName, tag);
+            writer.finish(header);
+        }
+    }
+
+    /**
+     * Returns the names of the sub-regions to write. This also drops the retained raw data
+     * of the parts that have already been decoded, because the decoded data might have been
+     * modified, and after saving it would no longer be marked as modified.
+     */
+    private synchronized List<String> getRegionNamesForWriting()
+    {
+        for (Map.Entry<String, RegionData> entry : this.encodedRegions.entrySet())
+        {
+            String regionName = entry.getKey();
+            RegionData data = entry.getValue();
+
+            if (this.blockContainers.containsKey(regionName))
+            {
+                data.blockStates = null;
+                data.retainedContainer = null;
+            }
+
+            if (this.blockEntities.containsKey(regionName))
+            {
+                data.tileEntities = null;
+            }
+
+            if (this.entities.containsKey(regionName))
+            {
+                data.entities = null;
+            }
+
+            if (this.pendingBlockTicks.containsKey(regionName))
+            {
+                data.blockTicks = null;
             }
         }
 
-        return wrapper;
+        return new ArrayList<>(this.subRegions.keySet());
+    }
+
+    /**
+     * Returns the given container in the full container form, which uses the v4 file format layout.
+     * Other container types are converted to a new full container.
+     */
+    private LitematicaBlockStateContainerFull getFullContainer(ILitematicaBlockStateContainer container)
+    {
+        if (container instanceof LitematicaBlockStateContainerFull)
+        {
+            return (LitematicaBlockStateContainerFull) container;
+        }
+        else if (container instanceof LitematicaBlockStateContainerSectioned)
+        {
+            return ((LitematicaBlockStateContainerSectioned) container).toFullContainer();
+        }
+
+        LitematicaBlockStateContainerFull fullContainer = new LitematicaBlockStateContainerFull(container.getSize(), false);
+        this.copyContainerContents(container, fullContainer);
+
+        return fullContainer;
     }
 
     private NBTTagList writeBlockTicksToNBT(Map<BlockPos, NextTickListEntry> tickMap)
@@ -348,47 +514,25 @@ public class LitematicaSchematic extends SchematicBase
 
                 if (regionPos != null && regionSize != null)
                 {
-                    this.subRegions.put(regionName, new SubRegion(regionPos, regionSize));
-
-                    if (version >= 2)
-                    {
-                        this.blockEntities.put(regionName, this.readBlockEntitiesFromListTag(regionTag.getTagList("TileEntities", Constants.NBT.TAG_COMPOUND)));
-                        this.entities.put(regionName, this.readEntitiesFromListTag(regionTag.getTagList("Entities", Constants.NBT.TAG_COMPOUND)));
-                    }
-                    else if (version == 1)
-                    {
-                        this.blockEntities.put(regionName, this.readTileEntitiesFromNBT_v1(regionTag.getTagList("TileEntities", Constants.NBT.TAG_COMPOUND)));
-                        this.entities.put(regionName, this.readEntitiesFromNBT_v1(regionTag.getTagList("Entities", Constants.NBT.TAG_COMPOUND)));
-                    }
-
-                    if (version >= 3)
-                    {
-                        this.pendingBlockTicks.put(regionName, this.readBlockTicksFromNBT(regionTag.getTagList("PendingBlockTicks", Constants.NBT.TAG_COMPOUND)));
-                    }
-
                     NBTBase nbtBase = regionTag.getTag("BlockStates");
+                    long[] blockStateArr = null;
 
                     // There are no convenience methods in NBTTagCompound yet in 1.12, so we'll have to do it the ugly way...
                     if (nbtBase != null && nbtBase.getId() == Constants.NBT.TAG_LONG_ARRAY)
                     {
-                        Vec3i size = new Vec3i(Math.abs(regionSize.getX()), Math.abs(regionSize.getY()), Math.abs(regionSize.getZ()));
-                        NBTTagList paletteTag = regionTag.getTagList("BlockStatePalette", Constants.NBT.TAG_COMPOUND);
-                        long[] blockStateArr = ((IMixinNBTTagLongArray) nbtBase).getArray();
-                        int paletteSize = paletteTag.tagCount();
-
-                        LitematicaBlockStateContainerFull container = LitematicaBlockStateContainerFull.createContainer(paletteSize, blockStateArr, size);
-
-                        if (container == null)
-                        {
-                            InfoUtils.printErrorMessage("litematica.error.schematic_read_from_file_failed.region_container",
-                                    regionName, this.getFile() != null ? this.getFile().getName() : "<null>");
-                            return false;
-                        }
-
-                        this.readPaletteFromLitematicaFormatTag(paletteTag, container.getPalette());
-                        this.blockContainers.put(regionName, container);
+                        blockStateArr = ((IMixinNBTTagLongArray) nbtBase).getArray();
                     }
-                    else
+
+                    RegionData data = new RegionData(regionName);
+                    data.pos = regionPos;
+                    data.size = regionSize;
+                    data.blockStates = blockStateArr;
+                    data.palette = regionTag.getTagList("BlockStatePalette", Constants.NBT.TAG_COMPOUND);
+                    data.tileEntities = regionTag.getTagList("TileEntities", Constants.NBT.TAG_COMPOUND);
+                    data.entities = regionTag.getTagList("Entities", Constants.NBT.TAG_COMPOUND);
+                    data.blockTicks = regionTag.getTagList("PendingBlockTicks", Constants.NBT.TAG_COMPOUND);
+
+                    if (this.readSubRegion(data, version) == false)
                     {
                         return false;
                     }
@@ -399,10 +543,683 @@ public class LitematicaSchematic extends SchematicBase
         return true;
     }
 
-    private Map<BlockPos, NextTickListEntry> readBlockTicksFromNBT(NBTTagList tagList)
+    /**
+     * Adds the sub-region, and retains its raw data to be decoded on first access,
+     * see {@link LitematicaSubRegion}. Regions that were read from the column layout
+     * already have a filled container, and regions that will use a memory mapped container
+     * are decoded right away, since their raw data was already read into a memory mapped file.
+     */
+    private boolean readSubRegion(RegionData data, int version)
+    {
+        final String regionName = data.name;
+        BlockPos regionSize = data.size;
+        Vec3i size = new Vec3i(Math.abs(regionSize.getX()), Math.abs(regionSize.getY()), Math.abs(regionSize.getZ()));
+
+        data.version = version;
+        this.subRegions.put(regionName, new SubRegion(data.pos, regionSize));
+        this.encodedRegions.put(regionName, data);
+
+        if (data.blockStates == null && data.mappedBlockStates == null && data.container == null)
+        {
+            return false;
+        }
+
+        final boolean useMappedContainer = Configs.Generic.SECTIONED_CONTAINERS.getBooleanValue() == false && shouldUseMappedContainer(size);
+
+        // The array was read before the size of the region was known, and the region turned out to be too small for a memory mapped container
+        if (data.mappedBlockStates != null && useMappedContainer == false)
+        {
+            data.blockStates = data.mappedBlockStates.toLongArray();
+            data.mappedBlockStates = null;
+        }
+
+        if (data.container != null || useMappedContainer)
+        {
+            ILitematicaBlockStateContainer container = this.decodeBlockStateContainer(data);
+
+            if (container == null)
+            {
+                return false;
+            }
+
+            this.blockContainers.put(regionName, container);
+            data.container = null;
+            data.blockStates = null;
+            data.mappedBlockStates = null;
+        }
+
+        return true;
+    }
+
+    @Nullable
+    private ILitematicaBlockStateContainer decodeBlockStateContainer(RegionData data)
+    {
+        final String regionName = data.name;
+        BlockPos regionSize = data.size;
+        Vec3i size = new Vec3i(Math.abs(regionSize.getX()), Math.abs(regionSize.getY()), Math.abs(regionSize.getZ()));
+        NBTTagList paletteTag = data.palette;
+        int paletteSize = paletteTag.tagCount();
+
+        if (data.blockStates == null && data.mappedBlockStates == null && data.container == null)
+        {
+            return null;
+        }
+
+        // Decoded again after being released, the retained container is still as it was in the file
+        if (data.retainedContainer != null && data.container == null)
+        {
+            return data.retainedContainer.copy();
+        }
+
+        LitematicaBlockStateContainerFull container;
+
+        if (data.container != null)
+        {
+            container = data.container;
+        }
+        else if (data.mappedBlockStates != null)
+        {
+            container = LitematicaBlockStateContainerMapped.createContainer(paletteSize, data.mappedBlockStates, size);
+        }
+        else
+        {
+            container = LitematicaBlockStateContainerFull.createContainer(paletteSize, data.blockStates, size);
+        }
+
+        if (container == null)
+        {
+            MessageUtils.printErrorMessage("litematica.error.schematic_read_from_file_failed.region_container",
+                    regionName, this.getFile() != null ? this.getFile().getName() : "<null>");
+            return null;
+        }
+
+        // The column layout containers already got their palette before the columns were read
+        if (data.container == null)
+        {
+            this.readPaletteFromLitematicaFormatTag(paletteTag, container.getPalette());
+        }
+
+        Long contentHash = this.getMetadata().getRegionContentHash(regionName);
+
+        // The block data is as it was when the schematic was saved, so the hash stored at that point still applies
+        if (contentHash != null)
+        {
+            container.setKnownContentHash(contentHash);
+        }
+
+        // The data was read directly into the memory mapped container
+        if (container instanceof LitematicaBlockStateContainerMapped)
+        {
+            return container;
+        }
+        else if (Configs.Generic.SECTIONED_CONTAINERS.getBooleanValue())
+        {
+            return LitematicaBlockStateContainerSectioned.createFrom(container);
+        }
+        else if (shouldUseMappedContainer(size))
+        {
+            return createMappedContainerFrom(container);
+        }
+
+        // The container uses the retained array as its storage. The retained container is kept as it is,
+        // and a copy-on-write copy of it is used instead, so that any modifications copy the storage
+        // first, instead of changing the retained data that the region may get decoded again from.
+        if (data.container == null)
+        {
+            data.retainedContainer = container;
+            return container.copy();
+        }
+
+        return container;
+    }
+
+    @Nullable
+    private synchronized ILitematicaBlockStateContainer getBlockStateContainer(String regionName)
+    {
+        ILitematicaBlockStateContainer container = this.blockContainers.get(regionName);
+        RegionData data = this.encodedRegions.get(regionName);
+
+        if (container == null && data != null && data.blockStates != null)
+        {
+            container = this.decodeBlockStateContainer(data);
+
+            if (container != null)
+            {
+                this.blockContainers.put(regionName, container);
+            }
+        }
+
+        return container;
+    }
+
+    /**
+     * Returns the block entity map of the sub-region, decoding it first if needed.
+     * The retained lists are copied before decoding, here and for the entities, because the tags
+     * are modified while reading and afterwards, and the list may need to be decoded again.
+     */
+    private synchronized BlockPosMap<NBTTagCompound> getBlockEntityMap(String regionName)
+    {
+        BlockPosMap<NBTTagCompound> map = this.blockEntities.get(regionName);
+
+        if (map == null)
+        {
+            RegionData data = this.encodedRegions.get(regionName);
+
+            if (data != null && data.tileEntities != null && data.version >= 2)
+            {
+                map = this.readBlockEntitiesFromListTag(data.tileEntities.copy());
+            }
+            else if (data != null && data.tileEntities != null && data.version == 1)
+            {
+                map = this.readTileEntitiesFromNBT_v1(data.tileEntities.copy());
+            }
+            else
+            {
+                map = new BlockPosMap<>();
+            }
+
+            this.blockEntities.put(regionName, map);
+        }
+
+        return map;
+    }
+
+    private synchronized List<EntityInfo> getEntityList(String regionName)
+    {
+        List<EntityInfo> list = this.entities.get(regionName);
+
+        if (list == null)
+        {
+            RegionData data = this.encodedRegions.get(regionName);
+
+            if (data != null && data.entities != null && data.version >= 2)
+            {
+                list = this.readEntitiesFromListTag(data.entities.copy());
+            }
+            else if (data != null && data.entities != null && data.version == 1)
+            {
+                list = this.readEntitiesFromNBT_v1(data.entities.copy());
+            }
+            else
+            {
+                list = new ArrayList<>();
+            }
+
+            this.entities.put(regionName, list);
+        }
+
+        return list;
+    }
+
+    private synchronized BlockPosMap<NextTickListEntry> getBlockTickMap(String regionName)
+    {
+        BlockPosMap<NextTickListEntry> map = this.pendingBlockTicks.get(regionName);
+
+        if (map == null)
+        {
+            RegionData data = this.encodedRegions.get(regionName);
+
+            if (data != null && data.blockTicks != null && data.version >= 3)
+            {
+                map = this.readBlockTicksFromNBT(data.blockTicks);
+            }
+            else
+            {
+                map = new BlockPosMap<>();
+            }
+
+            this.pendingBlockTicks.put(regionName, map);
+        }
+
+        return map;
+    }
+
+    /**
+     * Estimates the memory use without decoding anything, by counting both the
+     * decoded data and the raw data of the sub-regions retained from the file.
+     */
+    @Override
+    public synchronized long getEstimatedMemoryUsage()
+    {
+        long total = 0;
+
+        for (String regionName : this.subRegions.keySet())
+        {
+            ILitematicaBlockStateContainer container = this.blockContainers.get(regionName);
+            RegionData data = this.encodedRegions.get(regionName);
+
+            if (container != null)
+            {
+                total += container.getEstimatedHeapUsage();
+            }
+
+            // An unmodified decoded full container uses the retained array as its storage, so it's only counted once
+            if (data != null && data.blockStates != null &&
+                (container instanceof LitematicaBlockStateContainerFull == false ||
+                 ((LitematicaBlockStateContainerFull) container).isStorageShared() == false))
+            {
+                total += (long) data.blockStates.length * 8L;
+            }
+
+            total += this.getCount(this.blockEntities.get(regionName), data != null ? data.tileEntities : null) * ESTIMATED_BLOCK_ENTITY_SIZE;
+            total += this.getCount(this.pendingBlockTicks.get(regionName), data != null ? data.blockTicks : null) * ESTIMATED_BLOCK_TICK_SIZE;
+
+            List<EntityInfo> entityList = this.entities.get(regionName);
+            long entityCount = (entityList != null ? entityList.size() : 0) + (data != null && data.entities != null ? data.entities.tagCount() : 0);
+            total += entityCount * ESTIMATED_ENTITY_SIZE;
+        }
+
+        return total;
+    }
+
+    private long getCount(@Nullable Map<?, ?> decoded, @Nullable NBTTagList retained)
+    {
+        return (decoded != null ? decoded.size() : 0) + (retained != null ? retained.tagCount() : 0);
+    }
+
+    /**
+     * Releases the decoded data of the sub-regions not accepted by the filter, where that data
+     * can be decoded again from the raw data retained from the file. The data then gets decoded again
+     * when it's next accessed. Nothing is released if the schematic has been modified since it was loaded,
+     * and nothing that has been decoded before the schematic was last saved is released.
+     * @param keepRegion returns true for the sub-regions that should be kept decoded
+     * @return the number of sub-regions that had some data released
+     */
+    public synchronized int releaseDecodedRegions(Predicate<String> keepRegion)
+    {
+        if (this.getMetadata().wasModifiedSinceSaved())
+        {
+            return 0;
+        }
+
+        int count = 0;
+
+        for (Map.Entry<String, RegionData> entry : this.encodedRegions.entrySet())
+        {
+            String regionName = entry.getKey();
+            RegionData data = entry.getValue();
+            boolean released = false;
+
+            if (keepRegion.test(regionName))
+            {
+                continue;
+            }
+
+            if (data.blockStates != null)
+            {
+                released |= this.blockContainers.remove(regionName) != null;
+            }
+
+            if (data.tileEntities != null)
+            {
+                released |= this.blockEntities.remove(regionName) != null;
+            }
+
+            if (data.entities != null)
+            {
+                released |= this.entities.remove(regionName) != null;
+            }
+
+            if (data.blockTicks != null)
+            {
+                released |= this.pendingBlockTicks.remove(regionName) != null;
+            }
+
+            if (released)
+            {
+                ++count;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Reads the schematic directly from the compressed file stream, without first building the entire NBT tag tree.
+     * The block state arrays are read straight into the arrays that the block state containers then use as their storage.
+     * Only the smaller parts, like the palettes, the metadata and the block entities, get read as normal NBT tags.
+     */
+    @Override
+    public boolean readFromFile(@Nullable AtomicLong bytesRead)
+    {
+        File file = this.getFile();
+
+        if (file == null)
+        {
+            MessageUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_read_from_file_failed.no_file");
+            return false;
+        }
+
+        if (LitematicaColumnFormat.isColumnFormatFile(file))
+        {
+            try (LitematicaColumnFormat.Reader reader = new LitematicaColumnFormat.Reader(file, bytesRead))
+            {
+                return this.readFromColumnLayout(reader);
+            }
+            catch (Exception e)
+            {
+                Litematica.logger.warn("Failed to read the schematic from file '{}'", file.getAbsolutePath(), e);
+                MessageUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_read_from_file_failed.cant_read", file.getAbsolutePath());
+            }
+
+            return false;
+        }
+
+        try (NbtStreamReader reader = NbtStreamReader.openCompressed(file, bytesRead))
+        {
+            return this.readFromStream(reader);
+        }
+        catch (Exception e)
+        {
+            Litematica.logger.warn("Failed to read the schematic from file '{}'", file.getAbsolutePath(), e);
+            MessageUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_read_from_file_failed.cant_read", file.getAbsolutePath());
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads the metadata from the file, and stops reading right after the Metadata compound tag
+     * (and the version), which are before the region data in files written by Litematica.
+     */
+    @Override
+    public boolean readMetadataFromFile()
+    {
+        File file = this.getFile();
+
+        if (file == null)
+        {
+            return false;
+        }
+
+        // In the column layout the header with the metadata is located via the end of the file
+        if (LitematicaColumnFormat.isColumnFormatFile(file))
+        {
+            try (LitematicaColumnFormat.Reader reader = new LitematicaColumnFormat.Reader(file, null))
+            {
+                NBTTagCompound tag = reader.getHeader();
+
+                if (tag.hasKey("Metadata", Constants.NBT.TAG_COMPOUND) && tag.getInteger("Version") == SCHEMATIC_VERSION_COLUMNS)
+                {
+                    this.clear();
+                    this.readMetadataFromTag(tag);
+                    return true;
+                }
+            }
+            catch (Exception e)
+            {
+                Litematica.logger.warn("Failed to read the schematic metadata from file '{}'", file.getAbsolutePath(), e);
+            }
+
+            return false;
+        }
+
+        try (NbtStreamReader reader = NbtStreamReader.openCompressed(file))
+        {
+            NBTTagCompound tag = reader.readRootCompoundHeader((t) -> t.hasKey("Version", Constants.NBT.TAG_INT) &&
+                                                                      t.hasKey("Metadata", Constants.NBT.TAG_COMPOUND));
+            final int version = tag.getInteger("Version");
+
+            if (tag.hasKey("Metadata", Constants.NBT.TAG_COMPOUND) && version >= 1 && version <= SCHEMATIC_VERSION)
+            {
+                this.clear();
+                this.readMetadataFromTag(tag);
+                return true;
+            }
+        }
+        catch (Exception e)
+        {
+            Litematica.logger.warn("Failed to read the schematic metadata from file '{}'", file.getAbsolutePath(), e);
+        }
+
+        return false;
+    }
+
+    private boolean readFromStream(NbtStreamReader reader) throws IOException
+    {
+        this.clear();
+
+        List<RegionData> regions = new ArrayList<>();
+        NBTTagCompound metadataTag = null;
+        boolean hasVersion = false;
+        int version = 0;
+        int type;
+
+        reader.readRootCompound();
+
+        while ((type = reader.readTagType()) != Constants.NBT.TAG_END)
+        {
+            String name = reader.readName();
+
+            if (type == Constants.NBT.TAG_INT && name.equals("Version"))
+            {
+                version = reader.readInt();
+                hasVersion = true;
+            }
+            else if (type == Constants.NBT.TAG_COMPOUND && name.equals("Metadata"))
+            {
+                metadataTag = (NBTTagCompound) reader.readTag(type);
+            }
+            else if (type == Constants.NBT.TAG_COMPOUND && name.equals("Regions"))
+            {
+                this.readRegionsFromStream(reader, regions);
+            }
+            else
+            {
+                reader.skipTag(type);
+            }
+        }
+
+        if (hasVersion == false)
+        {
+            MessageUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_load.no_schematic_version_information");
+            return false;
+        }
+
+        if (version < 1 || version > SCHEMATIC_VERSION)
+        {
+            MessageUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_load.unsupported_schematic_version", version);
+            return false;
+        }
+
+        if (metadataTag != null)
+        {
+            this.getMetadata().fromTag(metadataTag);
+        }
+
+        for (RegionData data : regions)
+        {
+            if (this.readSubRegion(data, version) == false)
+            {
+                break;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean readFromColumnLayout(LitematicaColumnFormat.Reader reader) throws IOException
+    {
+        this.clear();
+
+        NBTTagCompound header = reader.getHeader();
+
+        if (header.hasKey("Version", Constants.NBT.TAG_INT) == false)
+        {
+            MessageUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_load.no_schematic_version_information");
+            return false;
+        }
+
+        final int version = header.getInteger("Version");
+
+        if (version != SCHEMATIC_VERSION_COLUMNS)
+        {
+            MessageUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_load.unsupported_schematic_version", version);
+            return false;
+        }
+
+        this.readMetadataFromTag(header);
+
+        NBTTagCompound regionsTag = header.getCompoundTag("Regions");
+
+        for (String regionName : regionsTag.getKeySet())
+        {
+            NBTTagCompound regionTag = regionsTag.getCompoundTag(regionName);
+            BlockPos regionPos = NBTUtils.readBlockPos(regionTag.getCompoundTag("Position"));
+            BlockPos regionSize = NBTUtils.readBlockPos(regionTag.getCompoundTag("Size"));
+
+            if (regionPos == null || regionSize == null)
+            {
+                continue;
+            }
+
+            Vec3i size = new Vec3i(Math.abs(regionSize.getX()), Math.abs(regionSize.getY()), Math.abs(regionSize.getZ()));
+            NBTTagCompound dataTag = reader.readTagBlock(regionTag, "RegionData");
+            RegionData data = new RegionData(regionName);
+
+            data.pos = regionPos;
+            data.size = regionSize;
+            data.palette = regionTag.getTagList("BlockStatePalette", Constants.NBT.TAG_COMPOUND);
+            data.tileEntities = dataTag.getTagList("TileEntities", Constants.NBT.TAG_COMPOUND);
+            data.entities = dataTag.getTagList("Entities", Constants.NBT.TAG_COMPOUND);
+            data.blockTicks = dataTag.getTagList("PendingBlockTicks", Constants.NBT.TAG_COMPOUND);
+
+            final int paletteSize = data.palette.tagCount();
+            data.container = createContainerForReading(paletteSize, size);
+
+            if (data.container != null)
+            {
+                // The palette is needed before the columns, so that the content hash can be updated while reading them
+                this.readPaletteFromLitematicaFormatTag(data.palette, data.container.getPalette());
+                reader.readColumns(data.container, paletteSize, regionName, regionTag);
+            }
+
+            if (this.readSubRegion(data, version) == false)
+            {
+                break;
+            }
+        }
+
+        return true;
+    }
+
+    private void readRegionsFromStream(NbtStreamReader reader, List<RegionData> regions) throws IOException
+    {
+        int type;
+
+        while ((type = reader.readTagType()) != Constants.NBT.TAG_END)
+        {
+            String regionName = reader.readName();
+
+            if (type == Constants.NBT.TAG_COMPOUND)
+            {
+                RegionData data = this.readRegionFromStream(reader, regionName);
+
+                if (data.pos != null && data.size != null)
+                {
+                    regions.add(data);
+                }
+            }
+            else
+            {
+                reader.skipTag(type);
+            }
+        }
+    }
+
+    private RegionData readRegionFromStream(NbtStreamReader reader, String regionName) throws IOException
+    {
+        RegionData data = new RegionData(regionName);
+        int type;
+
+        while ((type = reader.readTagType()) != Constants.NBT.TAG_END)
+        {
+            String name = reader.readName();
+
+            if (type == Constants.NBT.TAG_LONG_ARRAY && name.equals("BlockStates"))
+            {
+                this.readBlockStatesFromStream(reader, data);
+            }
+            else if (type == Constants.NBT.TAG_COMPOUND && name.equals("Position"))
+            {
+                data.pos = NBTUtils.readBlockPos((NBTTagCompound) reader.readTag(type));
+            }
+            else if (type == Constants.NBT.TAG_COMPOUND && name.equals("Size"))
+            {
+                data.size = NBTUtils.readBlockPos((NBTTagCompound) reader.readTag(type));
+            }
+            else if (type == Constants.NBT.TAG_LIST && name.equals("BlockStatePalette"))
+            {
+                data.palette = getCompoundList((NBTTagList) reader.readTag(type));
+            }
+            else if (type == Constants.NBT.TAG_LIST && name.equals("TileEntities"))
+            {
+                data.tileEntities = getCompoundList((NBTTagList) reader.readTag(type));
+            }
+            else if (type == Constants.NBT.TAG_LIST && name.equals("Entities"))
+            {
+                data.entities = getCompoundList((NBTTagList) reader.readTag(type));
+            }
+            else if (type == Constants.NBT.TAG_LIST && name.equals("PendingBlockTicks"))
+            {
+                data.blockTicks = getCompoundList((NBTTagList) reader.readTag(type));
+            }
+            else
+            {
+                reader.skipTag(type);
+            }
+        }
+
+        return data;
+    }
+
+    /**
+     * Reads the block state array. If the region may use a memory mapped container, then the array
+     * is read directly into a memory mapped file, so that it's never held in the heap.
+     */
+    private void readBlockStatesFromStream(NbtStreamReader reader, RegionData data) throws IOException
+    {
+        final int length = reader.readArrayLength();
+
+        data.blockStates = null;
+        data.mappedBlockStates = null;
+
+        if (mayUseMappedContainer(data.size, length))
+        {
+            try
+            {
+                data.mappedBlockStates = MappedLongArray.create(length, null);
+            }
+            catch (IOException e)
+            {
+                Litematica.logger.warn("Failed to create a memory mapped file for the block data, reading it to the heap instead", e);
+            }
+        }
+
+        if (data.mappedBlockStates != null)
+        {
+            reader.readLongs(data.mappedBlockStates.getBuffers());
+        }
+        else
+        {
+            data.blockStates = new long[length];
+            reader.readLongs(data.blockStates, 0, length);
+        }
+    }
+
+    /**
+     * Returns the given list, or an empty list if it contains something else than compound tags,
+     * same as {@link NBTTagCompound#getTagList(String, int)} does.
+     */
+    private static NBTTagList getCompoundList(NBTTagList list)
+    {
+        return list.tagCount() > 0 && list.getTagType() != Constants.NBT.TAG_COMPOUND ? new NBTTagList() : list;
+    }
+
+    private BlockPosMap<NextTickListEntry> readBlockTicksFromNBT(NBTTagList tagList)
     {
-        Map<BlockPos, NextTickListEntry> tickMap = new HashMap<>();
         final int size = tagList.tagCount();
+        BlockPosMap<NextTickListEntry> tickMap = new BlockPosMap<>(size);
 
         for (int i = 0; i < size; ++i)
         {
@@ -452,10 +1269,10 @@ public class LitematicaSchematic extends SchematicBase
         return entityList;
     }
 
-    private Map<BlockPos, NBTTagCompound> readTileEntitiesFromNBT_v1(NBTTagList tagList)
+    private BlockPosMap<NBTTagCompound> readTileEntitiesFromNBT_v1(NBTTagList tagList)
     {
-        Map<BlockPos, NBTTagCompound> tileMap = new HashMap<>();
         final int size = tagList.tagCount();
+        BlockPosMap<NBTTagCompound> tileMap = new BlockPosMap<>(size);
 
         for (int i = 0; i < size; ++i)
         {
@@ -474,6 +1291,99 @@ public class LitematicaSchematic extends SchematicBase
         return tileMap;
     }
 
+    private static ILitematicaBlockStateContainer createEmptyContainer(Vec3i size)
+    {
+        if (Configs.Generic.SECTIONED_CONTAINERS.getBooleanValue())
+        {
+            return new LitematicaBlockStateContainerSectioned(size);
+        }
+
+        return createFullContainer(size, true);
+    }
+
+    private static boolean shouldUseMappedContainer(Vec3i size)
+    {
+        long minVolume = Configs.Generic.MAPPED_CONTAINER_VOLUME.getIntegerValue() * 1000000L;
+        return minVolume > 0 && PositionUtils.getAreaVolume(size) >= minVolume;
+    }
+
+    /**
+     * Returns whether or not a region with a block state array of the given length may use a memory mapped container.
+     * The size of the region isn't known yet if the array comes before it in the file, and then
+     * the largest volume that the array could hold, at the smallest entry width, is checked instead.
+     */
+    private static boolean mayUseMappedContainer(@Nullable BlockPos regionSize, int longCount)
+    {
+        if (Configs.Generic.SECTIONED_CONTAINERS.getBooleanValue())
+        {
+            return false;
+        }
+
+        if (regionSize != null)
+        {
+            return shouldUseMappedContainer(new Vec3i(Math.abs(regionSize.getX()), Math.abs(regionSize.getY()), Math.abs(regionSize.getZ())));
+        }
+
+        long minVolume = Configs.Generic.MAPPED_CONTAINER_VOLUME.getIntegerValue() * 1000000L;
+        // Each long holds 32 entries at 2 bits per entry
+        return minVolume > 0 && (long) longCount * 32L >= minVolume;
+    }
+
+    /**
+     * Creates a new empty full container, which stores the block data
+     * in a memory mapped file if the volume is large enough
+     */
+    private static LitematicaBlockStateContainerFull createFullContainer(Vec3i size, boolean checkForFreedIds)
+    {
+        if (shouldUseMappedContainer(size))
+        {
+            try
+            {
+                return new LitematicaBlockStateContainerMapped(size, checkForFreedIds);
+            }
+            catch (UncheckedIOException e)
+            {
+                Litematica.logger.warn("Failed to create a memory mapped block container, using a normal container instead", e);
+            }
+        }
+
+        return new LitematicaBlockStateContainerFull(size, checkForFreedIds);
+    }
+
+    /**
+     * Creates an empty container to read the block data into, which is already
+     * a memory mapped container if the region will use one
+     */
+    private static LitematicaBlockStateContainerFull createContainerForReading(int paletteSize, Vec3i size)
+    {
+        if (Configs.Generic.SECTIONED_CONTAINERS.getBooleanValue() == false && shouldUseMappedContainer(size))
+        {
+            try
+            {
+                return LitematicaBlockStateContainerMapped.createContainer(paletteSize, size);
+            }
+            catch (UncheckedIOException e)
+            {
+                Litematica.logger.warn("Failed to create a memory mapped block container, using a normal container instead", e);
+            }
+        }
+
+        return LitematicaBlockStateContainerFull.createContainer(paletteSize, size);
+    }
+
+    private static LitematicaBlockStateContainerFull createMappedContainerFrom(LitematicaBlockStateContainerFull container)
+    {
+        try
+        {
+            return LitematicaBlockStateContainerMapped.createFrom(container);
+        }
+        catch (UncheckedIOException e)
+        {
+            Litematica.logger.warn("Failed to create a memory mapped block container, using a normal container instead", e);
+            return container;
+        }
+    }
+
     public static Boolean isValidSchematic(NBTTagCompound tag)
     {
         if (tag.hasKey("Version", Constants.NBT.TAG_INT) &&
@@ -500,6 +1410,39 @@ public class LitematicaSchematic extends SchematicBase
         return schematic.readFromFile() ? schematic : null;
     }
 
+    /**
+     * The raw data of one sub-region, as read from the file, before the version of the schematic is known.
+     * This is retained after reading, so that the parts can be decoded on first access. The parts that
+     * can no longer be decoded from this data, because the decoded data may have been modified, are set to null.
+     */
+    private static class RegionData
+    {
+        public final String name;
+        public BlockPos pos;
+        public BlockPos size;
+        public int version;
+        // Note: This is also used as the storage of the retained container
+        @Nullable public long[] blockStates;
+        // The full container using the retained block state array and the palette, created when the region
+        // is first decoded as a full container. The decoded containers are copy-on-write copies of this,
+        // which also keeps the storage counted as shared until a decoded copy gets modified.
+        @Nullable public LitematicaBlockStateContainerFull retainedContainer;
+        // The block state array read directly into a memory mapped file, used instead of the heap array
+        // for the regions that will use a memory mapped container
+        @Nullable public MappedLongArray mappedBlockStates;
+        // An already filled container, used instead of the block state array in the column layout
+        @Nullable public LitematicaBlockStateContainerFull container;
+        public NBTTagList palette = new NBTTagList();
+        @Nullable public NBTTagList tileEntities = new NBTTagList();
+        @Nullable public NBTTagList entities = new NBTTagList();
+        @Nullable public NBTTagList blockTicks = new NBTTagList();
+
+        public RegionData(String name)
+        {
+            this.name = name;
+        }
+    }
+
     public static class LitematicaSubRegion implements ISchematicRegion
     {
         private final LitematicaSchematic schematic;
@@ -526,25 +1469,25 @@ public class LitematicaSchematic extends SchematicBase
         @Override
         public ILitematicaBlockStateContainer getBlockStateContainer()
         {
-            return this.schematic.blockContainers.get(this.regionName);
+            return this.schematic.getBlockStateContainer(this.regionName);
         }
 
         @Override
-        public Map<BlockPos, NBTTagCompound> getBlockEntityMap()
+        public BlockPosMap<NBTTagCompound> getBlockEntityMap()
         {
-            return this.schematic.blockEntities.computeIfAbsent(this.regionName, (name) -> { return new HashMap<>(); });
+            return this.schematic.getBlockEntityMap(this.regionName);
         }
 
         @Override
         public List<EntityInfo> getEntityList()
         {
-            return this.schematic.entities.computeIfAbsent(this.regionName, (name) -> { return new ArrayList<>(); });
+            return this.schematic.getEntityList(this.regionName);
         }
 
         @Override
-        public Map<BlockPos, NextTickListEntry> getBlockTickMap()
+        public BlockPosMap<NextTickListEntry> getBlockTickMap()
         {
-            return this.schematic.pendingBlockTicks.computeIfAbsent(this.regionName, (name) -> { return new HashMap<>(); });
+            return this.schematic.getBlockTickMap(this.regionName);
         }
     }
 }
@@ -2,7 +2,6 @@ package fi.dy.masa.litematica.schematic;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
@@ -11,19 +10,27 @@ import net.minecraft.client.Minecraft;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.nbt.NBTUtil;
+import net.minecraft.util.Mirror;
+import net.minecraft.util.Rotation;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Vec3d;
 import net.minecraft.util.math.Vec3i;
 import fi.dy.masa.litematica.mixin.IMixinDataFixer;
+import fi.dy.masa.litematica.schematic.container.BlockStateContainerUtils;
 import fi.dy.masa.litematica.schematic.container.ILitematicaBlockStateContainer;
 import fi.dy.masa.litematica.schematic.container.ILitematicaBlockStatePalette;
 import fi.dy.masa.litematica.schematic.container.LitematicaBlockStateContainerFull;
+import fi.dy.masa.litematica.util.BlockPosMap;
 import fi.dy.masa.malilib.util.Constants;
 import fi.dy.masa.malilib.util.NBTUtils;
 
 public abstract class SchematicBase implements ISchematic
 {
     public static final int MINECRAFT_DATA_VERSION = ((IMixinDataFixer) Minecraft.getMinecraft().getDataFixer()).getVersion();
+    // Rough heap size estimates of the individual objects, for getEstimatedMemoryUsage()
+    protected static final long ESTIMATED_BLOCK_ENTITY_SIZE = 512L;
+    protected static final long ESTIMATED_BLOCK_TICK_SIZE = 64L;
+    protected static final long ESTIMATED_ENTITY_SIZE = 1024L;
 
     @Nullable protected final File schematicFile;
     protected final SchematicMetadata metadata = new SchematicMetadata();
@@ -57,6 +64,28 @@ public abstract class SchematicBase implements ISchematic
         this.totalBlocksReadFromWorld = count;
     }
 
+    @Override
+    public long getEstimatedMemoryUsage()
+    {
+        long total = 0;
+
+        for (ISchematicRegion region : this.getRegions().values())
+        {
+            ILitematicaBlockStateContainer container = region.getBlockStateContainer();
+
+            if (container != null)
+            {
+                total += container.getEstimatedHeapUsage();
+            }
+
+            total += region.getBlockEntityMap().size() * ESTIMATED_BLOCK_ENTITY_SIZE;
+            total += region.getBlockTickMap().size() * ESTIMATED_BLOCK_TICK_SIZE;
+            total += region.getEntityList().size() * ESTIMATED_ENTITY_SIZE;
+        }
+
+        return total;
+    }
+
     public static boolean isSizeValid(@Nullable Vec3i size)
     {
         return size != null && size.getX() > 0 && size.getY() > 0 && size.getZ() > 0;
@@ -75,17 +104,7 @@ public abstract class SchematicBase implements ISchematic
         final int sizeY = Math.min(sizeFrom.getY(), sizeTo.getY());
         final int sizeZ = Math.min(sizeFrom.getZ(), sizeTo.getZ());
 
-        for (int y = 0; y < sizeY; ++y)
-        {
-            for (int z = 0; z < sizeZ; ++z)
-            {
-                for (int x = 0; x < sizeX; ++x)
-                {
-                    IBlockState state = from.getBlockState(x, y, z);
-                    to.setBlockState(x, y, z, state);
-                }
-            }
-        }
+        BlockStateContainerUtils.copyBlocks(from, Vec3i.NULL_VECTOR, new Vec3i(sizeX, sizeY, sizeZ), to, Vec3i.NULL_VECTOR, Mirror.NONE, Rotation.NONE);
     }
 
     protected void readMetadataFromTag(NBTTagCompound tag)
@@ -130,10 +149,10 @@ public abstract class SchematicBase implements ISchematic
         return entityList;
     }
 
-    protected Map<BlockPos, NBTTagCompound> readBlockEntitiesFromListTag(NBTTagList tagList)
+    protected BlockPosMap<NBTTagCompound> readBlockEntitiesFromListTag(NBTTagList tagList)
     {
-        Map<BlockPos, NBTTagCompound> tileMap = new HashMap<>();
         final int size = tagList.tagCount();
+        BlockPosMap<NBTTagCompound> tileMap = new BlockPosMap<>(size);
 
         for (int i = 0; i < size; ++i)
         {
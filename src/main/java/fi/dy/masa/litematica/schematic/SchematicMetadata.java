@@ -1,6 +1,9 @@
 package fi.dy.masa.litematica.schematic;
 
+import java.util.HashMap;
+import java.util.Map;
 import javax.annotation.Nullable;
+import com.google.common.collect.ImmutableMap;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.math.Vec3i;
 import fi.dy.masa.malilib.util.Constants;
@@ -19,6 +22,7 @@ public class SchematicMetadata
     private long totalBlocks = -1;
     private boolean modifiedSinceSaved;
     @Nullable private int[] thumbnailPixelData;
+    private final Map<String, Long> regionContentHashes = new HashMap<>();
 
     public String getName()
     {
@@ -56,6 +60,23 @@ public class SchematicMetadata
         return this.totalBlocks;
     }
 
+    /**
+     * Returns the content hash of the block data of the given sub-region, as it was when the schematic
+     * was last saved, or null if it's not known. These can be used as cache keys
+     * for data derived from the block contents, which stay valid across reloads.
+     * See {@link fi.dy.masa.litematica.schematic.container.ILitematicaBlockStateContainer#getContentHash()}
+     */
+    @Nullable
+    public Long getRegionContentHash(String regionName)
+    {
+        return this.regionContentHashes.get(regionName);
+    }
+
+    public ImmutableMap<String, Long> getRegionContentHashes()
+    {
+        return ImmutableMap.copyOf(this.regionContentHashes);
+    }
+
     public Vec3i getEnclosingSize()
     {
         return this.enclosingSize;
@@ -126,6 +147,12 @@ public class SchematicMetadata
         this.totalBlocks = totalBlocks;
     }
 
+    public void setRegionContentHashes(Map<String, Long> hashes)
+    {
+        this.regionContentHashes.clear();
+        this.regionContentHashes.putAll(hashes);
+    }
+
     public void setEnclosingSize(Vec3i enclosingSize)
     {
         this.enclosingSize = enclosingSize;
@@ -158,6 +185,7 @@ public class SchematicMetadata
         this.totalVolume = other.totalVolume;
         this.totalBlocks = other.totalBlocks;
         this.modifiedSinceSaved = false;
+        this.setRegionContentHashes(other.regionContentHashes);
 
         if (other.thumbnailPixelData != null)
         {
@@ -210,6 +238,18 @@ public class SchematicMetadata
             nbt.setIntArray("PreviewImageData", this.thumbnailPixelData);
         }
 
+        if (this.regionContentHashes.isEmpty() == false)
+        {
+            NBTTagCompound hashesTag = new NBTTagCompound();
+
+            for (Map.Entry<String, Long> entry : this.regionContentHashes.entrySet())
+            {
+                hashesTag.setLong(entry.getKey(), entry.getValue());
+            }
+
+            nbt.setTag("RegionContentHashes", hashesTag);
+        }
+
         return nbt;
     }
 
@@ -273,5 +313,20 @@ public class SchematicMetadata
         {
             this.thumbnailPixelData = null;
         }
+
+        this.regionContentHashes.clear();
+
+        if (tag.hasKey("RegionContentHashes", Constants.NBT.TAG_COMPOUND))
+        {
+            NBTTagCompound hashesTag = tag.getCompoundTag("RegionContentHashes");
+
+            for (String regionName : hashesTag.getKeySet())
+            {
+                if (hashesTag.hasKey(regionName, Constants.NBT.TAG_LONG))
+                {
+                    this.regionContentHashes.put(regionName, hashesTag.getLong(regionName));
+                }
+            }
+        }
     }
 }
@@ -3,14 +3,16 @@ package fi.dy.masa.litematica.schematic;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import javax.annotation.Nullable;
+import org.apache.commons.lang3.tuple.Pair;
 import com.google.common.collect.ImmutableList;
 import net.minecraft.nbt.NBTTagCompound;
 import fi.dy.masa.litematica.gui.LitematicaGuiIcons;
+import fi.dy.masa.litematica.util.NbtUtils;
 import fi.dy.masa.malilib.gui.interfaces.IGuiIcon;
 import fi.dy.masa.malilib.util.FileUtils;
-import fi.dy.masa.malilib.util.NBTUtils;
 
 public class SchematicType<S extends ISchematic>
 {
@@ -130,6 +132,24 @@ public class SchematicType<S extends ISchematic>
         return null;
     }
 
+    /**
+     * Reads only the metadata of a schematic of this type from the given file, without reading the block data.
+     * @param file
+     * @return the metadata, or null if the file could not be read or is not a valid schematic of this type
+     */
+    @Nullable
+    public SchematicMetadata readMetadata(File file)
+    {
+        S schematic = this.factory.apply(file);
+
+        if (schematic.readMetadataFromFile())
+        {
+            return schematic.getMetadata();
+        }
+
+        return null;
+    }
+
     public static List<SchematicType<?>> getPossibleTypesFromFileName(File file)
     {
         return getPossibleTypesFromFileName(file.getName());
@@ -172,12 +192,31 @@ public class SchematicType<S extends ISchematic>
 
     @Nullable
     public static ISchematic tryCreateSchematicFrom(File file)
+    {
+        return tryReadSchematicFrom(file, null);
+    }
+
+    /**
+     * Tries to create and read a schematic from the given file, based on the file name extension and the data.
+     * @param bytesRead if not null, then the number of bytes read from the file is added to this counter,
+     * so that the progress can be followed while the schematic is loaded on another thread
+     * @return the read schematic, or null if the file could not be read as any of the possible schematic types
+     */
+    @Nullable
+    public static ISchematic tryReadSchematicFrom(File file, @Nullable AtomicLong bytesRead)
     {
         List<SchematicType<?>> possibleTypes = getPossibleTypesFromFileName(file);
 
+        // Litematica schematics are read directly from the file stream, without building the entire NBT tag tree first
+        if (possibleTypes.size() == 1 && possibleTypes.get(0) == LITEMATICA)
+        {
+            LitematicaSchematic schematic = LITEMATICA.createSchematic(file);
+            return schematic.readFromFile(bytesRead) ? schematic : null;
+        }
+
         if (possibleTypes.isEmpty() == false)
         {
-            NBTTagCompound tag = NBTUtils.readNbtFromFile(file);
+            NBTTagCompound tag = NbtUtils.readCompressed(file, bytesRead);
 
             if (tag != null)
             {
@@ -193,6 +232,28 @@ public class SchematicType<S extends ISchematic>
         return null;
     }
 
+    /**
+     * Reads only the metadata from the given file, using the first possible schematic type
+     * (based on the file name extension) that accepts the file.
+     * @param file
+     * @return the schematic type and the metadata, or null if none of the possible types could read the file
+     */
+    @Nullable
+    public static Pair<SchematicType<?>, SchematicMetadata> tryReadMetadataFrom(File file)
+    {
+        for (SchematicType<?> type : getPossibleTypesFromFileName(file))
+        {
+            SchematicMetadata metadata = type.readMetadata(file);
+
+            if (metadata != null)
+            {
+                return Pair.of(type, metadata);
+            }
+        }
+
+        return null;
+    }
+
     @Nullable
     public static ISchematic tryCreateSchematicFrom(File file, NBTTagCompound tag)
     {
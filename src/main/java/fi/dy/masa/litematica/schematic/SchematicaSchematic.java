@@ -1,12 +1,16 @@
 package fi.dy.masa.litematica.schematic;
 
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.IntStream;
 import javax.annotation.Nullable;
 import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
@@ -17,14 +21,18 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Vec3i;
 import fi.dy.masa.litematica.schematic.container.ILitematicaBlockStateContainer;
 import fi.dy.masa.litematica.schematic.container.ILitematicaBlockStatePalette;
+import fi.dy.masa.litematica.schematic.container.LitematicaBlockStateContainerFull;
+import fi.dy.masa.litematica.util.MessageUtils;
 import fi.dy.masa.litematica.util.NbtUtils;
 import fi.dy.masa.malilib.util.Constants;
-import fi.dy.masa.malilib.util.InfoUtils;
 
 public class SchematicaSchematic extends SingleRegionSchematic
 {
     public static final String FILE_NAME_EXTENSION = ".schematic";
 
+    // The minimum number of blocks in one slab of Y layers, when converting the block arrays in parallel
+    private static final int SLAB_MIN_VOLUME = 65536;
+
     private Block[] palette;
 
     SchematicaSchematic(@Nullable File fileName)
@@ -132,7 +140,7 @@ public class SchematicaSchematic extends SingleRegionSchematic
 
             if (id >= this.palette.length)
             {
-                InfoUtils.printErrorMessage("litematica.message.error.schematic_read.schematica.palette.invalid_id", id, key, this.palette.length - 1);
+                MessageUtils.printErrorMessage("litematica.message.error.schematic_read.schematica.palette.invalid_id", id, key, this.palette.length - 1);
                 continue;
             }
 
@@ -140,7 +148,7 @@ public class SchematicaSchematic extends SingleRegionSchematic
 
             if (block == null)
             {
-                InfoUtils.printErrorMessage("litematica.message.error.schematic_read.schematica.palette.invalid_block", key);
+                MessageUtils.printErrorMessage("litematica.message.error.schematic_read.schematica.palette.invalid_block", key);
                 continue;
             }
 
@@ -165,13 +173,13 @@ public class SchematicaSchematic extends SingleRegionSchematic
             }
             catch (NumberFormatException e)
             {
-                InfoUtils.printErrorMessage("litematica.message.error.schematic_read.schematica.palette.id_not_number", idStr, key);
+                MessageUtils.printErrorMessage("litematica.message.error.schematic_read.schematica.palette.id_not_number", idStr, key);
                 continue;
             }
 
             if (id >= this.palette.length)
             {
-                InfoUtils.printErrorMessage("litematica.message.error.schematic_read.mcedit2.palette.invalid_id", id, key, this.palette.length - 1);
+                MessageUtils.printErrorMessage("litematica.message.error.schematic_read.mcedit2.palette.invalid_id", id, key, this.palette.length - 1);
                 continue;
             }
 
@@ -179,7 +187,7 @@ public class SchematicaSchematic extends SingleRegionSchematic
 
             if (block == null)
             {
-                InfoUtils.printErrorMessage("litematica.message.error.schematic_read.mcedit2.missing_block_data", key);
+                MessageUtils.printErrorMessage("litematica.message.error.schematic_read.mcedit2.missing_block_data", key);
                 continue;
             }
 
@@ -205,13 +213,12 @@ public class SchematicaSchematic extends SingleRegionSchematic
                 }
                 else
                 {
-                    InfoUtils.printErrorMessage("litematica.message.error.schematic_read.registry_palette.missing_block_data", id, key);
+                    MessageUtils.printErrorMessage("litematica.message.error.schematic_read.registry_palette.missing_block_data", id, key);
                 }
             }
         }
     }
 
-    @SuppressWarnings("deprecation")
     protected boolean readBlocksFromTag(NBTTagCompound tag)
     {
         // This method was implemented based on
@@ -225,120 +232,189 @@ public class SchematicaSchematic extends SingleRegionSchematic
         final byte[] blockIdsByte = tag.getByteArray("Blocks");
         final byte[] metaArr = tag.getByteArray("Data");
         final int numBlocks = blockIdsByte.length;
-        final int layerSize = sizeX * sizeZ;
 
         if (numBlocks != (sizeX * sizeY * sizeZ))
         {
-            InfoUtils.printErrorMessage("litematica.message.error.schematic_read.schematica.schematic.invalid_block_array_size", numBlocks, sizeX, sizeY, sizeZ);
+            MessageUtils.printErrorMessage("litematica.message.error.schematic_read.schematica.schematic.invalid_block_array_size", numBlocks, sizeX, sizeY, sizeZ);
             return false;
         }
 
         if (numBlocks != metaArr.length)
         {
-            InfoUtils.printErrorMessage("litematica.message.error.schematic_read.schematica.schematic.invalid_metadata_array_size", numBlocks, metaArr.length);
+            MessageUtils.printErrorMessage("litematica.message.error.schematic_read.schematica.schematic.invalid_metadata_array_size", numBlocks, metaArr.length);
             return false;
         }
 
         if (this.readPaletteFromTag(tag) == false)
         {
-            InfoUtils.printErrorMessage("litematica.message.error.schematic_read.schematica.palette.failed_to_read");
+            MessageUtils.printErrorMessage("litematica.message.error.schematic_read.schematica.palette.failed_to_read");
             return false;
         }
 
+        byte[] addArr = null;
+
         if (tag.hasKey("AddBlocks", Constants.NBT.TAG_BYTE_ARRAY))
         {
-            return this.readBlocks12Bit(tag, blockIdsByte, metaArr, sizeX, layerSize);
+            addArr = tag.getByteArray("AddBlocks");
+            final int expectedAddLength = (int) Math.ceil((double) numBlocks / 2D);
+
+            if (addArr.length != expectedAddLength)
+            {
+                MessageUtils.printErrorMessage("litematica.message.error.schematic_read.schematica.schematic.invalid_block_add_array_size", numBlocks, addArr.length, expectedAddLength);
+                return false;
+            }
         }
         // Old Schematica format
         else if (tag.hasKey("Add", Constants.NBT.TAG_BYTE_ARRAY))
         {
             // FIXME is this array 4 or 8 bits per block?
-            InfoUtils.printErrorMessage("litematica.message.error.schematic_read.schematica.old_schematica_format_not_supported");
+            MessageUtils.printErrorMessage("litematica.message.error.schematic_read.schematica.old_schematica_format_not_supported");
             return false;
         }
-        // No palette, use the registry IDs directly
-        else
-        {
-            ILitematicaBlockStateContainer container = this.blockContainer;
-            Block[] palette = this.palette;
 
-            for (int i = 0; i < numBlocks; i++)
-            {
-                Block block = palette[blockIdsByte[i] & 0xFF];
-                int x = i % sizeX;
-                int y = i / layerSize;
-                int z = (i % layerSize) / sizeX;
-                container.setBlockState(x, y, z, block.getStateFromMeta(metaArr[i]));
-            }
-        }
+        this.readBlockStates(blockIdsByte, metaArr, addArr, size);
 
         return true;
     }
 
-    @SuppressWarnings("deprecation")
-    protected boolean readBlocks12Bit(NBTTagCompound nbt, final byte[] blockIdsByte, final byte[] metaArr, final int sizeX, final int layerSize)
+    /**
+     * Reads the block states into a new block state container.
+     * The block state of every 12-bit block ID and metadata combination is looked up once,
+     * and the block arrays are then converted to palette IDs in parallel, in slabs of whole Y layers.
+     * @param addArr the 4-bit "AddBlocks" array for the upper bits of the block IDs, or null if there isn't one
+     */
+    protected void readBlockStates(final byte[] blockIdsByte, final byte[] metaArr, @Nullable final byte[] addArr, Vec3i size)
     {
-        ILitematicaBlockStateContainer container = this.blockContainer;
-        Block[] palette = this.palette;
-        byte[] add = nbt.getByteArray("AddBlocks");
-        final int numBlocks = blockIdsByte.length;
-        final int expectedAddLength = (int) Math.ceil((double) blockIdsByte.length / 2D);
+        final IBlockState[] stateTable = this.createStateLookupTable();
+        final int layerSize = size.getX() * size.getZ();
+        final int layersPerSlab = Math.max(1, SLAB_MIN_VOLUME / Math.max(1, layerSize));
+        final int slabCount = (size.getY() + layersPerSlab - 1) / layersPerSlab;
+
+        // Find out which combinations are used, to build the palette of the container.
+        // Writing the same value to the shared array from multiple threads is fine here.
+        final boolean[] usedKeys = new boolean[stateTable.length];
 
-        if (add.length != expectedAddLength)
+        IntStream.range(0, slabCount).parallel().forEach((slab) -> {
+            final int start = slab * layersPerSlab * layerSize;
+            final int end = Math.min(size.getY(), (slab + 1) * layersPerSlab) * layerSize;
+
+            for (int i = start; i < end; ++i)
+            {
+                usedKeys[getBlockKey(blockIdsByte, metaArr, addArr, i)] = true;
+            }
+        });
+
+        final int[] keyToId = new int[stateTable.length];
+        List<IBlockState> states = new ArrayList<>();
+        Map<IBlockState, Integer> stateIds = new HashMap<>();
+        IBlockState air = Blocks.AIR.getDefaultState();
+
+        // Always keep air as ID 0, same as in the other containers
+        states.add(air);
+        stateIds.put(air, 0);
+
+        for (int key = 0; key < stateTable.length; ++key)
         {
-            InfoUtils.printErrorMessage("litematica.message.error.schematic_read.schematica.schematic.invalid_block_add_array_size", numBlocks, add.length, expectedAddLength);
-            return false;
+            if (usedKeys[key])
+            {
+                IBlockState state = stateTable[key];
+                Integer id = stateIds.get(state);
+
+                if (id == null)
+                {
+                    id = states.size();
+                    states.add(state);
+                    stateIds.put(state, id);
+                }
+
+                keyToId[key] = id;
+            }
         }
 
-        final int loopMax;
+        LitematicaBlockStateContainerFull container = LitematicaBlockStateContainerFull.createContainer(states.size(), size);
+        container.getPalette().setMapping(states);
+
+        // Convert a batch of slabs in parallel, and then write them to the container one slab at a time
+        final int batchSize = Math.max(1, Runtime.getRuntime().availableProcessors() * 2);
 
-        // Even number of blocks, we can handle two position (meaning one full add byte) at a time
-        if ((numBlocks % 2) == 0)
+        for (int batchStart = 0; batchStart < slabCount; batchStart += batchSize)
         {
-            loopMax = numBlocks - 1;
+            final int batchEnd = Math.min(slabCount, batchStart + batchSize);
+            int[][] slabIds = IntStream.range(batchStart, batchEnd).parallel().mapToObj((slab) -> {
+                final int start = slab * layersPerSlab * layerSize;
+                final int end = Math.min(size.getY(), (slab + 1) * layersPerSlab) * layerSize;
+                int[] ids = new int[end - start];
+
+                for (int i = start; i < end; ++i)
+                {
+                    ids[i - start] = keyToId[getBlockKey(blockIdsByte, metaArr, addArr, i)];
+                }
+
+                return ids;
+            }).toArray(int[][]::new);
+
+            for (int slab = batchStart; slab < batchEnd; ++slab)
+            {
+                final int minY = slab * layersPerSlab;
+                container.setLayerIds(minY, Math.min(layersPerSlab, size.getY() - minY), slabIds[slab - batchStart]);
+            }
         }
-        else
+
+        this.blockContainer = container;
+    }
+
+    /**
+     * Returns the index of the block state of the block at the given index
+     * in the lookup table from {@link #createStateLookupTable()}
+     */
+    private static int getBlockKey(byte[] blockIdsByte, byte[] metaArr, @Nullable byte[] addArr, int index)
+    {
+        int id = blockIdsByte[index] & 0xFF;
+
+        if (addArr != null)
         {
-            loopMax = numBlocks - 2;
+            final int addValue = addArr[index >> 1];
+            id |= (index & 0x1) == 0 ? (addValue & 0xF0) << 4 : (addValue & 0x0F) << 8;
         }
 
-        Block block;
-        int byteId;
-        int bi, ai;
+        return id << 4 | (metaArr[index] & 0xF);
+    }
+
+    /**
+     * Creates a table of the block states for all the block ID and metadata combinations
+     * of the current palette, indexed by (id << 4 | meta)
+     */
+    @SuppressWarnings("deprecation")
+    protected IBlockState[] createStateLookupTable()
+    {
+        IBlockState[] table = new IBlockState[this.palette.length << 4];
+        Map<Block, IBlockState[]> statesByBlock = new IdentityHashMap<>();
 
-        // Handle two positions per iteration, ie. one full byte of the add array
-        for (bi = 0, ai = 0; bi < loopMax; bi += 2, ai++)
+        for (int id = 0; id < this.palette.length; ++id)
         {
-            final int addValue = add[ai];
+            IBlockState[] states = statesByBlock.computeIfAbsent(this.palette[id], (block) -> {
+                IBlockState[] arr = new IBlockState[16];
 
-            byteId = blockIdsByte[bi    ] & 0xFF;
-            block = palette[(addValue & 0xF0) << 4 | byteId];
-            int x = bi % sizeX;
-            int y = bi / layerSize;
-            int z = (bi % layerSize) / sizeX;
-            container.setBlockState(x, y, z, block.getStateFromMeta(metaArr[bi    ]));
+                for (int meta = 0; meta < 16; ++meta)
+                {
+                    try
+                    {
+                        arr[meta] = block.getStateFromMeta(meta);
+                    }
+                    catch (Exception e)
+                    {
+                        // Some blocks throw for the metadata values that they don't use
+                        arr[meta] = block.getDefaultState();
+                    }
+                }
 
-            x = (bi + 1) % sizeX;
-            y = (bi + 1) / layerSize;
-            z = ((bi + 1) % layerSize) / sizeX;
-            byteId = blockIdsByte[bi + 1] & 0xFF;
-            block = palette[(addValue & 0x0F) << 8 | byteId];
-            container.setBlockState(x, y, z, block.getStateFromMeta(metaArr[bi + 1]));
-        }
+                return arr;
+            });
 
-        // Odd number of blocks, handle the last position
-        if ((numBlocks % 2) != 0)
-        {
-            final int addValue = add[ai];
-            byteId = blockIdsByte[bi    ] & 0xFF;
-            block = palette[(addValue & 0xF0) << 4 | byteId];
-            int x = bi % sizeX;
-            int y = bi / layerSize;
-            int z = (bi % layerSize) / sizeX;
-            container.setBlockState(x, y, z, block.getStateFromMeta(metaArr[bi    ]));
+            System.arraycopy(states, 0, table, id << 4, 16);
         }
 
-        return true;
+        return table;
     }
 
     protected void createPalette()
@@ -357,7 +433,7 @@ public class SchematicaSchematic extends SingleRegionSchematic
 
                 if (id >= this.palette.length)
                 {
-                    InfoUtils.printErrorMessage("litematica.message.error.schematic_write.schematica.palette.invalid_id", id, state, this.palette.length - 1);
+                    MessageUtils.printErrorMessage("litematica.message.error.schematic_write.schematica.palette.invalid_id", id, state, this.palette.length - 1);
                     continue;
                 }
 
@@ -469,10 +545,10 @@ public class SchematicaSchematic extends SingleRegionSchematic
     }
 
     @Override
-    public void writeToStream(NBTTagCompound tag, FileOutputStream outputStream) throws IOException
+    public void writeToStream(NBTTagCompound tag, DataOutputStream outputStream) throws IOException
     {
         // MCEdit and World Edit require the root compound tag to be named "Schematic".
         // The vanilla util methods don't support doing that, so we have to use a custom method for it.
-        NbtUtils.writeCompressed(tag, "Schematic", outputStream);
+        NbtUtils.write(tag, "Schematic", outputStream);
     }
 }
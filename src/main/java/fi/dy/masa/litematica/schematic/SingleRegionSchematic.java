@@ -2,30 +2,33 @@ package fi.dy.masa.litematica.schematic;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
 import org.apache.commons.lang3.tuple.Pair;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import net.minecraft.block.state.IBlockState;
 import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.Mirror;
+import net.minecraft.util.Rotation;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Vec3d;
 import net.minecraft.util.math.Vec3i;
 import net.minecraft.world.NextTickListEntry;
 import fi.dy.masa.litematica.Litematica;
+import fi.dy.masa.litematica.schematic.container.BlockStateContainerUtils;
 import fi.dy.masa.litematica.schematic.container.ILitematicaBlockStateContainer;
 import fi.dy.masa.litematica.schematic.container.LitematicaBlockStateContainerFull;
+import fi.dy.masa.litematica.util.BlockPosMap;
+import fi.dy.masa.litematica.util.MessageUtils;
+import fi.dy.masa.litematica.util.NbtStreamReader;
 import fi.dy.masa.litematica.util.PositionUtils;
-import fi.dy.masa.malilib.util.InfoUtils;
 import fi.dy.masa.malilib.util.NBTUtils;
 
 public abstract class SingleRegionSchematic extends SchematicBase implements ISchematicRegion
 {
-    protected final Map<BlockPos, NBTTagCompound> blockEntities = new HashMap<>();
-    protected final Map<BlockPos, NextTickListEntry> pendingBlockTicks = new HashMap<>();
+    protected final BlockPosMap<NBTTagCompound> blockEntities = new BlockPosMap<>();
+    protected final BlockPosMap<NextTickListEntry> pendingBlockTicks = new BlockPosMap<>();
     protected final List<EntityInfo> entities = new ArrayList<>();
     protected ILitematicaBlockStateContainer blockContainer;
     protected BlockPos regionPos = BlockPos.ORIGIN;
@@ -91,7 +94,7 @@ public abstract class SingleRegionSchematic extends SchematicBase implements ISc
         {
             if (isSizeValid(size) == false)
             {
-                InfoUtils.printErrorMessage("litematica.message.error.schematic_read.invalid_or_missing_size_value", size.getX(), size.getY(), size.getZ());
+                MessageUtils.printErrorMessage("litematica.message.error.schematic_read.invalid_or_missing_size_value", size.getX(), size.getY(), size.getZ());
                 return;
             }
 
@@ -117,7 +120,7 @@ public abstract class SingleRegionSchematic extends SchematicBase implements ISc
     }
 
     @Override
-    public Map<BlockPos, NBTTagCompound> getBlockEntityMap()
+    public BlockPosMap<NBTTagCompound> getBlockEntityMap()
     {
         return this.blockEntities;
     }
@@ -129,7 +132,7 @@ public abstract class SingleRegionSchematic extends SchematicBase implements ISc
     }
 
     @Override
-    public Map<BlockPos, NextTickListEntry> getBlockTickMap()
+    public BlockPosMap<NextTickListEntry> getBlockTickMap()
     {
         return this.pendingBlockTicks;
     }
@@ -209,24 +212,7 @@ public abstract class SingleRegionSchematic extends SchematicBase implements ISc
                 // This is the relative position of this sub-region within the new single region enclosing schematic volume
                 Vec3i regionOffset = this.getRegionOffset(region, minCorner);
 
-                final int sizeX = size.getX();
-                final int sizeY = size.getY();
-                final int sizeZ = size.getZ();
-                final int offX = regionOffset.getX();
-                final int offY = regionOffset.getY();
-                final int offZ = regionOffset.getZ();
-
-                for (int y = 0; y < sizeY; ++y)
-                {
-                    for (int z = 0; z < sizeZ; ++z)
-                    {
-                        for (int x = 0; x < sizeX; ++x)
-                        {
-                            IBlockState state = containerOther.getBlockState(x, y, z);
-                            containerThis.setBlockState(x + offX, y + offY, z + offZ, state);
-                        }
-                    }
-                }
+                BlockStateContainerUtils.copyBlocks(containerOther, Vec3i.NULL_VECTOR, size, containerThis, regionOffset, Mirror.NONE, Rotation.NONE);
             }
         }
 
@@ -291,7 +277,7 @@ public abstract class SingleRegionSchematic extends SchematicBase implements ISc
 
         if (isSizeValid(this.regionSize) == false)
         {
-            InfoUtils.printErrorMessage("litematica.message.error.schematic_read.invalid_or_missing_size", this.getFile().getAbsolutePath());
+            MessageUtils.printErrorMessage("litematica.message.error.schematic_read.invalid_or_missing_size", this.getFile().getAbsolutePath());
             return false;
         }
 
@@ -305,9 +291,45 @@ public abstract class SingleRegionSchematic extends SchematicBase implements ISc
         }
         else
         {
-            InfoUtils.printErrorMessage("litematica.message.error.schematic_read.missing_or_invalid_data", this.getFile().getAbsolutePath());
+            MessageUtils.printErrorMessage("litematica.message.error.schematic_read.missing_or_invalid_data", this.getFile().getAbsolutePath());
+            return false;
+        }
+    }
+
+    /**
+     * Reads the metadata from just the header of the file, ie. from the root compound tag
+     * without the block data, the block entities and the entities.
+     * The total block count is only available if it was saved in the metadata.
+     */
+    @Override
+    public boolean readMetadataFromFile()
+    {
+        File file = this.getFile();
+
+        if (file == null)
+        {
             return false;
         }
+
+        try (NbtStreamReader reader = NbtStreamReader.openCompressed(file))
+        {
+            NBTTagCompound tag = reader.readRootCompoundHeader((t) -> false);
+
+            if (this.getType().isValidData(tag))
+            {
+                this.clear();
+                this.initFromTag(tag);
+                this.setSize(this.readSizeFromTag(tag), false);
+                this.readMetadataFromTag(tag);
+                return true;
+            }
+        }
+        catch (Exception e)
+        {
+            Litematica.logger.warn("Failed to read the schematic metadata from file '{}'", file.getAbsolutePath(), e);
+        }
+
+        return false;
     }
 
     /**
@@ -325,7 +347,7 @@ public abstract class SingleRegionSchematic extends SchematicBase implements ISc
         super.readMetadataFromTag(tag);
 
         // Not stored in metadata yet
-        if (this.getMetadata().getTotalBlocks() < 0)
+        if (this.getMetadata().getTotalBlocks() < 0 && this.blockContainer != null)
         {
             long totalBlocks = this.blockContainer.getTotalBlockCount();
             this.getMetadata().setTotalBlocks(totalBlocks);
@@ -1,6 +1,9 @@
 package fi.dy.masa.litematica.schematic;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -13,10 +16,12 @@ import net.minecraft.util.math.Vec3d;
 import net.minecraft.util.math.Vec3i;
 import fi.dy.masa.litematica.schematic.container.ILitematicaBlockStatePalette;
 import fi.dy.masa.litematica.schematic.container.LitematicaBlockStateContainerFull;
+import fi.dy.masa.litematica.util.CompressionType;
+import fi.dy.masa.litematica.util.MessageUtils;
+import fi.dy.masa.litematica.util.NbtStreamWriter;
 import fi.dy.masa.malilib.gui.util.Message.MessageType;
 import fi.dy.masa.malilib.util.BlockUtils;
 import fi.dy.masa.malilib.util.Constants;
-import fi.dy.masa.malilib.util.InfoUtils;
 import fi.dy.masa.malilib.util.NBTUtils;
 
 public class SpongeSchematic extends SingleRegionSchematic
@@ -100,13 +105,13 @@ public class SpongeSchematic extends SingleRegionSchematic
 
             if (state == null)
             {
-                InfoUtils.showGuiOrInGameMessage(MessageType.WARNING, "litematica.message.error.schematic_read.sponge.palette.unknown_block", key);
+                MessageUtils.showGuiOrInGameMessage(MessageType.WARNING, "litematica.message.error.schematic_read.sponge.palette.unknown_block", key);
                 state = LitematicaBlockStateContainerFull.AIR_BLOCK_STATE;
             }
 
             if (id < 0 || id >= size)
             {
-                InfoUtils.printErrorMessage("litematica.message.error.schematic_read.sponge.palette.invalid_id", id);
+                MessageUtils.printErrorMessage("litematica.message.error.schematic_read.sponge.palette.invalid_id", id);
                 return false;
             }
 
@@ -131,7 +136,7 @@ public class SpongeSchematic extends SingleRegionSchematic
 
             if (this.blockContainer == null)
             {
-                InfoUtils.printErrorMessage("litematica.message.error.schematic_read.sponge.failed_to_read_blocks");
+                MessageUtils.printErrorMessage("litematica.message.error.schematic_read.sponge.failed_to_read_blocks");
                 return false;
             }
 
@@ -214,15 +219,6 @@ public class SpongeSchematic extends SingleRegionSchematic
         tag.setTag("Metadata", metaTag);
     }
 
-    protected void writeBlocksToTag(NBTTagCompound tag)
-    {
-        NBTTagCompound paletteTag = this.writePaletteToTag(this.blockContainer.getPalette().getMapping());
-        byte[] blockData = ((LitematicaBlockStateContainerFull) this.blockContainer).getBackingArrayAsByteArray();
-
-        tag.setTag("Palette", paletteTag);
-        tag.setByteArray("BlockData", blockData);
-    }
-
     protected NBTTagCompound writePaletteToTag(List<IBlockState> list)
     {
         final int size = list.size();
@@ -288,10 +284,20 @@ public class SpongeSchematic extends SingleRegionSchematic
 
     @Override
     public NBTTagCompound toTag()
+    {
+        NBTTagCompound tag = this.toTagWithoutBlockData();
+        tag.setByteArray("BlockData", ((LitematicaBlockStateContainerFull) this.blockContainer).getBackingArrayAsByteArray());
+        return tag;
+    }
+
+    /**
+     * Writes everything except the block data array to a new compound tag
+     */
+    protected NBTTagCompound toTagWithoutBlockData()
     {
         NBTTagCompound tag = new NBTTagCompound();
 
-        this.writeBlocksToTag(tag);
+        tag.setTag("Palette", this.writePaletteToTag(this.blockContainer.getPalette().getMapping()));
         this.writeBlockEntitiesToTag(tag);
         this.writeEntitiesToTag(tag);
         this.writeMetadataToTag(tag);
@@ -305,4 +311,37 @@ public class SpongeSchematic extends SingleRegionSchematic
 
         return tag;
     }
+
+    /**
+     * Writes the schematic to the stream, with the block data array being encoded
+     * and written directly from the block state container in chunks, instead of
+     * first creating the entire byte array and the tag tree.
+     */
+    @Override
+    public void writeToStream(FileOutputStream outputStream, CompressionType compression, int level) throws IOException
+    {
+        LitematicaBlockStateContainerFull container = (LitematicaBlockStateContainerFull) this.blockContainer;
+        final long length = container.getVarintBlockDataLength();
+
+        // The NBT byte array length is a signed int, so larger data can't be stored in this format
+        if (length > Integer.MAX_VALUE)
+        {
+            throw new IOException("The block data length " + length + " exceeds the maximum Sponge schematic byte array length of " + Integer.MAX_VALUE);
+        }
+
+        NBTTagCompound tag = this.toTagWithoutBlockData();
+
+        try (NbtStreamWriter writer = new NbtStreamWriter(new BufferedOutputStream(compression.createOutputStream(outputStream, level), 65536)))
+        {
+            writer.beginCompound("");
+
+            for (String key : tag.getKeySet())
+            {
+                writer.writeTag(key, tag.getTag(key));
+            }
+
+            container.writeVarintBlockData(writer.beginByteArray("BlockData", (int) length));
+            writer.endCompound();
+        }
+    }
 }
@@ -17,11 +17,10 @@ import fi.dy.masa.litematica.schematic.container.ILitematicaBlockStateContainer;
 import fi.dy.masa.litematica.schematic.container.ILitematicaBlockStatePalette;
 import fi.dy.masa.litematica.schematic.container.LitematicaBlockStateContainerSparse;
 import fi.dy.masa.litematica.schematic.container.VanillaStructurePalette;
+import fi.dy.masa.litematica.util.MessageUtils;
 import fi.dy.masa.litematica.util.PositionUtils;
 import fi.dy.masa.malilib.util.Constants;
-import fi.dy.masa.malilib.util.InfoUtils;
 import fi.dy.masa.malilib.util.NBTUtils;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 
 public class VanillaStructure extends SingleRegionSchematic
 {
@@ -76,6 +75,17 @@ public class VanillaStructure extends SingleRegionSchematic
         return NBTUtils.readBlockPosFromListTag(tag, "size");
     }
 
+    @Override
+    protected void readMetadataFromTag(NBTTagCompound tag)
+    {
+        if (tag.hasKey("author", Constants.NBT.TAG_STRING))
+        {
+            this.getMetadata().setAuthor(tag.getString("author"));
+        }
+
+        super.readMetadataFromTag(tag);
+    }
+
     @Override
     protected boolean readBlocksFromTag(NBTTagCompound tag)
     {
@@ -89,15 +99,10 @@ public class VanillaStructure extends SingleRegionSchematic
 
             if (this.readPaletteFromLitematicaFormatTag(paletteTag, palette) == false)
             {
-                InfoUtils.printErrorMessage("litematica.message.error.schematic_read.vanilla.failed_to_read_palette");
+                MessageUtils.printErrorMessage("litematica.message.error.schematic_read.vanilla.failed_to_read_palette");
                 return false;
             }
 
-            if (tag.hasKey("author", Constants.NBT.TAG_STRING))
-            {
-                this.getMetadata().setAuthor(tag.getString("author"));
-            }
-
             NBTTagList blockList = tag.getTagList("blocks", Constants.NBT.TAG_COMPOUND);
             final int count = blockList.tagCount();
 
@@ -108,7 +113,7 @@ public class VanillaStructure extends SingleRegionSchematic
 
                 if (pos == null)
                 {
-                    InfoUtils.printErrorMessage("litematica.message.error.schematic_read.vanilla.failed_to_read_block_pos");
+                    MessageUtils.printErrorMessage("litematica.message.error.schematic_read.vanilla.failed_to_read_block_pos");
                     return false;
                 }
 
@@ -128,6 +133,8 @@ public class VanillaStructure extends SingleRegionSchematic
                 }
             }
 
+            container.freeze();
+
             return true;
         }
 
@@ -176,12 +183,7 @@ public class VanillaStructure extends SingleRegionSchematic
         if (this.blockContainer instanceof LitematicaBlockStateContainerSparse)
         {
             LitematicaBlockStateContainerSparse container = (LitematicaBlockStateContainerSparse) this.blockContainer;
-            Long2ObjectOpenHashMap<IBlockState> blockMap = container.getBlockMap();
-
-            blockMap.forEach((posLong, state) -> {
-                long pos = posLong.longValue();
-                this.writeBlockToList((int) (pos & 0xFFFF), (int) ((pos >>> 32) & 0xFFFF), (int) ((pos >> 16) & 0xFFFF), palette.idFor(state), blockList);
-            });
+            container.forEachBlock((x, y, z, state) -> this.writeBlockToList(x, y, z, palette.idFor(state), blockList));
         }
         else
         {
@@ -203,7 +205,7 @@ public class VanillaStructure extends SingleRegionSchematic
 
                         if (state != ignore)
                         {
-                            this.writeBlockToList(sizeX, y, z, palette.idFor(state), blockList);
+                            this.writeBlockToList(x, y, z, palette.idFor(state), blockList);
                         }
                     }
                 }
@@ -0,0 +1,191 @@
+package fi.dy.masa.litematica.schematic.container;
+
+import org.apache.commons.lang3.Validate;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.Mirror;
+import net.minecraft.util.Rotation;
+import net.minecraft.util.math.Vec3i;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+
+public class BlockStateContainerUtils
+{
+    /**
+     * Copies the blocks from a box in one container to a box in another container,
+     * with the given mirror and rotation applied to both the positions and the block states.
+     * The mirror is applied first and then the rotation, same as when placing schematics.
+     * Each different block state is only transformed once.
+     * Between two full containers the packed palette IDs are copied in bulk.
+     * @param from the container to copy from
+     * @param fromMin the minimum corner of the box to copy, in the source container
+     * @param size the size of the box to copy, before the transformations
+     * @param to the container to copy to. This must not be the same container as <b>from</b>.
+     * @param toMin the minimum corner of the transformed box, in the destination container
+     */
+    public static void copyBlocks(ILitematicaBlockStateContainer from, Vec3i fromMin, Vec3i size,
+                                  ILitematicaBlockStateContainer to, Vec3i toMin, Mirror mirror, Rotation rotation)
+    {
+        if (size.getX() <= 0 || size.getY() <= 0 || size.getZ() <= 0)
+        {
+            return;
+        }
+
+        AreaTransform transform = new AreaTransform(size, mirror, rotation);
+
+        Validate.isTrue(from != to, "Can't copy blocks within the same container");
+        Validate.isTrue(isBoxWithin(from.getSize(), fromMin, size), "The source box is outside of the container");
+        Validate.isTrue(isBoxWithin(to.getSize(), toMin, transform.getTransformedSize()), "The destination box is outside of the container");
+
+        if (from instanceof LitematicaBlockStateContainerFull && to instanceof LitematicaBlockStateContainerFull)
+        {
+            ((LitematicaBlockStateContainerFull) to).copyFrom((LitematicaBlockStateContainerFull) from, fromMin, toMin, transform);
+            return;
+        }
+
+        final Reference2ObjectOpenHashMap<IBlockState, IBlockState> transformedStates = new Reference2ObjectOpenHashMap<>();
+        final int offX = fromMin.getX();
+        final int offY = fromMin.getY();
+        final int offZ = fromMin.getZ();
+        final int toX = toMin.getX();
+        final int toY = toMin.getY();
+        final int toZ = toMin.getZ();
+
+        from.forEachRun(offX, offY, offZ, offX + size.getX() - 1, offY + size.getY() - 1, offZ + size.getZ() - 1,
+                        BlockStateRunSkip.NONE, (runStartX, y, z, length, state) -> {
+            IBlockState stateTransformed = transformedStates.computeIfAbsent(state, (s) -> getTransformedState(s, mirror, rotation));
+            final int localY = y - offY + toY;
+            final int localZ = z - offZ;
+
+            for (int x = runStartX - offX; x < runStartX - offX + length; ++x)
+            {
+                to.setBlockState(transform.getX(x, localZ) + toX, localY, transform.getZ(x, localZ) + toZ, stateTransformed);
+            }
+        });
+    }
+
+    public static IBlockState getTransformedState(IBlockState state, Mirror mirror, Rotation rotation)
+    {
+        if (mirror != Mirror.NONE)
+        {
+            state = state.withMirror(mirror);
+        }
+
+        if (rotation != Rotation.NONE)
+        {
+            state = state.withRotation(rotation);
+        }
+
+        return state;
+    }
+
+    public static boolean isBoxWithin(Vec3i containerSize, Vec3i boxMin, Vec3i boxSize)
+    {
+        return boxMin.getX() >= 0 && boxMin.getY() >= 0 && boxMin.getZ() >= 0 &&
+               boxMin.getX() + boxSize.getX() <= containerSize.getX() &&
+               boxMin.getY() + boxSize.getY() <= containerSize.getY() &&
+               boxMin.getZ() + boxSize.getZ() <= containerSize.getZ();
+    }
+
+    /**
+     * Maps the horizontal positions within a box to the positions within the mirrored and rotated box.
+     * Both positions are relative to the minimum corner of their box. The y-coordinate is not affected.
+     */
+    public static class AreaTransform
+    {
+        public final Vec3i size;
+        public final Mirror mirror;
+        public final Rotation rotation;
+        // The transformed position is x' = offX + xx * x + xz * z and z' = offZ + zx * x + zz * z
+        private final int offX;
+        private final int offZ;
+        private final int xx;
+        private final int xz;
+        private final int zx;
+        private final int zz;
+
+        public AreaTransform(Vec3i size, Mirror mirror, Rotation rotation)
+        {
+            this.size = size;
+            this.mirror = mirror;
+            this.rotation = rotation;
+
+            final int maxX = size.getX() - 1;
+            final int maxZ = size.getZ() - 1;
+            // The mirrored position is x = mOffX + mX * x and z = mOffZ + mZ * z
+            final int mOffX = mirror == Mirror.FRONT_BACK ? maxX : 0;
+            final int mOffZ = mirror == Mirror.LEFT_RIGHT ? maxZ : 0;
+            final int mX = mirror == Mirror.FRONT_BACK ? -1 : 1;
+            final int mZ = mirror == Mirror.LEFT_RIGHT ? -1 : 1;
+
+            switch (rotation)
+            {
+                case CLOCKWISE_90:
+                    // x' = maxZ - z, z' = x
+                    this.offX = maxZ - mOffZ; this.xx = 0; this.xz = -mZ;
+                    this.offZ = mOffX;        this.zx = mX; this.zz = 0;
+                    break;
+                case COUNTERCLOCKWISE_90:
+                    // x' = z, z' = maxX - x
+                    this.offX = mOffZ;        this.xx = 0; this.xz = mZ;
+                    this.offZ = maxX - mOffX; this.zx = -mX; this.zz = 0;
+                    break;
+                case CLOCKWISE_180:
+                    // x' = maxX - x, z' = maxZ - z
+                    this.offX = maxX - mOffX; this.xx = -mX; this.xz = 0;
+                    this.offZ = maxZ - mOffZ; this.zx = 0; this.zz = -mZ;
+                    break;
+                default:
+                    this.offX = mOffX; this.xx = mX; this.xz = 0;
+                    this.offZ = mOffZ; this.zx = 0; this.zz = mZ;
+            }
+        }
+
+        public boolean isIdentity()
+        {
+            return this.mirror == Mirror.NONE && this.rotation == Rotation.NONE;
+        }
+
+        /**
+         * @return true if the rows along the x-axis stay along the x-axis after the transformation
+         */
+        public boolean keepsRowsAlongX()
+        {
+            return this.zx == 0;
+        }
+
+        public Vec3i getTransformedSize()
+        {
+            if (this.rotation == Rotation.CLOCKWISE_90 || this.rotation == Rotation.COUNTERCLOCKWISE_90)
+            {
+                return new Vec3i(this.size.getZ(), this.size.getY(), this.size.getX());
+            }
+
+            return this.size;
+        }
+
+        public int getX(int x, int z)
+        {
+            return this.offX + this.xx * x + this.xz * z;
+        }
+
+        public int getZ(int x, int z)
+        {
+            return this.offZ + this.zx * x + this.zz * z;
+        }
+
+        /**
+         * @return the change in the transformed x-coordinate when the x-coordinate increases by one
+         */
+        public int getXStepAlongX()
+        {
+            return this.xx;
+        }
+
+        /**
+         * @return the change in the transformed z-coordinate when the x-coordinate increases by one
+         */
+        public int getZStepAlongX()
+        {
+            return this.zx;
+        }
+    }
+}
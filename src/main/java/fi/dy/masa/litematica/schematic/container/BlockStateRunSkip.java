@@ -0,0 +1,38 @@
+package fi.dy.masa.litematica.schematic.container;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+
+/**
+ * Which block state runs to leave out in {@link ILitematicaBlockStateContainer#forEachRun}
+ */
+public enum BlockStateRunSkip
+{
+    NONE                    (false, false),
+    AIR                     (true, false),
+    STRUCTURE_VOID          (false, true),
+    AIR_AND_STRUCTURE_VOID  (true, true);
+
+    private final boolean skipAir;
+    private final boolean skipStructureVoid;
+
+    private BlockStateRunSkip(boolean skipAir, boolean skipStructureVoid)
+    {
+        this.skipAir = skipAir;
+        this.skipStructureVoid = skipStructureVoid;
+    }
+
+    /**
+     * @return true if air runs are skipped, in which case the containers can also skip any rows that only contain air
+     */
+    public boolean skipsAir()
+    {
+        return this.skipAir;
+    }
+
+    public boolean shouldSkip(IBlockState state)
+    {
+        return (this.skipAir && state.getBlock() == Blocks.AIR) ||
+               (this.skipStructureVoid && state.getBlock() == Blocks.STRUCTURE_VOID);
+    }
+}
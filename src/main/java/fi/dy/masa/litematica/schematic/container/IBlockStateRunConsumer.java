@@ -0,0 +1,12 @@
+package fi.dy.masa.litematica.schematic.container;
+
+import net.minecraft.block.state.IBlockState;
+
+public interface IBlockStateRunConsumer
+{
+    /**
+     * Called for a run of <b>length</b> identical block states along the x-axis,
+     * starting from the position <b>x, y, z</b>
+     */
+    void accept(int x, int y, int z, int length, IBlockState state);
+}
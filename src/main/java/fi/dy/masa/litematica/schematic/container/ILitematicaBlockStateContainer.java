@@ -1,7 +1,10 @@
 package fi.dy.masa.litematica.schematic.container;
 
 import java.util.Map;
+import javax.annotation.Nullable;
+import org.apache.commons.lang3.tuple.Pair;
 import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.EnumFacing;
 import net.minecraft.util.math.Vec3i;
 
 public interface ILitematicaBlockStateContainer
@@ -14,9 +17,120 @@ public interface ILitematicaBlockStateContainer
 
     ILitematicaBlockStatePalette getPalette();
 
+    /**
+     * Returns the number of non-air blocks in the given layer along the given axis.
+     * The counts are calculated once when first needed, and after that they are kept up to date.
+     */
+    long getNonAirBlockCountInLayer(EnumFacing.Axis axis, int layer);
+
+    /**
+     * Returns the minimum and maximum corners (both inclusive) of the smallest box
+     * that contains all the non-air blocks in this container,
+     * or null if the container only contains air.
+     */
+    @Nullable
+    Pair<Vec3i, Vec3i> getNonAirBounds();
+
+    /**
+     * Returns a hash of the block contents of this container. The hash only depends on the
+     * block state in each position, and not on the palette or the container type,
+     * so it stays the same across saving and re-loading the schematic.
+     * Air contributes nothing to the hash, so a container with only air always has the hash 0.
+     * The hash is calculated once when first needed, and after that it is kept up to date on each block change.
+     */
+    long getContentHash();
+
     IBlockState getBlockState(int x, int y, int z);
 
     void setBlockState(int x, int y, int z, IBlockState state);
 
+    /**
+     * Sets a row of <b>length</b> blocks along the x-axis, starting from the given position,
+     * from the array <b>states</b> starting at the index <b>offset</b>.
+     * The row must be within the container.
+     * By default this calls {@link #setBlockState(int, int, int, IBlockState)} for each position.
+     */
+    default void setBlockStateRow(int x, int y, int z, IBlockState[] states, int offset, int length)
+    {
+        for (int i = 0; i < length; ++i)
+        {
+            this.setBlockState(x + i, y, z, states[offset + i]);
+        }
+    }
+
+    /**
+     * Calls the consumer for each run of identical block states along the x-axis,
+     * within the given box. The corners are inclusive, and must be within the container.
+     * The rows are visited in y, z order, and the runs in each row in increasing x order.
+     * Runs of the states matched by <b>skip</b> are not passed to the consumer.
+     * A run of one state may get split into consecutive runs, for example at storage boundaries.
+     * The consumer is allowed to change the blocks within the run it was given,
+     * but not any other positions in the rows that are still being iterated.
+     */
+    default void forEachRun(int minX, int minY, int minZ, int maxX, int maxY, int maxZ,
+                            BlockStateRunSkip skip, IBlockStateRunConsumer consumer)
+    {
+        if (minX > maxX)
+        {
+            return;
+        }
+
+        for (int y = minY; y <= maxY; ++y)
+        {
+            for (int z = minZ; z <= maxZ; ++z)
+            {
+                IBlockState runState = this.getBlockState(minX, y, z);
+                int runStart = minX;
+
+                for (int x = minX + 1; x <= maxX; ++x)
+                {
+                    IBlockState state = this.getBlockState(x, y, z);
+
+                    if (state != runState)
+                    {
+                        if (skip.shouldSkip(runState) == false)
+                        {
+                            consumer.accept(runStart, y, z, x - runStart, runState);
+                        }
+
+                        runState = state;
+                        runStart = x;
+                    }
+                }
+
+                if (skip.shouldSkip(runState) == false)
+                {
+                    consumer.accept(runStart, y, z, maxX - runStart + 1, runState);
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls the consumer for each run of identical block states in the entire container
+     */
+    default void forEachRun(BlockStateRunSkip skip, IBlockStateRunConsumer consumer)
+    {
+        Vec3i size = this.getSize();
+
+        if (size.getX() > 0 && size.getY() > 0 && size.getZ() > 0)
+        {
+            this.forEachRun(0, 0, 0, size.getX() - 1, size.getY() - 1, size.getZ() - 1, skip, consumer);
+        }
+    }
+
+    /**
+     * Returns a rough estimate of the heap memory used by the block data of this container, in bytes.
+     * By default this assumes a packed array of the whole volume, using the number of bits needed for the palette.
+     */
+    default long getEstimatedHeapUsage()
+    {
+        Vec3i size = this.getSize();
+        long volume = (long) size.getX() * size.getY() * size.getZ();
+        int bits = Math.max(2, 32 - Integer.numberOfLeadingZeros(Math.max(1, this.getPalette().getPaletteSize()) - 1));
+
+        return volume * bits / 8;
+    }
+
     ILitematicaBlockStateContainer copy();
 }
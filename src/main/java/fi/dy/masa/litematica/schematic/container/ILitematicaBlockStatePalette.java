@@ -47,6 +47,14 @@ public interface ILitematicaBlockStatePalette
      */
     boolean overrideMapping(int id, IBlockState state);
 
+    /**
+     * Removes the mapping for the given ID, without changing any of the other IDs.
+     * The ID will return null from {@link #getBlockState(int)} until it gets overridden.
+     * @param id
+     * @return true if the ID was found in the palette and thus possible to remove
+     */
+    boolean removeMapping(int id);
+
     /**
      * Creates a copy of this palette, using the provided resize handler
      * @param resizeHandler
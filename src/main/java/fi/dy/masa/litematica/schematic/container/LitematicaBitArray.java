@@ -1,22 +1,26 @@
 package fi.dy.masa.litematica.schematic.container;
 
+import java.nio.LongBuffer;
 import javax.annotation.Nullable;
 import org.apache.commons.lang3.Validate;
 import fi.dy.masa.malilib.util.MathUtils;
 
 public class LitematicaBitArray
 {
+    /** The number of entries to process at once in the whole-array bulk operations */
+    public static final int BULK_BUFFER_SIZE = 4096;
+
     /** The long array that is used to store the data for this BitArray. */
     private final long[] longArray;
     /** Number of bits a single entry takes up */
-    private final int bitsPerEntry;
+    protected final int bitsPerEntry;
     /**
      * The maximum value for a single entry. This also works as a bitmask for a single entry.
      * For instance, if bitsPerEntry were 5, this value would be 31 (ie, {@code 0b00011111}).
      */
-    private final long maxEntryValue;
+    protected final long maxEntryValue;
     /** Number of entries in this array (<b>not</b> the length of the long array that internally backs this array) */
-    private final long arraySize;
+    protected final long arraySize;
 
     public LitematicaBitArray(int bitsPerEntryIn, long arraySizeIn)
     {
@@ -36,10 +40,22 @@ public class LitematicaBitArray
         }
         else
         {
-            this.longArray = new long[(int) (MathUtils.roundUp((long) arraySizeIn * (long) bitsPerEntryIn, 64L) / 64L)];
+            this.longArray = new long[(int) getLongArrayLength(bitsPerEntryIn, arraySizeIn)];
         }
     }
 
+    /**
+     * Constructor for sub classes that store the data somewhere else than in a heap long array
+     */
+    protected LitematicaBitArray(int bitsPerEntryIn, long arraySizeIn, boolean allocateArray)
+    {
+        Validate.inclusiveBetween(1L, 32L, (long) bitsPerEntryIn);
+        this.arraySize = arraySizeIn;
+        this.bitsPerEntry = bitsPerEntryIn;
+        this.maxEntryValue = (1L << bitsPerEntryIn) - 1L;
+        this.longArray = allocateArray ? new long[(int) getLongArrayLength(bitsPerEntryIn, arraySizeIn)] : null;
+    }
+
     public void setAt(long index, int value)
     {
         Validate.inclusiveBetween(0L, this.arraySize - 1L, (long) index);
@@ -58,6 +74,33 @@ public class LitematicaBitArray
         }
     }
 
+    /**
+     * Sets the value at the given index, and returns the previous value
+     */
+    public int getAndSetAt(long index, int value)
+    {
+        Validate.inclusiveBetween(0L, this.arraySize - 1L, (long) index);
+        Validate.inclusiveBetween(0L, this.maxEntryValue, (long) value);
+        long startOffset = index * (long) this.bitsPerEntry;
+        int startArrIndex = (int) (startOffset >> 6); // startOffset / 64
+        int endArrIndex = (int) (((index + 1L) * (long) this.bitsPerEntry - 1L) >> 6);
+        int startBitOffset = (int) (startOffset & 0x3F); // startOffset % 64
+        long startWord = this.longArray[startArrIndex];
+        this.longArray[startArrIndex] = startWord & ~(this.maxEntryValue << startBitOffset) | ((long) value & this.maxEntryValue) << startBitOffset;
+
+        if (startArrIndex != endArrIndex)
+        {
+            int endOffset = 64 - startBitOffset;
+            int j1 = this.bitsPerEntry - endOffset;
+            long endWord = this.longArray[endArrIndex];
+            this.longArray[endArrIndex] = endWord >>> j1 << j1 | ((long) value & this.maxEntryValue) >> endOffset;
+
+            return (int) ((startWord >>> startBitOffset | endWord << endOffset) & this.maxEntryValue);
+        }
+
+        return (int) (startWord >>> startBitOffset & this.maxEntryValue);
+    }
+
     public int getAt(long index)
     {
         Validate.inclusiveBetween(0L, this.arraySize - 1L, (long) index);
@@ -77,26 +120,194 @@ public class LitematicaBitArray
         }
     }
 
+    /**
+     * Decodes <b>count</b> consecutive entries, starting from the entry <b>startIndex</b>,
+     * into the array <b>out</b> starting from the index <b>outOffset</b>.
+     * The range is only validated once, and the backing array is read one long at a time,
+     * so this is much faster than calling {@link #getAt(long)} for each entry.
+     */
+    public void getRange(long startIndex, int[] out, int outOffset, int count)
+    {
+        this.validateRange(startIndex, count);
+
+        if (count <= 0)
+        {
+            return;
+        }
+
+        final long[] arr = this.longArray;
+        final int bits = this.bitsPerEntry;
+        final long mask = this.maxEntryValue;
+        final int end = outOffset + count;
+        final long startOffset = startIndex * (long) bits;
+        int arrIndex = (int) (startOffset >> 6);
+        int bitOffset = (int) (startOffset & 0x3F);
+        long word = arr[arrIndex];
+
+        for (int i = outOffset; i < end; ++i)
+        {
+            final int nextBitOffset = bitOffset + bits;
+
+            if (nextBitOffset < 64)
+            {
+                out[i] = (int) (word >>> bitOffset & mask);
+                bitOffset = nextBitOffset;
+            }
+            else if (nextBitOffset == 64)
+            {
+                out[i] = (int) (word >>> bitOffset & mask);
+                bitOffset = 0;
+
+                if (++arrIndex < arr.length)
+                {
+                    word = arr[arrIndex];
+                }
+            }
+            // The entry continues in the next long
+            else
+            {
+                long nextWord = arr[++arrIndex];
+                out[i] = (int) ((word >>> bitOffset | nextWord << (64 - bitOffset)) & mask);
+                word = nextWord;
+                bitOffset = nextBitOffset - 64;
+            }
+        }
+    }
+
+    /**
+     * Encodes <b>count</b> values from the array <b>values</b>, starting from the index <b>valuesOffset</b>,
+     * into consecutive entries starting from the entry <b>startIndex</b>.
+     * The range is only validated once, and the backing array is written one long at a time.
+     * <b>Note:</b> The values themselves are not validated, they are just masked to the entry width.
+     */
+    public void setRange(long startIndex, int[] values, int valuesOffset, int count)
+    {
+        this.validateRange(startIndex, count);
+
+        if (count <= 0)
+        {
+            return;
+        }
+
+        final long[] arr = this.longArray;
+        final int bits = this.bitsPerEntry;
+        final long mask = this.maxEntryValue;
+        final int end = valuesOffset + count;
+        final long startOffset = startIndex * (long) bits;
+        int arrIndex = (int) (startOffset >> 6);
+        int bitOffset = (int) (startOffset & 0x3F);
+        long word = arr[arrIndex];
+
+        for (int i = valuesOffset; i < end; ++i)
+        {
+            final long value = (long) values[i] & mask;
+            final int nextBitOffset = bitOffset + bits;
+
+            word = word & ~(mask << bitOffset) | value << bitOffset;
+
+            if (nextBitOffset < 64)
+            {
+                bitOffset = nextBitOffset;
+            }
+            else
+            {
+                arr[arrIndex] = word;
+                bitOffset = nextBitOffset - 64;
+
+                if (++arrIndex < arr.length)
+                {
+                    word = arr[arrIndex];
+
+                    // The entry continues in the next long, write the remaining high bits
+                    if (bitOffset > 0)
+                    {
+                        word = word >>> bitOffset << bitOffset | value >>> (bits - bitOffset);
+                    }
+                }
+            }
+        }
+
+        if (arrIndex < arr.length)
+        {
+            arr[arrIndex] = word;
+        }
+    }
+
+    protected void validateRange(long startIndex, int count)
+    {
+        Validate.inclusiveBetween(0L, this.arraySize, startIndex);
+        Validate.inclusiveBetween(0L, this.arraySize - startIndex, (long) count);
+    }
+
     public long[] getValueCounts()
     {
         long[] counts = new long[(int) this.maxEntryValue + 1];
         final long size = this.arraySize;
+        final int[] buf = new int[BULK_BUFFER_SIZE];
 
-        for (long i = 0; i < size; ++i)
+        for (long index = 0; index < size; index += BULK_BUFFER_SIZE)
         {
-            ++counts[this.getAt(i)];
+            final int count = (int) Math.min(BULK_BUFFER_SIZE, size - index);
+            this.getRange(index, buf, 0, count);
+
+            for (int i = 0; i < count; ++i)
+            {
+                ++counts[buf[i]];
+            }
         }
 
         return counts;
     }
 
+    /**
+     * Copies all the entries from this array to the other array, which
+     * must have the same size but can have a different entry width.
+     */
+    public void copyTo(LitematicaBitArray other)
+    {
+        Validate.isTrue(other.arraySize == this.arraySize, "Bit array size mismatch");
+
+        final long size = this.arraySize;
+        final int[] buf = new int[BULK_BUFFER_SIZE];
+
+        for (long index = 0; index < size; index += BULK_BUFFER_SIZE)
+        {
+            final int count = (int) Math.min(BULK_BUFFER_SIZE, size - index);
+            this.getRange(index, buf, 0, count);
+            other.setRange(index, buf, 0, count);
+        }
+    }
+
     public long[] getBackingLongArray()
     {
         return this.longArray;
     }
 
+    /**
+     * Returns buffers that together contain all the backing data in order.
+     * This allows reading and writing the raw data in bulk, also for the sub classes
+     * that don't store the data in a single long array.
+     */
+    public LongBuffer[] getBackingBuffers()
+    {
+        return new LongBuffer[] { LongBuffer.wrap(this.longArray) };
+    }
+
+    public int getBitsPerEntry()
+    {
+        return this.bitsPerEntry;
+    }
+
     public long size()
     {
         return this.arraySize;
     }
+
+    /**
+     * @return the number of longs needed to store <b>arraySize</b> entries of width <b>bitsPerEntry</b>
+     */
+    public static long getLongArrayLength(int bitsPerEntry, long arraySize)
+    {
+        return MathUtils.roundUp(arraySize * (long) bitsPerEntry, 64L) / 64L;
+    }
 }
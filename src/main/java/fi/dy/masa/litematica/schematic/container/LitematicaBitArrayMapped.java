@@ -0,0 +1,276 @@
+package fi.dy.masa.litematica.schematic.container;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.LongBuffer;
+import javax.annotation.Nullable;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * A bit array that stores its data in a memory mapped temporary file instead of
+ * a long array on the heap. This allows storing more than 2^31 longs, and the data
+ * doesn't count towards the heap size, so very large volumes can be kept in memory
+ * without having to raise the maximum heap size of the game.
+ * See {@link MappedLongArray} for how the file is mapped.
+ */
+public class LitematicaBitArrayMapped extends LitematicaBitArray
+{
+    private final MappedLongArray data;
+    private final long longCount;
+
+    protected LitematicaBitArrayMapped(int bitsPerEntryIn, long arraySizeIn, MappedLongArray data)
+    {
+        super(bitsPerEntryIn, arraySizeIn, false);
+
+        this.data = data;
+        this.longCount = getLongArrayLength(bitsPerEntryIn, arraySizeIn);
+    }
+
+    /**
+     * Creates a new zero-filled array backed by a memory mapped temporary file.
+     * @param directory the directory for the temporary file, or null to use the system temp directory
+     */
+    public static LitematicaBitArrayMapped create(int bitsPerEntry, long arraySize, @Nullable File directory) throws IOException
+    {
+        MappedLongArray data = MappedLongArray.create(getLongArrayLength(bitsPerEntry, arraySize), directory);
+        return new LitematicaBitArrayMapped(bitsPerEntry, arraySize, data);
+    }
+
+    /**
+     * Creates an array that uses the given existing data, for example data that was read from a file
+     * @return the array, or null if the length of the data doesn't match the entry width and the array size
+     */
+    @Nullable
+    public static LitematicaBitArrayMapped wrap(int bitsPerEntry, long arraySize, MappedLongArray data)
+    {
+        if (data.getLength() != getLongArrayLength(bitsPerEntry, arraySize))
+        {
+            return null;
+        }
+
+        return new LitematicaBitArrayMapped(bitsPerEntry, arraySize, data);
+    }
+
+    private long getLong(long index)
+    {
+        return this.data.get(index);
+    }
+
+    private void setLong(long index, long value)
+    {
+        this.data.set(index, value);
+    }
+
+    @Override
+    public void setAt(long index, int value)
+    {
+        this.getAndSetAt(index, value);
+    }
+
+    @Override
+    public int getAndSetAt(long index, int value)
+    {
+        Validate.inclusiveBetween(0L, this.arraySize - 1L, (long) index);
+        Validate.inclusiveBetween(0L, this.maxEntryValue, (long) value);
+        long startOffset = index * (long) this.bitsPerEntry;
+        long startArrIndex = startOffset >> 6; // startOffset / 64
+        long endArrIndex = ((index + 1L) * (long) this.bitsPerEntry - 1L) >> 6;
+        int startBitOffset = (int) (startOffset & 0x3F); // startOffset % 64
+        long startWord = this.getLong(startArrIndex);
+        this.setLong(startArrIndex, startWord & ~(this.maxEntryValue << startBitOffset) | ((long) value & this.maxEntryValue) << startBitOffset);
+
+        if (startArrIndex != endArrIndex)
+        {
+            int endOffset = 64 - startBitOffset;
+            int j1 = this.bitsPerEntry - endOffset;
+            long endWord = this.getLong(endArrIndex);
+            this.setLong(endArrIndex, endWord >>> j1 << j1 | ((long) value & this.maxEntryValue) >> endOffset);
+
+            return (int) ((startWord >>> startBitOffset | endWord << endOffset) & this.maxEntryValue);
+        }
+
+        return (int) (startWord >>> startBitOffset & this.maxEntryValue);
+    }
+
+    @Override
+    public int getAt(long index)
+    {
+        Validate.inclusiveBetween(0L, this.arraySize - 1L, (long) index);
+        long startOffset = index * (long) this.bitsPerEntry;
+        long startArrIndex = startOffset >> 6; // startOffset / 64
+        long endArrIndex = ((index + 1L) * (long) this.bitsPerEntry - 1L) >> 6;
+        int startBitOffset = (int) (startOffset & 0x3F); // startOffset % 64
+
+        if (startArrIndex == endArrIndex)
+        {
+            return (int) (this.getLong(startArrIndex) >>> startBitOffset & this.maxEntryValue);
+        }
+        else
+        {
+            int endOffset = 64 - startBitOffset;
+            return (int) ((this.getLong(startArrIndex) >>> startBitOffset | this.getLong(endArrIndex) << endOffset) & this.maxEntryValue);
+        }
+    }
+
+    @Override
+    public void getRange(long startIndex, int[] out, int outOffset, int count)
+    {
+        this.validateRange(startIndex, count);
+
+        if (count <= 0)
+        {
+            return;
+        }
+
+        final int bits = this.bitsPerEntry;
+        final long mask = this.maxEntryValue;
+        final int end = outOffset + count;
+        final long startOffset = startIndex * (long) bits;
+        long arrIndex = startOffset >> 6;
+        int bitOffset = (int) (startOffset & 0x3F);
+        long word = this.getLong(arrIndex);
+
+        for (int i = outOffset; i < end; ++i)
+        {
+            final int nextBitOffset = bitOffset + bits;
+
+            if (nextBitOffset < 64)
+            {
+                out[i] = (int) (word >>> bitOffset & mask);
+                bitOffset = nextBitOffset;
+            }
+            else if (nextBitOffset == 64)
+            {
+                out[i] = (int) (word >>> bitOffset & mask);
+                bitOffset = 0;
+
+                if (++arrIndex < this.longCount)
+                {
+                    word = this.getLong(arrIndex);
+                }
+            }
+            // The entry continues in the next long
+            else
+            {
+                long nextWord = this.getLong(++arrIndex);
+                out[i] = (int) ((word >>> bitOffset | nextWord << (64 - bitOffset)) & mask);
+                word = nextWord;
+                bitOffset = nextBitOffset - 64;
+            }
+        }
+    }
+
+    @Override
+    public void setRange(long startIndex, int[] values, int valuesOffset, int count)
+    {
+        this.validateRange(startIndex, count);
+
+        if (count <= 0)
+        {
+            return;
+        }
+
+        final int bits = this.bitsPerEntry;
+        final long mask = this.maxEntryValue;
+        final int end = valuesOffset + count;
+        final long startOffset = startIndex * (long) bits;
+        long arrIndex = startOffset >> 6;
+        int bitOffset = (int) (startOffset & 0x3F);
+        long word = this.getLong(arrIndex);
+
+        for (int i = valuesOffset; i < end; ++i)
+        {
+            final long value = (long) values[i] & mask;
+            final int nextBitOffset = bitOffset + bits;
+
+            word = word & ~(mask << bitOffset) | value << bitOffset;
+
+            if (nextBitOffset < 64)
+            {
+                bitOffset = nextBitOffset;
+            }
+            else
+            {
+                this.setLong(arrIndex, word);
+                bitOffset = nextBitOffset - 64;
+
+                if (++arrIndex < this.longCount)
+                {
+                    word = this.getLong(arrIndex);
+
+                    // The entry continues in the next long, write the remaining high bits
+                    if (bitOffset > 0)
+                    {
+                        word = word >>> bitOffset << bitOffset | value >>> (bits - bitOffset);
+                    }
+                }
+            }
+        }
+
+        if (arrIndex < this.longCount)
+        {
+            this.setLong(arrIndex, word);
+        }
+    }
+
+    /**
+     * Re-packs the data in place to the given larger entry width, growing the file as needed.
+     * The returned array takes over the file, and this array must not be used after this.
+     */
+    public LitematicaBitArrayMapped resize(int bitsPerEntryIn) throws IOException
+    {
+        Validate.isTrue(bitsPerEntryIn >= this.bitsPerEntry, "The entry width can't be decreased in place");
+
+        this.data.grow(getLongArrayLength(bitsPerEntryIn, this.arraySize));
+
+        LitematicaBitArrayMapped array = new LitematicaBitArrayMapped(bitsPerEntryIn, this.arraySize, this.data);
+        final int[] buf = new int[BULK_BUFFER_SIZE];
+
+        // Going from the end to the start, each entry gets written at or after its old position,
+        // so the entries that haven't been read yet never get overwritten
+        for (long end = this.arraySize; end > 0; end -= BULK_BUFFER_SIZE)
+        {
+            final long start = Math.max(0L, end - BULK_BUFFER_SIZE);
+            final int count = (int) (end - start);
+            this.getRange(start, buf, 0, count);
+            array.setRange(start, buf, 0, count);
+        }
+
+        return array;
+    }
+
+    /**
+     * Creates a copy of this array in a new memory mapped file
+     */
+    public LitematicaBitArrayMapped copy() throws IOException
+    {
+        return new LitematicaBitArrayMapped(this.bitsPerEntry, this.arraySize, this.data.copy());
+    }
+
+    /**
+     * Copies the raw data from the given long array into this array.
+     * The long array must be using the same entry width as this array.
+     */
+    public void setBackingData(long[] longArray)
+    {
+        this.data.setFrom(longArray);
+    }
+
+    @Override
+    public LongBuffer[] getBackingBuffers()
+    {
+        return this.data.getBuffers();
+    }
+
+    /**
+     * Returns a copy of the data in a new heap long array.
+     * Changes to the returned array will not affect this bit array.
+     * Use {@link #getBackingBuffers()} instead where possible.
+     * @throws IllegalStateException if the data doesn't fit in a single long array
+     */
+    @Override
+    public long[] getBackingLongArray()
+    {
+        return this.data.toLongArray();
+    }
+}
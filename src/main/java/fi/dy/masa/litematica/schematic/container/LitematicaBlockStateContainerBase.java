@@ -1,8 +1,13 @@
 package fi.dy.masa.litematica.schematic.container;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+import org.apache.commons.lang3.tuple.Pair;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
+import net.minecraft.util.EnumFacing;
 import net.minecraft.util.math.Vec3i;
 import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
 
@@ -10,6 +15,7 @@ public abstract class LitematicaBlockStateContainerBase implements ILitematicaBl
 {
     public static final IBlockState AIR_BLOCK_STATE = Blocks.AIR.getDefaultState();
     protected static final int MAX_BITS_LINEAR = 4;
+    private static final Map<IBlockState, Long> STATE_HASHES = new ConcurrentHashMap<>();
 
     protected ILitematicaBlockStatePalette palette;
     protected final Vec3i size;
@@ -21,6 +27,13 @@ public abstract class LitematicaBlockStateContainerBase implements ILitematicaBl
     protected long[] blockCounts = new long[0];
     protected int bits;
     protected boolean hasSetBlockCounts;
+    /** The number of non-air blocks in each x, y and z layer. These are null until first needed. */
+    @Nullable protected long[] nonAirCountsX;
+    @Nullable protected long[] nonAirCountsY;
+    @Nullable protected long[] nonAirCountsZ;
+    /** The content hash of the block data, only valid if hasContentHash is true */
+    protected long contentHash;
+    protected boolean hasContentHash;
 
     public LitematicaBlockStateContainerBase(Vec3i size)
     {
@@ -96,6 +109,241 @@ public abstract class LitematicaBlockStateContainerBase implements ILitematicaBl
         return map;
     }
 
+    @Override
+    public long getNonAirBlockCountInLayer(EnumFacing.Axis axis, int layer)
+    {
+        this.calculateNonAirCountsIfNeeded();
+
+        long[] counts = axis == EnumFacing.Axis.X ? this.nonAirCountsX : (axis == EnumFacing.Axis.Y ? this.nonAirCountsY : this.nonAirCountsZ);
+
+        return layer >= 0 && layer < counts.length ? counts[layer] : 0;
+    }
+
+    @Override
+    @Nullable
+    public Pair<Vec3i, Vec3i> getNonAirBounds()
+    {
+        this.calculateNonAirCountsIfNeeded();
+
+        final int minY = getFirstNonZeroIndex(this.nonAirCountsY);
+
+        if (minY == -1)
+        {
+            return null;
+        }
+
+        Vec3i posMin = new Vec3i(getFirstNonZeroIndex(this.nonAirCountsX), minY, getFirstNonZeroIndex(this.nonAirCountsZ));
+        Vec3i posMax = new Vec3i(getLastNonZeroIndex(this.nonAirCountsX), getLastNonZeroIndex(this.nonAirCountsY), getLastNonZeroIndex(this.nonAirCountsZ));
+
+        return Pair.of(posMin, posMax);
+    }
+
+    @Override
+    public long getContentHash()
+    {
+        if (this.hasContentHash == false)
+        {
+            this.contentHash = this.calculateContentHash();
+            this.hasContentHash = true;
+        }
+
+        return this.contentHash;
+    }
+
+    protected long calculateContentHash()
+    {
+        final long[] hash = new long[1];
+
+        this.forEachRun(BlockStateRunSkip.AIR, (x, y, z, length, state) -> {
+            final long stateHash = getStateHash(state);
+            final long index = this.getHashIndex(x, y, z);
+
+            for (int i = 0; i < length; ++i)
+            {
+                hash[0] += getBlockHash(index + i, stateHash);
+            }
+        });
+
+        return hash[0];
+    }
+
+    /**
+     * Sets the content hash to an already known value, so that it doesn't need to be calculated.
+     * This is meant for block data that is known to be unchanged since the hash was calculated,
+     * such as a sub-region decoded from a file, using the hash stored in the schematic metadata.
+     */
+    public void setKnownContentHash(long hash)
+    {
+        this.contentHash = hash;
+        this.hasContentHash = true;
+    }
+
+    /**
+     * Copies the content hash from the other container, if it has it calculated
+     */
+    protected void copyContentHashFrom(LitematicaBlockStateContainerBase other)
+    {
+        this.contentHash = other.contentHash;
+        this.hasContentHash = other.hasContentHash;
+    }
+
+    /**
+     * Forces the content hash to be re-calculated when next needed.
+     * This must be called after modifying the block data without going through setBlockState().
+     */
+    protected void invalidateContentHash()
+    {
+        this.hasContentHash = false;
+    }
+
+    /**
+     * Updates the content hash, if it has been calculated, for a block change at the given position
+     */
+    protected void updateContentHash(int x, int y, int z, @Nullable IBlockState stateOld, IBlockState stateNew)
+    {
+        if (this.hasContentHash && stateOld != stateNew)
+        {
+            this.contentHash += this.getBlockHash(x, y, z, stateNew) - this.getBlockHash(x, y, z, stateOld);
+        }
+    }
+
+    /**
+     * Returns the contribution of the given block to the content hash
+     */
+    protected long getBlockHash(int x, int y, int z, @Nullable IBlockState state)
+    {
+        return getBlockHash(this.getHashIndex(x, y, z), getStateHash(state));
+    }
+
+    private long getHashIndex(int x, int y, int z)
+    {
+        return (long) y * this.sizeLayer + (long) z * (long) this.sizeX + (long) x;
+    }
+
+    /**
+     * Returns the state hashes of all the states in the current palette, indexed by their palette ID
+     */
+    protected long[] getPaletteStateHashes()
+    {
+        final ILitematicaBlockStatePalette palette = this.getPalette();
+        final int paletteSize = palette.getPaletteSize();
+        long[] hashes = new long[paletteSize];
+
+        for (int id = 0; id < paletteSize; ++id)
+        {
+            hashes[id] = getStateHash(palette.getBlockState(id));
+        }
+
+        return hashes;
+    }
+
+    /**
+     * Returns the summed content hash contribution of a range of consecutive positions,
+     * starting from the hash index <b>startIndex</b>, with the palette IDs from the array <b>ids</b>
+     * and the state hashes from {@link #getPaletteStateHashes()}.
+     */
+    protected static long getIdRangeHash(long startIndex, int[] ids, int offset, int length, long[] stateHashes)
+    {
+        final int hashCount = stateHashes.length;
+        long hash = 0L;
+
+        for (int i = 0; i < length; ++i)
+        {
+            final int id = ids[offset + i];
+
+            if (id < hashCount)
+            {
+                hash += getBlockHash(startIndex + i, stateHashes[id]);
+            }
+        }
+
+        return hash;
+    }
+
+    /**
+     * Returns true if the row along the x-axis at the given y and z coordinates
+     * is already known to only contain air. This never calculates the layer counts.
+     */
+    protected boolean isRowKnownToBeEmpty(int y, int z)
+    {
+        return this.nonAirCountsY != null && (this.nonAirCountsY[y] == 0 || this.nonAirCountsZ[z] == 0);
+    }
+
+    protected void calculateNonAirCountsIfNeeded()
+    {
+        if (this.nonAirCountsY == null)
+        {
+            final long[] countsX = new long[this.sizeX];
+            final long[] countsY = new long[this.sizeY];
+            final long[] countsZ = new long[this.sizeZ];
+
+            this.forEachRun(BlockStateRunSkip.AIR, (x, y, z, length, state) -> {
+                countsY[y] += length;
+                countsZ[z] += length;
+
+                for (int i = x; i < x + length; ++i)
+                {
+                    ++countsX[i];
+                }
+            });
+
+            this.setNonAirCounts(countsX, countsY, countsZ);
+        }
+    }
+
+    protected void setNonAirCounts(long[] countsX, long[] countsY, long[] countsZ)
+    {
+        this.nonAirCountsX = countsX;
+        this.nonAirCountsY = countsY;
+        this.nonAirCountsZ = countsZ;
+    }
+
+    /**
+     * Copies the layer counts from the other container, which must have the same contents.
+     * If the other container doesn't have them calculated, then they are cleared from this container too.
+     */
+    protected void copyNonAirCountsFrom(LitematicaBlockStateContainerBase other)
+    {
+        if (other.nonAirCountsY != null)
+        {
+            this.setNonAirCounts(other.nonAirCountsX.clone(), other.nonAirCountsY.clone(), other.nonAirCountsZ.clone());
+        }
+        else
+        {
+            this.invalidateNonAirCounts();
+        }
+    }
+
+    /**
+     * Forces the layer counts to be re-calculated when next needed.
+     * This must be called after modifying the block data without going through setBlockState().
+     */
+    protected void invalidateNonAirCounts()
+    {
+        this.nonAirCountsX = null;
+        this.nonAirCountsY = null;
+        this.nonAirCountsZ = null;
+    }
+
+    /**
+     * Updates the layer counts, if they have been calculated, for a block change at the given position
+     */
+    protected void updateNonAirCounts(int x, int y, int z, @Nullable IBlockState stateOld, IBlockState stateNew)
+    {
+        if (this.nonAirCountsY != null)
+        {
+            final boolean wasAir = isAir(stateOld);
+
+            if (wasAir != isAir(stateNew))
+            {
+                final long change = wasAir ? 1 : -1;
+                this.nonAirCountsX[x] += change;
+                this.nonAirCountsY[y] += change;
+                this.nonAirCountsZ[z] += change;
+            }
+        }
+    }
+
     protected void setBlockCounts(long[] blockCounts)
     {
         final int length = blockCounts.length;
@@ -109,6 +357,16 @@ public abstract class LitematicaBlockStateContainerBase implements ILitematicaBl
         this.hasSetBlockCounts = true;
     }
 
+    protected void ensureBlockCountsCapacity(int size)
+    {
+        if (this.blockCounts.length < size)
+        {
+            long[] oldArr = this.blockCounts;
+            this.blockCounts = new long[Math.max(size, oldArr.length * 2)];
+            System.arraycopy(oldArr, 0, this.blockCounts, 0, oldArr.length);
+        }
+    }
+
     protected void setBits(int bitsIn)
     {
         this.bits = bitsIn;
@@ -116,6 +374,82 @@ public abstract class LitematicaBlockStateContainerBase implements ILitematicaBl
 
     protected abstract void calculateBlockCountsIfNeeded();
 
+    protected static boolean isAir(@Nullable IBlockState state)
+    {
+        return state == null || state.getBlock() == Blocks.AIR;
+    }
+
+    /**
+     * Returns a hash of the given state, which stays the same across game restarts.
+     * This is based on the registry name and the property values of the state, and air is always 0.
+     */
+    private static long getStateHash(@Nullable IBlockState state)
+    {
+        if (isAir(state))
+        {
+            return 0L;
+        }
+
+        return STATE_HASHES.computeIfAbsent(state, (s) -> {
+            // 64-bit FNV-1a
+            long hash = 0xCBF29CE484222325L;
+
+            for (byte b : s.toString().getBytes(StandardCharsets.UTF_8))
+            {
+                hash ^= b & 0xFF;
+                hash *= 0x100000001B3L;
+            }
+
+            return hash != 0L ? hash : 1L;
+        });
+    }
+
+    /**
+     * Returns the contribution of one block to the content hash. The contributions are summed up,
+     * so that the hash doesn't depend on the palette or the storage layout, and so that
+     * a single block change can be applied to it by subtracting the old contribution and adding the new one.
+     */
+    protected static long getBlockHash(long index, long stateHash)
+    {
+        if (stateHash == 0L)
+        {
+            return 0L;
+        }
+
+        // The finalizer of SplitMix64
+        long hash = index * 0x9E3779B97F4A7C15L + stateHash;
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+
+        return hash ^ (hash >>> 31);
+    }
+
+    private static int getFirstNonZeroIndex(long[] arr)
+    {
+        for (int i = 0; i < arr.length; ++i)
+        {
+            if (arr[i] != 0)
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int getLastNonZeroIndex(long[] arr)
+    {
+        for (int i = arr.length - 1; i >= 0; --i)
+        {
+            if (arr[i] != 0)
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
     public static ILitematicaBlockStatePalette createPalette(int bits, IPaletteResizeHandler resizeHandler)
     {
         if (bits <= MAX_BITS_LINEAR)
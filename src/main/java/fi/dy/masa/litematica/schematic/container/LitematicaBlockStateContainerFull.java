@@ -1,15 +1,29 @@
 package fi.dy.masa.litematica.schematic.container;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import javax.annotation.Nullable;
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.Validate;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
-import net.minecraft.network.PacketBuffer;
+import net.minecraft.util.Mirror;
+import net.minecraft.util.Rotation;
 import net.minecraft.util.math.Vec3i;
-import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 
 public class LitematicaBlockStateContainerFull extends LitematicaBlockStateContainerBase implements IPaletteResizeHandler
 {
+    protected final IntArrayList freedIds = new IntArrayList();
     protected LitematicaBitArray storage;
+    /** The containers sharing the current storage array, see {@link #copy()} */
+    protected StorageShare storageShare = new StorageShare(this);
     protected boolean checkForFreedIds = true;
 
     public LitematicaBlockStateContainerFull(Vec3i size)
@@ -31,6 +45,39 @@ public class LitematicaBlockStateContainerFull extends LitematicaBlockStateConta
         this.setBackingArray(backingLongArray);
     }
 
+    /**
+     * Creates a container that uses the given existing storage, which must have the same volume as the container
+     */
+    protected LitematicaBlockStateContainerFull(Vec3i size, LitematicaBitArray storage)
+    {
+        super(size, storage.getBitsPerEntry());
+
+        this.setStorage(storage, true);
+    }
+
+    /**
+     * Creates a copy of the other container, which shares the block storage with
+     * the other container until either one of them is modified.
+     */
+    protected LitematicaBlockStateContainerFull(LitematicaBlockStateContainerFull other)
+    {
+        super(other.size, other.bits);
+
+        this.storage = other.storage;
+        this.storageShare = other.storageShare;
+        this.storageShare.add(this);
+        this.palette = other.palette.copy(this);
+        this.checkForFreedIds = other.checkForFreedIds;
+
+        if (other.hasSetBlockCounts)
+        {
+            this.setBlockCounts(other.blockCounts);
+        }
+
+        this.copyNonAirCountsFrom(other);
+        this.copyContentHashFrom(other);
+    }
+
     @Override
     protected void setBits(int bitsIn)
     {
@@ -55,14 +102,95 @@ public class LitematicaBlockStateContainerFull extends LitematicaBlockStateConta
 
     protected void setBackingArray(@Nullable long[] backingLongArray)
     {
-        if (backingLongArray != null)
+        this.setStorage(this.createStorage(this.bits, backingLongArray), backingLongArray != null);
+    }
+
+    /**
+     * Sets the storage, and the block counts and the content hash for it
+     * @param hasData false if the storage is new and only contains air
+     */
+    protected void setStorage(LitematicaBitArray storage, boolean hasData)
+    {
+        Validate.isTrue(storage.size() == this.totalVolume, "Storage size mismatch");
+
+        this.storage = storage;
+        this.invalidateNonAirCounts();
+        this.invalidateContentHash();
+
+        if (hasData)
         {
-            this.storage = new LitematicaBitArray(this.bits, this.totalVolume, backingLongArray);
+            this.hasSetBlockCounts = false;
         }
         else
         {
-            this.storage = new LitematicaBitArray(this.bits, this.totalVolume);
+            // A new container is all air, so the counts and the content hash are known without counting
+            long[] counts = new long[1 << this.bits];
+            counts[0] = this.totalVolume;
+            this.setBlockCounts(counts);
+            this.setNonAirCounts(new long[this.sizeX], new long[this.sizeY], new long[this.sizeZ]);
+            this.contentHash = 0L;
+            this.hasContentHash = true;
+        }
+    }
+
+    /**
+     * Creates the bit array for the block data, using the given backing array if it's not null
+     */
+    protected LitematicaBitArray createStorage(int bits, @Nullable long[] backingLongArray)
+    {
+        return new LitematicaBitArray(bits, this.totalVolume, backingLongArray);
+    }
+
+    /**
+     * Creates a new bit array with the same contents as the current storage
+     */
+    protected LitematicaBitArray copyStorage()
+    {
+        return this.createStorage(this.bits, this.storage.getBackingLongArray().clone());
+    }
+
+    /**
+     * Creates a bit array with the given larger entry width and the same contents as the current storage
+     */
+    protected LitematicaBitArray createResizedStorage(int bits)
+    {
+        LitematicaBitArray array = this.createStorage(bits, null);
+        this.storage.copyTo(array);
+        return array;
+    }
+
+    /**
+     * Makes sure that the storage is not shared with any copies of this container,
+     * by copying it if needed. This must be called before modifying the storage.
+     */
+    protected void ensureStorageNotShared()
+    {
+        if (this.storageShare.isSharedBy(this))
+        {
+            this.setUnsharedStorage(this.copyStorage());
+        }
+    }
+
+    /**
+     * Sets a storage array that is only used by this container
+     */
+    protected void setUnsharedStorage(LitematicaBitArray storage)
+    {
+        if (this.storageShare.isSharedBy(this))
+        {
+            this.storageShare.remove(this);
+            this.storageShare = new StorageShare(this);
         }
+
+        this.storage = storage;
+    }
+
+    /**
+     * @return true if the block storage is currently shared with copies of this container
+     */
+    public boolean isStorageShared()
+    {
+        return this.storageShare.isSharedBy(this);
     }
 
     @Override
@@ -75,51 +203,233 @@ public class LitematicaBlockStateContainerFull extends LitematicaBlockStateConta
     @Override
     public void setBlockState(int x, int y, int z, IBlockState state)
     {
+        // Note: getting the ID may resize the storage, which also un-shares it
         int id = this.palette.idFor(state);
-        this.storage.setAt(this.getIndex(x, y, z), id);
-        this.hasSetBlockCounts = false; // Force a re-count when next queried
+        this.ensureStorageNotShared();
+        int oldId = this.storage.getAndSetAt(this.getIndex(x, y, z), id);
+
+        this.onIdChanged(x, y, z, oldId, id, state);
     }
 
+    /**
+     * Sets the row one run of identical states at a time, so that the palette ID only needs
+     * to be looked up once per run, and each run is written with one range write.
+     * The counts are kept up to date the same way as in {@link #setBlockState(int, int, int, IBlockState)}.
+     */
     @Override
-    public int onResize(int bits, IBlockState state, ILitematicaBlockStatePalette oldPalette)
+    public void setBlockStateRow(int x, int y, int z, IBlockState[] states, int offset, int length)
     {
-        if (this.checkForFreedIds)
+        if (length <= 0)
         {
-            long[] counts = this.storage.getValueCounts();
-            final int countsSize = counts.length;
+            return;
+        }
+
+        final long startIndex = this.getIndex(x, y, z);
+        final int[] oldIds = new int[length];
+        final int[] ids = new int[length];
+        int runStart = 0;
+
+        this.storage.getRange(startIndex, oldIds, 0, length);
+
+        while (runStart < length)
+        {
+            final IBlockState state = states[offset + runStart];
+            int runEnd = runStart + 1;
+
+            while (runEnd < length && states[offset + runEnd] == state)
+            {
+                ++runEnd;
+            }
+
+            // Note: getting the ID may resize the storage, which also un-shares it.
+            // The previous runs have already been written and counted at this point,
+            // so a resize only re-uses IDs that are actually unused.
+            final int id = this.palette.idFor(state);
+            this.ensureStorageNotShared();
+
+            Arrays.fill(ids, runStart, runEnd, id);
+            this.storage.setRange(startIndex + runStart, ids, runStart, runEnd - runStart);
+
+            for (int i = runStart; i < runEnd; ++i)
+            {
+                this.onIdChanged(x + i, y, z, oldIds[i], id, state);
+            }
+
+            runStart = runEnd;
+        }
+    }
+
+    /**
+     * Updates the block counts, the layer counts and the content hash, if they have been calculated,
+     * after the ID at the given position was changed from <b>oldId</b> to <b>id</b> in the storage
+     */
+    protected void onIdChanged(int x, int y, int z, int oldId, int id, IBlockState state)
+    {
+        if (oldId == id)
+        {
+            return;
+        }
+
+        // The counts are only kept up to date once they have been calculated
+        if (this.hasSetBlockCounts)
+        {
+            this.ensureBlockCountsCapacity(id + 1);
+
+            ++this.blockCounts[id];
+
+            // Keep track of IDs that are no longer in use, so that they can be re-used on resize.
+            // ID 0 is always kept reserved for air.
+            if (--this.blockCounts[oldId] == 0 && oldId != 0)
+            {
+                this.freedIds.add(oldId);
+            }
+        }
+
+        if (this.nonAirCountsY != null || this.hasContentHash)
+        {
+            IBlockState stateOld = this.palette.getBlockState(oldId);
+            this.updateNonAirCounts(x, y, z, stateOld, state);
+            this.updateContentHash(x, y, z, stateOld, state);
+        }
+    }
+
+    @Override
+    public void forEachRun(int minX, int minY, int minZ, int maxX, int maxY, int maxZ,
+                           BlockStateRunSkip skip, IBlockStateRunConsumer consumer)
+    {
+        if (minX > maxX)
+        {
+            return;
+        }
 
-            // Check if there are any IDs that are not in use anymore
-            for (int id = 0; id < countsSize; ++id)
+        final int rowLength = maxX - minX + 1;
+        final int[] ids = new int[Math.min(LitematicaBitArray.BULK_BUFFER_SIZE, rowLength)];
+        final boolean skipEmptyRows = skip.skipsAir();
+
+        for (int y = minY; y <= maxY; ++y)
+        {
+            for (int z = minZ; z <= maxZ; ++z)
             {
-                // Found an ID that is not in use anymore, use that instead of increasing the palette size
-                if (counts[id] == 0)
+                if (skipEmptyRows && this.isRowKnownToBeEmpty(y, z))
                 {
-                    if (this.palette.overrideMapping(id, state))
+                    continue;
+                }
+
+                final long rowStartIndex = this.getIndex(minX, y, z);
+                int runStart = minX;
+                int runId = -1;
+
+                for (int offset = 0; offset < rowLength; offset += ids.length)
+                {
+                    final int count = Math.min(ids.length, rowLength - offset);
+                    this.storage.getRange(rowStartIndex + offset, ids, 0, count);
+
+                    for (int i = 0; i < count; ++i)
                     {
-                        return id;
+                        final int id = ids[i];
+
+                        if (id != runId)
+                        {
+                            final int x = minX + offset + i;
+
+                            if (runId != -1)
+                            {
+                                this.acceptRun(runStart, y, z, x - runStart, runId, skip, consumer);
+                            }
+
+                            runId = id;
+                            runStart = x;
+                        }
                     }
                 }
+
+                this.acceptRun(runStart, y, z, maxX - runStart + 1, runId, skip, consumer);
+            }
+        }
+    }
+
+    private void acceptRun(int x, int y, int z, int length, int id, BlockStateRunSkip skip, IBlockStateRunConsumer consumer)
+    {
+        IBlockState state = this.palette.getBlockState(id);
+
+        if (state == null)
+        {
+            state = AIR_BLOCK_STATE;
+        }
+
+        if (skip.shouldSkip(state) == false)
+        {
+            consumer.accept(x, y, z, length, state);
+        }
+    }
+
+    @Override
+    public int onResize(int bits, IBlockState state, ILitematicaBlockStatePalette oldPalette)
+    {
+        if (this.checkForFreedIds)
+        {
+            // This only needs to scan the storage if the counts haven't been calculated yet
+            this.calculateBlockCountsIfNeeded();
+
+            // Found an ID that is not in use anymore, use that instead of increasing the palette size
+            int id = this.getFreedId();
+
+            if (id != -1 && this.palette.overrideMapping(id, state))
+            {
+                return id;
             }
         }
 
-        LitematicaBitArray oldArray = this.storage;
-        LitematicaBitArray newArray = new LitematicaBitArray(bits, this.totalVolume);
+        LitematicaBitArray newArray = this.createResizedStorage(bits);
 
         // This creates the new palette with the increased size
         this.setBits(bits);
         // Copy over the full old palette mapping
         this.palette.setMapping(oldPalette.getMapping());
 
-        final long size = oldArray.size();
+        this.setUnsharedStorage(newArray);
+        this.ensureBlockCountsCapacity(1 << bits);
+
+        return this.palette.idFor(state);
+    }
+
+    /**
+     * Returns an ID that is currently not used by any position, or -1 if there are no such IDs
+     */
+    protected int getFreedId()
+    {
+        final int paletteSize = this.palette.getPaletteSize();
 
-        for (long index = 0; index < size; ++index)
+        while (this.freedIds.isEmpty() == false)
         {
-            newArray.setAt(index, oldArray.getAt(index));
+            int id = this.freedIds.popInt();
+
+            // The IDs may have been taken into use again after they were freed
+            if (id < paletteSize && this.blockCounts[id] == 0)
+            {
+                return id;
+            }
         }
 
-        this.storage = newArray;
+        return -1;
+    }
 
-        return this.palette.idFor(state);
+    @Override
+    protected void setBlockCounts(long[] blockCounts)
+    {
+        super.setBlockCounts(blockCounts);
+
+        this.freedIds.clear();
+
+        final int paletteSize = Math.min(this.palette.getPaletteSize(), this.blockCounts.length);
+
+        for (int id = paletteSize - 1; id > 0; --id)
+        {
+            if (this.blockCounts[id] == 0)
+            {
+                this.freedIds.add(id);
+            }
+        }
     }
 
     protected long getIndex(int x, int y, int z)
@@ -132,27 +442,320 @@ public class LitematicaBlockStateContainerFull extends LitematicaBlockStateConta
         return this.storage.getBackingLongArray();
     }
 
+    /**
+     * See {@link LitematicaBitArray#getBackingBuffers()}
+     */
+    public LongBuffer[] getBackingBuffers()
+    {
+        return this.storage.getBackingBuffers();
+    }
+
+    /**
+     * Reads the palette IDs of a column of blocks, which covers the full height of the container,
+     * into the array <b>out</b> in the y, z, x order.
+     * The array must have room for sizeX * sizeZ * (the container height) values.
+     */
+    public void getColumnIds(int minX, int minZ, int sizeX, int sizeZ, int[] out)
+    {
+        final int maxZ = minZ + sizeZ;
+        int outIndex = 0;
+
+        for (int y = 0; y < this.sizeY; ++y)
+        {
+            for (int z = minZ; z < maxZ; ++z)
+            {
+                this.storage.getRange(this.getIndex(minX, y, z), out, outIndex, sizeX);
+                outIndex += sizeX;
+            }
+        }
+    }
+
+    /**
+     * Sets the palette IDs of a column of blocks, which covers the full height of the container,
+     * from the array <b>ids</b> in the y, z, x order. This is the counterpart of {@link #getColumnIds}.
+     * <b>Note:</b> The IDs are not validated, they must already exist in the palette of this container.
+     */
+    public void setColumnIds(int minX, int minZ, int sizeX, int sizeZ, int[] ids)
+    {
+        final int maxZ = minZ + sizeZ;
+        // The content hash is updated for each row, if it's currently known
+        final long[] stateHashes = this.hasContentHash ? this.getPaletteStateHashes() : null;
+        int index = 0;
+
+        this.ensureStorageNotShared();
+
+        for (int y = 0; y < this.sizeY; ++y)
+        {
+            for (int z = minZ; z < maxZ; ++z)
+            {
+                final long startIndex = this.getIndex(minX, y, z);
+
+                if (stateHashes != null)
+                {
+                    this.contentHash += getIdRangeHash(startIndex, ids, index, sizeX, stateHashes) -
+                                        this.getStoredRangeHash(startIndex, sizeX, stateHashes);
+                }
+
+                this.storage.setRange(startIndex, ids, index, sizeX);
+                index += sizeX;
+            }
+        }
+
+        this.hasSetBlockCounts = false; // Force a re-count when next queried
+        this.invalidateNonAirCounts();
+    }
+
+    /**
+     * Sets the palette IDs of <b>layerCount</b> whole Y layers of blocks starting from the layer <b>minY</b>,
+     * from the array <b>ids</b> in the y, z, x order.
+     * <b>Note:</b> The IDs are not validated, they must already exist in the palette of this container.
+     */
+    public void setLayerIds(int minY, int layerCount, int[] ids)
+    {
+        final long startIndex = this.getIndex(0, minY, 0);
+        final int length = (int) (layerCount * this.sizeLayer);
+
+        this.ensureStorageNotShared();
+
+        if (this.hasContentHash)
+        {
+            final long[] stateHashes = this.getPaletteStateHashes();
+            this.contentHash += getIdRangeHash(startIndex, ids, 0, length, stateHashes) -
+                                this.getStoredRangeHash(startIndex, length, stateHashes);
+        }
+
+        this.storage.setRange(startIndex, ids, 0, length);
+
+        this.hasSetBlockCounts = false; // Force a re-count when next queried
+        this.invalidateNonAirCounts();
+    }
+
+    /**
+     * Returns the content hash contribution of the IDs currently stored in the given index range
+     */
+    private long getStoredRangeHash(long startIndex, long length, long[] stateHashes)
+    {
+        final int[] ids = new int[(int) Math.min(LitematicaBitArray.BULK_BUFFER_SIZE, length)];
+        long hash = 0L;
+
+        for (long offset = 0; offset < length; offset += ids.length)
+        {
+            final int count = (int) Math.min(ids.length, length - offset);
+            this.storage.getRange(startIndex + offset, ids, 0, count);
+            hash += getIdRangeHash(startIndex + offset, ids, 0, count, stateHashes);
+        }
+
+        return hash;
+    }
+
+    /**
+     * Returns the block data encoded as a Sponge schematic varint byte array.
+     * See {@link #writeVarintBlockData(OutputStream)} for writing data larger than what fits in one array.
+     */
     public byte[] getBackingArrayAsByteArray()
     {
-        final int entrySize = PacketBuffer.getVarIntSize(this.palette.getPaletteSize() - 1);
-        final long volume = this.storage.size();
-        final long length = (long) entrySize * volume;
+        return VarintBlockDataCodec.encodeToArray(this.storage, this.palette.getPaletteSize());
+    }
+
+    /**
+     * Returns the exact length of the Sponge schematic varint encoded block data
+     */
+    public long getVarintBlockDataLength()
+    {
+        return VarintBlockDataCodec.getEncodedLength(this.storage, this.palette.getPaletteSize());
+    }
+
+    /**
+     * Writes the block data encoded as a Sponge schematic varint byte array to the stream,
+     * without creating the entire array first
+     */
+    public void writeVarintBlockData(OutputStream outputStream) throws IOException
+    {
+        VarintBlockDataCodec.encode(this.storage, outputStream);
+    }
+
+    /**
+     * Copies the block states from the other container into this container,
+     * within the given size starting from the origin of both containers.
+     */
+    public void copyFrom(LitematicaBlockStateContainerFull other, int sizeX, int sizeY, int sizeZ)
+    {
+        BlockStateContainerUtils.AreaTransform transform = new BlockStateContainerUtils.AreaTransform(new Vec3i(sizeX, sizeY, sizeZ), Mirror.NONE, Rotation.NONE);
+        this.copyFrom(other, Vec3i.NULL_VECTOR, Vec3i.NULL_VECTOR, transform);
+    }
+
+    /**
+     * Copies the block states from a box in the other container into this container.
+     * The palette of the other container is transformed and mapped to this container's palette once,
+     * and then the packed IDs are copied in bulk. The boxes must be within the containers,
+     * see {@link BlockStateContainerUtils#copyBlocks}.
+     */
+    protected void copyFrom(LitematicaBlockStateContainerFull other, Vec3i fromMin, Vec3i toMin, BlockStateContainerUtils.AreaTransform transform)
+    {
+        final int sizeX = transform.size.getX();
+        final int sizeY = transform.size.getY();
+        final int sizeZ = transform.size.getZ();
 
-        if (length > Integer.MAX_VALUE)
+        if (sizeX <= 0 || sizeY <= 0 || sizeZ <= 0)
         {
-            throw new IndexOutOfBoundsException("Block data backing byte array length " + length + " exceeds the maximum value of " + Integer.MAX_VALUE);
+            return;
         }
 
-        byte[] arr = new byte[(int) length];
-        PacketBuffer buf = new PacketBuffer(Unpooled.wrappedBuffer(arr));
-        buf.writerIndex(0);
+        // Add all the states to this palette first, as that may resize the storage.
+        // The freed ID check must be disabled while doing that, because the IDs
+        // mapped so far are not in use yet and would otherwise get re-used.
+        ILitematicaBlockStatePalette otherPalette = other.getPalette();
+        final int paletteSize = otherPalette.getPaletteSize();
+        final int[] idMap = new int[paletteSize];
+        final boolean checkForFreedIds = this.checkForFreedIds;
+        this.checkForFreedIds = false;
 
-        for (int i = 0; i < volume; ++i)
+        for (int id = 0; id < paletteSize; ++id)
         {
-            buf.writeVarInt(this.storage.getAt(i));
+            IBlockState state = otherPalette.getBlockState(id);
+            state = state != null ? BlockStateContainerUtils.getTransformedState(state, transform.mirror, transform.rotation) : AIR_BLOCK_STATE;
+            idMap[id] = this.palette.idFor(state);
         }
 
-        return arr;
+        this.checkForFreedIds = checkForFreedIds;
+
+        Vec3i toSize = transform.getTransformedSize();
+        boolean coversWholeVolume = toMin.getX() == 0 && toMin.getY() == 0 && toMin.getZ() == 0 &&
+                                    toSize.getX() == this.sizeX && toSize.getY() == this.sizeY && toSize.getZ() == this.sizeZ;
+
+        // The content hash is updated for each copied run, if it's currently known
+        final long[] stateHashes = this.hasContentHash ? this.getPaletteStateHashes() : null;
+
+        // The old contents don't need to be copied if they will all be overwritten
+        if (this.isStorageShared() && coversWholeVolume)
+        {
+            this.setUnsharedStorage(this.createStorage(this.bits, null));
+            this.contentHash = 0L; // The new storage is all air
+        }
+        else
+        {
+            this.ensureStorageNotShared();
+        }
+
+        // Whole layers are contiguous in both containers, so they can be copied as one long range
+        if (transform.isIdentity() &&
+            fromMin.getX() == 0 && fromMin.getZ() == 0 && toMin.getX() == 0 && toMin.getZ() == 0 &&
+            sizeX == this.sizeX && sizeX == other.sizeX && sizeZ == this.sizeZ && sizeZ == other.sizeZ)
+        {
+            this.copyIdRange(other, idMap, other.getIndex(0, fromMin.getY(), 0), this.getIndex(0, toMin.getY(), 0), (long) sizeY * this.sizeLayer, stateHashes);
+        }
+        else if (transform.isIdentity())
+        {
+            for (int y = 0; y < sizeY; ++y)
+            {
+                for (int z = 0; z < sizeZ; ++z)
+                {
+                    long indexFrom = other.getIndex(fromMin.getX(), fromMin.getY() + y, fromMin.getZ() + z);
+                    long indexTo = this.getIndex(toMin.getX(), toMin.getY() + y, toMin.getZ() + z);
+                    this.copyIdRange(other, idMap, indexFrom, indexTo, sizeX, stateHashes);
+                }
+            }
+        }
+        else
+        {
+            this.copyTransformedRows(other, idMap, fromMin, toMin, transform, stateHashes);
+        }
+
+        this.hasSetBlockCounts = false; // Force a re-count when next queried
+        this.invalidateNonAirCounts();
+    }
+
+    private void copyTransformedRows(LitematicaBlockStateContainerFull other, int[] idMap, Vec3i fromMin, Vec3i toMin,
+                                     BlockStateContainerUtils.AreaTransform transform, @Nullable long[] stateHashes)
+    {
+        final int sizeX = transform.size.getX();
+        final int sizeY = transform.size.getY();
+        final int sizeZ = transform.size.getZ();
+        final int[] ids = new int[sizeX];
+        final int mapSize = idMap.length;
+        final int stepX = transform.getXStepAlongX();
+        final int stepZ = transform.getZStepAlongX();
+
+        for (int y = 0; y < sizeY; ++y)
+        {
+            for (int z = 0; z < sizeZ; ++z)
+            {
+                other.storage.getRange(other.getIndex(fromMin.getX(), fromMin.getY() + y, fromMin.getZ() + z), ids, 0, sizeX);
+
+                for (int i = 0; i < sizeX; ++i)
+                {
+                    final int id = ids[i];
+                    ids[i] = id < mapSize ? idMap[id] : 0;
+                }
+
+                final int startX = toMin.getX() + transform.getX(0, z);
+                final int startZ = toMin.getZ() + transform.getZ(0, z);
+                final int toY = toMin.getY() + y;
+
+                // The row stays along the x-axis, possibly reversed
+                if (transform.keepsRowsAlongX())
+                {
+                    if (stepX < 0)
+                    {
+                        ArrayUtils.reverse(ids);
+                    }
+
+                    final long startIndex = this.getIndex(stepX < 0 ? startX - sizeX + 1 : startX, toY, startZ);
+
+                    if (stateHashes != null)
+                    {
+                        this.contentHash += getIdRangeHash(startIndex, ids, 0, sizeX, stateHashes) -
+                                            this.getStoredRangeHash(startIndex, sizeX, stateHashes);
+                    }
+
+                    this.storage.setRange(startIndex, ids, 0, sizeX);
+                }
+                // The row turns into a column along the z-axis
+                else
+                {
+                    final long startIndex = this.getIndex(startX, toY, startZ);
+                    final long indexStep = (long) stepZ * (long) this.sizeX;
+
+                    for (int i = 0; i < sizeX; ++i)
+                    {
+                        final long index = startIndex + indexStep * i;
+                        final int oldId = this.storage.getAndSetAt(index, ids[i]);
+
+                        if (stateHashes != null && oldId != ids[i])
+                        {
+                            this.contentHash += getBlockHash(index, stateHashes[ids[i]]) - getBlockHash(index, stateHashes[oldId]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void copyIdRange(LitematicaBlockStateContainerFull other, int[] idMap, long indexFrom, long indexTo, long length,
+                             @Nullable long[] stateHashes)
+    {
+        final int[] ids = new int[(int) Math.min(LitematicaBitArray.BULK_BUFFER_SIZE, length)];
+        final int mapSize = idMap.length;
+
+        for (long offset = 0; offset < length; offset += ids.length)
+        {
+            final int count = (int) Math.min(ids.length, length - offset);
+            other.storage.getRange(indexFrom + offset, ids, 0, count);
+
+            for (int i = 0; i < count; ++i)
+            {
+                final int id = ids[i];
+                ids[i] = id < mapSize ? idMap[id] : 0;
+            }
+
+            if (stateHashes != null)
+            {
+                this.contentHash += getIdRangeHash(indexTo + offset, ids, 0, count, stateHashes) -
+                                    this.getStoredRangeHash(indexTo + offset, count, stateHashes);
+            }
+
+            this.storage.setRange(indexTo + offset, ids, 0, count);
+        }
     }
 
     @Override
@@ -165,30 +768,36 @@ public class LitematicaBlockStateContainerFull extends LitematicaBlockStateConta
         }
     }
 
+    /**
+     * Returns a copy of this container. The block storage is shared between the containers
+     * until either one of them is modified, so this only needs to copy the palette.
+     */
     @Override
     public LitematicaBlockStateContainerFull copy()
     {
-        LitematicaBlockStateContainerFull newContainer = new LitematicaBlockStateContainerFull(this.size, this.bits, this.storage.getBackingLongArray().clone());
-        newContainer.palette = this.palette.copy(newContainer);
-
-        return newContainer;
+        return new LitematicaBlockStateContainerFull(this);
     }
 
+    /**
+     * Converts the Sponge schematic varint encoded block data into a packed long array
+     * @return the converted data, or null if the data is invalid
+     */
+    @Nullable
     public static SpongeBlockstateConverterResults convertVarintByteArrayToPackedLongArray(Vec3i size, int bits, byte[] blockStates)
     {
-        int volume = size.getX() * size.getY() * size.getZ();
-        LitematicaBitArray bitArray = new LitematicaBitArray(bits, volume);
-        PacketBuffer buf = new PacketBuffer(Unpooled.wrappedBuffer(blockStates));
-        long[] blockCounts = new long[1 << bits];
-
-        for (int i = 0; i < volume; ++i)
-        {
-            int id = buf.readVarInt();
-            bitArray.setAt(i, id);
-            ++blockCounts[id];
-        }
+        long volume = (long) size.getX() * (long) size.getY() * (long) size.getZ();
+        return VarintBlockDataCodec.decode(blockStates, bits, volume);
+    }
 
-        return new SpongeBlockstateConverterResults(bitArray.getBackingLongArray(), blockCounts);
+    /**
+     * Creates an empty container with an entry width that fits the given palette size
+     */
+    public static LitematicaBlockStateContainerFull createContainer(int paletteSize, Vec3i size)
+    {
+        int bits = Math.max(2, Integer.SIZE - Integer.numberOfLeadingZeros(paletteSize - 1));
+        LitematicaBlockStateContainerFull container = new LitematicaBlockStateContainerFull(size, bits, null);
+        container.palette = createPalette(bits, container);
+        return container;
     }
 
     @Nullable
@@ -205,6 +814,12 @@ public class LitematicaBlockStateContainerFull extends LitematicaBlockStateConta
     {
         int bits = Math.max(2, Integer.SIZE - Integer.numberOfLeadingZeros(paletteSize - 1));
         SpongeBlockstateConverterResults results = convertVarintByteArrayToPackedLongArray(size, bits, blockData);
+
+        if (results == null)
+        {
+            return null;
+        }
+
         LitematicaBlockStateContainerFull container = new LitematicaBlockStateContainerFull(size, bits, results.backingArray);
         container.palette = createPalette(bits, container);
         container.setBlockCounts(results.blockCounts);
@@ -222,4 +837,65 @@ public class LitematicaBlockStateContainerFull extends LitematicaBlockStateConta
             this.blockCounts = blockCounts;
         }
     }
+
+    /**
+     * Keeps track of the containers that share one storage array. The containers are only weakly referenced,
+     * so that a copy that has been discarded without ever being modified stops counting as
+     * a user of the storage once it has been garbage collected, and doesn't force
+     * the remaining container to copy the storage on its next modification.
+     */
+    protected static class StorageShare
+    {
+        private final List<WeakReference<LitematicaBlockStateContainerFull>> containers = new ArrayList<>(2);
+
+        protected StorageShare(LitematicaBlockStateContainerFull container)
+        {
+            this.containers.add(new WeakReference<>(container));
+        }
+
+        protected synchronized void add(LitematicaBlockStateContainerFull container)
+        {
+            this.containers.add(new WeakReference<>(container));
+        }
+
+        protected synchronized void remove(LitematicaBlockStateContainerFull container)
+        {
+            Iterator<WeakReference<LitematicaBlockStateContainerFull>> iter = this.containers.iterator();
+
+            while (iter.hasNext())
+            {
+                LitematicaBlockStateContainerFull other = iter.next().get();
+
+                if (other == null || other == container)
+                {
+                    iter.remove();
+                }
+            }
+        }
+
+        /**
+         * @return true if any other container that is still reachable uses the same storage
+         */
+        protected synchronized boolean isSharedBy(LitematicaBlockStateContainerFull container)
+        {
+            Iterator<WeakReference<LitematicaBlockStateContainerFull>> iter = this.containers.iterator();
+            boolean shared = false;
+
+            while (iter.hasNext())
+            {
+                LitematicaBlockStateContainerFull other = iter.next().get();
+
+                if (other == null)
+                {
+                    iter.remove();
+                }
+                else if (other != container)
+                {
+                    shared = true;
+                }
+            }
+
+            return shared;
+        }
+    }
 }
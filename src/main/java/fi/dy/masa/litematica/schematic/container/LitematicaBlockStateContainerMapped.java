@@ -0,0 +1,161 @@
+package fi.dy.masa.litematica.schematic.container;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import javax.annotation.Nullable;
+import net.minecraft.util.math.Vec3i;
+
+/**
+ * A full container that keeps the packed block data in a memory mapped
+ * temporary file via {@link LitematicaBitArrayMapped}, instead of on the heap.
+ * Each container uses one file, which gets grown in place when the palette is resized,
+ * unless the storage is still shared with copies of the container.
+ */
+public class LitematicaBlockStateContainerMapped extends LitematicaBlockStateContainerFull
+{
+    public LitematicaBlockStateContainerMapped(Vec3i size)
+    {
+        super(size);
+    }
+
+    public LitematicaBlockStateContainerMapped(Vec3i size, boolean checkForFreedIds)
+    {
+        super(size, checkForFreedIds);
+    }
+
+    protected LitematicaBlockStateContainerMapped(Vec3i size, int bits)
+    {
+        super(size, bits, null);
+    }
+
+    protected LitematicaBlockStateContainerMapped(Vec3i size, LitematicaBitArrayMapped storage)
+    {
+        super(size, storage);
+    }
+
+    protected LitematicaBlockStateContainerMapped(LitematicaBlockStateContainerMapped other)
+    {
+        super(other);
+    }
+
+    @Override
+    protected LitematicaBitArray createStorage(int bits, @Nullable long[] backingLongArray)
+    {
+        try
+        {
+            LitematicaBitArrayMapped array = LitematicaBitArrayMapped.create(bits, this.totalVolume, null);
+
+            if (backingLongArray != null)
+            {
+                array.setBackingData(backingLongArray);
+            }
+
+            return array;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Failed to create the memory mapped block storage", e);
+        }
+    }
+
+    @Override
+    protected LitematicaBitArray copyStorage()
+    {
+        try
+        {
+            return ((LitematicaBitArrayMapped) this.storage).copy();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Failed to copy the memory mapped block storage", e);
+        }
+    }
+
+    @Override
+    protected LitematicaBitArray createResizedStorage(int bits)
+    {
+        // The copies still use the current data, so then the data needs to be copied to a new file
+        if (this.isStorageShared())
+        {
+            return super.createResizedStorage(bits);
+        }
+
+        try
+        {
+            return ((LitematicaBitArrayMapped) this.storage).resize(bits);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Failed to resize the memory mapped block storage", e);
+        }
+    }
+
+    @Override
+    public long getEstimatedHeapUsage()
+    {
+        // The block data is in the memory mapped file, not on the heap
+        return 0;
+    }
+
+    @Override
+    public LitematicaBlockStateContainerMapped copy()
+    {
+        return new LitematicaBlockStateContainerMapped(this);
+    }
+
+    /**
+     * Creates an empty container with an entry width that fits the given palette size
+     * @throws UncheckedIOException if creating the memory mapped file fails
+     */
+    public static LitematicaBlockStateContainerMapped createContainer(int paletteSize, Vec3i size)
+    {
+        int bits = Math.max(2, Integer.SIZE - Integer.numberOfLeadingZeros(paletteSize - 1));
+        LitematicaBlockStateContainerMapped container = new LitematicaBlockStateContainerMapped(size, bits);
+        container.palette = createPalette(bits, container);
+        return container;
+    }
+
+    /**
+     * Creates a container that uses the given data, for example data that was read from a file, as its storage
+     * @return the container, or null if the length of the data doesn't match the size and the palette size
+     */
+    @Nullable
+    public static LitematicaBlockStateContainerMapped createContainer(int paletteSize, MappedLongArray blockStates, Vec3i size)
+    {
+        int bits = Math.max(2, Integer.SIZE - Integer.numberOfLeadingZeros(paletteSize - 1));
+        long volume = (long) size.getX() * (long) size.getY() * (long) size.getZ();
+        LitematicaBitArrayMapped storage = LitematicaBitArrayMapped.wrap(bits, volume, blockStates);
+
+        if (storage == null)
+        {
+            return null;
+        }
+
+        LitematicaBlockStateContainerMapped container = new LitematicaBlockStateContainerMapped(size, storage);
+        container.palette = createPalette(bits, container);
+        return container;
+    }
+
+    /**
+     * Creates a new memory mapped container with the same contents as the given container
+     * @throws UncheckedIOException if creating the memory mapped file fails
+     */
+    public static LitematicaBlockStateContainerMapped createFrom(LitematicaBlockStateContainerFull other)
+    {
+        LitematicaBlockStateContainerMapped container = new LitematicaBlockStateContainerMapped(other.size, other.bits);
+        other.storage.copyTo(container.storage);
+        container.palette = other.palette.copy(container);
+        container.checkForFreedIds = other.checkForFreedIds;
+        container.hasSetBlockCounts = false;
+
+        if (other.hasSetBlockCounts)
+        {
+            container.setBlockCounts(other.blockCounts);
+        }
+
+        container.copyNonAirCountsFrom(other);
+        container.copyContentHashFrom(other);
+
+        return container;
+    }
+}
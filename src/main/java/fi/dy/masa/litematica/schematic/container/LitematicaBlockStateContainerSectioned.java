@@ -0,0 +1,702 @@
+package fi.dy.masa.litematica.schematic.container;
+
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nullable;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.math.Vec3i;
+
+/**
+ * A block state container that stores the blocks in 16x16x16 sections,
+ * each of which has its own small palette and bit array.
+ * Sections that only contain one block state are stored as just that state,
+ * and sections that only contain air don't use any storage at all.
+ * The container-wide palette contains all the states that have been added to the container,
+ * and it is used for the block counts and for converting to and from the v4 file format layout.
+ */
+public class LitematicaBlockStateContainerSectioned extends LitematicaBlockStateContainerBase
+{
+    public static final int SECTION_SIZE = 16;
+    public static final int SECTION_VOLUME = SECTION_SIZE * SECTION_SIZE * SECTION_SIZE;
+
+    protected final int sectionCountX;
+    protected final int sectionCountY;
+    protected final int sectionCountZ;
+    protected final Section[] sections;
+
+    public LitematicaBlockStateContainerSectioned(Vec3i size)
+    {
+        super(size);
+
+        this.sectionCountX = (this.sizeX + SECTION_SIZE - 1) >> 4;
+        this.sectionCountY = (this.sizeY + SECTION_SIZE - 1) >> 4;
+        this.sectionCountZ = (this.sizeZ + SECTION_SIZE - 1) >> 4;
+        this.sections = new Section[this.sectionCountX * this.sectionCountY * this.sectionCountZ];
+
+        // The container-wide palette never needs to be resized
+        this.palette = new VanillaStructurePalette();
+
+        // Always reserve ID 0 for air, same as in the full container
+        this.palette.idFor(AIR_BLOCK_STATE);
+    }
+
+    @Override
+    public IBlockState getBlockState(int x, int y, int z)
+    {
+        Section section = this.sections[this.getSectionIndex(x >> 4, y >> 4, z >> 4)];
+        return section != null ? section.getBlockState(getLocalIndex(x & 0xF, y & 0xF, z & 0xF)) : AIR_BLOCK_STATE;
+    }
+
+    @Override
+    public void setBlockState(int x, int y, int z, IBlockState state)
+    {
+        final int sectionX = x >> 4;
+        final int sectionY = y >> 4;
+        final int sectionZ = z >> 4;
+        final int sectionIndex = this.getSectionIndex(sectionX, sectionY, sectionZ);
+        final int localIndex = getLocalIndex(x & 0xF, y & 0xF, z & 0xF);
+        Section section = this.sections[sectionIndex];
+        IBlockState stateOld = section != null ? section.getBlockState(localIndex) : AIR_BLOCK_STATE;
+
+        if (state == stateOld)
+        {
+            return;
+        }
+
+        if (section == null)
+        {
+            section = new Section(AIR_BLOCK_STATE);
+            this.sections[sectionIndex] = section;
+        }
+        // The section is shared with a copy of this container, so it needs to be copied before modifying it
+        else if (section.shared)
+        {
+            section = section.copy();
+            this.sections[sectionIndex] = section;
+        }
+
+        final int id = this.palette.idFor(state);
+
+        // The counts are only kept up to date once they have been calculated
+        if (this.hasSetBlockCounts)
+        {
+            this.ensureBlockCountsCapacity(id + 1);
+            ++this.blockCounts[id];
+            --this.blockCounts[this.palette.idFor(stateOld)];
+        }
+
+        this.updateNonAirCounts(x, y, z, stateOld, state);
+        this.updateContentHash(x, y, z, stateOld, state);
+
+        final int sizeX = Math.min(SECTION_SIZE, this.sizeX - (sectionX << 4));
+        final int sizeY = Math.min(SECTION_SIZE, this.sizeY - (sectionY << 4));
+        final int sizeZ = Math.min(SECTION_SIZE, this.sizeZ - (sectionZ << 4));
+
+        // The section only contains one state now, so it doesn't need the storage anymore
+        if (section.setBlockState(localIndex, state, sizeX, sizeY, sizeZ))
+        {
+            this.sections[sectionIndex] = state != AIR_BLOCK_STATE ? new Section(state) : null;
+        }
+    }
+
+    @Override
+    public void forEachRun(int minX, int minY, int minZ, int maxX, int maxY, int maxZ,
+                           BlockStateRunSkip skip, IBlockStateRunConsumer consumer)
+    {
+        if (minX > maxX)
+        {
+            return;
+        }
+
+        final int[] ids = new int[SECTION_SIZE];
+        final boolean skipEmptyRows = skip.skipsAir();
+
+        for (int y = minY; y <= maxY; ++y)
+        {
+            for (int z = minZ; z <= maxZ; ++z)
+            {
+                if (skipEmptyRows && this.isRowKnownToBeEmpty(y, z))
+                {
+                    continue;
+                }
+
+                IBlockState runState = null;
+                int runStart = minX;
+
+                for (int sx = minX >> 4; sx <= (maxX >> 4); ++sx)
+                {
+                    final int startX = Math.max(minX, sx << 4);
+                    final int endX = Math.min(maxX, (sx << 4) + SECTION_SIZE - 1);
+                    Section section = this.sections[this.getSectionIndex(sx, y >> 4, z >> 4)];
+
+                    if (section == null || section.uniformState != null)
+                    {
+                        IBlockState state = section != null ? section.uniformState : AIR_BLOCK_STATE;
+
+                        if (state != runState)
+                        {
+                            if (runState != null && skip.shouldSkip(runState) == false)
+                            {
+                                consumer.accept(runStart, y, z, startX - runStart, runState);
+                            }
+
+                            runState = state;
+                            runStart = startX;
+                        }
+
+                        continue;
+                    }
+
+                    final int count = endX - startX + 1;
+                    section.storage.getRange(getLocalIndex(startX & 0xF, y & 0xF, z & 0xF), ids, 0, count);
+                    int lastId = -1;
+
+                    for (int i = 0; i < count; ++i)
+                    {
+                        final int id = ids[i];
+
+                        if (id == lastId)
+                        {
+                            continue;
+                        }
+
+                        IBlockState state = section.palette.getBlockState(id);
+                        lastId = id;
+
+                        if (state == null)
+                        {
+                            state = AIR_BLOCK_STATE;
+                        }
+
+                        if (state != runState)
+                        {
+                            final int x = startX + i;
+
+                            if (runState != null && skip.shouldSkip(runState) == false)
+                            {
+                                consumer.accept(runStart, y, z, x - runStart, runState);
+                            }
+
+                            runState = state;
+                            runStart = x;
+                        }
+                    }
+                }
+
+                if (skip.shouldSkip(runState) == false)
+                {
+                    consumer.accept(runStart, y, z, maxX - runStart + 1, runState);
+                }
+            }
+        }
+    }
+
+    protected int getSectionIndex(int sectionX, int sectionY, int sectionZ)
+    {
+        return (sectionY * this.sectionCountZ + sectionZ) * this.sectionCountX + sectionX;
+    }
+
+    protected static int getLocalIndex(int x, int y, int z)
+    {
+        return (y << 8) | (z << 4) | x;
+    }
+
+    @Override
+    protected void calculateBlockCountsIfNeeded()
+    {
+        if (this.hasSetBlockCounts == false)
+        {
+            final int airId = this.palette.idFor(AIR_BLOCK_STATE);
+            long[] counts = new long[this.palette.getPaletteSize()];
+            final int[] ids = new int[SECTION_SIZE];
+
+            for (int sy = 0; sy < this.sectionCountY; ++sy)
+            {
+                final int sizeY = Math.min(SECTION_SIZE, this.sizeY - (sy << 4));
+
+                for (int sz = 0; sz < this.sectionCountZ; ++sz)
+                {
+                    final int sizeZ = Math.min(SECTION_SIZE, this.sizeZ - (sz << 4));
+
+                    for (int sx = 0; sx < this.sectionCountX; ++sx)
+                    {
+                        final int sizeX = Math.min(SECTION_SIZE, this.sizeX - (sx << 4));
+                        final long volume = (long) sizeX * (long) sizeY * (long) sizeZ;
+                        Section section = this.sections[this.getSectionIndex(sx, sy, sz)];
+
+                        if (section == null)
+                        {
+                            counts[airId] += volume;
+                        }
+                        else if (section.uniformState != null)
+                        {
+                            counts[this.palette.idFor(section.uniformState)] += volume;
+                        }
+                        else
+                        {
+                            section.addBlockCounts(counts, this.palette, sizeX, sizeY, sizeZ, ids);
+                        }
+                    }
+                }
+            }
+
+            this.setBlockCounts(counts);
+        }
+    }
+
+    @Override
+    public long getEstimatedHeapUsage()
+    {
+        long total = (long) this.sections.length * 4;
+
+        for (Section section : this.sections)
+        {
+            if (section != null)
+            {
+                total += 16;
+
+                if (section.storage != null)
+                {
+                    // The bit array and the section palette
+                    total += (long) section.storage.getBackingLongArray().length * 8 + (1L << section.bits) * 4;
+                }
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Returns a copy of this container. The sections are shared between the containers,
+     * and each section is only copied when it's first modified in either one of the containers.
+     */
+    @Override
+    public LitematicaBlockStateContainerSectioned copy()
+    {
+        LitematicaBlockStateContainerSectioned copy = new LitematicaBlockStateContainerSectioned(this.size);
+        copy.palette = this.palette.copy(null);
+
+        for (int i = 0; i < this.sections.length; ++i)
+        {
+            Section section = this.sections[i];
+
+            if (section != null)
+            {
+                section.shared = true;
+                copy.sections[i] = section;
+            }
+        }
+
+        if (this.hasSetBlockCounts)
+        {
+            copy.setBlockCounts(this.blockCounts);
+        }
+
+        copy.copyNonAirCountsFrom(this);
+        copy.copyContentHashFrom(this);
+
+        return copy;
+    }
+
+    /**
+     * Converts this container to the full container, which uses the v4 file format layout.
+     * The container-wide palette is used as-is, so the IDs will be the same in both containers.
+     */
+    public LitematicaBlockStateContainerFull toFullContainer()
+    {
+        List<IBlockState> mapping = this.palette.getMapping();
+        LitematicaBlockStateContainerFull container = LitematicaBlockStateContainerFull.createContainer(mapping.size(), this.size);
+        container.getPalette().setMapping(mapping);
+        LitematicaBitArray storage = container.storage;
+        final int airId = this.palette.idFor(AIR_BLOCK_STATE);
+        final int[] ids = new int[SECTION_SIZE];
+
+        for (int sy = 0; sy < this.sectionCountY; ++sy)
+        {
+            final int sizeY = Math.min(SECTION_SIZE, this.sizeY - (sy << 4));
+
+            for (int sz = 0; sz < this.sectionCountZ; ++sz)
+            {
+                final int sizeZ = Math.min(SECTION_SIZE, this.sizeZ - (sz << 4));
+
+                for (int sx = 0; sx < this.sectionCountX; ++sx)
+                {
+                    Section section = this.sections[this.getSectionIndex(sx, sy, sz)];
+                    IBlockState uniformState = section != null ? section.uniformState : AIR_BLOCK_STATE;
+
+                    // The full container is initially filled with ID 0, which is normally air
+                    if (uniformState == AIR_BLOCK_STATE && airId == 0)
+                    {
+                        continue;
+                    }
+
+                    final int sizeX = Math.min(SECTION_SIZE, this.sizeX - (sx << 4));
+                    final int[] localToGlobal = section != null ? section.getIdMap(this.palette) : null;
+                    final int baseX = sx << 4;
+                    final int baseY = sy << 4;
+                    final int baseZ = sz << 4;
+
+                    if (uniformState != null)
+                    {
+                        Arrays.fill(ids, this.palette.idFor(uniformState));
+                    }
+
+                    for (int y = 0; y < sizeY; ++y)
+                    {
+                        for (int z = 0; z < sizeZ; ++z)
+                        {
+                            if (uniformState == null)
+                            {
+                                section.storage.getRange(getLocalIndex(0, y, z), ids, 0, sizeX);
+
+                                for (int i = 0; i < sizeX; ++i)
+                                {
+                                    ids[i] = localToGlobal[ids[i]];
+                                }
+                            }
+
+                            storage.setRange(container.getIndex(baseX, baseY + y, baseZ + z), ids, 0, sizeX);
+                        }
+                    }
+                }
+            }
+        }
+
+        // The storage was written directly, so the block counts need to be re-calculated
+        container.hasSetBlockCounts = false;
+        container.copyNonAirCountsFrom(this);
+        container.copyContentHashFrom(this);
+
+        return container;
+    }
+
+    /**
+     * Creates a new sectioned container with the contents of the given full container.
+     * The palette of the full container is used as the container-wide palette,
+     * and the block data is converted one section row at a time.
+     */
+    public static LitematicaBlockStateContainerSectioned createFrom(LitematicaBlockStateContainerFull other)
+    {
+        LitematicaBlockStateContainerSectioned container = new LitematicaBlockStateContainerSectioned(other.getSize());
+        List<IBlockState> mapping = other.getPalette().getMapping();
+        final int paletteSize = mapping.size();
+        final int[] ids = new int[SECTION_SIZE];
+        final int[] globalToLocal = new int[paletteSize];
+        LitematicaBitArray storage = other.storage;
+
+        for (int i = 0; i < paletteSize; ++i)
+        {
+            IBlockState state = mapping.get(i);
+
+            if (state == null)
+            {
+                mapping.set(i, AIR_BLOCK_STATE);
+            }
+        }
+
+        container.palette.setMapping(mapping);
+
+        for (int sy = 0; sy < container.sectionCountY; ++sy)
+        {
+            final int sizeY = Math.min(SECTION_SIZE, container.sizeY - (sy << 4));
+
+            for (int sz = 0; sz < container.sectionCountZ; ++sz)
+            {
+                final int sizeZ = Math.min(SECTION_SIZE, container.sizeZ - (sz << 4));
+
+                for (int sx = 0; sx < container.sectionCountX; ++sx)
+                {
+                    final int sizeX = Math.min(SECTION_SIZE, container.sizeX - (sx << 4));
+                    final int baseX = sx << 4;
+                    final int baseY = sy << 4;
+                    final int baseZ = sz << 4;
+                    final int firstId = storage.getAt(other.getIndex(baseX, baseY, baseZ));
+                    Section section = null;
+
+                    Arrays.fill(globalToLocal, -1);
+
+                    for (int y = 0; y < sizeY; ++y)
+                    {
+                        for (int z = 0; z < sizeZ; ++z)
+                        {
+                            storage.getRange(other.getIndex(baseX, baseY + y, baseZ + z), ids, 0, sizeX);
+
+                            // Only create the bit array storage once a differing ID is found
+                            if (section == null)
+                            {
+                                int i = 0;
+
+                                while (i < sizeX && ids[i] == firstId)
+                                {
+                                    ++i;
+                                }
+
+                                if (i == sizeX)
+                                {
+                                    continue;
+                                }
+
+                                // This also fills the so far skipped uniform part of the section
+                                section = new Section(getStateForId(mapping, firstId));
+                                section.expand();
+                            }
+
+                            for (int i = 0; i < sizeX; ++i)
+                            {
+                                final int id = ids[i];
+                                ids[i] = section.getLocalId(getStateForId(mapping, id), globalToLocal, id);
+                            }
+
+                            section.storage.setRange(getLocalIndex(0, y, z), ids, 0, sizeX);
+                        }
+                    }
+
+                    if (section == null)
+                    {
+                        IBlockState state = getStateForId(mapping, firstId);
+                        section = state != AIR_BLOCK_STATE ? new Section(state) : null;
+                    }
+
+                    container.sections[container.getSectionIndex(sx, sy, sz)] = section;
+                }
+            }
+        }
+
+        if (other.hasSetBlockCounts)
+        {
+            container.setBlockCounts(other.blockCounts);
+        }
+
+        container.copyNonAirCountsFrom(other);
+        container.copyContentHashFrom(other);
+
+        return container;
+    }
+
+    private static IBlockState getStateForId(List<IBlockState> mapping, int id)
+    {
+        return id < mapping.size() ? mapping.get(id) : AIR_BLOCK_STATE;
+    }
+
+    protected static class Section implements IPaletteResizeHandler
+    {
+        /** The state of the entire section, when it only contains one state. Null when the storage is used. */
+        @Nullable protected IBlockState uniformState;
+        @Nullable protected ILitematicaBlockStatePalette palette;
+        @Nullable protected LitematicaBitArray storage;
+        /** The number of positions using each palette ID, within the container's volume. Null until first needed. */
+        @Nullable protected int[] idCounts;
+        protected int bits;
+        /** Set when this section is used by more than one container. Shared sections must not be modified. */
+        protected volatile boolean shared;
+
+        protected Section(IBlockState uniformState)
+        {
+            this.uniformState = uniformState;
+        }
+
+        public IBlockState getBlockState(int index)
+        {
+            if (this.uniformState != null)
+            {
+                return this.uniformState;
+            }
+
+            IBlockState state = this.palette.getBlockState(this.storage.getAt(index));
+            return state != null ? state : AIR_BLOCK_STATE;
+        }
+
+        /**
+         * Sets the state at the given index. The size arguments are the size of the part
+         * of this section that is within the container.
+         * @return true if the part of this section within the container now only contains the given state
+         */
+        public boolean setBlockState(int index, IBlockState state, int sizeX, int sizeY, int sizeZ)
+        {
+            final int volume = sizeX * sizeY * sizeZ;
+
+            if (this.uniformState != null)
+            {
+                if (state == this.uniformState)
+                {
+                    return true;
+                }
+
+                IBlockState uniformState = this.uniformState;
+                this.expand();
+
+                // Every position has the previously uniform state, so the counts are known without counting
+                this.idCounts = new int[1 << this.bits];
+                this.idCounts[this.palette.idFor(uniformState)] = volume;
+            }
+            else if (this.idCounts == null)
+            {
+                this.idCounts = this.countIdsWithin(sizeX, sizeY, sizeZ);
+            }
+
+            // Note: getting the ID may resize the storage, which also resizes the counts array
+            final int id = this.palette.idFor(state);
+            final int oldId = this.storage.getAndSetAt(index, id);
+
+            if (oldId != id)
+            {
+                --this.idCounts[oldId];
+                ++this.idCounts[id];
+            }
+
+            return this.idCounts[id] == volume;
+        }
+
+        /**
+         * Converts this section from the single state form to the palette + bit array form
+         */
+        protected void expand()
+        {
+            IBlockState state = this.uniformState;
+
+            this.bits = 2;
+            this.palette = createPalette(this.bits, this);
+            this.storage = new LitematicaBitArray(this.bits, SECTION_VOLUME);
+            this.uniformState = null;
+            this.idCounts = null;
+
+            // Always reserve ID 0 for air, so that the storage doesn't need to be filled with air separately
+            this.palette.idFor(AIR_BLOCK_STATE);
+
+            if (state != null && state != AIR_BLOCK_STATE)
+            {
+                int[] ids = new int[LitematicaBitArray.BULK_BUFFER_SIZE];
+                Arrays.fill(ids, this.palette.idFor(state));
+                this.storage.setRange(0, ids, 0, SECTION_VOLUME);
+            }
+        }
+
+        protected int getLocalId(IBlockState state, int[] globalToLocal, int globalId)
+        {
+            int localId = globalId < globalToLocal.length ? globalToLocal[globalId] : -1;
+
+            if (localId == -1)
+            {
+                // Note: this may resize the storage
+                localId = this.palette.idFor(state);
+
+                if (globalId < globalToLocal.length)
+                {
+                    globalToLocal[globalId] = localId;
+                }
+            }
+
+            return localId;
+        }
+
+        /**
+         * Returns an array mapping the IDs of this section's palette to the IDs in the given palette
+         */
+        protected int[] getIdMap(ILitematicaBlockStatePalette containerPalette)
+        {
+            if (this.palette == null)
+            {
+                return new int[0];
+            }
+
+            final int size = this.palette.getPaletteSize();
+            int[] map = new int[1 << this.bits];
+
+            for (int id = 0; id < size; ++id)
+            {
+                IBlockState state = this.palette.getBlockState(id);
+                map[id] = containerPalette.idFor(state != null ? state : AIR_BLOCK_STATE);
+            }
+
+            return map;
+        }
+
+        protected void addBlockCounts(long[] counts, ILitematicaBlockStatePalette containerPalette, int sizeX, int sizeY, int sizeZ, int[] ids)
+        {
+            long[] localCounts = new long[1 << this.bits];
+
+            for (int y = 0; y < sizeY; ++y)
+            {
+                for (int z = 0; z < sizeZ; ++z)
+                {
+                    this.storage.getRange(getLocalIndex(0, y, z), ids, 0, sizeX);
+
+                    for (int i = 0; i < sizeX; ++i)
+                    {
+                        ++localCounts[ids[i]];
+                    }
+                }
+            }
+
+            int[] idMap = this.getIdMap(containerPalette);
+
+            for (int id = 0; id < localCounts.length; ++id)
+            {
+                if (localCounts[id] != 0)
+                {
+                    counts[idMap[id]] += localCounts[id];
+                }
+            }
+        }
+
+        /**
+         * Counts the number of positions using each palette ID within the given volume of this section
+         */
+        protected int[] countIdsWithin(int sizeX, int sizeY, int sizeZ)
+        {
+            int[] counts = new int[1 << this.bits];
+            int[] ids = new int[SECTION_SIZE];
+
+            for (int y = 0; y < sizeY; ++y)
+            {
+                for (int z = 0; z < sizeZ; ++z)
+                {
+                    this.storage.getRange(getLocalIndex(0, y, z), ids, 0, sizeX);
+
+                    for (int i = 0; i < sizeX; ++i)
+                    {
+                        ++counts[ids[i]];
+                    }
+                }
+            }
+
+            return counts;
+        }
+
+        @Override
+        public int onResize(int bits, IBlockState state, ILitematicaBlockStatePalette oldPalette)
+        {
+            LitematicaBitArray newArray = new LitematicaBitArray(bits, SECTION_VOLUME);
+
+            // This creates the new palette with the increased size
+            this.bits = bits;
+            this.palette = createPalette(bits, this);
+            this.palette.setMapping(oldPalette.getMapping());
+
+            this.storage.copyTo(newArray);
+            this.storage = newArray;
+
+            if (this.idCounts != null)
+            {
+                this.idCounts = Arrays.copyOf(this.idCounts, 1 << bits);
+            }
+
+            return this.palette.idFor(state);
+        }
+
+        protected Section copy()
+        {
+            Section copy = new Section(this.uniformState);
+
+            if (this.storage != null)
+            {
+                copy.bits = this.bits;
+                copy.palette = this.palette.copy(copy);
+                copy.storage = new LitematicaBitArray(this.bits, SECTION_VOLUME, this.storage.getBackingLongArray().clone());
+                copy.idCounts = this.idCounts != null ? this.idCounts.clone() : null;
+            }
+
+            return copy;
+        }
+    }
+}
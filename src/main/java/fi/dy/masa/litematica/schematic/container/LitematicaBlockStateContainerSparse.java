@@ -1,12 +1,36 @@
 package fi.dy.masa.litematica.schematic.container;
 
+import java.util.Arrays;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.apache.commons.lang3.tuple.Pair;
 import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.EnumFacing;
 import net.minecraft.util.math.Vec3i;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
 
+/**
+ * A block state container that only stores the positions that have been explicitly set.
+ * The blocks are stored as palette IDs, either in a hash map keyed by the packed position,
+ * or after {@link #freeze()} in a sorted packed position array. If the number of stored
+ * positions grows past {@link #PROMOTION_THRESHOLD} of the total volume, then the container
+ * switches over to a full container for the block storage, and only keeps track
+ * of which positions have been set using a bit mask.
+ */
 public class LitematicaBlockStateContainerSparse extends LitematicaBlockStateContainerBase
 {
-    private final Long2ObjectOpenHashMap<IBlockState> blocks = new Long2ObjectOpenHashMap<>();
+    /** The fraction of the total volume after which the container switches to using a full container */
+    public static final double PROMOTION_THRESHOLD = 0.125;
+
+    private final long promotionLimit;
+    @Nullable private Long2IntOpenHashMap blocks;
+    @Nullable private long[] frozenPositions;
+    @Nullable private int[] frozenIds;
+    @Nullable private LitematicaBlockStateContainerFull fullContainer;
+    /** The positions that have been set, when using the full container storage */
+    @Nullable private long[] setPositions;
 
     public LitematicaBlockStateContainerSparse(Vec3i size)
     {
@@ -14,50 +38,513 @@ public class LitematicaBlockStateContainerSparse extends LitematicaBlockStateCon
 
         this.palette = new VanillaStructurePalette();
         this.blockCounts = new long[256];
+        this.promotionLimit = (long) (this.totalVolume * PROMOTION_THRESHOLD);
+        this.blocks = createMap(16);
+    }
+
+    @Override
+    public ILitematicaBlockStatePalette getPalette()
+    {
+        return this.fullContainer != null ? this.fullContainer.getPalette() : this.palette;
+    }
+
+    @Override
+    public long getTotalBlockCount()
+    {
+        return this.fullContainer != null ? this.fullContainer.getTotalBlockCount() : super.getTotalBlockCount();
+    }
+
+    @Override
+    public Map<IBlockState, Long> getBlockCountsMap()
+    {
+        return this.fullContainer != null ? this.fullContainer.getBlockCountsMap() : super.getBlockCountsMap();
+    }
+
+    @Override
+    public long getNonAirBlockCountInLayer(EnumFacing.Axis axis, int layer)
+    {
+        return this.fullContainer != null ? this.fullContainer.getNonAirBlockCountInLayer(axis, layer) : super.getNonAirBlockCountInLayer(axis, layer);
+    }
+
+    @Override
+    @Nullable
+    public Pair<Vec3i, Vec3i> getNonAirBounds()
+    {
+        return this.fullContainer != null ? this.fullContainer.getNonAirBounds() : super.getNonAirBounds();
+    }
+
+    @Override
+    public long getContentHash()
+    {
+        return this.fullContainer != null ? this.fullContainer.getContentHash() : super.getContentHash();
+    }
+
+    /**
+     * @return the number of positions that have been explicitly set in this container,
+     * or -1 if the container has been promoted to use the full container storage
+     */
+    public long getStoredPositionCount()
+    {
+        if (this.blocks != null)
+        {
+            return this.blocks.size();
+        }
+        else if (this.frozenPositions != null)
+        {
+            return this.frozenPositions.length;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return true if this container has switched to using a full container for the block storage
+     */
+    public boolean isPromoted()
+    {
+        return this.fullContainer != null;
+    }
+
+    public boolean isFrozen()
+    {
+        return this.frozenPositions != null;
     }
 
     @Override
     public IBlockState getBlockState(int x, int y, int z)
     {
-        long pos = (long) y << 32 | (long) (z & 0xFFFF) << 16 | (long) (x & 0xFFFF);
-        IBlockState state = this.blocks.get(pos);
+        if (this.isWithinBounds(x, y, z) == false)
+        {
+            return AIR_BLOCK_STATE;
+        }
+
+        if (this.fullContainer != null)
+        {
+            return this.fullContainer.getBlockState(x, y, z);
+        }
+
+        long pos = packPosition(x, y, z);
+        int id;
+
+        if (this.blocks != null)
+        {
+            id = this.blocks.get(pos);
+        }
+        else
+        {
+            int index = Arrays.binarySearch(this.frozenPositions, pos);
+            id = index >= 0 ? this.frozenIds[index] : -1;
+        }
+
+        IBlockState state = id >= 0 ? this.palette.getBlockState(id) : null;
+
         return state != null ? state : AIR_BLOCK_STATE;
     }
 
     @Override
     public void setBlockState(int x, int y, int z, IBlockState state)
     {
-        long pos = (long) y << 32 | (long) (z & 0xFFFF) << 16 | (long) (x & 0xFFFF);
+        if (this.isWithinBounds(x, y, z) == false)
+        {
+            return;
+        }
+
+        if (this.fullContainer != null)
+        {
+            long index = (long) y * this.sizeLayer + (long) z * (long) this.sizeX + (long) x;
+            this.setPositions[(int) (index >>> 6)] |= 1L << (index & 0x3F);
+            this.fullContainer.setBlockState(x, y, z, state);
+            return;
+        }
 
-        IBlockState oldState = this.blocks.put(pos, state);
+        long pos = packPosition(x, y, z);
         int id = this.palette.idFor(state);
+        int oldId;
+
+        if (this.blocks == null)
+        {
+            int index = Arrays.binarySearch(this.frozenPositions, pos);
+
+            if (index >= 0)
+            {
+                oldId = this.frozenIds[index];
+                this.frozenIds[index] = id;
+                this.updateBlockCounts(oldId, id);
+                IBlockState stateOld = this.palette.getBlockState(oldId);
+                this.updateNonAirCounts(x, y, z, stateOld, state);
+                this.updateContentHash(x, y, z, stateOld, state);
+                return;
+            }
+
+            this.thaw();
+        }
 
-        if (id >= this.blockCounts.length)
+        oldId = this.blocks.put(pos, id);
+        this.updateBlockCounts(oldId, id);
+        IBlockState stateOld = oldId >= 0 ? this.palette.getBlockState(oldId) : null;
+        this.updateNonAirCounts(x, y, z, stateOld, state);
+        this.updateContentHash(x, y, z, stateOld, state);
+
+        if (oldId == -1 && this.blocks.size() > this.promotionLimit)
         {
-            long[] oldArr = this.blockCounts;
-            this.blockCounts = new long[oldArr.length * 2];
-            System.arraycopy(oldArr, 0, this.blockCounts, 0, oldArr.length);
+            this.promote();
+        }
+    }
+
+    @Override
+    public void forEachRun(int minX, int minY, int minZ, int maxX, int maxY, int maxZ,
+                           BlockStateRunSkip skip, IBlockStateRunConsumer consumer)
+    {
+        if (this.fullContainer != null)
+        {
+            this.fullContainer.forEachRun(minX, minY, minZ, maxX, maxY, maxZ, skip, consumer);
+        }
+        else if (minX <= maxX)
+        {
+            long[] positions;
+            int[] ids;
+
+            if (this.blocks != null)
+            {
+                positions = this.getSortedPositionsWithin(minX, minY, minZ, maxX, maxY, maxZ);
+                ids = new int[positions.length];
+
+                for (int i = 0; i < positions.length; ++i)
+                {
+                    ids[i] = this.blocks.get(positions[i]);
+                }
+            }
+            else
+            {
+                positions = this.frozenPositions;
+                ids = this.frozenIds;
+            }
+
+            this.forEachRunInSortedPositions(positions, ids, minX, minY, minZ, maxX, maxY, maxZ, skip, consumer);
+        }
+    }
+
+    private long[] getSortedPositionsWithin(int minX, int minY, int minZ, int maxX, int maxY, int maxZ)
+    {
+        LongArrayList list = new LongArrayList();
+        LongIterator iter = this.blocks.keySet().iterator();
+
+        while (iter.hasNext())
+        {
+            long pos = iter.nextLong();
+            int x = (int) (pos & 0xFFFF);
+            int y = (int) (pos >>> 32);
+            int z = (int) ((pos >>> 16) & 0xFFFF);
+
+            if (x >= minX && y >= minY && z >= minZ && x <= maxX && y <= maxY && z <= maxZ)
+            {
+                list.add(pos);
+            }
+        }
+
+        long[] positions = list.toLongArray();
+        Arrays.sort(positions);
+
+        return positions;
+    }
+
+    /**
+     * Iterates the runs in the given box using the stored positions only.
+     * The positions array must be sorted, and then it is in y, z, x order.
+     * Each row is found with a binary search, and the positions
+     * between the stored positions are air.
+     */
+    private void forEachRunInSortedPositions(final long[] positions, final int[] ids,
+                                             int minX, int minY, int minZ, int maxX, int maxY, int maxZ,
+                                             BlockStateRunSkip skip, IBlockStateRunConsumer consumer)
+    {
+        final int count = positions.length;
+        final int endX = maxX + 1;
+
+        for (int y = minY; y <= maxY; ++y)
+        {
+            for (int z = minZ; z <= maxZ; ++z)
+            {
+                int index = Arrays.binarySearch(positions, packPosition(minX, y, z));
+                final long rowEnd = packPosition(maxX, y, z);
+
+                if (index < 0)
+                {
+                    index = -index - 1;
+                }
+
+                // All air, no need to walk the row
+                if (skip.skipsAir() && (index >= count || positions[index] > rowEnd))
+                {
+                    continue;
+                }
+
+                IBlockState runState = AIR_BLOCK_STATE;
+                int runStart = minX;
+                int nextX = minX;
+
+                for (; index < count && positions[index] <= rowEnd; ++index)
+                {
+                    int x = (int) (positions[index] & 0xFFFF);
+                    IBlockState state = this.palette.getBlockState(ids[index]);
+
+                    if (state == null)
+                    {
+                        state = AIR_BLOCK_STATE;
+                    }
+
+                    // A gap of unset positions, which are air
+                    if (x > nextX && runState != AIR_BLOCK_STATE)
+                    {
+                        if (skip.shouldSkip(runState) == false)
+                        {
+                            consumer.accept(runStart, y, z, nextX - runStart, runState);
+                        }
+
+                        runState = AIR_BLOCK_STATE;
+                        runStart = nextX;
+                    }
+
+                    if (state != runState)
+                    {
+                        if (x > runStart && skip.shouldSkip(runState) == false)
+                        {
+                            consumer.accept(runStart, y, z, x - runStart, runState);
+                        }
+
+                        runState = state;
+                        runStart = x;
+                    }
+
+                    nextX = x + 1;
+                }
+
+                if (nextX < endX && runState != AIR_BLOCK_STATE)
+                {
+                    if (skip.shouldSkip(runState) == false)
+                    {
+                        consumer.accept(runStart, y, z, nextX - runStart, runState);
+                    }
+
+                    runState = AIR_BLOCK_STATE;
+                    runStart = nextX;
+                }
+
+                if (skip.shouldSkip(runState) == false)
+                {
+                    consumer.accept(runStart, y, z, endX - runStart, runState);
+                }
+            }
         }
+    }
 
-        if (oldState != state)
+    private void updateBlockCounts(int oldId, int newId)
+    {
+        if (oldId != newId)
         {
-            if (oldState != null)
+            if (newId >= this.blockCounts.length)
+            {
+                this.blockCounts = Arrays.copyOf(this.blockCounts, Math.max(newId + 1, this.blockCounts.length * 2));
+            }
+
+            if (oldId >= 0)
             {
-                int oldId = this.palette.idFor(oldState);
                 --this.blockCounts[oldId];
             }
 
-            ++this.blockCounts[id];
+            ++this.blockCounts[newId];
+        }
+    }
+
+    private boolean isWithinBounds(int x, int y, int z)
+    {
+        return x >= 0 && y >= 0 && z >= 0 && x < this.sizeX && y < this.sizeY && z < this.sizeZ;
+    }
+
+    /**
+     * Converts the position map into a sorted position array, which uses less memory
+     * and allows iterating the stored blocks in y, z, x order.
+     * Setting a block in a position that is not yet stored will convert
+     * the container back to using the hash map.
+     */
+    public void freeze()
+    {
+        if (this.blocks == null)
+        {
+            return;
+        }
+
+        long[] positions = this.blocks.keySet().toLongArray();
+        final int count = positions.length;
+        int[] ids = new int[count];
+
+        Arrays.sort(positions);
+
+        for (int i = 0; i < count; ++i)
+        {
+            ids[i] = this.blocks.get(positions[i]);
+        }
+
+        this.frozenPositions = positions;
+        this.frozenIds = ids;
+        this.blocks = null;
+    }
+
+    private void thaw()
+    {
+        final int count = this.frozenPositions.length;
+        Long2IntOpenHashMap map = createMap(count + 16);
+
+        for (int i = 0; i < count; ++i)
+        {
+            map.put(this.frozenPositions[i], this.frozenIds[i]);
+        }
+
+        this.blocks = map;
+        this.frozenPositions = null;
+        this.frozenIds = null;
+    }
+
+    private void promote()
+    {
+        this.freeze();
+
+        LitematicaBlockStateContainerFull container = new LitematicaBlockStateContainerFull(this.size);
+        long[] setPositions = new long[(int) ((this.totalVolume + 63L) >>> 6)];
+        final long[] positions = this.frozenPositions;
+        final int[] ids = this.frozenIds;
+        final int count = positions.length;
+
+        for (int i = 0; i < count; ++i)
+        {
+            long pos = positions[i];
+            int x = (int) (pos & 0xFFFF);
+            int y = (int) (pos >>> 32);
+            int z = (int) ((pos >>> 16) & 0xFFFF);
+            long index = (long) y * this.sizeLayer + (long) z * (long) this.sizeX + (long) x;
+
+            setPositions[(int) (index >>> 6)] |= 1L << (index & 0x3F);
+            container.setBlockState(x, y, z, this.palette.getBlockState(ids[i]));
+        }
+
+        // The contents didn't change, so the layer counts are still valid
+        container.copyNonAirCountsFrom(this);
+        container.copyContentHashFrom(this);
+        this.invalidateNonAirCounts();
+        this.invalidateContentHash();
+
+        this.fullContainer = container;
+        this.setPositions = setPositions;
+        this.frozenPositions = null;
+        this.frozenIds = null;
+        this.blockCounts = new long[0];
+    }
+
+    /**
+     * Calls the consumer for every position that has been explicitly set in this container,
+     * in y, z, x order.
+     */
+    public void forEachBlock(IBlockConsumer consumer)
+    {
+        if (this.fullContainer != null)
+        {
+            this.forEachBlockInFullContainer(consumer);
+            return;
+        }
+
+        this.freeze();
+
+        final long[] positions = this.frozenPositions;
+        final int[] ids = this.frozenIds;
+        final int count = positions.length;
+
+        for (int i = 0; i < count; ++i)
+        {
+            long pos = positions[i];
+            IBlockState state = this.palette.getBlockState(ids[i]);
+
+            if (state == null)
+            {
+                state = AIR_BLOCK_STATE;
+            }
+
+            consumer.accept((int) (pos & 0xFFFF), (int) (pos >>> 32), (int) ((pos >>> 16) & 0xFFFF), state);
+        }
+    }
+
+    private void forEachBlockInFullContainer(IBlockConsumer consumer)
+    {
+        final LitematicaBlockStateContainerFull container = this.fullContainer;
+        final long[] setPositions = this.setPositions;
+        final int sizeX = this.sizeX;
+        final long sizeLayer = this.sizeLayer;
+        final int wordCount = setPositions.length;
+
+        for (int wordIndex = 0; wordIndex < wordCount; ++wordIndex)
+        {
+            long word = setPositions[wordIndex];
+
+            while (word != 0)
+            {
+                int bit = Long.numberOfTrailingZeros(word);
+                long index = ((long) wordIndex << 6) | bit;
+                int y = (int) (index / sizeLayer);
+                int layerIndex = (int) (index - y * sizeLayer);
+                int z = layerIndex / sizeX;
+                int x = layerIndex - z * sizeX;
+
+                consumer.accept(x, y, z, container.getBlockState(x, y, z));
+                word &= word - 1;
+            }
         }
     }
 
+    @Override
+    public long getEstimatedHeapUsage()
+    {
+        if (this.fullContainer != null)
+        {
+            return this.fullContainer.getEstimatedHeapUsage() + (long) this.setPositions.length * 8;
+        }
+
+        if (this.frozenPositions != null)
+        {
+            return (long) this.frozenPositions.length * 12;
+        }
+
+        // A long key and an int value per entry, at the default load factor of the map
+        return this.blocks != null ? (long) this.blocks.size() * 16 : 0;
+    }
+
     @Override
     public LitematicaBlockStateContainerSparse copy()
     {
         LitematicaBlockStateContainerSparse copy = new LitematicaBlockStateContainerSparse(this.size);
-        copy.blocks.putAll(this.blocks);
-        copy.blockCounts = this.blockCounts.clone();
         copy.palette = this.palette.copy(null);
+        copy.blockCounts = this.blockCounts.clone();
+
+        if (this.fullContainer != null)
+        {
+            copy.fullContainer = this.fullContainer.copy();
+            copy.setPositions = this.setPositions.clone();
+            copy.blocks = null;
+        }
+        else if (this.blocks != null)
+        {
+            copy.blocks = createMap(this.blocks.size());
+            copy.blocks.putAll(this.blocks);
+            copy.copyNonAirCountsFrom(this);
+            copy.copyContentHashFrom(this);
+        }
+        else
+        {
+            copy.frozenPositions = this.frozenPositions.clone();
+            copy.frozenIds = this.frozenIds.clone();
+            copy.blocks = null;
+            copy.copyNonAirCountsFrom(this);
+            copy.copyContentHashFrom(this);
+        }
+
         return copy;
     }
 
@@ -66,8 +553,54 @@ public class LitematicaBlockStateContainerSparse extends LitematicaBlockStateCon
     {
     }
 
-    public Long2ObjectOpenHashMap<IBlockState> getBlockMap()
+    @Override
+    protected void calculateNonAirCountsIfNeeded()
+    {
+        if (this.nonAirCountsY == null)
+        {
+            final long[] countsX = new long[this.sizeX];
+            final long[] countsY = new long[this.sizeY];
+            final long[] countsZ = new long[this.sizeZ];
+
+            // Only the stored positions need to be checked, everything else is air
+            this.forEachBlock((x, y, z, state) -> {
+                if (isAir(state) == false)
+                {
+                    ++countsX[x];
+                    ++countsY[y];
+                    ++countsZ[z];
+                }
+            });
+
+            this.setNonAirCounts(countsX, countsY, countsZ);
+        }
+    }
+
+    @Override
+    protected long calculateContentHash()
+    {
+        final long[] hash = new long[1];
+
+        // Only the stored positions need to be hashed, air doesn't contribute to the hash
+        this.forEachBlock((x, y, z, state) -> hash[0] += this.getBlockHash(x, y, z, state));
+
+        return hash[0];
+    }
+
+    private static Long2IntOpenHashMap createMap(int expectedSize)
+    {
+        Long2IntOpenHashMap map = new Long2IntOpenHashMap(expectedSize);
+        map.defaultReturnValue(-1);
+        return map;
+    }
+
+    public static long packPosition(int x, int y, int z)
+    {
+        return (long) y << 32 | (long) (z & 0xFFFF) << 16 | (long) (x & 0xFFFF);
+    }
+
+    public interface IBlockConsumer
     {
-        return this.blocks;
+        void accept(int x, int y, int z, IBlockState state);
     }
 }
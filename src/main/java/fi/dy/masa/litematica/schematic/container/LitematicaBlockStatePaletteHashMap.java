@@ -1,37 +1,73 @@
 package fi.dy.masa.litematica.schematic.container;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import javax.annotation.Nullable;
 import net.minecraft.block.state.IBlockState;
-import net.minecraft.util.IntIdentityHashBiMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
 
 public class LitematicaBlockStatePaletteHashMap implements ILitematicaBlockStatePalette
 {
-    protected final IntIdentityHashBiMap<IBlockState> statePaletteMap;
+    /** Maps the block states to their IDs, using identity comparison */
+    protected final Reference2IntOpenHashMap<IBlockState> stateToId;
     protected final IPaletteResizeHandler paletteResizer;
     protected final int bits;
+    /** The maximum number of entries before the palette needs to be resized */
+    protected final int maxSize;
+    protected IBlockState[] idToState;
+    protected int currentSize;
 
     public LitematicaBlockStatePaletteHashMap(int bitsIn, IPaletteResizeHandler paletteResizer)
     {
         this.bits = bitsIn;
         this.paletteResizer = paletteResizer;
-        this.statePaletteMap = new IntIdentityHashBiMap<>(1 << bitsIn);
+        this.maxSize = bitsIn >= 31 ? Integer.MAX_VALUE : 1 << bitsIn;
+
+        int initialCapacity = Math.min(this.maxSize, 256);
+        this.idToState = new IBlockState[initialCapacity];
+        this.stateToId = new Reference2IntOpenHashMap<>(initialCapacity);
+        this.stateToId.defaultReturnValue(-1);
     }
 
     @Override
     public int idFor(IBlockState state)
     {
-        int id = this.statePaletteMap.getId(state);
+        int id = this.stateToId.getInt(state);
 
         if (id == -1)
         {
-            id = this.statePaletteMap.add(state);
-
-            if (id >= (1 << this.bits))
+            if (this.currentSize >= this.maxSize)
             {
-                id = this.paletteResizer.onResize(this.bits + 1, state, this);
+                return this.paletteResizer.onResize(this.bits + 1, state, this);
             }
+
+            id = this.addMapping(state);
+        }
+
+        return id;
+    }
+
+    /**
+     * Adds the given state as a new entry at the end of the palette, without any resize checks.
+     * @return the ID of the new entry
+     */
+    protected int addMapping(IBlockState state)
+    {
+        final int id = this.currentSize;
+
+        if (id >= this.idToState.length)
+        {
+            this.idToState = Arrays.copyOf(this.idToState, (int) Math.min(Integer.MAX_VALUE - 8L, (long) this.idToState.length * 2L));
+        }
+
+        this.idToState[id] = state;
+        this.currentSize = id + 1;
+
+        // Keep the first ID for any duplicate entries, same as in the vanilla bi-map
+        if (this.stateToId.containsKey(state) == false)
+        {
+            this.stateToId.put(state, id);
         }
 
         return id;
@@ -39,26 +75,26 @@ public class LitematicaBlockStatePaletteHashMap implements ILitematicaBlockState
 
     @Override
     @Nullable
-    public IBlockState getBlockState(int indexKey)
+    public IBlockState getBlockState(int id)
     {
-        return this.statePaletteMap.get(indexKey);
+        return id >= 0 && id < this.currentSize ? this.idToState[id] : null;
     }
 
     @Override
     public int getPaletteSize()
     {
-        return this.statePaletteMap.size();
+        return this.currentSize;
     }
 
     @Override
     public List<IBlockState> getMapping()
     {
-        final int size = this.statePaletteMap.size();
+        final int size = this.currentSize;
         List<IBlockState> list = new ArrayList<>(size);
 
         for (int id = 0; id < size; ++id)
         {
-            list.add(this.statePaletteMap.get(id));
+            list.add(this.idToState[id]);
         }
 
         return list;
@@ -67,12 +103,20 @@ public class LitematicaBlockStatePaletteHashMap implements ILitematicaBlockState
     @Override
     public boolean setMapping(List<IBlockState> list)
     {
-        this.statePaletteMap.clear();
         final int size = list.size();
 
+        if (size > this.maxSize)
+        {
+            return false;
+        }
+
+        this.stateToId.clear();
+        Arrays.fill(this.idToState, null);
+        this.currentSize = 0;
+
         for (int id = 0; id < size; ++id)
         {
-            this.statePaletteMap.add(list.get(id));
+            this.addMapping(list.get(id));
         }
 
         return true;
@@ -81,13 +125,11 @@ public class LitematicaBlockStatePaletteHashMap implements ILitematicaBlockState
     @Override
     public boolean overrideMapping(int id, IBlockState state)
     {
-        List<IBlockState> mapping = this.getMapping();
-
-        if (id >= 0 && id < mapping.size())
+        if (id >= 0 && id < this.currentSize)
         {
-            // The put method of the map doesn't work for this, it increases the size etc. :/
-            mapping.set(id, state);
-            this.setMapping(mapping);
+            this.clearReverseMapping(id);
+            this.idToState[id] = state;
+            this.stateToId.put(state, id);
             return true;
         }
 
@@ -95,15 +137,40 @@ public class LitematicaBlockStatePaletteHashMap implements ILitematicaBlockState
     }
 
     @Override
-    public LitematicaBlockStatePaletteHashMap copy(IPaletteResizeHandler resizeHandler)
+    public boolean removeMapping(int id)
     {
-        LitematicaBlockStatePaletteHashMap copy = new LitematicaBlockStatePaletteHashMap(this.bits, resizeHandler);
+        if (id >= 0 && id < this.currentSize)
+        {
+            this.clearReverseMapping(id);
+            this.idToState[id] = null;
+            return true;
+        }
 
-        for (int id = 0; id < this.statePaletteMap.size(); ++id)
+        return false;
+    }
+
+    private void clearReverseMapping(int id)
+    {
+        IBlockState oldState = this.idToState[id];
+
+        if (oldState != null && this.stateToId.getInt(oldState) == id)
         {
-            copy.statePaletteMap.add(this.statePaletteMap.get(id));
+            this.stateToId.removeInt(oldState);
         }
+    }
+
+    protected void copyMappingTo(LitematicaBlockStatePaletteHashMap copy)
+    {
+        copy.idToState = this.idToState.clone();
+        copy.currentSize = this.currentSize;
+        copy.stateToId.putAll(this.stateToId);
+    }
 
+    @Override
+    public LitematicaBlockStatePaletteHashMap copy(IPaletteResizeHandler resizeHandler)
+    {
+        LitematicaBlockStatePaletteHashMap copy = new LitematicaBlockStatePaletteHashMap(this.bits, resizeHandler);
+        this.copyMappingTo(copy);
         return copy;
     }
 }
@@ -102,6 +102,18 @@ public class LitematicaBlockStatePaletteLinear implements ILitematicaBlockStateP
         return false;
     }
 
+    @Override
+    public boolean removeMapping(int id)
+    {
+        if (id >= 0 && id < this.currentSize)
+        {
+            this.states[id] = null;
+            return true;
+        }
+
+        return false;
+    }
+
     @Override
     public LitematicaBlockStatePaletteLinear copy(IPaletteResizeHandler resizeHandler)
     {
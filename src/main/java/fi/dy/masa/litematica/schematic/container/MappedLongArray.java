@@ -0,0 +1,253 @@
+package fi.dy.masa.litematica.schematic.container;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * A long array that is stored in a memory mapped temporary file instead of on the heap.
+ * The file is mapped in fixed size segments, so the array can be grown in place by just
+ * mapping more segments, without remapping the existing data or creating a new file.
+ * The file is kept open for growing the array, and it gets closed after the array
+ * is no longer reachable, the next time a new array is created.
+ */
+public class MappedLongArray
+{
+    /** The number of longs in one mapped segment, 32 MB per segment */
+    private static final int SEGMENT_SHIFT = 22;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1L;
+
+    private static final ReferenceQueue<MappedLongArray> RELEASED_ARRAYS = new ReferenceQueue<>();
+    // Keeps the file closers reachable until their arrays have been released
+    private static final Set<FileCloser> OPEN_FILES = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private final FileChannel channel;
+    private LongBuffer[] segments;
+    private long length;
+
+    private MappedLongArray(FileChannel channel)
+    {
+        this.channel = channel;
+        this.segments = new LongBuffer[0];
+    }
+
+    /**
+     * Creates a new zero-filled array backed by a memory mapped temporary file.
+     * @param directory the directory for the temporary file, or null to use the system temp directory
+     */
+    public static MappedLongArray create(long length, @Nullable File directory) throws IOException
+    {
+        closeReleasedFiles();
+
+        File file = File.createTempFile("litematica_blocks_", ".tmp", directory);
+        RandomAccessFile raf = null;
+
+        try
+        {
+            raf = new RandomAccessFile(file, "rw");
+            MappedLongArray array = new MappedLongArray(raf.getChannel());
+            OPEN_FILES.add(new FileCloser(array, raf, file));
+            array.grow(length);
+            return array;
+        }
+        catch (IOException e)
+        {
+            if (raf != null)
+            {
+                raf.close();
+            }
+
+            throw e;
+        }
+        finally
+        {
+            // The file stays usable through the open channel after it is deleted, at least on Unix-like systems.
+            // On Windows the file can't be deleted while it's open, so it will be deleted when it's closed instead.
+            file.delete();
+        }
+    }
+
+    public long getLength()
+    {
+        return this.length;
+    }
+
+    /**
+     * Grows the array to the given length. The existing data is kept as it is, and the new part reads back as zeroes.
+     */
+    public void grow(long length) throws IOException
+    {
+        if (length <= this.length)
+        {
+            return;
+        }
+
+        final int segmentCount = (int) ((length + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+
+        if (segmentCount > this.segments.length)
+        {
+            LongBuffer[] segments = Arrays.copyOf(this.segments, segmentCount);
+
+            // The whole segments are mapped, so that the already mapped segments never need to be remapped.
+            // Mapping past the end of the file extends it, and on most file systems that doesn't take up any space yet.
+            for (int i = this.segments.length; i < segmentCount; ++i)
+            {
+                long start = (long) i << SEGMENT_SHIFT;
+                segments[i] = this.channel.map(FileChannel.MapMode.READ_WRITE, start * 8L, SEGMENT_SIZE * 8L).order(ByteOrder.nativeOrder()).asLongBuffer();
+            }
+
+            this.segments = segments;
+        }
+
+        this.length = length;
+    }
+
+    public long get(long index)
+    {
+        return this.segments[(int) (index >>> SEGMENT_SHIFT)].get((int) (index & SEGMENT_MASK));
+    }
+
+    public void set(long index, long value)
+    {
+        this.segments[(int) (index >>> SEGMENT_SHIFT)].put((int) (index & SEGMENT_MASK), value);
+    }
+
+    /**
+     * Returns buffers that together cover the whole array in order, one per mapped segment.
+     * The buffers are views to the mapped file, so this allows reading and writing the data
+     * in bulk, for example directly from and to a file stream, without copying it to the heap.
+     */
+    public LongBuffer[] getBuffers()
+    {
+        final int count = (int) ((this.length + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        LongBuffer[] buffers = new LongBuffer[count];
+
+        for (int i = 0; i < count; ++i)
+        {
+            long start = (long) i << SEGMENT_SHIFT;
+            LongBuffer buf = this.segments[i].duplicate();
+            buf.position(0);
+            buf.limit((int) Math.min(SEGMENT_SIZE, this.length - start));
+            buffers[i] = buf;
+        }
+
+        return buffers;
+    }
+
+    /**
+     * Creates a copy of this array in a new memory mapped file
+     */
+    public MappedLongArray copy() throws IOException
+    {
+        MappedLongArray copy = create(this.length, null);
+        LongBuffer[] source = this.getBuffers();
+        LongBuffer[] target = copy.getBuffers();
+
+        for (int i = 0; i < source.length; ++i)
+        {
+            target[i].put(source[i]);
+        }
+
+        return copy;
+    }
+
+    /**
+     * Copies the data from the given long array, which must have the same length as this array
+     */
+    public void setFrom(long[] longArray)
+    {
+        Validate.isTrue(longArray.length == this.length, "Backing array length mismatch");
+
+        int offset = 0;
+
+        for (LongBuffer buf : this.getBuffers())
+        {
+            int count = buf.remaining();
+            buf.put(longArray, offset, count);
+            offset += count;
+        }
+    }
+
+    /**
+     * Returns a copy of the data in a new heap long array
+     * @throws IllegalStateException if the data doesn't fit in a single long array
+     */
+    public long[] toLongArray()
+    {
+        if (this.length > Integer.MAX_VALUE - 8)
+        {
+            throw new IllegalStateException("The mapped array is too large to be returned as a single long array");
+        }
+
+        final long[] arr = new long[(int) this.length];
+        int offset = 0;
+
+        for (LongBuffer buf : this.getBuffers())
+        {
+            int count = buf.remaining();
+            buf.get(arr, offset, count);
+            offset += count;
+        }
+
+        return arr;
+    }
+
+    private static void closeReleasedFiles()
+    {
+        Reference<? extends MappedLongArray> ref;
+
+        while ((ref = RELEASED_ARRAYS.poll()) != null)
+        {
+            FileCloser closer = (FileCloser) ref;
+            OPEN_FILES.remove(closer);
+            closer.close();
+        }
+    }
+
+    /**
+     * Closes the file of an array once the array has been garbage collected.
+     * The mapped segments stay valid until they are collected too, even after the file has been closed.
+     */
+    private static class FileCloser extends PhantomReference<MappedLongArray>
+    {
+        private final RandomAccessFile raf;
+        private final File file;
+
+        private FileCloser(MappedLongArray array, RandomAccessFile raf, File file)
+        {
+            super(array, RELEASED_ARRAYS);
+
+            this.raf = raf;
+            this.file = file;
+        }
+
+        private void close()
+        {
+            try
+            {
+                this.raf.close();
+            }
+            catch (IOException ignore)
+            {
+            }
+
+            if (this.file.exists() && this.file.delete() == false)
+            {
+                this.file.deleteOnExit();
+            }
+        }
+    }
+}
@@ -12,11 +12,11 @@ public class VanillaStructurePalette extends LitematicaBlockStatePaletteHashMap
     @Override
     public int idFor(IBlockState state)
     {
-        int id = this.statePaletteMap.getId(state);
+        int id = this.stateToId.getInt(state);
 
         if (id == -1)
         {
-            id = this.statePaletteMap.add(state);
+            id = this.addMapping(state);
         }
 
         return id;
@@ -26,12 +26,7 @@ public class VanillaStructurePalette extends LitematicaBlockStatePaletteHashMap
     public VanillaStructurePalette copy(IPaletteResizeHandler resizeHandler)
     {
         VanillaStructurePalette copy = new VanillaStructurePalette();
-
-        for (int id = 0; id < this.statePaletteMap.size(); ++id)
-        {
-            copy.statePaletteMap.add(this.statePaletteMap.get(id));
-        }
-
+        this.copyMappingTo(copy);
         return copy;
     }
 }
@@ -0,0 +1,367 @@
+package fi.dy.masa.litematica.schematic.container;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import javax.annotation.Nullable;
+import fi.dy.masa.litematica.schematic.container.LitematicaBlockStateContainerFull.SpongeBlockstateConverterResults;
+
+/**
+ * Converts between the packed block state arrays and the varint encoded block data arrays
+ * used by the Sponge schematic format. The data is processed in slabs of consecutive entries,
+ * which are decoded and encoded in parallel.
+ */
+public class VarintBlockDataCodec
+{
+    /**
+     * The number of entries in one slab. This must be a multiple of 64, so that every slab
+     * starts at a long boundary in the packed array, regardless of the entry width.
+     * That way the slabs never write to the same long when decoding in parallel.
+     */
+    private static final int SLAB_SIZE = 65536;
+    private static final int SLABS_PER_BATCH = 16;
+    private static final int SCAN_CHUNK_SIZE = 1 << 20;
+
+    public static int getVarIntSize(int value)
+    {
+        for (int i = 1; i < 5; ++i)
+        {
+            if ((value & (-1 << i * 7)) == 0)
+            {
+                return i;
+            }
+        }
+
+        return 5;
+    }
+
+    /**
+     * Decodes the varint encoded block data straight into a packed long array of the given entry width.
+     * Any extra data after the last entry is ignored.
+     * @return the packed array and the counts of each ID, or null if the data is invalid or too short
+     */
+    @Nullable
+    public static SpongeBlockstateConverterResults decode(byte[] data, int bits, long volume)
+    {
+        final int slabCount = getSlabCount(volume);
+        final int[] slabOffsets = findSlabOffsets(data, slabCount);
+
+        if (slabOffsets == null)
+        {
+            return null;
+        }
+
+        final long[] arr = new long[(int) LitematicaBitArray.getLongArrayLength(bits, volume)];
+        final int groupCount = Math.max(1, Math.min(slabCount, Runtime.getRuntime().availableProcessors()));
+
+        // Each group of consecutive slabs counts the IDs into its own array, which are then combined
+        long[][] groupCounts = IntStream.range(0, groupCount).parallel().mapToObj((group) -> {
+            final int start = (int) ((long) group * slabCount / groupCount);
+            final int end = (int) ((long) (group + 1) * slabCount / groupCount);
+            long[] counts = new long[1 << bits];
+
+            for (int slab = start; slab < end; ++slab)
+            {
+                if (decodeSlab(data, slabOffsets[slab], slab, volume, bits, arr, counts) == false)
+                {
+                    return null;
+                }
+            }
+
+            return counts;
+        }).toArray(long[][]::new);
+
+        long[] blockCounts = new long[1 << bits];
+
+        for (long[] counts : groupCounts)
+        {
+            if (counts == null)
+            {
+                return null;
+            }
+
+            for (int i = 0; i < counts.length; ++i)
+            {
+                blockCounts[i] += counts[i];
+            }
+        }
+
+        return new SpongeBlockstateConverterResults(arr, blockCounts);
+    }
+
+    /**
+     * Returns the exact length of the varint encoded data of the given packed array
+     * @param paletteSize the palette size, which is used to skip counting when every ID fits in one byte
+     */
+    public static long getEncodedLength(LitematicaBitArray storage, int paletteSize)
+    {
+        final long volume = storage.size();
+
+        if (paletteSize <= 128)
+        {
+            return volume;
+        }
+
+        return IntStream.range(0, getSlabCount(volume)).parallel().mapToLong((slab) -> getEncodedSlabLength(storage, slab)).sum();
+    }
+
+    /**
+     * Writes the varint encoded data of the given packed array to the stream.
+     * The data is encoded in parallel in batches of slabs, and written one batch at a time,
+     * so the whole encoded array never needs to exist in memory at once.
+     */
+    public static void encode(LitematicaBitArray storage, OutputStream outputStream) throws IOException
+    {
+        final int slabCount = getSlabCount(storage.size());
+
+        for (int start = 0; start < slabCount; start += SLABS_PER_BATCH)
+        {
+            byte[][] slabs = IntStream.range(start, Math.min(start + SLABS_PER_BATCH, slabCount)).parallel()
+                    .mapToObj((slab) -> encodeSlab(storage, slab))
+                    .toArray(byte[][]::new);
+
+            for (byte[] slabData : slabs)
+            {
+                outputStream.write(slabData);
+            }
+        }
+    }
+
+    /**
+     * Encodes the given packed array into a new varint encoded byte array
+     */
+    public static byte[] encodeToArray(LitematicaBitArray storage, int paletteSize)
+    {
+        final long length = getEncodedLength(storage, paletteSize);
+
+        if (length > Integer.MAX_VALUE)
+        {
+            throw new IndexOutOfBoundsException("Block data backing byte array length " + length + " exceeds the maximum value of " + Integer.MAX_VALUE);
+        }
+
+        ByteArrayOutput output = new ByteArrayOutput(new byte[(int) length]);
+
+        try
+        {
+            encode(storage, output);
+        }
+        catch (IOException e)
+        {
+            // Can't happen with the array output
+            throw new IllegalStateException(e);
+        }
+
+        return output.arr;
+    }
+
+    private static int getSlabCount(long volume)
+    {
+        return (int) ((volume + SLAB_SIZE - 1) / SLAB_SIZE);
+    }
+
+    /**
+     * Finds the starting byte offset of each slab, by counting the last bytes of the varints.
+     * The counting is done in parallel in large chunks, and then only the chunks
+     * that contain a slab start are scanned again.
+     */
+    @Nullable
+    private static int[] findSlabOffsets(byte[] data, int slabCount)
+    {
+        int[] offsets = new int[slabCount];
+
+        if (slabCount <= 1)
+        {
+            return offsets;
+        }
+
+        final int chunkCount = (int) (((long) data.length + SCAN_CHUNK_SIZE - 1) / SCAN_CHUNK_SIZE);
+        final int[] chunkEntries = IntStream.range(0, chunkCount).parallel()
+                .map((chunk) -> countVarInts(data, chunk * SCAN_CHUNK_SIZE, (int) Math.min(data.length, (long) (chunk + 1) * SCAN_CHUNK_SIZE)))
+                .toArray();
+        long entriesBefore = 0;
+        int slab = 1;
+
+        for (int chunk = 0; chunk < chunkCount && slab < slabCount; ++chunk)
+        {
+            final long entriesAfter = entriesBefore + chunkEntries[chunk];
+            long entries = entriesBefore;
+            int pos = chunk * SCAN_CHUNK_SIZE;
+
+            while (slab < slabCount && (long) slab * SLAB_SIZE <= entriesAfter)
+            {
+                final long target = (long) slab * SLAB_SIZE;
+
+                while (entries < target)
+                {
+                    if (data[pos++] >= 0)
+                    {
+                        ++entries;
+                    }
+                }
+
+                offsets[slab++] = pos;
+            }
+
+            entriesBefore = entriesAfter;
+        }
+
+        return slab == slabCount ? offsets : null;
+    }
+
+    private static int countVarInts(byte[] data, int start, int end)
+    {
+        int count = 0;
+
+        for (int i = start; i < end; ++i)
+        {
+            // The last byte of each varint has the continuation bit cleared
+            if (data[i] >= 0)
+            {
+                ++count;
+            }
+        }
+
+        return count;
+    }
+
+    private static boolean decodeSlab(byte[] data, int offset, int slab, long volume, int bits, long[] arr, long[] counts)
+    {
+        final long startIndex = (long) slab * SLAB_SIZE;
+        final int count = (int) Math.min(SLAB_SIZE, volume - startIndex);
+        final int maxId = counts.length - 1;
+        final int length = data.length;
+        int arrIndex = (int) ((startIndex * bits) >> 6);
+        int bitOffset = 0;
+        long word = 0;
+        int pos = offset;
+
+        for (int i = 0; i < count; ++i)
+        {
+            if (pos >= length)
+            {
+                return false;
+            }
+
+            int b = data[pos++];
+            int id = b & 0x7F;
+
+            if (b < 0)
+            {
+                int shift = 7;
+
+                do
+                {
+                    if (pos >= length || shift > 28)
+                    {
+                        return false;
+                    }
+
+                    b = data[pos++];
+                    id |= (b & 0x7F) << shift;
+                    shift += 7;
+                }
+                while (b < 0);
+            }
+
+            if (id < 0 || id > maxId)
+            {
+                return false;
+            }
+
+            ++counts[id];
+            word |= (long) id << bitOffset;
+            bitOffset += bits;
+
+            if (bitOffset >= 64)
+            {
+                arr[arrIndex++] = word;
+                bitOffset -= 64;
+                // The entry continues in the next long
+                word = bitOffset > 0 ? (long) id >>> (bits - bitOffset) : 0L;
+            }
+        }
+
+        if (bitOffset > 0)
+        {
+            arr[arrIndex] = word;
+        }
+
+        return true;
+    }
+
+    private static long getEncodedSlabLength(LitematicaBitArray storage, int slab)
+    {
+        final long startIndex = (long) slab * SLAB_SIZE;
+        final int count = (int) Math.min(SLAB_SIZE, storage.size() - startIndex);
+        final int[] ids = new int[LitematicaBitArray.BULK_BUFFER_SIZE];
+        long length = 0;
+
+        for (int done = 0; done < count; done += ids.length)
+        {
+            final int batch = Math.min(ids.length, count - done);
+            storage.getRange(startIndex + done, ids, 0, batch);
+
+            for (int i = 0; i < batch; ++i)
+            {
+                length += getVarIntSize(ids[i]);
+            }
+        }
+
+        return length;
+    }
+
+    private static byte[] encodeSlab(LitematicaBitArray storage, int slab)
+    {
+        final long startIndex = (long) slab * SLAB_SIZE;
+        final int count = (int) Math.min(SLAB_SIZE, storage.size() - startIndex);
+        final int[] ids = new int[LitematicaBitArray.BULK_BUFFER_SIZE];
+        byte[] out = new byte[count * 5];
+        int pos = 0;
+
+        for (int done = 0; done < count; done += ids.length)
+        {
+            final int batch = Math.min(ids.length, count - done);
+            storage.getRange(startIndex + done, ids, 0, batch);
+
+            for (int i = 0; i < batch; ++i)
+            {
+                int id = ids[i];
+
+                while ((id & ~0x7F) != 0)
+                {
+                    out[pos++] = (byte) ((id & 0x7F) | 0x80);
+                    id >>>= 7;
+                }
+
+                out[pos++] = (byte) id;
+            }
+        }
+
+        return Arrays.copyOf(out, pos);
+    }
+
+    private static class ByteArrayOutput extends OutputStream
+    {
+        private final byte[] arr;
+        private int pos;
+
+        private ByteArrayOutput(byte[] arr)
+        {
+            this.arr = arr;
+        }
+
+        @Override
+        public void write(int b)
+        {
+            this.arr[this.pos++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            System.arraycopy(b, off, this.arr, this.pos, len);
+            this.pos += len;
+        }
+    }
+}
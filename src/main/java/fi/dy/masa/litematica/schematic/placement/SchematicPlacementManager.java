@@ -445,6 +445,22 @@ public class SchematicPlacementManager
         return list;
     }
 
+    /**
+     * Returns true if any placement, including the disabled and the grid placements, uses the given schematic
+     */
+    public boolean hasPlacementsOfSchematic(ISchematic schematic)
+    {
+        for (SchematicPlacement placement : this.schematicPlacements)
+        {
+            if (placement.getSchematic() == schematic)
+            {
+                return true;
+            }
+        }
+
+        return this.getAllPlacementsOfSchematic(schematic).isEmpty() == false;
+    }
+
     public void removeAllPlacementsOfSchematic(ISchematic schematic)
     {
         boolean removed = false;
@@ -637,20 +653,21 @@ public class SchematicPlacementManager
             loadedPlacement.toggleEnabled();
             this.onPlacementModified(loadedPlacement);
         }
-        else
+        else if (SchematicHolder.getInstance().isLoading(placement.getSchematicFile()) == false)
         {
-            SchematicPlacement loadedPlacement = placement.fullyLoadPlacement();
-
-            if (loadedPlacement != null)
-            {
-                loadedPlacement.toggleEnabled();
-                this.addSchematicPlacement(loadedPlacement, false);
-                this.lightlyLoadedPlacements.remove(placement);
-            }
-            else
-            {
-                InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.message.error.schematic_placement.load_failed", placement.getName(), placement.getSchematicFile());
-            }
+            // The schematic is loaded on a background thread, and the placement gets enabled once it's ready
+            placement.fullyLoadPlacementAsync().thenAccept((loadedPlacement) -> {
+                if (loadedPlacement != null)
+                {
+                    loadedPlacement.toggleEnabled();
+                    this.addSchematicPlacement(loadedPlacement, false);
+                    this.lightlyLoadedPlacements.remove(placement);
+                }
+                else
+                {
+                    InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.message.error.schematic_placement.load_failed", placement.getName(), placement.getSchematicFile());
+                }
+            });
         }
     }
 
@@ -3,6 +3,7 @@ package fi.dy.masa.litematica.schematic.placement;
 import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import javax.annotation.Nullable;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -239,22 +240,44 @@ public class SchematicPlacementUnloaded
     {
         if (this.schematicFile != null)
         {
-            ISchematic schematic = SchematicHolder.getInstance().getOrLoad(this.schematicFile);
+            return this.createLoadedPlacement(SchematicHolder.getInstance().getOrLoad(this.schematicFile));
+        }
 
-            if (schematic != null)
-            {
-                SchematicPlacement schematicPlacement = new SchematicPlacement(schematic, this.placementSaveFile, this.schematicFile, this.origin, this.name, this.enabled);
+        return null;
+    }
 
-                schematicPlacement.copyFrom(this, true);
-                schematicPlacement.checkAreSubRegionsModified();
-                schematicPlacement.updateEnclosingBox();
+    /**
+     * Loads the schematic of this placement on a background thread, unless it's already loaded.
+     * The returned future is completed on the client thread, with the fully loaded placement,
+     * or with null if the schematic could not be loaded.
+     * @return
+     */
+    public CompletableFuture<SchematicPlacement> fullyLoadPlacementAsync()
+    {
+        if (this.schematicFile != null)
+        {
+            return SchematicHolder.getInstance().getOrLoadAsync(this.schematicFile).thenApply(this::createLoadedPlacement);
+        }
 
-                return schematicPlacement;
-            }
-            else
-            {
-                InfoUtils.printErrorMessage("litematica.error.schematic_load.failed", this.schematicFile.getAbsolutePath());
-            }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Nullable
+    private SchematicPlacement createLoadedPlacement(@Nullable ISchematic schematic)
+    {
+        if (schematic != null)
+        {
+            SchematicPlacement schematicPlacement = new SchematicPlacement(schematic, this.placementSaveFile, this.schematicFile, this.origin, this.name, this.enabled);
+
+            schematicPlacement.copyFrom(this, true);
+            schematicPlacement.checkAreSubRegionsModified();
+            schematicPlacement.updateEnclosingBox();
+
+            return schematicPlacement;
+        }
+        else
+        {
+            InfoUtils.printErrorMessage("litematica.error.schematic_load.failed", this.schematicFile.getAbsolutePath());
         }
 
         return null;
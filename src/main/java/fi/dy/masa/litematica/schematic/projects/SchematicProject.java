@@ -12,6 +12,7 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import net.minecraft.client.Minecraft;
 import net.minecraft.util.math.BlockPos;
+import fi.dy.masa.litematica.config.Configs;
 import fi.dy.masa.litematica.data.DataManager;
 import fi.dy.masa.litematica.scheduler.TaskScheduler;
 import fi.dy.masa.litematica.scheduler.tasks.TaskSaveSchematic;
@@ -23,6 +24,7 @@ import fi.dy.masa.litematica.selection.AreaSelection;
 import fi.dy.masa.litematica.selection.AreaSelectionSimple;
 import fi.dy.masa.litematica.selection.SelectionManager;
 import fi.dy.masa.litematica.selection.SelectionMode;
+import fi.dy.masa.litematica.util.CompressionType;
 import fi.dy.masa.litematica.util.ToolUtils;
 import fi.dy.masa.malilib.gui.util.GuiUtils;
 import fi.dy.masa.malilib.gui.util.Message.MessageType;
@@ -328,6 +330,9 @@ public class SchematicProject
             SaveCompletionListener listener = new SaveCompletionListener(name, fileName, areaOffset);
 
             TaskSaveSchematic task = new TaskSaveSchematic(this.directory, fileName, schematic, selection.copy(), true, false);
+            // The versions are saved often, so they use their own, by default faster, compression settings
+            task.setCompression((CompressionType) Configs.Generic.PROJECT_COMPRESSION.getOptionListValue(),
+                                Configs.Generic.PROJECT_COMPRESSION_LEVEL.getIntegerValue());
             task.setCompletionListener(listener);
             TaskScheduler.getServerInstanceIfExistsOrClient().scheduleTask(task, 2);
             this.saveInProgress = true;
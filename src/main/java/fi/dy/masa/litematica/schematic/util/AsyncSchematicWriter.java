@@ -0,0 +1,90 @@
+package fi.dy.masa.litematica.schematic.util;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.annotation.Nullable;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.minecraft.client.Minecraft;
+import fi.dy.masa.litematica.Litematica;
+import fi.dy.masa.litematica.schematic.ISchematic;
+import fi.dy.masa.litematica.util.CompressionType;
+import fi.dy.masa.litematica.util.MessageUtils;
+import fi.dy.masa.litematica.util.MessageUtils.DeferredMessage;
+
+public class AsyncSchematicWriter
+{
+    private static final ThreadFactory THREAD_FACTORY = (new ThreadFactoryBuilder()).setNameFormat("Litematica Schematic Writer %d").setDaemon(true).build();
+    // A single writer thread, so that the writes happen in the order they were requested in.
+    // The compression itself is still done on multiple threads.
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(THREAD_FACTORY);
+
+    /**
+     * Writes the schematic to a file on a background thread,
+     * using {@link ISchematic#writeToFile(File, String, boolean, CompressionType, int)}.
+     * The schematic must not be modified until the returned future has completed.
+     * The returned future is completed on the client thread, with the result of the write.
+     * No messages are shown from the writer thread, instead the reason of a failed write
+     * is returned in the result, for the caller to show.
+     * @param schematic
+     * @param dir
+     * @param fileName
+     * @param override
+     * @param compression
+     * @param level the deflate compression level 1 - 9, if applicable to the compression type
+     * @return
+     */
+    public static CompletableFuture<WriteResult> writeToFile(ISchematic schematic, File dir, String fileName, boolean override,
+                                                             CompressionType compression, int level)
+    {
+        CompletableFuture<WriteResult> future = new CompletableFuture<>();
+
+        EXECUTOR.execute(() -> {
+            boolean success = false;
+
+            MessageUtils.startCollecting();
+
+            try
+            {
+                success = schematic.writeToFile(dir, fileName, override, compression, level);
+            }
+            catch (Exception e)
+            {
+                Litematica.logger.warn("Failed to write schematic to file '{}'", fileName, e);
+            }
+
+            final WriteResult result = new WriteResult(success, DeferredMessage.getFirstError(MessageUtils.stopCollecting()));
+            Minecraft.getMinecraft().addScheduledTask(() -> future.complete(result));
+        });
+
+        return future;
+    }
+
+    public static class WriteResult
+    {
+        private final boolean success;
+        @Nullable private final DeferredMessage error;
+
+        private WriteResult(boolean success, @Nullable DeferredMessage error)
+        {
+            this.success = success;
+            this.error = error;
+        }
+
+        public boolean isSuccess()
+        {
+            return this.success;
+        }
+
+        /**
+         * @return the error message describing why the write failed, if there was one
+         */
+        @Nullable
+        public DeferredMessage getError()
+        {
+            return this.error;
+        }
+    }
+}
@@ -1,28 +1,39 @@
 package fi.dy.masa.litematica.schematic.util;
 
 import java.io.File;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import javax.annotation.Nullable;
 import com.google.common.collect.ImmutableMap;
+import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.Entity;
 import net.minecraft.init.Blocks;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.BitArray;
 import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Vec3d;
 import net.minecraft.util.math.Vec3i;
+import net.minecraft.world.IBlockAccess;
 import net.minecraft.world.NextTickListEntry;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.IBlockStatePalette;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import fi.dy.masa.litematica.Litematica;
+import fi.dy.masa.litematica.mixin.IMixinBlockStateContainer;
 import fi.dy.masa.litematica.schematic.EntityInfo;
 import fi.dy.masa.litematica.schematic.ISchematic;
 import fi.dy.masa.litematica.schematic.ISchematicRegion;
@@ -43,6 +54,10 @@ import fi.dy.masa.malilib.util.StringUtils;
 
 public class SchematicCreationUtils
 {
+    private static final Class<?>[] ACTUAL_STATE_PARAMETERS = new Class<?>[] { IBlockState.class, IBlockAccess.class, BlockPos.class };
+    // Accessed by the save tasks, which can run on both the client and the integrated server thread
+    private static final Map<Class<?>, Boolean> ACTUAL_STATE_BLOCK_CLASSES = new ConcurrentHashMap<>();
+
     @Nullable
     public static <S extends ISchematic> S createFromFile(File file, Function<File, S> factory)
     {
@@ -314,10 +329,20 @@ public class SchematicCreationUtils
         schematic.setTotalBlocksReadFromWorld(totalBlocks);
     }
 
+    /**
+     * Reads the blocks within the given chunk into the sub-region containers of the schematic.
+     * The blocks are read directly from the chunk sections, and the empty sections are skipped entirely,
+     * so the containers must not contain anything yet in the given volumes.
+     * The state IDs of each section are translated via the section palette, and getActualState()
+     * is only called for the blocks that can actually have a different actual state.
+     */
     public static void takeBlocksFromWorldWithinChunk(LitematicaSchematic schematic, World world, int chunkX, int chunkZ,
             ImmutableMap<String, IntBoundingBox> volumes, ImmutableMap<String, SelectionBox> boxes)
     {
         BlockPos.MutableBlockPos posMutable = new BlockPos.MutableBlockPos(0, 0, 0);
+        ExtendedBlockStorage[] storageArray = world.getChunk(chunkX, chunkZ).getBlockStorageArray();
+        SectionPaletteRemap remap = new SectionPaletteRemap();
+        IBlockState[] row = new IBlockState[16];
         long totalBlocks = schematic.getTotalBlocksReadFromWorld();
 
         for (Map.Entry<String, IntBoundingBox> volumeEntry : volumes.entrySet())
@@ -359,34 +384,67 @@ public class SchematicCreationUtils
             final int endY = startY + (bb.maxY - bb.minY);
             final int endZ = startZ + (bb.maxZ - bb.minZ);
 
-            for (int y = startY; y <= endY; ++y)
+            final int minSection = Math.max(bb.minY >> 4, 0);
+            final int maxSection = Math.min(bb.maxY >> 4, storageArray.length - 1);
+
+            for (int section = minSection; section <= maxSection; ++section)
             {
-                for (int z = startZ; z <= endZ; ++z)
+                ExtendedBlockStorage storage = storageArray[section];
+
+                // Empty sections only contain air, which the new container is already filled with
+                if (storage == Chunk.NULL_BLOCK_STORAGE || storage.isEmpty())
+                {
+                    continue;
+                }
+
+                IMixinBlockStateContainer data = (IMixinBlockStateContainer) storage.getData();
+                BitArray bitArray = data.getStorage();
+                remap.setPalette(data.getPalette());
+
+                final int minY = Math.max(bb.minY, section << 4);
+                final int maxY = Math.min(bb.maxY, (section << 4) + 15);
+
+                for (int y = minY; y <= maxY; ++y)
                 {
-                    for (int x = startX; x <= endX; ++x)
+                    for (int z = bb.minZ; z <= bb.maxZ; ++z)
                     {
-                        posMutable.setPos(x + offsetX, y + offsetY, z + offsetZ);
-                        IBlockState state = world.getBlockState(posMutable).getActualState(world, posMutable);
-                        container.setBlockState(x, y, z, state);
+                        int rowLength = 0;
 
-                        if (state.getBlock() != Blocks.AIR)
+                        for (int x = bb.minX; x <= bb.maxX; ++x)
                         {
-                            ++totalBlocks;
-                        }
+                            final int id = bitArray.getAt(((y & 0xF) << 8) | ((z & 0xF) << 4) | (x & 0xF));
+                            IBlockState state = remap.getBlockState(id);
 
-                        if (state.getBlock().hasTileEntity())
-                        {
-                            TileEntity te = world.getTileEntity(posMutable);
+                            if (remap.hasActualState(id))
+                            {
+                                posMutable.setPos(x, y, z);
+                                state = state.getActualState(world, posMutable);
+                            }
 
-                            if (te != null)
+                            row[rowLength++] = state;
+
+                            if (state.getBlock() != Blocks.AIR)
                             {
-                                // TODO Add a TileEntity NBT cache from the Chunk packets, to get the original synced data (too)
-                                BlockPos pos = new BlockPos(x, y, z);
-                                NBTTagCompound tag = te.writeToNBT(new NBTTagCompound());
-                                NBTUtils.writeBlockPosToTag(pos, tag);
-                                blockEntityMap.put(pos, tag);
+                                ++totalBlocks;
+                            }
+
+                            if (state.getBlock().hasTileEntity())
+                            {
+                                posMutable.setPos(x, y, z);
+                                TileEntity te = world.getTileEntity(posMutable);
+
+                                if (te != null)
+                                {
+                                    // TODO Add a TileEntity NBT cache from the Chunk packets, to get the original synced data (too)
+                                    BlockPos pos = new BlockPos(x - offsetX, y - offsetY, z - offsetZ);
+                                    NBTTagCompound tag = te.writeToNBT(new NBTTagCompound());
+                                    NBTUtils.writeBlockPosToTag(pos, tag);
+                                    blockEntityMap.put(pos, tag);
+                                }
                             }
                         }
+
+                        container.setBlockStateRow(startX, y - offsetY, z - offsetZ, row, 0, rowLength);
                     }
                 }
             }
@@ -428,4 +486,97 @@ public class SchematicCreationUtils
 
         schematic.setTotalBlocksReadFromWorld(totalBlocks);
     }
+
+    /**
+     * Returns true if the given block may have an actual state that is different from the stored state,
+     * ie. if the block class overrides getActualState(). The method is found by its signature
+     * instead of by its name, so that this also works in the obfuscated environment.
+     */
+    private static boolean canHaveActualState(Block block)
+    {
+        return ACTUAL_STATE_BLOCK_CLASSES.computeIfAbsent(block.getClass(), SchematicCreationUtils::overridesGetActualState);
+    }
+
+    private static boolean overridesGetActualState(Class<?> clazz)
+    {
+        try
+        {
+            for (Class<?> c = clazz; c != null && c != Block.class; c = c.getSuperclass())
+            {
+                for (Method method : c.getDeclaredMethods())
+                {
+                    // Any other methods with the same signature only cause unnecessary getActualState() calls
+                    if (method.getReturnType() == IBlockState.class &&
+                        Modifier.isStatic(method.getModifiers()) == false &&
+                        Arrays.equals(method.getParameterTypes(), ACTUAL_STATE_PARAMETERS))
+                    {
+                        return true;
+                    }
+                }
+            }
+        }
+        catch (Throwable e)
+        {
+            // Can't tell, so always call getActualState() for this block
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Maps the palette IDs of one chunk section to the block states, so that each ID
+     * only needs to be looked up from the section palette once per section.
+     */
+    private static class SectionPaletteRemap
+    {
+        private IBlockState[] states = new IBlockState[16];
+        private boolean[] hasActualState = new boolean[16];
+        private IBlockStatePalette palette;
+        private int size;
+
+        public void setPalette(IBlockStatePalette palette)
+        {
+            this.palette = palette;
+            Arrays.fill(this.states, 0, this.size, null);
+            this.size = 0;
+        }
+
+        public IBlockState getBlockState(int id)
+        {
+            if (id >= this.states.length)
+            {
+                final int length = Math.max(id + 1, this.states.length * 2);
+                this.states = Arrays.copyOf(this.states, length);
+                this.hasActualState = Arrays.copyOf(this.hasActualState, length);
+            }
+
+            IBlockState state = this.states[id];
+
+            if (state == null)
+            {
+                state = this.palette.getBlockState(id);
+
+                if (state == null)
+                {
+                    state = Blocks.AIR.getDefaultState();
+                }
+
+                this.states[id] = state;
+                this.hasActualState[id] = canHaveActualState(state.getBlock());
+                this.size = Math.max(this.size, id + 1);
+            }
+
+            return state;
+        }
+
+        /**
+         * Returns true if getActualState() needs to be called for the given ID.
+         * This must only be called after {@link #getBlockState(int)} for the same ID.
+         */
+        public boolean hasActualState(int id)
+        {
+            return this.hasActualState[id];
+        }
+    }
 }
@@ -3,6 +3,7 @@ package fi.dy.masa.litematica.schematic.util;
 import java.util.ArrayList;
 import java.util.List;
 import javax.annotation.Nullable;
+import org.apache.commons.lang3.mutable.MutableLong;
 import org.apache.commons.lang3.tuple.Pair;
 import net.minecraft.block.material.Material;
 import net.minecraft.block.state.IBlockState;
@@ -25,6 +26,7 @@ import fi.dy.masa.litematica.render.RenderUtils;
 import fi.dy.masa.litematica.schematic.ISchematic;
 import fi.dy.masa.litematica.schematic.ISchematicRegion;
 import fi.dy.masa.litematica.schematic.SchematicMetadata;
+import fi.dy.masa.litematica.schematic.container.BlockStateRunSkip;
 import fi.dy.masa.litematica.schematic.container.ILitematicaBlockStateContainer;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacement;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacementManager;
@@ -465,37 +467,25 @@ public class SchematicEditUtils
                             final int maxX = Math.min(posMax.getX(), container.getSize().getX() - 1);
                             final int maxY = Math.min(posMax.getY(), container.getSize().getY() - 1);
                             final int maxZ = Math.min(posMax.getZ(), container.getSize().getZ() - 1);
-                            long totalBlocks = schematic.getMetadata().getTotalBlocks();
-                            long increment = 0;
+                            MutableLong totalBlocks = new MutableLong(schematic.getMetadata().getTotalBlocks());
+                            final IBlockState stateNew = SchematicUtils.getUntransformedBlockState(state, schematicPlacement, regionName);
+                            final boolean isNewAir = stateNew.getBlock() == Blocks.AIR;
 
-                            state = SchematicUtils.getUntransformedBlockState(state, schematicPlacement, regionName);
+                            container.forEachRun(minX, minY, minZ, maxX, maxY, maxZ, BlockStateRunSkip.NONE, (x, y, z, length, stateOriginal) -> {
+                                // Only changes between air and non-air affect the total block count
+                                if ((stateOriginal.getBlock() == Blocks.AIR) != isNewAir)
+                                {
+                                    totalBlocks.add(isNewAir ? -length : length);
+                                }
 
-                            for (int y = minY; y <= maxY; ++y)
-                            {
-                                for (int z = minZ; z <= maxZ; ++z)
+                                for (int i = 0; i < length; ++i)
                                 {
-                                    for (int x = minX; x <= maxX; ++x)
-                                    {
-                                        IBlockState stateOriginal = container.getBlockState(x, y, z);
-
-                                        if (stateOriginal.getBlock() != Blocks.AIR)
-                                        {
-                                            increment = state.getBlock() != Blocks.AIR ? 0 : -1;
-                                        }
-                                        else
-                                        {
-                                            increment = state.getBlock() != Blocks.AIR ? 1 : 0;
-                                        }
-
-                                        totalBlocks += increment;
-
-                                        container.setBlockState(x, y, z, state);
-                                    }
+                                    container.setBlockState(x + i, y, z, stateNew);
                                 }
-                            }
+                            });
 
                             SchematicMetadata metadata = schematic.getMetadata();
-                            metadata.setTotalBlocks(totalBlocks);
+                            metadata.setTotalBlocks(totalBlocks.longValue());
                             metadata.setTimeModifiedToNow();
                             metadata.setModifiedSinceSaved();
 
@@ -571,6 +561,7 @@ public class SchematicEditUtils
 
         LayerRange range = DataManager.getRenderLayerRange();
 
+        MutableLong replacedBlocks = new MutableLong();
         long totalBlocks = schematic.getMetadata().getTotalBlocks();
         long increment = 0;
 
@@ -638,22 +629,21 @@ public class SchematicEditUtils
             IBlockState stateOriginal = SchematicUtils.getUntransformedBlockState(stateOriginalIn, schematicPlacement, regionName);
             IBlockState stateNew = SchematicUtils.getUntransformedBlockState(stateNewIn, schematicPlacement, regionName);
 
-            for (int y = startY; y <= endY; ++y)
-            {
-                for (int z = startZ; z <= endZ; ++z)
+            container.forEachRun(startX, startY, startZ, endX, endY, endZ, BlockStateRunSkip.NONE, (x, y, z, length, state) -> {
+                if (state == stateOriginal)
                 {
-                    for (int x = startX; x <= endX; ++x)
+                    for (int i = 0; i < length; ++i)
                     {
-                        if (container.getBlockState(x, y, z) == stateOriginal)
-                        {
-                            container.setBlockState(x, y, z, stateNew);
-                            totalBlocks += increment;
-                        }
+                        container.setBlockState(x + i, y, z, stateNew);
                     }
+
+                    replacedBlocks.add(length);
                 }
-            }
+            });
         }
 
+        totalBlocks += increment * replacedBlocks.longValue();
+
         SchematicMetadata metadata = schematic.getMetadata();
         metadata.setTotalBlocks(totalBlocks);
         metadata.setTimeModifiedToNow();
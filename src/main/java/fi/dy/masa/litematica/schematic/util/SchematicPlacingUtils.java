@@ -34,10 +34,12 @@ import fi.dy.masa.litematica.scheduler.tasks.TaskPasteSchematicPerChunkDirect;
 import fi.dy.masa.litematica.schematic.EntityInfo;
 import fi.dy.masa.litematica.schematic.ISchematic;
 import fi.dy.masa.litematica.schematic.ISchematicRegion;
+import fi.dy.masa.litematica.schematic.container.BlockStateRunSkip;
 import fi.dy.masa.litematica.schematic.container.ILitematicaBlockStateContainer;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacement;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacementManager;
 import fi.dy.masa.litematica.schematic.placement.SubRegionPlacement;
+import fi.dy.masa.litematica.util.BlockPosMap;
 import fi.dy.masa.litematica.util.EntityUtils;
 import fi.dy.masa.litematica.util.PositionUtils;
 import fi.dy.masa.litematica.util.ReplaceBehavior;
@@ -152,7 +154,7 @@ public class SchematicPlacingUtils
                     BlockPos regionPos = placement.getPos();
                     Vec3i regionSize = region.getSize();
                     ILitematicaBlockStateContainer container = region.getBlockStateContainer();
-                    Map<BlockPos, NBTTagCompound> blockEntityMap = region.getBlockEntityMap();
+                    BlockPosMap<NBTTagCompound> blockEntityMap = region.getBlockEntityMap();
                     List<EntityInfo> entityList = region.getEntityList();
                     Map<BlockPos, NextTickListEntry> scheduledBlockTicks = region.getBlockTickMap();
 
@@ -187,7 +189,7 @@ public class SchematicPlacingUtils
 
     public static boolean placeBlocksToWorld(World world, BlockPos origin, BlockPos regionPos, Vec3i regionSize,
             SchematicPlacement schematicPlacement, SubRegionPlacement placement,
-            ILitematicaBlockStateContainer container, Map<BlockPos, NBTTagCompound> tileMap,
+            ILitematicaBlockStateContainer container, BlockPosMap<NBTTagCompound> tileMap,
             @Nullable Map<BlockPos, NextTickListEntry> scheduledTicks, LayerRange range, boolean notifyNeighbors)
     {
         // These are the untransformed relative positions
@@ -217,14 +219,7 @@ public class SchematicPlacingUtils
 
         final Rotation rotationCombined = schematicPlacement.getRotation().add(placement.getRotation());
         final Mirror mirrorMain = schematicPlacement.getMirror();
-        Mirror mirrorSub = placement.getMirror();
-
-        if (mirrorSub != Mirror.NONE &&
-            (schematicPlacement.getRotation() == Rotation.CLOCKWISE_90 ||
-             schematicPlacement.getRotation() == Rotation.COUNTERCLOCKWISE_90))
-        {
-            mirrorSub = mirrorSub == Mirror.FRONT_BACK ? Mirror.LEFT_RIGHT : Mirror.FRONT_BACK;
-        }
+        final Mirror mirrorSub = getSubRegionMirror(schematicPlacement, placement);
 
         Vec3i containerStart = pair.getLeft();
         Vec3i containerEnd = pair.getRight();
@@ -235,21 +230,32 @@ public class SchematicPlacingUtils
         final int endY = containerEnd.getY();
         final int endZ = containerEnd.getZ();
 
-        for (int y = startY; y <= endY; ++y)
+        // Air doesn't need to be visited at all, if it's not going to be placed
+        BlockStateRunSkip skip = replace == ReplaceBehavior.WITH_NON_AIR ? BlockStateRunSkip.AIR_AND_STRUCTURE_VOID : BlockStateRunSkip.STRUCTURE_VOID;
+
+        // Only the part of the region with non-air blocks needs to be visited, if air is not going to be placed
+        Pair<Vec3i, Vec3i> area = getAreaToPlace(container, startX, startY, startZ, endX, endY, endZ, replace);
+
+        if (area != null)
         {
-            for (int z = startZ; z <= endZ; ++z)
-            {
-                for (int x = startX; x <= endX; ++x)
-                {
-                    IBlockState state = container.getBlockState(x, y, z);
+            Vec3i areaMin = area.getLeft();
+            Vec3i areaMax = area.getRight();
 
-                    if (state.getBlock() == Blocks.STRUCTURE_VOID)
-                    {
-                        continue;
-                    }
+            container.forEachRun(areaMin.getX(), areaMin.getY(), areaMin.getZ(), areaMax.getX(), areaMax.getY(), areaMax.getZ(), skip, (runStartX, y, z, length, stateSchematic) -> {
+                // The state only needs to be transformed once for the entire run
+                IBlockState state = stateSchematic;
 
-                    posMutable.setPos(x, y, z);
-                    NBTTagCompound teNBT = tileMap.get(posMutable);
+                if (mirrorMain != Mirror.NONE) { state = state.withMirror(mirrorMain); }
+                if (mirrorSub != Mirror.NONE)  { state = state.withMirror(mirrorSub); }
+                if (rotationCombined != Rotation.NONE) { state = state.withRotation(rotationCombined); }
+
+                // Only blocks that have a TileEntity can have any stored TileEntity data
+                final boolean hasTileEntity = stateSchematic.getBlock().hasTileEntity();
+                final int runEndX = runStartX + length;
+
+                for (int x = runStartX; x < runEndX; ++x)
+                {
+                    NBTTagCompound teNBT = hasTileEntity ? tileMap.get(x, y, z) : null;
 
                     posMutable.setPos(  posMinRel.getX() + x - regionPos.getX(),
                                         posMinRel.getY() + y - regionPos.getY(),
@@ -261,15 +267,11 @@ public class SchematicPlacingUtils
                     IBlockState stateOld = world.getBlockState(pos).getActualState(world, pos);
 
                     if ((replace == ReplaceBehavior.NONE && stateOld.getMaterial() != Material.AIR) ||
-                        (replace == ReplaceBehavior.WITH_NON_AIR && state.getMaterial() == Material.AIR))
+                        (replace == ReplaceBehavior.WITH_NON_AIR && stateSchematic.getMaterial() == Material.AIR))
                     {
                         continue;
                     }
 
-                    if (mirrorMain != Mirror.NONE) { state = state.withMirror(mirrorMain); }
-                    if (mirrorSub != Mirror.NONE)  { state = state.withMirror(mirrorSub); }
-                    if (rotationCombined != Rotation.NONE) { state = state.withRotation(rotationCombined); }
-
                     if (stateOld == state)
                     {
                         continue;
@@ -313,7 +315,7 @@ public class SchematicPlacingUtils
                         }
                     }
                 }
-            }
+            });
         }
 
         if (notifyNeighbors)
@@ -357,14 +359,7 @@ public class SchematicPlacingUtils
 
         final Rotation rotationCombined = schematicPlacement.getRotation().add(placement.getRotation());
         final Mirror mirrorMain = schematicPlacement.getMirror();
-        Mirror mirrorSub = placement.getMirror();
-
-        if (mirrorSub != Mirror.NONE &&
-            (schematicPlacement.getRotation() == Rotation.CLOCKWISE_90 ||
-             schematicPlacement.getRotation() == Rotation.COUNTERCLOCKWISE_90))
-        {
-            mirrorSub = mirrorSub == Mirror.FRONT_BACK ? Mirror.LEFT_RIGHT : Mirror.FRONT_BACK;
-        }
+        final Mirror mirrorSub = getSubRegionMirror(schematicPlacement, placement);
 
         for (EntityInfo info : entityList)
         {
@@ -437,12 +432,67 @@ public class SchematicPlacingUtils
         return allSuccess;
     }
 
+    /**
+     * Returns the mirror of the sub-region, adjusted for the rotation of the main placement
+     */
+    private static Mirror getSubRegionMirror(SchematicPlacement schematicPlacement, SubRegionPlacement placement)
+    {
+        Mirror mirrorSub = placement.getMirror();
+
+        if (mirrorSub != Mirror.NONE &&
+            (schematicPlacement.getRotation() == Rotation.CLOCKWISE_90 ||
+             schematicPlacement.getRotation() == Rotation.COUNTERCLOCKWISE_90))
+        {
+            mirrorSub = mirrorSub == Mirror.FRONT_BACK ? Mirror.LEFT_RIGHT : Mirror.FRONT_BACK;
+        }
+
+        return mirrorSub;
+    }
+
+    /**
+     * Returns the area of the container that needs to be visited when placing blocks.
+     * If air is not going to be placed, then the area is shrunk to the non-air blocks of the container.
+     * @return the inclusive minimum and maximum corners, or null if there is nothing to place
+     */
+    @Nullable
+    private static Pair<Vec3i, Vec3i> getAreaToPlace(ILitematicaBlockStateContainer container,
+            int startX, int startY, int startZ, int endX, int endY, int endZ, ReplaceBehavior replace)
+    {
+        if (replace == ReplaceBehavior.ALL)
+        {
+            return Pair.of(new Vec3i(startX, startY, startZ), new Vec3i(endX, endY, endZ));
+        }
+
+        Pair<Vec3i, Vec3i> bounds = container.getNonAirBounds();
+
+        if (bounds == null)
+        {
+            return null;
+        }
+
+        Vec3i min = bounds.getLeft();
+        Vec3i max = bounds.getRight();
+        startX = Math.max(startX, min.getX());
+        startY = Math.max(startY, min.getY());
+        startZ = Math.max(startZ, min.getZ());
+        endX = Math.min(endX, max.getX());
+        endY = Math.min(endY, max.getY());
+        endZ = Math.min(endZ, max.getZ());
+
+        if (startX > endX || startY > endY || startZ > endZ)
+        {
+            return null;
+        }
+
+        return Pair.of(new Vec3i(startX, startY, startZ), new Vec3i(endX, endY, endZ));
+    }
+
     public static boolean placeBlocksWithinChunk(World world, ChunkPos chunkPos, String regionName, ISchematicRegion region,
             BlockPos origin, SchematicPlacement schematicPlacement, SubRegionPlacement placement, ReplaceBehavior replace, boolean notifyNeighbors)
     {
         IntBoundingBox bounds = schematicPlacement.getBoxWithinChunkForRegion(regionName, chunkPos.x, chunkPos.z);
         ILitematicaBlockStateContainer container = region.getBlockStateContainer();
-        Map<BlockPos, NBTTagCompound> blockEntityMap = region.getBlockEntityMap();
+        BlockPosMap<NBTTagCompound> blockEntityMap = region.getBlockEntityMap();
 
         if (bounds == null || container == null || blockEntityMap == null)
         {
@@ -498,30 +548,34 @@ public class SchematicPlacingUtils
         final Rotation rotationCombined = schematicPlacement.getRotation().add(placement.getRotation());
         final Mirror mirrorMain = schematicPlacement.getMirror();
         final IBlockState barrier = Blocks.BARRIER.getDefaultState();
-        Mirror mirrorSub = placement.getMirror();
+        final Mirror mirrorSub = getSubRegionMirror(schematicPlacement, placement);
 
-        if (mirrorSub != Mirror.NONE &&
-            (schematicPlacement.getRotation() == Rotation.CLOCKWISE_90 ||
-             schematicPlacement.getRotation() == Rotation.COUNTERCLOCKWISE_90))
-        {
-            mirrorSub = mirrorSub == Mirror.FRONT_BACK ? Mirror.LEFT_RIGHT : Mirror.FRONT_BACK;
-        }
+        // Air doesn't need to be visited at all, if it's not going to be placed
+        BlockStateRunSkip skip = replace == ReplaceBehavior.WITH_NON_AIR ? BlockStateRunSkip.AIR_AND_STRUCTURE_VOID : BlockStateRunSkip.STRUCTURE_VOID;
+
+        // Only the part of the region with non-air blocks needs to be visited, if air is not going to be placed
+        Pair<Vec3i, Vec3i> area = getAreaToPlace(container, startX, startY, startZ, endX, endY, endZ, replace);
 
-        for (int y = startY; y <= endY; ++y)
+        if (area != null)
         {
-            for (int z = startZ; z <= endZ; ++z)
-            {
-                for (int x = startX; x <= endX; ++x)
-                {
-                    IBlockState state = container.getBlockState(x, y, z);
+            Vec3i areaMin = area.getLeft();
+            Vec3i areaMax = area.getRight();
 
-                    if (state.getBlock() == Blocks.STRUCTURE_VOID)
-                    {
-                        continue;
-                    }
+            container.forEachRun(areaMin.getX(), areaMin.getY(), areaMin.getZ(), areaMax.getX(), areaMax.getY(), areaMax.getZ(), skip, (runStartX, y, z, length, stateSchematic) -> {
+                // The state only needs to be transformed once for the entire run
+                IBlockState state = stateSchematic;
+
+                if (mirrorMain != Mirror.NONE) { state = state.withMirror(mirrorMain); }
+                if (mirrorSub != Mirror.NONE)  { state = state.withMirror(mirrorSub); }
+                if (rotationCombined != Rotation.NONE) { state = state.withRotation(rotationCombined); }
 
-                    posMutable.setPos(x, y, z);
-                    NBTTagCompound teNBT = blockEntityMap.get(posMutable);
+                // Only blocks that have a TileEntity can have any stored TileEntity data
+                final boolean hasTileEntity = stateSchematic.getBlock().hasTileEntity();
+                final int runEndX = runStartX + length;
+
+                for (int x = runStartX; x < runEndX; ++x)
+                {
+                    NBTTagCompound teNBT = hasTileEntity ? blockEntityMap.get(x, y, z) : null;
 
                     posMutable.setPos(  posMinRel.getX() + x - regionPos.getX(),
                                         posMinRel.getY() + y - regionPos.getY(),
@@ -533,15 +587,11 @@ public class SchematicPlacingUtils
                     IBlockState stateOld = world.getBlockState(pos).getActualState(world, pos);
 
                     if ((replace == ReplaceBehavior.NONE && stateOld.getMaterial() != Material.AIR) ||
-                        (replace == ReplaceBehavior.WITH_NON_AIR && state.getMaterial() == Material.AIR))
+                        (replace == ReplaceBehavior.WITH_NON_AIR && stateSchematic.getMaterial() == Material.AIR))
                     {
                         continue;
                     }
 
-                    if (mirrorMain != Mirror.NONE) { state = state.withMirror(mirrorMain); }
-                    if (mirrorSub != Mirror.NONE)  { state = state.withMirror(mirrorSub); }
-                    if (rotationCombined != Rotation.NONE) { state = state.withRotation(rotationCombined); }
-
                     TileEntity te = world.getTileEntity(pos);
 
                     if (te != null)
@@ -580,7 +630,7 @@ public class SchematicPlacingUtils
                         }
                     }
                 }
-            }
+            });
         }
 
         if (notifyNeighbors)
@@ -626,14 +676,7 @@ public class SchematicPlacingUtils
 
         final Rotation rotationCombined = schematicPlacement.getRotation().add(placement.getRotation());
         final Mirror mirrorMain = schematicPlacement.getMirror();
-        Mirror mirrorSub = placement.getMirror();
-
-        if (mirrorSub != Mirror.NONE &&
-            (schematicPlacement.getRotation() == Rotation.CLOCKWISE_90 ||
-             schematicPlacement.getRotation() == Rotation.COUNTERCLOCKWISE_90))
-        {
-            mirrorSub = mirrorSub == Mirror.FRONT_BACK ? Mirror.LEFT_RIGHT : Mirror.FRONT_BACK;
-        }
+        final Mirror mirrorSub = getSubRegionMirror(schematicPlacement, placement);
 
         for (EntityInfo info : entityList)
         {
@@ -26,11 +26,13 @@ import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.chunk.Chunk;
 import fi.dy.masa.litematica.config.Configs;
 import fi.dy.masa.litematica.data.DataManager;
+import fi.dy.masa.litematica.interfaces.ISchematicUser;
 import fi.dy.masa.litematica.render.infohud.IInfoHudRenderer;
 import fi.dy.masa.litematica.render.infohud.InfoHud;
 import fi.dy.masa.litematica.render.infohud.RenderPhase;
 import fi.dy.masa.litematica.scheduler.TaskScheduler;
 import fi.dy.masa.litematica.scheduler.tasks.TaskBase;
+import fi.dy.masa.litematica.schematic.ISchematic;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacement;
 import fi.dy.masa.litematica.util.BlockInfoListType;
 import fi.dy.masa.litematica.util.ItemUtils;
@@ -46,7 +48,7 @@ import fi.dy.masa.malilib.util.StringUtils;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 
-public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
+public class SchematicVerifier extends TaskBase implements IInfoHudRenderer, ISchematicUser
 {
     private static final MutablePair<IBlockState, IBlockState> MUTABLE_PAIR = new MutablePair<>();
     private static final BlockPos.MutableBlockPos MUTABLE_POS = new BlockPos.MutableBlockPos();
@@ -143,6 +145,12 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
         return this.requiredChunks.size();
     }
 
+    @Override
+    public boolean usesSchematic(ISchematic schematic)
+    {
+        return this.schematicPlacement != null && this.schematicPlacement.getSchematic() == schematic;
+    }
+
     public int getSchematicTotalBlocks()
     {
         return this.schematicBlocks;
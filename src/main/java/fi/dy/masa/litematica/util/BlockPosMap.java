@@ -0,0 +1,190 @@
+package fi.dy.masa.litematica.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import net.minecraft.util.math.BlockPos;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+/**
+ * A map with block positions as the keys, which stores the positions packed into primitive longs
+ * instead of as BlockPos objects. Lookups via {@link #get(int, int, int)}, and via any BlockPos
+ * including mutable ones, don't allocate anything. BlockPos keys are only created
+ * when iterating over the entries.
+ * The coordinates must be within -1048576 ... 1048575 on each axis,
+ * which covers any position relative to a schematic sub-region.
+ */
+public class BlockPosMap<V> extends AbstractMap<BlockPos, V>
+{
+    private static final int BITS = 21;
+    private static final long MASK = (1L << BITS) - 1L;
+
+    private final Long2ObjectOpenHashMap<V> map;
+
+    public BlockPosMap()
+    {
+        this.map = new Long2ObjectOpenHashMap<>();
+    }
+
+    public BlockPosMap(int expectedSize)
+    {
+        this.map = new Long2ObjectOpenHashMap<>(expectedSize);
+    }
+
+    public static long pack(int x, int y, int z)
+    {
+        return (((long) x & MASK) << (BITS * 2)) | (((long) y & MASK) << BITS) | ((long) z & MASK);
+    }
+
+    public static BlockPos unpack(long key)
+    {
+        // Shift each coordinate to the top of the long first, so that the arithmetic shift sign extends it
+        int x = (int) ((key << (64 - BITS * 3)) >> (64 - BITS));
+        int y = (int) ((key << (64 - BITS * 2)) >> (64 - BITS));
+        int z = (int) ((key << (64 - BITS)) >> (64 - BITS));
+
+        return new BlockPos(x, y, z);
+    }
+
+    @Nullable
+    public V get(int x, int y, int z)
+    {
+        return this.map.get(pack(x, y, z));
+    }
+
+    @Override
+    @Nullable
+    public V get(Object key)
+    {
+        if (key instanceof BlockPos)
+        {
+            BlockPos pos = (BlockPos) key;
+            return this.map.get(pack(pos.getX(), pos.getY(), pos.getZ()));
+        }
+
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        if (key instanceof BlockPos)
+        {
+            BlockPos pos = (BlockPos) key;
+            return this.map.containsKey(pack(pos.getX(), pos.getY(), pos.getZ()));
+        }
+
+        return false;
+    }
+
+    @Override
+    @Nullable
+    public V put(BlockPos pos, V value)
+    {
+        return this.map.put(pack(pos.getX(), pos.getY(), pos.getZ()), value);
+    }
+
+    @Override
+    @Nullable
+    public V remove(Object key)
+    {
+        if (key instanceof BlockPos)
+        {
+            BlockPos pos = (BlockPos) key;
+            return this.map.remove(pack(pos.getX(), pos.getY(), pos.getZ()));
+        }
+
+        return null;
+    }
+
+    @Override
+    public int size()
+    {
+        return this.map.size();
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return this.map.isEmpty();
+    }
+
+    @Override
+    public void clear()
+    {
+        this.map.clear();
+    }
+
+    @Override
+    public Set<Map.Entry<BlockPos, V>> entrySet()
+    {
+        return new EntrySet();
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<BlockPos, V>>
+    {
+        @Override
+        public int size()
+        {
+            return BlockPosMap.this.map.size();
+        }
+
+        @Override
+        public void clear()
+        {
+            BlockPosMap.this.map.clear();
+        }
+
+        @Override
+        public Iterator<Map.Entry<BlockPos, V>> iterator()
+        {
+            final ObjectIterator<Long2ObjectMap.Entry<V>> iterator = BlockPosMap.this.map.long2ObjectEntrySet().iterator();
+
+            return new Iterator<Map.Entry<BlockPos, V>>()
+            {
+                @Override
+                public boolean hasNext()
+                {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Map.Entry<BlockPos, V> next()
+                {
+                    Long2ObjectMap.Entry<V> entry = iterator.next();
+                    return new Entry(entry.getLongKey(), entry.getValue());
+                }
+
+                @Override
+                public void remove()
+                {
+                    iterator.remove();
+                }
+            };
+        }
+    }
+
+    private class Entry extends AbstractMap.SimpleEntry<BlockPos, V>
+    {
+        private final long key;
+
+        private Entry(long key, V value)
+        {
+            super(unpack(key), value);
+
+            this.key = key;
+        }
+
+        @Override
+        public V setValue(V value)
+        {
+            BlockPosMap.this.map.put(this.key, value);
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package fi.dy.masa.litematica.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An input stream that adds the number of bytes read through it to the given counter,
+ * so that the progress of reading a file can be followed from another thread.
+ */
+public class ByteCountingInputStream extends FilterInputStream
+{
+    private final AtomicLong counter;
+
+    public ByteCountingInputStream(InputStream inputStream, AtomicLong counter)
+    {
+        super(inputStream);
+
+        this.counter = counter;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        int value = super.read();
+
+        if (value != -1)
+        {
+            this.counter.incrementAndGet();
+        }
+
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buf, int offset, int length) throws IOException
+    {
+        int count = super.read(buf, offset, length);
+
+        if (count > 0)
+        {
+            this.counter.addAndGet(count);
+        }
+
+        return count;
+    }
+
+    @Override
+    public long skip(long count) throws IOException
+    {
+        long skipped = super.skip(count);
+
+        if (skipped > 0)
+        {
+            this.counter.addAndGet(skipped);
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+}
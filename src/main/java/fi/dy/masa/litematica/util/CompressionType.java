@@ -0,0 +1,131 @@
+package fi.dy.masa.litematica.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import fi.dy.masa.malilib.config.IConfigOptionListEntry;
+import fi.dy.masa.malilib.util.StringUtils;
+
+public enum CompressionType implements IConfigOptionListEntry<CompressionType>
+{
+    GZIP    ("gzip",    "litematica.gui.label.compression_type.gzip")
+    {
+        @Override
+        public OutputStream createOutputStream(OutputStream outputStream, int level) throws IOException
+        {
+            return new ParallelGzipOutputStream(outputStream, level);
+        }
+    },
+    NONE    ("none",    "litematica.gui.label.compression_type.none")
+    {
+        @Override
+        public OutputStream createOutputStream(OutputStream outputStream, int level)
+        {
+            return outputStream;
+        }
+    };
+
+    private final String configString;
+    private final String translationKey;
+
+    private CompressionType(String configString, String translationKey)
+    {
+        this.configString = configString;
+        this.translationKey = translationKey;
+    }
+
+    /**
+     * Wraps the given stream in a compressing stream of this type.
+     * Closing the returned stream also closes the given stream.
+     * @param outputStream
+     * @param level the deflate compression level 1 - 9, if applicable to this type
+     * @return
+     * @throws IOException
+     */
+    public abstract OutputStream createOutputStream(OutputStream outputStream, int level) throws IOException;
+
+    /**
+     * Wraps the given stream in a decompressing stream, based on the magic bytes at the start of the data.
+     * GZIP data is decompressed, and anything else is assumed to be uncompressed NBT data.
+     * @param inputStream
+     * @return
+     * @throws IOException
+     */
+    public static InputStream createInputStream(InputStream inputStream) throws IOException
+    {
+        PushbackInputStream is = new PushbackInputStream(inputStream, 2);
+        byte[] magic = new byte[2];
+        int count = 0;
+        int read;
+
+        while (count < magic.length && (read = is.read(magic, count, magic.length - count)) != -1)
+        {
+            count += read;
+        }
+
+        is.unread(magic, 0, count);
+
+        if (count == 2 && magic[0] == (byte) 0x1f && magic[1] == (byte) 0x8b)
+        {
+            return new GZIPInputStream(is, 65536);
+        }
+
+        return is;
+    }
+
+    @Override
+    public String getStringValue()
+    {
+        return this.configString;
+    }
+
+    @Override
+    public String getDisplayName()
+    {
+        return StringUtils.translate(this.translationKey);
+    }
+
+    @Override
+    public CompressionType cycle(boolean forward)
+    {
+        int id = this.ordinal();
+
+        if (forward)
+        {
+            if (++id >= values().length)
+            {
+                id = 0;
+            }
+        }
+        else
+        {
+            if (--id < 0)
+            {
+                id = values().length - 1;
+            }
+        }
+
+        return values()[id % values().length];
+    }
+
+    @Override
+    public CompressionType fromString(String name)
+    {
+        return fromStringStatic(name);
+    }
+
+    public static CompressionType fromStringStatic(String name)
+    {
+        for (CompressionType val : CompressionType.values())
+        {
+            if (val.configString.equalsIgnoreCase(name))
+            {
+                return val;
+            }
+        }
+
+        return CompressionType.GZIP;
+    }
+}
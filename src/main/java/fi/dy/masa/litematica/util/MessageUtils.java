@@ -0,0 +1,139 @@
+package fi.dy.masa.litematica.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import net.minecraft.client.Minecraft;
+import fi.dy.masa.litematica.Litematica;
+import fi.dy.masa.malilib.gui.util.Message.MessageType;
+import fi.dy.masa.malilib.util.InfoUtils;
+import fi.dy.masa.malilib.util.StringUtils;
+
+/**
+ * Wrappers for the InfoUtils message methods, for code that can run either on the client thread
+ * or on a background thread, such as the schematic reading and writing code.
+ * On the client thread the messages are shown immediately. On other threads they are
+ * collected, if the thread has called {@link #startCollecting()}, so that the caller
+ * can show them later on the client thread. Otherwise they are only logged.
+ */
+public class MessageUtils
+{
+    private static final ThreadLocal<List<DeferredMessage>> COLLECTED_MESSAGES = new ThreadLocal<>();
+
+    public static void showGuiOrInGameMessage(MessageType type, String translationKey, Object... args)
+    {
+        handleMessage(new DeferredMessage(type, false, translationKey, args));
+    }
+
+    public static void printErrorMessage(String translationKey, Object... args)
+    {
+        handleMessage(new DeferredMessage(MessageType.ERROR, true, translationKey, args));
+    }
+
+    /**
+     * Starts collecting the messages shown from the current thread,
+     * until {@link #stopCollecting()} is called.
+     */
+    public static void startCollecting()
+    {
+        COLLECTED_MESSAGES.set(new ArrayList<>());
+    }
+
+    /**
+     * Stops collecting the messages on the current thread.
+     * @return the messages collected since the call to {@link #startCollecting()}
+     */
+    public static List<DeferredMessage> stopCollecting()
+    {
+        List<DeferredMessage> list = COLLECTED_MESSAGES.get();
+        COLLECTED_MESSAGES.remove();
+        return list != null ? list : new ArrayList<>();
+    }
+
+    /**
+     * Shows the given messages. Must be called on the client thread.
+     * @param messages
+     */
+    public static void showMessages(List<DeferredMessage> messages)
+    {
+        for (DeferredMessage message : messages)
+        {
+            message.show();
+        }
+    }
+
+    private static void handleMessage(DeferredMessage message)
+    {
+        if (Minecraft.getMinecraft().isCallingFromMinecraftThread())
+        {
+            message.show();
+            return;
+        }
+
+        List<DeferredMessage> list = COLLECTED_MESSAGES.get();
+
+        if (list != null)
+        {
+            list.add(message);
+        }
+        else
+        {
+            Litematica.logger.warn(message.getText());
+        }
+    }
+
+    public static class DeferredMessage
+    {
+        private final MessageType type;
+        private final boolean printToChat;
+        private final String translationKey;
+        private final Object[] args;
+
+        private DeferredMessage(MessageType type, boolean printToChat, String translationKey, Object[] args)
+        {
+            this.type = type;
+            this.printToChat = printToChat;
+            this.translationKey = translationKey;
+            this.args = args;
+        }
+
+        public MessageType getType()
+        {
+            return this.type;
+        }
+
+        public String getText()
+        {
+            return StringUtils.translate(this.translationKey, this.args);
+        }
+
+        public void show()
+        {
+            if (this.printToChat)
+            {
+                InfoUtils.printErrorMessage(this.translationKey, this.args);
+            }
+            else
+            {
+                InfoUtils.showGuiOrInGameMessage(this.type, this.translationKey, this.args);
+            }
+        }
+
+        /**
+         * @return the first error message of the given messages, if any
+         */
+        @Nullable
+        public static DeferredMessage getFirstError(List<DeferredMessage> messages)
+        {
+            for (DeferredMessage message : messages)
+            {
+                if (message.type == MessageType.ERROR)
+                {
+                    return message;
+                }
+            }
+
+            return null;
+        }
+    }
+}
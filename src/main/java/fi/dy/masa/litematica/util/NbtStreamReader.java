@@ -0,0 +1,437 @@
+package fi.dy.masa.litematica.util;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagLongArray;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+import fi.dy.masa.malilib.util.Constants;
+
+/**
+ * Reads NBT data one tag at a time from a stream, without first building the entire tag tree.
+ * The caller walks through the compound tags using {@link #readTagType()} and {@link #readName()},
+ * and then either reads the payload directly (for example large arrays straight into their final storage),
+ * reads just that part as a normal tag tree using {@link #readTag(int)}, or skips it using {@link #skipTag(int)}.
+ */
+public class NbtStreamReader implements Closeable
+{
+    private static final int MAX_DEPTH = 512;
+    private static final int ARRAY_BUFFER_SIZE = 8192;
+
+    private final DataInputStream input;
+    private byte[] arrayBuffer;
+
+    public NbtStreamReader(InputStream inputStream)
+    {
+        this.input = new DataInputStream(inputStream);
+    }
+
+    /**
+     * Opens a reader for an NBT file. The compression is detected from the data, see {@link CompressionType#createInputStream(InputStream)}.
+     */
+    public static NbtStreamReader openCompressed(File file) throws IOException
+    {
+        return openCompressed(file, null);
+    }
+
+    /**
+     * Opens a reader for an NBT file. The compression is detected from the data, see {@link CompressionType#createInputStream(InputStream)}.
+     * @param bytesRead if not null, then the number of (compressed) bytes read from the file is added to this counter
+     */
+    public static NbtStreamReader openCompressed(File file, @Nullable AtomicLong bytesRead) throws IOException
+    {
+        FileInputStream fileStream = new FileInputStream(file);
+
+        try
+        {
+            InputStream is = bytesRead != null ? new ByteCountingInputStream(fileStream, bytesRead) : fileStream;
+            return new NbtStreamReader(new BufferedInputStream(CompressionType.createInputStream(is), 65536));
+        }
+        catch (IOException e)
+        {
+            fileStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the type and the name of the root tag, which must be a compound tag.
+     * After this the entries of the root compound can be read.
+     */
+    public void readRootCompound() throws IOException
+    {
+        if (this.readTagType() != Constants.NBT.TAG_COMPOUND)
+        {
+            throw new IOException("The root tag must be a compound tag");
+        }
+
+        this.readName();
+    }
+
+    /**
+     * Reads the type of the next entry in the current compound tag.
+     * Returns {@link Constants.NBT#TAG_END} at the end of the compound tag.
+     * For other types the name of the entry must be read next using {@link #readName()},
+     * followed by the payload.
+     */
+    public int readTagType() throws IOException
+    {
+        return this.input.readByte();
+    }
+
+    public String readName() throws IOException
+    {
+        return this.input.readUTF();
+    }
+
+    public int readInt() throws IOException
+    {
+        return this.input.readInt();
+    }
+
+    /**
+     * Reads the payload of a long array tag
+     */
+    public long[] readLongArray() throws IOException
+    {
+        final int length = this.readArrayLength();
+        long[] arr = new long[length];
+        this.readLongs(arr, 0, length);
+        return arr;
+    }
+
+    /**
+     * Reads the longs of an array tag payload from the stream into the given buffers, filling the
+     * remaining part of each buffer in order. The length of the array must have been read
+     * first using {@link #readArrayLength()}, and the buffers must have room for exactly that many longs.
+     * This allows reading large arrays directly into some other storage than a heap array.
+     */
+    public void readLongs(LongBuffer... buffers) throws IOException
+    {
+        byte[] buf = this.getArrayBuffer();
+        final int maxLongs = buf.length / 8;
+
+        for (LongBuffer target : buffers)
+        {
+            while (target.hasRemaining())
+            {
+                final int length = Math.min(target.remaining(), maxLongs);
+                this.input.readFully(buf, 0, length * 8);
+                target.put(ByteBuffer.wrap(buf, 0, length * 8).asLongBuffer());
+            }
+        }
+    }
+
+    /**
+     * Reads the given number of longs from the stream into the given array.
+     * This reads the data in bulk, instead of one long at a time.
+     */
+    public void readLongs(long[] arr, int offset, int count) throws IOException
+    {
+        byte[] buf = this.getArrayBuffer();
+        final int maxLongs = buf.length / 8;
+
+        while (count > 0)
+        {
+            final int length = Math.min(count, maxLongs);
+            this.input.readFully(buf, 0, length * 8);
+            ByteBuffer.wrap(buf, 0, length * 8).asLongBuffer().get(arr, offset, length);
+            offset += length;
+            count -= length;
+        }
+    }
+
+    /**
+     * Reads the payload of the given tag type as a normal NBT tag
+     */
+    public NBTBase readTag(int type) throws IOException
+    {
+        return this.readTag(type, 0);
+    }
+
+    /**
+     * Skips the payload of the given tag type
+     */
+    public void skipTag(int type) throws IOException
+    {
+        this.skipTag(type, 0);
+    }
+
+    /**
+     * Reads the root compound tag, but without the bulk data in it.
+     * The arrays, the lists of compound tags and the compound tags other than the
+     * "Metadata" tag are skipped in the root compound, and an empty tag of the same type
+     * is added in their place. So the existence and the type of all the entries can still be checked,
+     * and the small values like the size can be read, without reading the block data.
+     * @param stopCondition if this returns true after an entry has been read, then the rest of the entries are not read
+     */
+    public NBTTagCompound readRootCompoundHeader(Predicate<NBTTagCompound> stopCondition) throws IOException
+    {
+        NBTTagCompound tag = new NBTTagCompound();
+        int type;
+
+        this.readRootCompound();
+
+        while ((type = this.readTagType()) != Constants.NBT.TAG_END)
+        {
+            String name = this.readName();
+
+            switch (type)
+            {
+                case Constants.NBT.TAG_BYTE_ARRAY:
+                    this.skipTag(type);
+                    tag.setTag(name, new NBTTagByteArray(new byte[0]));
+                    break;
+
+                case Constants.NBT.TAG_INT_ARRAY:
+                    this.skipTag(type);
+                    tag.setTag(name, new NBTTagIntArray(new int[0]));
+                    break;
+
+                case Constants.NBT.TAG_LONG_ARRAY:
+                    this.skipTag(type);
+                    tag.setTag(name, new NBTTagLongArray(new long[0]));
+                    break;
+
+                case Constants.NBT.TAG_COMPOUND:
+                    if (name.equals("Metadata"))
+                    {
+                        tag.setTag(name, this.readTag(type));
+                    }
+                    else
+                    {
+                        this.skipTag(type);
+                        tag.setTag(name, new NBTTagCompound());
+                    }
+                    break;
+
+                case Constants.NBT.TAG_LIST:
+                {
+                    final int elementType = this.input.readByte();
+                    final int length = this.readArrayLength();
+
+                    if (elementType == Constants.NBT.TAG_COMPOUND)
+                    {
+                        for (int i = 0; i < length; ++i)
+                        {
+                            this.skipTag(elementType, 1);
+                        }
+
+                        tag.setTag(name, new NBTTagList());
+                    }
+                    else
+                    {
+                        tag.setTag(name, this.readListElements(elementType, length, 0));
+                    }
+                    break;
+                }
+
+                default:
+                    tag.setTag(name, this.readTag(type));
+            }
+
+            if (stopCondition.test(tag))
+            {
+                break;
+            }
+        }
+
+        return tag;
+    }
+
+    private NBTTagList readListElements(int elementType, int length, int depth) throws IOException
+    {
+        NBTTagList list = new NBTTagList();
+
+        for (int i = 0; i < length; ++i)
+        {
+            list.appendTag(this.readTag(elementType, depth + 1));
+        }
+
+        return list;
+    }
+
+    private NBTBase readTag(int type, int depth) throws IOException
+    {
+        this.checkDepth(depth);
+
+        switch (type)
+        {
+            case Constants.NBT.TAG_BYTE:        return new NBTTagByte(this.input.readByte());
+            case Constants.NBT.TAG_SHORT:       return new NBTTagShort(this.input.readShort());
+            case Constants.NBT.TAG_INT:         return new NBTTagInt(this.input.readInt());
+            case Constants.NBT.TAG_LONG:        return new NBTTagLong(this.input.readLong());
+            case Constants.NBT.TAG_FLOAT:       return new NBTTagFloat(this.input.readFloat());
+            case Constants.NBT.TAG_DOUBLE:      return new NBTTagDouble(this.input.readDouble());
+            case Constants.NBT.TAG_STRING:      return new NBTTagString(this.input.readUTF());
+            case Constants.NBT.TAG_LONG_ARRAY:  return new NBTTagLongArray(this.readLongArray());
+
+            case Constants.NBT.TAG_BYTE_ARRAY:
+            {
+                byte[] arr = new byte[this.readArrayLength()];
+                this.input.readFully(arr);
+                return new NBTTagByteArray(arr);
+            }
+
+            case Constants.NBT.TAG_INT_ARRAY:
+            {
+                int[] arr = new int[this.readArrayLength()];
+
+                for (int i = 0; i < arr.length; ++i)
+                {
+                    arr[i] = this.input.readInt();
+                }
+
+                return new NBTTagIntArray(arr);
+            }
+
+            case Constants.NBT.TAG_LIST:
+            {
+                final int elementType = this.input.readByte();
+                final int length = this.readArrayLength();
+                return this.readListElements(elementType, length, depth);
+            }
+
+            case Constants.NBT.TAG_COMPOUND:
+            {
+                NBTTagCompound tag = new NBTTagCompound();
+                int entryType;
+
+                while ((entryType = this.readTagType()) != Constants.NBT.TAG_END)
+                {
+                    String name = this.readName();
+                    tag.setTag(name, this.readTag(entryType, depth + 1));
+                }
+
+                return tag;
+            }
+
+            default:
+                throw new IOException("Invalid NBT tag type: " + type);
+        }
+    }
+
+    private void skipTag(int type, int depth) throws IOException
+    {
+        this.checkDepth(depth);
+
+        switch (type)
+        {
+            case Constants.NBT.TAG_BYTE:        this.skipBytes(1); break;
+            case Constants.NBT.TAG_SHORT:       this.skipBytes(2); break;
+            case Constants.NBT.TAG_INT:         this.skipBytes(4); break;
+            case Constants.NBT.TAG_LONG:        this.skipBytes(8); break;
+            case Constants.NBT.TAG_FLOAT:       this.skipBytes(4); break;
+            case Constants.NBT.TAG_DOUBLE:      this.skipBytes(8); break;
+            case Constants.NBT.TAG_STRING:      this.skipBytes(this.input.readUnsignedShort()); break;
+            case Constants.NBT.TAG_BYTE_ARRAY:  this.skipBytes(this.readArrayLength()); break;
+            case Constants.NBT.TAG_INT_ARRAY:   this.skipBytes((long) this.readArrayLength() * 4L); break;
+            case Constants.NBT.TAG_LONG_ARRAY:  this.skipBytes((long) this.readArrayLength() * 8L); break;
+
+            case Constants.NBT.TAG_LIST:
+            {
+                final int elementType = this.input.readByte();
+                final int length = this.readArrayLength();
+
+                for (int i = 0; i < length; ++i)
+                {
+                    this.skipTag(elementType, depth + 1);
+                }
+
+                break;
+            }
+
+            case Constants.NBT.TAG_COMPOUND:
+            {
+                int entryType;
+
+                while ((entryType = this.readTagType()) != Constants.NBT.TAG_END)
+                {
+                    this.skipBytes(this.input.readUnsignedShort());
+                    this.skipTag(entryType, depth + 1);
+                }
+
+                break;
+            }
+
+            default:
+                throw new IOException("Invalid NBT tag type: " + type);
+        }
+    }
+
+    /**
+     * Reads the length of an array or a list payload, which is followed by the elements
+     */
+    public int readArrayLength() throws IOException
+    {
+        final int length = this.input.readInt();
+
+        if (length < 0)
+        {
+            throw new IOException("Invalid NBT array length: " + length);
+        }
+
+        return length;
+    }
+
+    private void skipBytes(long count) throws IOException
+    {
+        while (count > 0)
+        {
+            long skipped = this.input.skip(count);
+
+            if (skipped <= 0)
+            {
+                // skip() may return 0 before the end of the stream, so read a byte to check
+                this.input.readByte();
+                skipped = 1;
+            }
+
+            count -= skipped;
+        }
+    }
+
+    private void checkDepth(int depth) throws IOException
+    {
+        if (depth > MAX_DEPTH)
+        {
+            throw new IOException("Tried to read NBT tag with too high complexity, depth > " + MAX_DEPTH);
+        }
+    }
+
+    private byte[] getArrayBuffer()
+    {
+        if (this.arrayBuffer == null)
+        {
+            this.arrayBuffer = new byte[ARRAY_BUFFER_SIZE];
+        }
+
+        return this.arrayBuffer;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.input.close();
+    }
+}
@@ -0,0 +1,140 @@
+package fi.dy.masa.litematica.util;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import net.minecraft.nbt.NBTBase;
+import fi.dy.masa.litematica.mixin.IMixinNBTBase;
+import fi.dy.masa.malilib.util.Constants;
+
+/**
+ * Writes NBT data one tag at a time to a stream, without first building the entire tag tree.
+ * This is the counterpart of {@link NbtStreamReader}. The caller opens and closes the compound tags
+ * using {@link #beginCompound(String)} and {@link #endCompound()}, and writes large arrays
+ * directly from their existing storage, while smaller parts can be written as normal tags.
+ */
+public class NbtStreamWriter implements Closeable
+{
+    private static final int ARRAY_BUFFER_SIZE = 8192;
+
+    private final DataOutputStream output;
+    private byte[] arrayBuffer;
+
+    public NbtStreamWriter(OutputStream outputStream)
+    {
+        this.output = new DataOutputStream(outputStream);
+    }
+
+    /**
+     * Writes the type and the name of a compound tag.
+     * After this the entries of the compound can be written,
+     * and the compound must then be ended by calling {@link #endCompound()}.
+     * This is also used for the root compound.
+     */
+    public void beginCompound(String name) throws IOException
+    {
+        this.writeTagHeader(Constants.NBT.TAG_COMPOUND, name);
+    }
+
+    /**
+     * Ends the compound tag that was last begun
+     */
+    public void endCompound() throws IOException
+    {
+        this.output.writeByte(Constants.NBT.TAG_END);
+    }
+
+    public void writeInt(String name, int value) throws IOException
+    {
+        this.writeTagHeader(Constants.NBT.TAG_INT, name);
+        this.output.writeInt(value);
+    }
+
+    /**
+     * Writes the type, name and length of a byte array tag, and returns the stream
+     * that exactly <b>length</b> bytes of the array contents must then be written to
+     */
+    public OutputStream beginByteArray(String name, int length) throws IOException
+    {
+        this.writeTagHeader(Constants.NBT.TAG_BYTE_ARRAY, name);
+        this.output.writeInt(length);
+        return this.output;
+    }
+
+    /**
+     * Writes a long array tag directly from the given array
+     */
+    public void writeLongArray(String name, long[] arr) throws IOException
+    {
+        this.writeLongArray(name, LongBuffer.wrap(arr));
+    }
+
+    /**
+     * Writes a long array tag from the remaining contents of the given buffers, in order.
+     * This allows writing large arrays directly from some other storage than a heap array.
+     */
+    public void writeLongArray(String name, LongBuffer... buffers) throws IOException
+    {
+        long length = 0;
+
+        for (LongBuffer buf : buffers)
+        {
+            length += buf.remaining();
+        }
+
+        if (length > Integer.MAX_VALUE)
+        {
+            throw new IOException("The long array '" + name + "' is too large for the NBT format");
+        }
+
+        this.writeTagHeader(Constants.NBT.TAG_LONG_ARRAY, name);
+        this.output.writeInt((int) length);
+
+        if (this.arrayBuffer == null)
+        {
+            this.arrayBuffer = new byte[ARRAY_BUFFER_SIZE];
+        }
+
+        LongBuffer target = ByteBuffer.wrap(this.arrayBuffer).asLongBuffer();
+
+        for (LongBuffer source : buffers)
+        {
+            source = source.duplicate();
+
+            while (source.hasRemaining())
+            {
+                int count = Math.min(target.capacity(), source.remaining());
+                LongBuffer part = source.duplicate();
+                part.limit(part.position() + count);
+                target.clear();
+                target.put(part);
+                source.position(source.position() + count);
+                this.output.write(this.arrayBuffer, 0, count * 8);
+            }
+        }
+    }
+
+    /**
+     * Writes the given tag as a named entry of the current compound
+     */
+    public void writeTag(String name, NBTBase tag) throws IOException
+    {
+        this.writeTagHeader(tag.getId(), name);
+        ((IMixinNBTBase) tag).invokeWrite(this.output);
+    }
+
+    private void writeTagHeader(int type, String name) throws IOException
+    {
+        this.output.writeByte(type);
+        this.output.writeUTF(name);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.output.close();
+    }
+}
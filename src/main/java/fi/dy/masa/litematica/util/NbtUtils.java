@@ -1,32 +1,47 @@
 package fi.dy.masa.litematica.util;
 
-import java.io.BufferedOutputStream;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.util.zip.GZIPOutputStream;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTBase;
 import net.minecraft.nbt.NBTTagCompound;
+import fi.dy.masa.litematica.Litematica;
 import fi.dy.masa.litematica.mixin.IMixinNBTBase;
 
 public class NbtUtils
 {
     /**
-     * Write the compound tag, gzipped, to the output stream.
+     * Reads a compound tag from the given file. The file can be either gzip compressed or uncompressed,
+     * see {@link CompressionType#createInputStream(InputStream)}.
+     * @param bytesRead if not null, then the number of (compressed) bytes read from the file is added to this counter
+     * @return the read tag, or null if the file could not be read
      */
-    public static void writeCompressed(NBTTagCompound tag, String tagName, OutputStream outputStream) throws IOException
+    @Nullable
+    public static NBTTagCompound readCompressed(File file, @Nullable AtomicLong bytesRead)
     {
-        DataOutputStream dataoutputstream = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(outputStream)));
-
-        try
-        {
-            write(tag, tagName, dataoutputstream);
-        }
-        finally
+        if (file.exists() && file.isFile() && file.canRead())
         {
-            dataoutputstream.close();
+            try (InputStream fileStream = new FileInputStream(file))
+            {
+                InputStream is = bytesRead != null ? new ByteCountingInputStream(fileStream, bytesRead) : fileStream;
+                return CompressedStreamTools.read(new DataInputStream(new BufferedInputStream(CompressionType.createInputStream(is))));
+            }
+            catch (Exception e)
+            {
+                Litematica.logger.warn("Failed to read NBT data from file '{}'", file.getAbsolutePath(), e);
+            }
         }
+
+        return null;
     }
 
     public static void write(NBTTagCompound tag, String tagName, DataOutput output) throws IOException
@@ -34,6 +49,21 @@ public class NbtUtils
         writeTag(tag, tagName, output);
     }
 
+    /**
+     * Writes the compound tag, with an empty root name, to a new uncompressed byte array
+     */
+    public static byte[] writeToByteArray(NBTTagCompound tag) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream output = new DataOutputStream(bytes))
+        {
+            write(tag, "", output);
+        }
+
+        return bytes.toByteArray();
+    }
+
     private static void writeTag(NBTBase tag, String tagName, DataOutput output) throws IOException
     {
         output.writeByte(tag.getId());
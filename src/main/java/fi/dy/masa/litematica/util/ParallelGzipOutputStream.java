@@ -0,0 +1,240 @@
+package fi.dy.masa.litematica.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import javax.annotation.Nullable;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A GZIP output stream that compresses the data in independent blocks on multiple threads.
+ * Each block is compressed as raw deflate data, primed with the last 32 KB of the previous block
+ * as the preset dictionary, and flushed to a byte boundary. The compressed blocks are then written
+ * out in order, so that they form one continuous deflate stream inside a single normal GZIP member,
+ * which any GZIP reader can read.
+ */
+public class ParallelGzipOutputStream extends OutputStream
+{
+    private static final int THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final ThreadFactory THREAD_FACTORY = (new ThreadFactoryBuilder()).setNameFormat("Litematica Compressor %d").setDaemon(true).build();
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREAD_COUNT, THREAD_FACTORY);
+    private static final byte[] GZIP_HEADER = new byte[] { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+    private static final int BLOCK_SIZE = 256 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final OutputStream out;
+    private final int level;
+    private final int maxPendingBlocks;
+    private final ArrayDeque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength;
+    @Nullable private byte[] dictionary;
+    private long totalLength;
+    private boolean closed;
+
+    public ParallelGzipOutputStream(OutputStream out) throws IOException
+    {
+        this(out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public ParallelGzipOutputStream(OutputStream out, int level) throws IOException
+    {
+        this.out = out;
+        this.level = level;
+        // Limit the number of in-flight blocks, so that the memory use doesn't grow if the output is slow
+        this.maxPendingBlocks = THREAD_COUNT * 2;
+
+        out.write(GZIP_HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        this.block[this.blockLength++] = (byte) b;
+
+        if (this.blockLength == BLOCK_SIZE)
+        {
+            this.submitBlock(false);
+        }
+    }
+
+    @Override
+    public void write(byte[] buf, int offset, int length) throws IOException
+    {
+        while (length > 0)
+        {
+            int count = Math.min(length, BLOCK_SIZE - this.blockLength);
+            System.arraycopy(buf, offset, this.block, this.blockLength, count);
+            this.blockLength += count;
+            offset += count;
+            length -= count;
+
+            if (this.blockLength == BLOCK_SIZE)
+            {
+                this.submitBlock(false);
+            }
+        }
+    }
+
+    /**
+     * Does nothing, as flushing a partial block would hurt the compression ratio.
+     * All the data gets written when the stream is closed.
+     */
+    @Override
+    public void flush()
+    {
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (this.closed)
+        {
+            return;
+        }
+
+        this.closed = true;
+
+        try
+        {
+            this.submitBlock(true);
+
+            while (this.pendingBlocks.isEmpty() == false)
+            {
+                this.writeNextBlock();
+            }
+
+            this.writeTrailer();
+            this.out.flush();
+        }
+        finally
+        {
+            for (Future<byte[]> future : this.pendingBlocks)
+            {
+                future.cancel(false);
+            }
+
+            this.out.close();
+        }
+    }
+
+    private void submitBlock(boolean isLast) throws IOException
+    {
+        final byte[] data = this.block;
+        final int length = this.blockLength;
+        final byte[] dictionary = this.dictionary;
+
+        // The checksum is calculated here in order, as Java 8 has no way to combine the CRC32 values of the blocks
+        this.crc.update(data, 0, length);
+        this.totalLength += length;
+
+        if (length >= DICTIONARY_SIZE)
+        {
+            this.dictionary = Arrays.copyOfRange(data, length - DICTIONARY_SIZE, length);
+        }
+
+        this.pendingBlocks.add(EXECUTOR.submit(() -> compressBlock(data, length, dictionary, this.level, isLast)));
+
+        if (isLast == false)
+        {
+            this.block = new byte[BLOCK_SIZE];
+            this.blockLength = 0;
+
+            while (this.pendingBlocks.size() > this.maxPendingBlocks)
+            {
+                this.writeNextBlock();
+            }
+        }
+    }
+
+    private void writeNextBlock() throws IOException
+    {
+        Future<byte[]> future = this.pendingBlocks.poll();
+
+        try
+        {
+            this.out.write(future.get());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing data");
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("Failed to compress data", e.getCause());
+        }
+    }
+
+    private void writeTrailer() throws IOException
+    {
+        writeIntLE((int) this.crc.getValue(), this.out);
+        writeIntLE((int) this.totalLength, this.out);
+    }
+
+    private static byte[] compressBlock(byte[] data, int length, @Nullable byte[] dictionary, int level, boolean isLast)
+    {
+        Deflater deflater = new Deflater(level, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+        byte[] buf = new byte[65536];
+
+        try
+        {
+            if (dictionary != null)
+            {
+                deflater.setDictionary(dictionary);
+            }
+
+            deflater.setInput(data, 0, length);
+
+            if (isLast)
+            {
+                deflater.finish();
+
+                while (deflater.finished() == false)
+                {
+                    int count = deflater.deflate(buf);
+                    out.write(buf, 0, count);
+                }
+            }
+            else
+            {
+                // Sync flush ends the block on a byte boundary without ending the deflate stream,
+                // so that the next block's output can be directly appended to this one
+                int count;
+
+                do
+                {
+                    count = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                    out.write(buf, 0, count);
+                }
+                while (count == buf.length);
+            }
+        }
+        finally
+        {
+            deflater.end();
+        }
+
+        return out.toByteArray();
+    }
+
+    private static void writeIntLE(int value, OutputStream out) throws IOException
+    {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+        out.write((value >>> 16) & 0xFF);
+        out.write((value >>> 24) & 0xFF);
+    }
+}